@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.core;
+
+import org.immutables.value.Value;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Optional;
+
+/**
+ * A request to clone a repository.
+ */
+
+@GTImmutableStyleType
+@Value.Immutable
+public interface GTGitCloneRequestType
+{
+  /**
+   * @return The remote repository
+   */
+
+  URI url();
+
+  /**
+   * @return The output directory
+   */
+
+  File output();
+
+  /**
+   * @return The directory into which the clone is made before being moved
+   * to the output directory
+   */
+
+  @Value.Default
+  default File staging()
+  {
+    return GTGitRecovery.stagingDirectoryFor(this.output());
+  }
+
+  /**
+   * @return A repository from which the clone may borrow objects via git
+   * alternates
+   */
+
+  Optional<File> reference();
+
+  /**
+   * A bundle from which the clone is seeded before anything is fetched from
+   * the remote repository. The bundle is ignored if it does not exist or
+   * cannot be used.
+   *
+   * @return A bundle from which to seed the clone
+   */
+
+  Optional<File> bundle();
+}
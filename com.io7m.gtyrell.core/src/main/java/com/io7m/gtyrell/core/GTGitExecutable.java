@@ -17,15 +17,23 @@
 package com.io7m.gtyrell.core;
 
 import java.util.Objects;
+import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * The default implementation of the {@link GTGitExecutableType} interface.
@@ -40,11 +48,14 @@ public final class GTGitExecutable implements GTGitExecutableType
   }
 
   private final File exec;
+  private final boolean autoGC;
 
   private GTGitExecutable(
-    final File in_exec)
+    final File in_exec,
+    final boolean in_autoGC)
   {
     this.exec = Objects.requireNonNull(in_exec, "in_exec");
+    this.autoGC = in_autoGC;
   }
 
   /**
@@ -58,7 +69,24 @@ public final class GTGitExecutable implements GTGitExecutableType
   public static GTGitExecutableType newExecutable(
     final File exec)
   {
-    return new GTGitExecutable(exec);
+    return newExecutable(exec, true);
+  }
+
+  /**
+   * Construct a new executable.
+   *
+   * @param exec    The path to the executable.
+   * @param autoGC  {@code true} if git may run garbage collection and other
+   *                automatic maintenance as part of a fetch
+   *
+   * @return A new executable
+   */
+
+  public static GTGitExecutableType newExecutable(
+    final File exec,
+    final boolean autoGC)
+  {
+    return new GTGitExecutable(exec, autoGC);
   }
 
   @Override
@@ -90,7 +118,544 @@ public final class GTGitExecutable implements GTGitExecutableType
     GTProcessUtilities.executeLogged(LOG, process, out_lines);
   }
 
-  private static void configureEnvironment(
+  @Override
+  public void clone(
+    final GTGitCloneRequest request)
+    throws IOException
+  {
+    Objects.requireNonNull(request, "request");
+
+    final var url = request.url();
+    final var output = request.output().getCanonicalFile();
+    final var staging = request.staging().getCanonicalFile();
+
+    if (output.exists()) {
+      throw new IOException(String.format("Already exists: %s", output));
+    }
+
+    this.prepareStaging(staging, url);
+
+    /*
+     * As with --reference-if-able, a reference that does not exist (or is
+     * not a repository) is ignored, and the objects are fetched in full.
+     */
+
+    if (request.reference().isPresent()) {
+      final var reference = request.reference().get().getCanonicalFile();
+      if (GTGitRecovery.isPlausibleRepository(reference)) {
+        this.protectObjects(reference);
+        writeAlternates(staging, new File(reference, "objects"));
+      }
+    }
+
+    if (request.bundle().isPresent()) {
+      this.seedFromBundle(staging, request.bundle().get());
+    }
+
+    /*
+     * Fetch the default branch first, into a temporary ref. If the clone is
+     * interrupted after this point, the objects of the default branch (which
+     * are usually the majority of the objects in the repository) are reachable
+     * from a ref, and so will not be transferred again when the clone is
+     * resumed. The temporary ref is pruned by the full fetch.
+     */
+
+    final var head = this.remoteHead(staging);
+    if (head.isPresent()) {
+      this.execute(staging, this.fetchArguments(
+        "origin", "+" + head.get() + ":refs/gtyrell-staging/head"));
+    }
+
+    this.execute(staging, this.fetchArguments("--prune", "origin"));
+
+    if (head.isPresent()) {
+      this.execute(staging, List.of(
+        this.exec.toString(), "symbolic-ref", "HEAD", head.get()));
+    }
+
+    Files.move(staging.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    LOG.debug("moved {} to {}", staging, output);
+  }
+
+  private void prepareStaging(
+    final File staging,
+    final URI url)
+    throws IOException
+  {
+    if (staging.exists() && !GTGitRecovery.isPlausibleRepository(staging)) {
+      LOG.info("discarding unusable staging directory {}", staging);
+      GTGitRecovery.deleteDirectory(staging);
+    }
+
+    if (staging.exists()) {
+      LOG.info("resuming interrupted clone in {}", staging);
+      GTGitRecovery.removeStaleFiles(staging);
+    } else {
+      this.execute(null, List.of(
+        this.exec.toString(), "init", "--bare", "--quiet", staging.toString()));
+    }
+
+    this.configureMirrorRemote(staging, url);
+  }
+
+  /**
+   * Fetch every ref from a local bundle. The subsequent fetch from the remote
+   * then only transfers objects that the bundle did not contain, and prunes
+   * any refs that no longer exist on the remote.
+   */
+
+  private void seedFromBundle(
+    final File repository,
+    final File bundle)
+  {
+    if (!bundle.isFile()) {
+      LOG.debug("no bundle at {}", bundle);
+      return;
+    }
+
+    try {
+      LOG.info("seeding {} from {}", repository, bundle);
+      this.execute(repository, this.fetchArguments(
+        "--update-head-ok", bundle.getAbsolutePath(), "+refs/*:refs/*"));
+    } catch (final IOException e) {
+      LOG.warn("unable to seed {} from {}: ", repository, bundle, e);
+    }
+  }
+
+  private void configureMirrorRemote(
+    final File repository,
+    final URI url)
+    throws IOException
+  {
+    this.execute(repository, List.of(
+      this.exec.toString(), "config", "remote.origin.url", url.toString()));
+    this.execute(repository, List.of(
+      this.exec.toString(), "config", "remote.origin.fetch", "+refs/*:refs/*"));
+    this.execute(repository, List.of(
+      this.exec.toString(), "config", "remote.origin.mirror", "true"));
+  }
+
+  /**
+   * @return The ref that the remote HEAD points to, if the remote is not empty
+   */
+
+  private Optional<String> remoteHead(
+    final File repository)
+    throws IOException
+  {
+    final var lines = this.executeOutput(repository, List.of(
+      this.exec.toString(), "ls-remote", "--symref", "origin", "HEAD"));
+
+    for (final var line : lines) {
+      if (line.startsWith("ref: ")) {
+        final var tab = line.indexOf('\t');
+        if (tab > 5) {
+          return Optional.of(line.substring(5, tab).trim());
+        }
+      }
+    }
+    return Optional.empty();
+  }
+
+  private List<String> fetchArguments(
+    final String... extra)
+  {
+    final List<String> args = new ArrayList<>(16);
+    args.add(this.exec.toString());
+    if (!this.autoGC) {
+      args.add("-c");
+      args.add("gc.auto=0");
+      args.add("-c");
+      args.add("maintenance.auto=false");
+    }
+    args.add("fetch");
+    args.add("--progress");
+    args.addAll(List.of(extra));
+    return args;
+  }
+
+  @Override
+  public List<File> alternates(
+    final File repository)
+    throws IOException
+  {
+    Objects.requireNonNull(repository, "repository");
+
+    final var file = alternatesFile(repository.getCanonicalFile());
+    final var results = new ArrayList<File>(1);
+    if (Files.isRegularFile(file)) {
+      for (final var line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+        final var trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+          continue;
+        }
+        results.add(
+          file.getParent().getParent().resolve(trimmed).normalize().toFile());
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public void attachAlternate(
+    final File repository,
+    final File reference)
+    throws IOException
+  {
+    Objects.requireNonNull(repository, "repository");
+    Objects.requireNonNull(reference, "reference");
+
+    final var repository_dir = checkDirectory(repository);
+    final var reference_dir = checkDirectory(reference);
+    final var reference_objects = new File(reference_dir, "objects");
+    if (!reference_objects.isDirectory()) {
+      throw new IOException(
+        String.format("Not a repository: %s", reference_dir));
+    }
+
+    this.protectObjects(reference_dir);
+    writeAlternates(repository_dir, reference_objects);
+
+    LOG.debug("{} now borrows objects from {}", repository_dir, reference_dir);
+
+    final List<String> args = new ArrayList<>(8);
+    args.add(this.exec.toString());
+    args.add("repack");
+    args.add("-a");
+    args.add("-d");
+    args.add("-l");
+    this.execute(repository_dir, args);
+
+    /*
+     * Loose objects are not touched by the repack; those that the reference
+     * has packed are duplicates.
+     */
+
+    this.execute(repository_dir, List.of(this.exec.toString(), "prune-packed"));
+  }
+
+  @Override
+  public void detachAlternates(
+    final File repository)
+    throws IOException
+  {
+    Objects.requireNonNull(repository, "repository");
+
+    final var repository_dir = checkDirectory(repository);
+    final var file = alternatesFile(repository_dir);
+    if (!Files.exists(file)) {
+      return;
+    }
+
+    final List<String> args = new ArrayList<>(8);
+    args.add(this.exec.toString());
+    args.add("repack");
+    args.add("-a");
+    args.add("-d");
+    this.execute(repository_dir, args);
+
+    Files.delete(file);
+    LOG.debug("{} no longer borrows objects", repository_dir);
+  }
+
+  @Override
+  public boolean relocateAlternate(
+    final File repository,
+    final File old_reference,
+    final File new_reference)
+    throws IOException
+  {
+    Objects.requireNonNull(repository, "repository");
+    Objects.requireNonNull(old_reference, "old_reference");
+    Objects.requireNonNull(new_reference, "new_reference");
+
+    final var old_objects =
+      new File(old_reference.getCanonicalFile(), "objects");
+    final var existing =
+      this.alternates(repository);
+
+    if (existing.size() != 1 || !existing.get(0).equals(old_objects)) {
+      return false;
+    }
+
+    writeAlternates(
+      repository.getCanonicalFile(),
+      new File(new_reference.getCanonicalFile(), "objects"));
+    LOG.debug("{} now borrows objects from {}", repository, new_reference);
+    return true;
+  }
+
+  @Override
+  public void setRemoteURL(
+    final File repository,
+    final URI url)
+    throws IOException
+  {
+    Objects.requireNonNull(repository, "repository");
+    Objects.requireNonNull(url, "url");
+
+    this.execute(checkDirectory(repository), List.of(
+      this.exec.toString(), "config", "remote.origin.url", url.toString()));
+  }
+
+  @Override
+  public void maintain(
+    final File repository,
+    final Set<GTGitMaintenanceTask> tasks,
+    final List<String> prefix)
+    throws IOException
+  {
+    Objects.requireNonNull(repository, "repository");
+    Objects.requireNonNull(tasks, "tasks");
+    Objects.requireNonNull(prefix, "prefix");
+
+    if (tasks.isEmpty()) {
+      return;
+    }
+
+    final var repository_dir = checkDirectory(repository);
+    final List<String> args = new ArrayList<>(8 + prefix.size());
+    args.addAll(prefix);
+    args.add(this.exec.toString());
+    args.add("maintenance");
+    args.add("run");
+    for (final var task : tasks) {
+      args.add("--task=" + task.gitName());
+    }
+    this.execute(repository_dir, args);
+  }
+
+  @Override
+  public GTGitObjectCounts objectCounts(
+    final File repository)
+    throws IOException
+  {
+    Objects.requireNonNull(repository, "repository");
+
+    final var repository_dir = checkDirectory(repository);
+    final List<String> args = new ArrayList<>(4);
+    args.add(this.exec.toString());
+    args.add("count-objects");
+    args.add("-v");
+
+    final var values = new HashMap<String, Long>(8);
+    for (final var line : this.executeOutput(repository_dir, args)) {
+      final var colon = line.indexOf(':');
+      if (colon < 0) {
+        continue;
+      }
+      try {
+        values.put(
+          line.substring(0, colon).trim(),
+          Long.valueOf(Long.parseUnsignedLong(line.substring(colon + 1).trim())));
+      } catch (final NumberFormatException e) {
+        LOG.debug("unparseable count-objects line: {}", line);
+      }
+    }
+
+    return GTGitObjectCounts.of(
+      values.getOrDefault("count", Long.valueOf(0L)).longValue(),
+      values.getOrDefault("size", Long.valueOf(0L)).longValue(),
+      values.getOrDefault("in-pack", Long.valueOf(0L)).longValue(),
+      values.getOrDefault("packs", Long.valueOf(0L)).longValue(),
+      values.getOrDefault("size-pack", Long.valueOf(0L)).longValue());
+  }
+
+  /**
+   * Ensure that a repository used as an alternate never prunes objects that
+   * other repositories may be borrowing.
+   */
+
+  private void protectObjects(
+    final File repository)
+    throws IOException
+  {
+    if (!repository.isDirectory()) {
+      return;
+    }
+
+    final List<String> args = new ArrayList<>(8);
+    args.add(this.exec.toString());
+    args.add("config");
+    args.add("gc.pruneExpire");
+    args.add("never");
+    this.execute(repository, args);
+  }
+
+  private static void writeAlternates(
+    final File repository,
+    final File objects)
+    throws IOException
+  {
+    final var file = alternatesFile(repository);
+    final var file_tmp = file.resolveSibling("alternates.tmp");
+    Files.createDirectories(file.getParent());
+    Files.writeString(
+      file_tmp,
+      objects + System.lineSeparator(),
+      StandardCharsets.UTF_8);
+    Files.move(file_tmp, file, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static Path alternatesFile(
+    final File repository)
+  {
+    return repository.toPath()
+      .resolve("objects")
+      .resolve("info")
+      .resolve("alternates");
+  }
+
+  private static File checkDirectory(
+    final File directory)
+    throws IOException
+  {
+    final File directory_canon = directory.getCanonicalFile();
+    if (!directory_canon.isDirectory()) {
+      throw new IOException(
+        String.format("Not a directory: %s", directory_canon));
+    }
+    return directory_canon;
+  }
+
+  @Override
+  public boolean exportBundle(
+    final File repository,
+    final File bundle)
+    throws IOException
+  {
+    Objects.requireNonNull(repository, "repository");
+    Objects.requireNonNull(bundle, "bundle");
+
+    final var repository_dir = checkDirectory(repository);
+    final var refs = new TreeSet<>(this.executeOutput(repository_dir, List.of(
+      this.exec.toString(),
+      "for-each-ref",
+      "--format=%(objectname) %(refname)")));
+
+    if (refs.isEmpty()) {
+      LOG.debug("{} has no refs, not writing a bundle", repository_dir);
+      return false;
+    }
+
+    final var bundle_path = bundle.toPath().toAbsolutePath();
+    if (Files.isRegularFile(bundle_path)) {
+      final var existing = new TreeSet<String>();
+      try {
+        for (final var line : this.executeOutput(repository_dir, List.of(
+          this.exec.toString(), "bundle", "list-heads", bundle_path.toString()))) {
+          if (!line.endsWith(" HEAD")) {
+            existing.add(line);
+          }
+        }
+      } catch (final IOException e) {
+        LOG.debug("unreadable bundle {}: ", bundle_path, e);
+      }
+
+      if (existing.equals(refs)) {
+        LOG.debug("bundle {} is up to date", bundle_path);
+        return false;
+      }
+    }
+
+    Files.createDirectories(bundle_path.getParent());
+    final var bundle_tmp =
+      bundle_path.resolveSibling(bundle_path.getFileName() + ".tmp");
+
+    this.execute(repository_dir, List.of(
+      this.exec.toString(),
+      "bundle",
+      "create",
+      "--quiet",
+      bundle_tmp.toString(),
+      "--all"));
+
+    Files.move(
+      bundle_tmp,
+      bundle_path,
+      StandardCopyOption.ATOMIC_MOVE,
+      StandardCopyOption.REPLACE_EXISTING);
+    LOG.debug("wrote bundle {}", bundle_path);
+    return true;
+  }
+
+  @Override
+  public Set<String> refTargets(
+    final File repository)
+    throws IOException
+  {
+    Objects.requireNonNull(repository, "repository");
+
+    final var repository_dir = checkDirectory(repository);
+    return new TreeSet<>(this.executeOutput(repository_dir, List.of(
+      this.exec.toString(),
+      "for-each-ref",
+      "--format=%(objectname)")));
+  }
+
+  @Override
+  public Set<GTLFSPointer> lfsPointers(
+    final File repository,
+    final Set<String> include,
+    final Set<String> exclude)
+    throws IOException
+  {
+    Objects.requireNonNull(repository, "repository");
+    Objects.requireNonNull(include, "include");
+    Objects.requireNonNull(exclude, "exclude");
+
+    return GTGitLFSScanner.scan(
+      this.exec,
+      checkDirectory(repository),
+      include,
+      exclude);
+  }
+
+  private List<String> execute(
+    final File directory,
+    final List<String> args)
+    throws IOException
+  {
+    final ProcessBuilder pb = processBuilder(directory, args);
+    pb.redirectErrorStream(true);
+
+    final List<String> out_lines = new ArrayList<>(16);
+    final Process process = pb.start();
+    GTProcessUtilities.executeLogged(LOG, process, out_lines);
+    return out_lines;
+  }
+
+  /**
+   * Execute a command whose output is parsed. Only standard output is
+   * returned; standard error is logged separately.
+   */
+
+  private List<String> executeOutput(
+    final File directory,
+    final List<String> args)
+    throws IOException
+  {
+    return GTProcessUtilities.executeOutput(
+      LOG, processBuilder(directory, args).start());
+  }
+
+  private static ProcessBuilder processBuilder(
+    final File directory,
+    final List<String> args)
+  {
+    final ProcessBuilder pb = new ProcessBuilder();
+    pb.command(args);
+    if (directory != null) {
+      LOG.debug("execute {} in {}", args, directory);
+      pb.directory(directory);
+    } else {
+      LOG.debug("execute {}", args);
+    }
+    configureEnvironment(pb.environment());
+    return pb;
+  }
+
+  static void configureEnvironment(
     final Map<String, String> environment)
   {
     environment.put("GIT_TERMINAL_PROMPT", "0");
@@ -108,11 +673,7 @@ public final class GTGitExecutable implements GTGitExecutableType
         String.format("Not a directory: %s", repository_dir));
     }
 
-    final List<String> args = new ArrayList<>(4);
-    args.add(this.exec.toString());
-    args.add("fetch");
-    args.add("--progress");
-    args.add("--prune");
+    final List<String> args = this.fetchArguments("--prune");
     LOG.debug("execute {} in {}", args, repository_dir);
 
     final ProcessBuilder pb = new ProcessBuilder();
@@ -19,6 +19,8 @@ package com.io7m.gtyrell.core;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.util.List;
+import java.util.Set;
 
 /**
  * The interface exposed by the {@code git} executable.
@@ -41,7 +43,9 @@ public interface GTGitExecutableType
     throws IOException;
 
   /**
-   * Fetch all changes from the repository's remotes.
+   * Fetch all changes from the repository's remotes. Depending on the
+   * configuration of the executable, automatic garbage collection may be
+   * disabled for the duration of the fetch.
    *
    * @param repository The repository
    *
@@ -50,4 +54,195 @@ public interface GTGitExecutableType
 
   void fetch(File repository)
     throws IOException;
+
+  /**
+   * Clone a repository into a staging directory, and then atomically move
+   * the staging directory to the output directory once the clone is
+   * complete. If the staging directory was left behind by an earlier,
+   * interrupted attempt, the clone is resumed from the objects that were
+   * already received.
+   *
+   * @param request The clone request
+   *
+   * @throws IOException On execution and I/O errors
+   */
+
+  void clone(GTGitCloneRequest request)
+    throws IOException;
+
+  /**
+   * @param repository The repository
+   *
+   * @return The object directories from which the repository borrows objects
+   *
+   * @throws IOException On I/O errors
+   */
+
+  List<File> alternates(File repository)
+    throws IOException;
+
+  /**
+   * Make a repository borrow objects from a reference repository, and then
+   * remove any local objects that the reference repository already contains.
+   * The reference repository is configured to never prune unreachable
+   * objects, because the borrowing repository may still refer to them.
+   *
+   * @param repository The repository
+   * @param reference  The reference repository
+   *
+   * @throws IOException On execution and I/O errors
+   */
+
+  void attachAlternate(
+    File repository,
+    File reference)
+    throws IOException;
+
+  /**
+   * Copy all borrowed objects into a repository and then stop the repository
+   * from borrowing objects from any other repository.
+   *
+   * @param repository The repository
+   *
+   * @throws IOException On execution and I/O errors
+   */
+
+  void detachAlternates(File repository)
+    throws IOException;
+
+  /**
+   * Run maintenance tasks on a repository.
+   *
+   * @param repository The repository
+   * @param tasks      The tasks
+   *
+   * @throws IOException On execution and I/O errors
+   */
+
+  default void maintain(
+    final File repository,
+    final Set<GTGitMaintenanceTask> tasks)
+    throws IOException
+  {
+    this.maintain(repository, tasks, List.of());
+  }
+
+  /**
+   * Run maintenance tasks on a repository, running git under the given
+   * command prefix. The prefix is typically used to run maintenance at a
+   * lower priority than other work (for example, {@code nice -n 19}).
+   *
+   * @param repository The repository
+   * @param tasks      The tasks
+   * @param prefix     The command prefix
+   *
+   * @throws IOException On execution and I/O errors
+   */
+
+  void maintain(
+    File repository,
+    Set<GTGitMaintenanceTask> tasks,
+    List<String> prefix)
+    throws IOException;
+
+  /**
+   * Count the objects in a repository.
+   *
+   * @param repository The repository
+   *
+   * @return The object counts
+   *
+   * @throws IOException On execution and I/O errors
+   */
+
+  GTGitObjectCounts objectCounts(File repository)
+    throws IOException;
+
+  /**
+   * Make a repository that borrows objects from {@code old_reference} borrow
+   * them from {@code new_reference} instead. This is used when a
+   * reference repository has been moved.
+   *
+   * @param repository    The repository
+   * @param old_reference The old location of the reference repository
+   * @param new_reference The new location of the reference repository
+   *
+   * @return {@code true} if the repository borrowed from
+   * {@code old_reference}
+   *
+   * @throws IOException On I/O errors
+   */
+
+  boolean relocateAlternate(
+    File repository,
+    File old_reference,
+    File new_reference)
+    throws IOException;
+
+  /**
+   * Set the URL from which a mirror fetches. This is used when the remote
+   * repository has been renamed.
+   *
+   * @param repository The repository
+   * @param url        The new remote URL
+   *
+   * @throws IOException On execution and I/O errors
+   */
+
+  void setRemoteURL(
+    File repository,
+    URI url)
+    throws IOException;
+
+  /**
+   * Write a bundle containing every ref of a repository. The bundle is
+   * written atomically, and is not rewritten if an existing bundle already
+   * contains exactly the refs of the repository.
+   *
+   * @param repository The repository
+   * @param bundle     The bundle file
+   *
+   * @return {@code true} if the bundle was written
+   *
+   * @throws IOException On execution and I/O errors
+   */
+
+  boolean exportBundle(
+    File repository,
+    File bundle)
+    throws IOException;
+
+  /**
+   * @param repository The repository
+   *
+   * @return The objects to which the refs of the repository point
+   *
+   * @throws IOException On execution and I/O errors
+   */
+
+  Set<String> refTargets(File repository)
+    throws IOException;
+
+  /**
+   * Find the Git LFS pointers committed to a repository. Only objects
+   * reachable from {@code include} and not reachable from {@code exclude}
+   * are examined, so passing the ref targets of the previous search as
+   * {@code exclude} finds only the pointers added since. Objects in
+   * {@code exclude} that no longer exist are ignored.
+   *
+   * @param repository The repository
+   * @param include    The objects from which to search, typically the
+   *                   result of {@link #refTargets(File)}
+   * @param exclude    The objects whose history has already been searched
+   *
+   * @return The pointers
+   *
+   * @throws IOException On execution and I/O errors
+   */
+
+  Set<GTLFSPointer> lfsPointers(
+    File repository,
+    Set<String> include,
+    Set<String> exclude)
+    throws IOException;
 }
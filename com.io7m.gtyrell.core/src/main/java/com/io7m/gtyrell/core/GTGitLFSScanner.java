@@ -0,0 +1,383 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.core;
+
+import com.io7m.junreachable.UnreachableCodeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Functions to find the Git LFS pointers in a repository. Pointers are
+ * found the way that {@code git lfs} finds them: every object reachable
+ * from a set of commits is listed, the blobs small enough to be pointers
+ * are selected by size alone, and only those blobs are read and parsed.
+ */
+
+final class GTGitLFSScanner
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTGitLFSScanner.class);
+  }
+
+  /**
+   * Pointers are always smaller than this; larger blobs are never read.
+   */
+
+  private static final long POINTER_SIZE_LIMIT = 1024L;
+
+  private static final String SPEC_VERSION =
+    "version https://git-lfs.github.com/spec/v1";
+  private static final String SPEC_VERSION_OLD =
+    "version https://hawser.github.com/spec/v1";
+
+  private GTGitLFSScanner()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Find the pointers in blobs reachable from {@code include} but not from
+   * {@code exclude}.
+   *
+   * @param exec       The git executable
+   * @param repository The repository
+   * @param include    The commits from which to search
+   * @param exclude    The commits whose objects have already been searched
+   *
+   * @return The pointers
+   *
+   * @throws IOException On execution and I/O errors
+   */
+
+  static Set<GTLFSPointer> scan(
+    final File exec,
+    final File repository,
+    final Collection<String> include,
+    final Collection<String> exclude)
+    throws IOException
+  {
+    if (include.isEmpty()) {
+      return Set.of();
+    }
+
+    final var candidates = candidates(exec, repository, include, exclude);
+    LOG.debug(
+      "{}: {} blobs small enough to be LFS pointers",
+      repository,
+      Integer.valueOf(candidates.size()));
+
+    if (candidates.isEmpty()) {
+      return Set.of();
+    }
+    return pointers(exec, repository, candidates);
+  }
+
+  /**
+   * List the new blobs that are small enough to be pointers, using
+   * {@code git rev-list --objects} piped into
+   * {@code git cat-file --batch-check}, so that the list of every new
+   * object is never held in memory.
+   */
+
+  private static Set<String> candidates(
+    final File exec,
+    final File repository,
+    final Collection<String> include,
+    final Collection<String> exclude)
+    throws IOException
+  {
+    final var list =
+      processBuilder(
+        repository,
+        List.of(
+          exec.toString(),
+          "rev-list",
+          "--objects",
+          "--ignore-missing",
+          "--stdin"));
+    final var check =
+      processBuilder(
+        repository,
+        List.of(
+          exec.toString(),
+          "cat-file",
+          "--batch-check=%(objecttype) %(objectname) %(objectsize) %(rest)"));
+
+    LOG.debug("execute {} | {} in {}", list.command(), check.command(), repository);
+    final var processes = ProcessBuilder.startPipeline(List.of(list, check));
+    final var list_process = processes.get(0);
+    final var check_process = processes.get(1);
+
+    final var candidates = new HashSet<String>();
+    try {
+      try (Writer output =
+             new BufferedWriter(new OutputStreamWriter(
+               list_process.getOutputStream(), StandardCharsets.UTF_8))) {
+        for (final var commit : include) {
+          output.write(commit);
+          output.write('\n');
+        }
+        for (final var commit : exclude) {
+          output.write('^');
+          output.write(commit);
+          output.write('\n');
+        }
+      }
+
+      try (BufferedReader input =
+             new BufferedReader(new InputStreamReader(
+               check_process.getInputStream(), StandardCharsets.UTF_8))) {
+        while (true) {
+          final var line = input.readLine();
+          if (line == null) {
+            break;
+          }
+          candidateOf(line).ifPresent(candidates::add);
+        }
+      }
+
+      waitFor(list_process);
+      waitFor(check_process);
+      return candidates;
+    } finally {
+      list_process.destroy();
+      check_process.destroy();
+    }
+  }
+
+  private static Optional<String> candidateOf(
+    final String line)
+  {
+    final var fields = line.split(" ", 4);
+    if (fields.length < 3 || !"blob".equals(fields[0])) {
+      return Optional.empty();
+    }
+
+    try {
+      if (Long.parseLong(fields[2]) < POINTER_SIZE_LIMIT) {
+        return Optional.of(fields[1]);
+      }
+    } catch (final NumberFormatException e) {
+      LOG.debug("unparseable cat-file line: {}", line);
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Read each candidate blob with {@code git cat-file --batch} and parse
+   * the blobs that are pointers. The candidates are written from a
+   * separate thread so that neither side of the pipe can fill up and block
+   * the other.
+   */
+
+  private static Set<GTLFSPointer> pointers(
+    final File exec,
+    final File repository,
+    final Set<String> candidates)
+    throws IOException
+  {
+    final var read =
+      processBuilder(
+        repository,
+        List.of(exec.toString(), "cat-file", "--batch"));
+
+    LOG.debug("execute {} in {}", read.command(), repository);
+    final var process = read.start();
+
+    final var writer = new Thread(() -> {
+      try (Writer output =
+             new BufferedWriter(new OutputStreamWriter(
+               process.getOutputStream(), StandardCharsets.UTF_8))) {
+        for (final var candidate : candidates) {
+          output.write(candidate);
+          output.write('\n');
+        }
+      } catch (final IOException e) {
+        LOG.debug("unable to write to cat-file: ", e);
+      }
+    });
+    writer.setName("com.io7m.gtyrell.core.lfs-scan");
+    writer.setDaemon(true);
+    writer.start();
+
+    final var pointers = new HashSet<GTLFSPointer>();
+    try {
+      try (InputStream input = new BufferedInputStream(process.getInputStream())) {
+        for (int index = 0; index < candidates.size(); ++index) {
+          readObject(input).flatMap(GTGitLFSScanner::parsePointer)
+            .ifPresent(pointers::add);
+        }
+      }
+
+      waitFor(process);
+      writer.join();
+      return pointers;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst reading LFS pointers");
+    } finally {
+      process.destroy();
+    }
+  }
+
+  /**
+   * Read one response of {@code git cat-file --batch}.
+   */
+
+  private static Optional<byte[]> readObject(
+    final InputStream input)
+    throws IOException
+  {
+    final var header = readLine(input).split(" ");
+    if (header.length != 3) {
+      return Optional.empty();
+    }
+
+    final int size;
+    try {
+      size = Integer.parseInt(header[2]);
+    } catch (final NumberFormatException e) {
+      throw new IOException("Unparseable cat-file header: " + String.join(" ", header));
+    }
+
+    final var data = input.readNBytes(size);
+    if (data.length != size || input.read() != '\n') {
+      throw new EOFException("Unexpected end of cat-file output");
+    }
+    return Optional.of(data);
+  }
+
+  private static String readLine(
+    final InputStream input)
+    throws IOException
+  {
+    final var line = new ByteArrayOutputStream(128);
+    while (true) {
+      final var c = input.read();
+      if (c == -1) {
+        throw new EOFException("Unexpected end of cat-file output");
+      }
+      if (c == '\n') {
+        return line.toString(StandardCharsets.UTF_8);
+      }
+      line.write(c);
+    }
+  }
+
+  /**
+   * Parse a pointer file. Pointers consist of {@code key value} lines, the
+   * first of which must be the specification version.
+   *
+   * @param data The content of a blob
+   *
+   * @return The pointer, if the blob is a valid pointer
+   */
+
+  static Optional<GTLFSPointer> parsePointer(
+    final byte[] data)
+  {
+    final var text =
+      StandardCharsets.UTF_8.decode(ByteBuffer.wrap(data)).toString();
+    final var lines = text.split("\n");
+    if (lines.length < 3) {
+      return Optional.empty();
+    }
+    if (!SPEC_VERSION.equals(lines[0]) && !SPEC_VERSION_OLD.equals(lines[0])) {
+      return Optional.empty();
+    }
+
+    final var oid = field(lines, "oid sha256:");
+    final var size = field(lines, "size ");
+    if (oid.isEmpty() || size.isEmpty()) {
+      return Optional.empty();
+    }
+
+    try {
+      return Optional.of(GTLFSPointer.of(oid.get(), Long.parseLong(size.get())));
+    } catch (final IllegalArgumentException e) {
+      LOG.debug("invalid LFS pointer: ", e);
+      return Optional.empty();
+    }
+  }
+
+  private static Optional<String> field(
+    final String[] lines,
+    final String prefix)
+  {
+    for (final var line : lines) {
+      if (line.startsWith(prefix)) {
+        return Optional.of(line.substring(prefix.length()));
+      }
+    }
+    return Optional.empty();
+  }
+
+  private static ProcessBuilder processBuilder(
+    final File repository,
+    final List<String> args)
+  {
+    final var builder = new ProcessBuilder(args);
+    builder.directory(repository);
+    GTGitExecutable.configureEnvironment(builder.environment());
+    return builder;
+  }
+
+  private static void waitFor(
+    final Process process)
+    throws IOException
+  {
+    try {
+      final var status = process.waitFor();
+      if (status != 0) {
+        final String message;
+        try (InputStream errors = process.getErrorStream()) {
+          message = StandardCharsets.UTF_8.decode(
+            ByteBuffer.wrap(errors.readNBytes(4096))).toString();
+        }
+        throw new IOException(String.format(
+          "%s exited with status %d: %s",
+          process.info().command().orElse("git"),
+          Integer.valueOf(status),
+          message.trim()));
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst waiting for git");
+    }
+  }
+}
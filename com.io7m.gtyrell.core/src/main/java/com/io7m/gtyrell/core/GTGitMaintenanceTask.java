@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.core;
+
+import java.util.Objects;
+
+/**
+ * A repository maintenance task, as understood by {@code git maintenance run}.
+ */
+
+public enum GTGitMaintenanceTask
+{
+  /**
+   * Write a commit-graph file for all reachable commits.
+   */
+
+  COMMIT_GRAPH("commit-graph"),
+
+  /**
+   * Pack loose objects and remove those that are already packed.
+   */
+
+  LOOSE_OBJECTS("loose-objects"),
+
+  /**
+   * Update the multi-pack-index, expire redundant packs, and combine small
+   * packs into larger ones. Unreachable objects are never discarded by this
+   * task.
+   */
+
+  INCREMENTAL_REPACK("incremental-repack");
+
+  private final String gitName;
+
+  GTGitMaintenanceTask(
+    final String in_gitName)
+  {
+    this.gitName = Objects.requireNonNull(in_gitName, "gitName");
+  }
+
+  /**
+   * @return The name of the task as understood by {@code git maintenance}
+   */
+
+  public String gitName()
+  {
+    return this.gitName;
+  }
+}
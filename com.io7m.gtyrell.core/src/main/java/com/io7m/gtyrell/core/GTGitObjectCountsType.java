@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.core;
+
+import org.immutables.value.Value;
+
+/**
+ * Object statistics for a repository, as reported by
+ * {@code git count-objects -v}.
+ */
+
+@GTImmutableStyleType
+@Value.Immutable
+public interface GTGitObjectCountsType
+{
+  /**
+   * @return The number of loose objects
+   */
+
+  @Value.Parameter
+  long looseObjects();
+
+  /**
+   * @return The disk space consumed by loose objects, in KiB
+   */
+
+  @Value.Parameter
+  long looseSizeKiB();
+
+  /**
+   * @return The number of objects in packs
+   */
+
+  @Value.Parameter
+  long packedObjects();
+
+  /**
+   * @return The number of packs
+   */
+
+  @Value.Parameter
+  long packs();
+
+  /**
+   * @return The disk space consumed by packs, in KiB
+   */
+
+  @Value.Parameter
+  long packSizeKiB();
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.core;
+
+import com.io7m.junreachable.UnreachableCodeException;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Functions to recover repositories that were left in an inconsistent state
+ * by a crash or an interrupted git process.
+ */
+
+public final class GTGitRecovery
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTGitRecovery.class);
+  }
+
+  /**
+   * The suffix appended to the name of a repository to produce the name of
+   * its staging directory.
+   */
+
+  public static final String STAGING_SUFFIX = ".staging";
+
+  private GTGitRecovery()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * The result of recovering a repository.
+   */
+
+  public enum Result
+  {
+    /**
+     * Nothing needed to be done.
+     */
+
+    UNCHANGED,
+
+    /**
+     * Stale lock files were removed from the repository.
+     */
+
+    LOCKS_REMOVED,
+
+    /**
+     * An interrupted clone was found, and will be resumed when the
+     * repository is next synced.
+     */
+
+    CLONE_RESUMABLE,
+
+    /**
+     * A staging directory or repository that could not be used for anything
+     * was removed.
+     */
+
+    DISCARDED
+  }
+
+  /**
+   * @param output The output directory of a clone
+   *
+   * @return The staging directory used when cloning to {@code output}
+   */
+
+  public static File stagingDirectoryFor(
+    final File output)
+  {
+    Objects.requireNonNull(output, "output");
+    return new File(output.getPath() + STAGING_SUFFIX);
+  }
+
+  /**
+   * Determine whether a directory looks enough like a bare repository that
+   * git can operate on it. Interrupted clones may leave directories that
+   * do not.
+   *
+   * @param directory The directory
+   *
+   * @return {@code true} if the directory has the files of a bare repository
+   */
+
+  public static boolean isPlausibleRepository(
+    final File directory)
+  {
+    Objects.requireNonNull(directory, "directory");
+    return new File(directory, "HEAD").isFile()
+      && new File(directory, "config").isFile()
+      && new File(directory, "objects").isDirectory()
+      && new File(directory, "refs").isDirectory();
+  }
+
+  /**
+   * Delete a directory and everything in it.
+   *
+   * @param directory The directory
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void deleteDirectory(
+    final File directory)
+    throws IOException
+  {
+    Objects.requireNonNull(directory, "directory");
+    FileUtils.deleteDirectory(directory);
+  }
+
+  /**
+   * Remove files left behind by git processes that did not exit cleanly:
+   * lock files, temporary packs, and pack keep files written by fetches.
+   * Only the places where git writes such files are examined: the top of
+   * the repository, {@code refs}, {@code objects}, {@code objects/info},
+   * and {@code objects/pack}. Loose objects are never walked.
+   * This must only be called when it is known that no git process is
+   * operating on the repository.
+   *
+   * @param repository The repository
+   *
+   * @return The number of files removed
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static int removeStaleFiles(
+    final File repository)
+    throws IOException
+  {
+    Objects.requireNonNull(repository, "repository");
+
+    final var root = repository.toPath();
+    if (!Files.isDirectory(root)) {
+      return 0;
+    }
+
+    final var objects = root.resolve("objects");
+    final var stale = new ArrayList<Path>();
+    collectStaleFiles(root, 1, stale);
+    collectStaleFiles(root.resolve("refs"), Integer.MAX_VALUE, stale);
+    collectStaleFiles(objects, 1, stale);
+    collectStaleFiles(objects.resolve("info"), 2, stale);
+    collectStaleFiles(objects.resolve("pack"), 1, stale);
+
+    for (final var path : stale) {
+      LOG.info("removing stale file {}", path);
+      Files.deleteIfExists(path);
+    }
+    return stale.size();
+  }
+
+  private static void collectStaleFiles(
+    final Path directory,
+    final int depth,
+    final List<Path> stale)
+    throws IOException
+  {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+
+    try (var stream = Files.walk(directory, depth)) {
+      stream.filter(GTGitRecovery::isStaleFile)
+        .forEach(stale::add);
+    }
+  }
+
+  private static boolean isStaleFile(
+    final Path path)
+  {
+    if (!Files.isRegularFile(path)) {
+      return false;
+    }
+
+    final var name = path.getFileName().toString();
+    if (name.endsWith(".lock") || "gc.pid".equals(name)) {
+      return true;
+    }
+
+    final var parent = path.getParent().getFileName().toString();
+    if (!"pack".equals(parent)) {
+      return false;
+    }
+
+    if (name.startsWith("tmp_pack_") || name.startsWith("tmp_idx_")) {
+      return true;
+    }
+
+    if (name.endsWith(".keep")) {
+      try {
+        final var text = Files.readString(path, StandardCharsets.UTF_8);
+        return text.startsWith("fetch-pack") || text.startsWith("receive-pack");
+      } catch (final IOException e) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Recover the repository that is (or will be) cloned to {@code output}.
+   * A repository that git cannot operate on is removed so that it is cloned
+   * again by the next sync. A staging directory left next to a complete
+   * repository, or one that git cannot operate on, is discarded; any other
+   * staging directory is kept so that the interrupted clone is resumed by the
+   * next sync. Stale files are removed from whatever remains.
+   *
+   * @param output The repository
+   *
+   * @return The recovery result
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static Result recover(
+    final File output)
+    throws IOException
+  {
+    Objects.requireNonNull(output, "output");
+
+    final var staging = stagingDirectoryFor(output);
+    var result = Result.UNCHANGED;
+
+    if (output.isDirectory() && !isPlausibleRepository(output)) {
+      LOG.warn("{} is not a usable repository, removing it", output);
+      deleteDirectory(output);
+      result = Result.DISCARDED;
+    }
+
+    if (staging.exists()) {
+      if (output.isDirectory() || !isPlausibleRepository(staging)) {
+        LOG.info("discarding staging directory {}", staging);
+        deleteDirectory(staging);
+        return Result.DISCARDED;
+      }
+
+      removeStaleFiles(staging);
+      LOG.info("interrupted clone {} will be resumed", staging);
+      return Result.CLONE_RESUMABLE;
+    }
+
+    if (removeStaleFiles(output) > 0 && result == Result.UNCHANGED) {
+      result = Result.LOCKS_REMOVED;
+    }
+    return result;
+  }
+}
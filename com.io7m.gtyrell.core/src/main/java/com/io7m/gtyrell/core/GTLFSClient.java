@@ -0,0 +1,362 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A client that downloads Git LFS objects into a {@link GTLFSStore} using
+ * the LFS batch API and the {@code basic} transfer adapter. Objects that
+ * are already in the store are never requested, and the objects that are
+ * requested are downloaded in parallel on a fixed number of transfer
+ * threads shared by every caller of the client.
+ */
+
+public final class GTLFSClient
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTLFSClient.class);
+  }
+
+  private static final String MEDIA_TYPE = "application/vnd.git-lfs+json";
+  private static final int BATCH_SIZE = 100;
+
+  private final GTLFSStore store;
+  private final HttpClient http;
+  private final Duration timeout;
+  private final ObjectMapper mapper;
+  private final ExecutorService transfers;
+
+  private GTLFSClient(
+    final GTLFSStore in_store,
+    final int in_transfers,
+    final Duration in_timeout)
+  {
+    this.store =
+      Objects.requireNonNull(in_store, "store");
+    this.timeout =
+      Objects.requireNonNull(in_timeout, "timeout");
+    this.http =
+      HttpClient.newBuilder()
+        .connectTimeout(Duration.ofSeconds(30L))
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .build();
+    this.mapper =
+      new ObjectMapper();
+    this.transfers =
+      Executors.newFixedThreadPool(in_transfers, r -> {
+        final var thread = new Thread(r);
+        thread.setName(String.format(
+          "com.io7m.gtyrell.core.lfs[%d]",
+          Long.valueOf(thread.threadId())));
+        thread.setDaemon(true);
+        return thread;
+      });
+  }
+
+  /**
+   * Create a client.
+   *
+   * @param store     The store into which objects are downloaded
+   * @param transfers The maximum number of objects downloaded at once
+   * @param timeout   The maximum time allowed for a single request
+   *
+   * @return A client
+   */
+
+  public static GTLFSClient create(
+    final GTLFSStore store,
+    final int transfers,
+    final Duration timeout)
+  {
+    if (transfers < 1) {
+      throw new IllegalArgumentException(
+        "LFS transfers must be at least 1");
+    }
+    return new GTLFSClient(store, transfers, timeout);
+  }
+
+  /**
+   * @return The store into which objects are downloaded
+   */
+
+  public GTLFSStore store()
+  {
+    return this.store;
+  }
+
+  /**
+   * Download every object that is not already in the store. Objects that
+   * the server reports as missing are counted as unavailable rather than
+   * treated as errors, because an object that was never uploaded can never
+   * be downloaded.
+   *
+   * @param remote   The LFS server
+   * @param pointers The objects
+   *
+   * @return The outcome
+   *
+   * @throws IOException On I/O errors, or if any object could not be
+   *                     downloaded for any other reason
+   */
+
+  public GTLFSFetchResult fetch(
+    final GTLFSRemote remote,
+    final Collection<GTLFSPointer> pointers)
+    throws IOException
+  {
+    Objects.requireNonNull(remote, "remote");
+    Objects.requireNonNull(pointers, "pointers");
+
+    final var missing = new ArrayList<GTLFSPointer>(pointers.size());
+    for (final var pointer : pointers) {
+      if (!this.store.contains(pointer)) {
+        missing.add(pointer);
+      }
+    }
+
+    final var present = (long) (pointers.size() - missing.size());
+    if (missing.isEmpty()) {
+      return GTLFSFetchResult.of(present, 0L, 0L, 0L);
+    }
+
+    LOG.debug("{}: {} objects to download", remote.endpoint(), Integer.valueOf(missing.size()));
+
+    final var downloads = new ArrayList<Future<Long>>(missing.size());
+    long unavailable = 0L;
+    try {
+      for (int index = 0; index < missing.size(); index += BATCH_SIZE) {
+        final var batch =
+          missing.subList(index, Math.min(missing.size(), index + BATCH_SIZE));
+        unavailable += this.requestBatch(remote, batch, downloads);
+      }
+      return GTLFSFetchResult.of(
+        present,
+        downloads.size(),
+        awaitDownloads(downloads),
+        unavailable);
+    } finally {
+      for (final var download : downloads) {
+        download.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Wait for every download, so that no download is abandoned half way
+   * through because an earlier one failed.
+   */
+
+  private static long awaitDownloads(
+    final List<Future<Long>> downloads)
+    throws IOException
+  {
+    IOException failure = null;
+    long bytes = 0L;
+
+    for (final var download : downloads) {
+      try {
+        bytes += download.get().longValue();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted whilst downloading LFS objects");
+      } catch (final ExecutionException e) {
+        final var cause = e.getCause();
+        final var exception =
+          cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        if (failure == null) {
+          failure = exception;
+        } else {
+          failure.addSuppressed(exception);
+        }
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+    return bytes;
+  }
+
+  /**
+   * Request download actions for a batch of objects, and submit a download
+   * for each object that has one.
+   *
+   * @return The number of unavailable objects
+   */
+
+  private long requestBatch(
+    final GTLFSRemote remote,
+    final List<GTLFSPointer> batch,
+    final List<Future<Long>> downloads)
+    throws IOException
+  {
+    final var pointers = new HashMap<String, GTLFSPointer>(batch.size());
+    final var request_body = this.mapper.createObjectNode();
+    request_body.put("operation", "download");
+    request_body.putArray("transfers").add("basic");
+    final var objects = request_body.putArray("objects");
+    for (final var pointer : batch) {
+      pointers.put(pointer.oid(), pointer);
+      final var object = objects.addObject();
+      object.put("oid", pointer.oid());
+      object.put("size", pointer.size());
+    }
+
+    final var request =
+      HttpRequest.newBuilder(batchURI(remote.endpoint()))
+        .timeout(this.timeout)
+        .header("Accept", MEDIA_TYPE)
+        .header("Content-Type", MEDIA_TYPE)
+        .POST(HttpRequest.BodyPublishers.ofByteArray(
+          this.mapper.writeValueAsBytes(request_body)));
+    remote.headers().forEach(request::header);
+
+    final var response = this.send(request.build());
+    final JsonNode response_body;
+    try (InputStream input = response.body()) {
+      if (response.statusCode() != 200) {
+        throw new IOException(String.format(
+          "LFS batch request to %s failed: %d",
+          remote.endpoint(),
+          Integer.valueOf(response.statusCode())));
+      }
+      response_body = this.mapper.readTree(input);
+    }
+
+    long unavailable = 0L;
+    for (final var object : response_body.path("objects")) {
+      final var pointer = pointers.get(object.path("oid").asText());
+      if (pointer == null) {
+        continue;
+      }
+
+      final var download = object.path("actions").path("download");
+      if (download.isObject()) {
+        downloads.add(this.transfers.submit(
+          () -> Long.valueOf(this.download(pointer, (ObjectNode) download))));
+      } else {
+        this.checkUnavailable(remote, pointer, object.path("error"));
+        ++unavailable;
+      }
+    }
+    return unavailable;
+  }
+
+  private void checkUnavailable(
+    final GTLFSRemote remote,
+    final GTLFSPointer pointer,
+    final JsonNode error)
+    throws IOException
+  {
+    final var code = error.path("code").asInt(404);
+    if (code == 404 || code == 410) {
+      LOG.warn(
+        "{}: LFS object {} is not available: {}",
+        remote.endpoint(),
+        pointer.oid(),
+        error.path("message").asText(""));
+      return;
+    }
+    throw new IOException(String.format(
+      "%s: LFS object %s could not be downloaded: %d %s",
+      remote.endpoint(),
+      pointer.oid(),
+      Integer.valueOf(code),
+      error.path("message").asText("")));
+  }
+
+  private long download(
+    final GTLFSPointer pointer,
+    final ObjectNode action)
+    throws IOException
+  {
+    if (this.store.contains(pointer)) {
+      return 0L;
+    }
+
+    final var request =
+      HttpRequest.newBuilder(URI.create(action.path("href").asText()))
+        .timeout(this.timeout)
+        .GET();
+
+    final var headers = action.path("header");
+    final var fields = headers.fieldNames();
+    while (fields.hasNext()) {
+      final var field = fields.next();
+      request.header(field, headers.path(field).asText());
+    }
+
+    final var response = this.send(request.build());
+    try (InputStream input = response.body()) {
+      if (response.statusCode() != 200) {
+        throw new IOException(String.format(
+          "LFS object %s: download failed: %d",
+          pointer.oid(),
+          Integer.valueOf(response.statusCode())));
+      }
+      final var size = this.store.put(pointer, input);
+      LOG.debug("downloaded LFS object {} ({} bytes)", pointer.oid(), Long.valueOf(size));
+      return size;
+    }
+  }
+
+  private HttpResponse<InputStream> send(
+    final HttpRequest request)
+    throws IOException
+  {
+    try {
+      return this.http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst waiting for " + request.uri());
+    }
+  }
+
+  private static URI batchURI(
+    final URI endpoint)
+  {
+    final var text = endpoint.toString();
+    if (text.endsWith("/")) {
+      return URI.create(text + "objects/batch");
+    }
+    return URI.create(text + "/objects/batch");
+  }
+}
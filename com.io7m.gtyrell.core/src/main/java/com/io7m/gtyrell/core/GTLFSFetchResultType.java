@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.core;
+
+import org.immutables.value.Value;
+
+/**
+ * The outcome of fetching a set of LFS objects into a store.
+ */
+
+@GTImmutableStyleType
+@Value.Immutable
+public interface GTLFSFetchResultType
+{
+  /**
+   * @return The number of objects that were already in the store
+   */
+
+  @Value.Parameter
+  long present();
+
+  /**
+   * @return The number of objects downloaded
+   */
+
+  @Value.Parameter
+  long downloaded();
+
+  /**
+   * @return The number of bytes downloaded
+   */
+
+  @Value.Parameter
+  long downloadedBytes();
+
+  /**
+   * @return The number of objects that the server reported as unavailable
+   */
+
+  @Value.Parameter
+  long unavailable();
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.core;
+
+import org.immutables.value.Value;
+
+import java.util.regex.Pattern;
+
+/**
+ * A Git LFS pointer: the small file committed to a repository in place of
+ * a large object, identifying the object by its SHA-256 hash.
+ */
+
+@GTImmutableStyleType
+@Value.Immutable
+public interface GTLFSPointerType
+{
+  /**
+   * The pattern that object IDs must match.
+   */
+
+  Pattern VALID_OID = Pattern.compile("[0-9a-f]{64}");
+
+  /**
+   * @return The object ID; the lowercase hexadecimal SHA-256 hash of the
+   * object
+   */
+
+  @Value.Parameter
+  String oid();
+
+  /**
+   * @return The size of the object in bytes
+   */
+
+  @Value.Parameter
+  long size();
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    if (!VALID_OID.matcher(this.oid()).matches()) {
+      throw new IllegalArgumentException(
+        String.format("Invalid LFS object ID: %s", this.oid()));
+    }
+    if (this.size() < 0L) {
+      throw new IllegalArgumentException(
+        String.format("Invalid LFS object size: %d", Long.valueOf(this.size())));
+    }
+  }
+}
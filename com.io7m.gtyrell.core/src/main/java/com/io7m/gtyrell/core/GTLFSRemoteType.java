@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.core;
+
+import org.immutables.value.Value;
+
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * The Git LFS server of a remote repository.
+ */
+
+@GTImmutableStyleType
+@Value.Immutable
+public interface GTLFSRemoteType
+{
+  /**
+   * @return The LFS endpoint, such as
+   * {@code https://github.com/owner/name.git/info/lfs}
+   */
+
+  @Value.Parameter
+  URI endpoint();
+
+  /**
+   * @return Extra headers sent with every batch request, typically
+   * containing credentials
+   */
+
+  @Value.Redacted
+  Map<String, String> headers();
+}
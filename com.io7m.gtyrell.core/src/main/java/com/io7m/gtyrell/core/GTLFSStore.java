@@ -0,0 +1,184 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A content-addressed store of Git LFS objects. Each object is stored
+ * exactly once, in {@code objects/<aa>/<bb>/<oid>} where {@code aa} and
+ * {@code bb} are the first two pairs of digits of the object ID, regardless
+ * of how many repositories refer to it. This is the layout that
+ * {@code git lfs} itself uses, so the store can be used directly as the
+ * {@code lfs.storage} of a restored repository.
+ */
+
+public final class GTLFSStore
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTLFSStore.class);
+  }
+
+  private final Path root;
+
+  private GTLFSStore(
+    final Path in_root)
+  {
+    this.root = Objects.requireNonNull(in_root, "root");
+  }
+
+  /**
+   * Open a store.
+   *
+   * @param root The store directory
+   *
+   * @return A store
+   */
+
+  public static GTLFSStore open(
+    final Path root)
+  {
+    return new GTLFSStore(root.toAbsolutePath());
+  }
+
+  /**
+   * @return The store directory
+   */
+
+  public Path root()
+  {
+    return this.root;
+  }
+
+  /**
+   * @param pointer The pointer
+   *
+   * @return The file that holds the object, whether or not it exists
+   */
+
+  public Path file(
+    final GTLFSPointer pointer)
+  {
+    final var oid = pointer.oid();
+    return this.root
+      .resolve("objects")
+      .resolve(oid.substring(0, 2))
+      .resolve(oid.substring(2, 4))
+      .resolve(oid);
+  }
+
+  /**
+   * @param pointer The pointer
+   *
+   * @return {@code true} if the store holds the object
+   */
+
+  public boolean contains(
+    final GTLFSPointer pointer)
+  {
+    final var file = this.file(pointer);
+    try {
+      return Files.isRegularFile(file) && Files.size(file) == pointer.size();
+    } catch (final IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Add an object to the store. The object is written to a temporary file
+   * and only moved into place once its size and hash have been verified,
+   * so the store never holds a partial or corrupt object, even if several
+   * repositories download the same object at the same time.
+   *
+   * @param pointer The pointer
+   * @param stream  The content of the object
+   *
+   * @return The number of bytes written
+   *
+   * @throws IOException On I/O errors, or if the content does not match the
+   *                     pointer
+   */
+
+  public long put(
+    final GTLFSPointer pointer,
+    final InputStream stream)
+    throws IOException
+  {
+    final var file = this.file(pointer);
+    final var directory = file.getParent();
+    Files.createDirectories(directory);
+
+    final var file_tmp =
+      directory.resolve(String.format("%s.%s.tmp", pointer.oid(), UUID.randomUUID()));
+
+    try {
+      final MessageDigest digest;
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (final NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+
+      final long size;
+      try (OutputStream output =
+             new DigestOutputStream(Files.newOutputStream(file_tmp), digest)) {
+        size = stream.transferTo(output);
+      }
+
+      if (size != pointer.size()) {
+        throw new IOException(String.format(
+          "LFS object %s: expected %d bytes, received %d",
+          pointer.oid(),
+          Long.valueOf(pointer.size()),
+          Long.valueOf(size)));
+      }
+
+      final var received = HexFormat.of().formatHex(digest.digest());
+      if (!received.equals(pointer.oid())) {
+        throw new IOException(String.format(
+          "LFS object %s: content has hash %s",
+          pointer.oid(),
+          received));
+      }
+
+      try {
+        Files.move(file_tmp, file, StandardCopyOption.ATOMIC_MOVE);
+      } catch (final FileAlreadyExistsException e) {
+        LOG.debug("object {} was stored concurrently", pointer.oid());
+      }
+      return size;
+    } finally {
+      Files.deleteIfExists(file_tmp);
+    }
+  }
+}
@@ -25,8 +25,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 final class GTProcessUtilities
 {
@@ -72,4 +75,77 @@ final class GTProcessUtilities
     }
   }
 
+  /**
+   * Execute a process whose standard output is to be parsed. Standard error
+   * is read on a separate thread so that diagnostics can never appear in the
+   * returned lines; it is logged, and included in the exception raised if
+   * the process fails.
+   *
+   * @param log The log
+   * @param p   The process
+   *
+   * @return The lines of standard output
+   *
+   * @throws IOException On I/O errors or if the process fails
+   */
+
+  static List<String> executeOutput(
+    final Logger log,
+    final Process p)
+    throws IOException
+  {
+    final List<String> err_lines = new ArrayList<>(16);
+    final var err_thread = new Thread(() -> {
+      try {
+        readLines(p.getErrorStream(), line -> {
+          synchronized (err_lines) {
+            err_lines.add(line);
+          }
+          log.debug("execute (stderr): {}", line);
+        });
+      } catch (final IOException e) {
+        log.debug("unable to read process error stream: ", e);
+      }
+    });
+    err_thread.setName("com.io7m.gtyrell.core.process-stderr");
+    err_thread.setDaemon(true);
+    err_thread.start();
+
+    try {
+      final List<String> out_lines = new ArrayList<>(16);
+      readLines(p.getInputStream(), out_lines::add);
+
+      final int status = p.waitFor();
+      err_thread.join();
+
+      if (status != 0) {
+        synchronized (err_lines) {
+          throw new IOException(String.join("\n", err_lines));
+        }
+      }
+      return out_lines;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst waiting for process");
+    } finally {
+      p.destroy();
+    }
+  }
+
+  private static void readLines(
+    final InputStream stream,
+    final Consumer<String> consumer)
+    throws IOException
+  {
+    try (BufferedReader reader = new BufferedReader(
+      new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+      while (true) {
+        final String line = reader.readLine();
+        if (line == null) {
+          break;
+        }
+        consumer.accept(line);
+      }
+    }
+  }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.core;
+
+import org.immutables.value.Value;
+
+/**
+ * The fully qualified name of a repository. For example: {@code io7m/gtyrell}.
+ */
+
+@GTImmutableStyleType
+@Value.Immutable
+public interface GTRepositoryFullNameType
+{
+  /**
+   * @return The name of the group that owns the repository
+   */
+
+  @Value.Parameter
+  GTRepositoryGroupName group();
+
+  /**
+   * @return The name of the repository
+   */
+
+  @Value.Parameter
+  GTRepositoryName name();
+
+  /**
+   * @return The full name in {@code group/name} form
+   */
+
+  default String text()
+  {
+    return new StringBuilder(128)
+      .append(this.group().text())
+      .append('/')
+      .append(this.name().text())
+      .toString();
+  }
+}
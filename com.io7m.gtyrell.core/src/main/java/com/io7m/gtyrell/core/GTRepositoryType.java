@@ -18,6 +18,7 @@ package com.io7m.gtyrell.core;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Optional;
 
 /**
  * The interface exposed by repositories.
@@ -35,4 +36,87 @@ public interface GTRepositoryType
 
   void update(File directory)
     throws IOException;
+
+  /**
+   * Update or clone the repository.
+   *
+   * @param context The update context
+   *
+   * @throws IOException On I/O errors
+   */
+
+  default void update(
+    final GTRepositoryUpdateContextType context)
+    throws IOException
+  {
+    this.update(context.directory());
+  }
+
+  /**
+   * Archive the metadata of the repository (such as issues) alongside the
+   * repository clone. Metadata is archived independently of updates to the
+   * clone, and is archived even if the most recent update failed.
+   *
+   * @param directory The path to the repository clone
+   *
+   * @throws IOException On I/O errors
+   */
+
+  default void archiveMetadata(
+    final File directory)
+    throws IOException
+  {
+    // Nothing to archive by default
+  }
+
+  /**
+   * Called after the clone of the repository has been moved to a new
+   * location because the repository was renamed. Implementations should
+   * make the clone fetch from the new location of the remote repository.
+   *
+   * @param directory The new path to the repository clone
+   *
+   * @throws IOException On I/O errors
+   */
+
+  default void relocated(
+    final File directory)
+    throws IOException
+  {
+    // Nothing to do by default
+  }
+
+  /**
+   * @return The Git LFS server of the repository, if LFS objects should be
+   * mirrored
+   */
+
+  default Optional<GTLFSRemote> lfsRemote()
+  {
+    return Optional.empty();
+  }
+
+  /**
+   * @return The root of the fork network to which this repository belongs,
+   * if the repository is a fork and its source is configured to share objects
+   * between forks
+   */
+
+  default Optional<GTRepositoryFullName> forkNetworkRoot()
+  {
+    return Optional.empty();
+  }
+
+  /**
+   * An identifier for the repository that does not change when the
+   * repository is renamed or transferred to another group. Identifiers are
+   * unique across all sources.
+   *
+   * @return The stable identifier of the repository, if the source has one
+   */
+
+  default Optional<String> stableIdentifier()
+  {
+    return Optional.empty();
+  }
 }
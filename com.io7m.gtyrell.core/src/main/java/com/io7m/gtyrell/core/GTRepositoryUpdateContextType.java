@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.core;
+
+import org.immutables.value.Value;
+
+import java.io.File;
+import java.util.Optional;
+
+/**
+ * The information a repository is given when it is asked to update itself.
+ */
+
+@GTImmutableStyleType
+@Value.Immutable
+public interface GTRepositoryUpdateContextType
+{
+  /**
+   * @return The path to the repository clone
+   */
+
+  @Value.Parameter
+  File directory();
+
+  /**
+   * An existing mirror from which the repository may borrow objects via
+   * git alternates. This is typically the mirror of the root of the fork
+   * network to which the repository belongs.
+   *
+   * @return The mirror to borrow objects from, if any
+   */
+
+  Optional<File> alternate();
+
+  /**
+   * A bundle from which a new clone of the repository may be seeded, so that
+   * only the objects missing from the bundle are fetched from the remote.
+   *
+   * @return The bundle, if any
+   */
+
+  Optional<File> bundle();
+}
@@ -0,0 +1,526 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.filter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+
+/**
+ * A deterministic automaton that matches a set of expressions at once. Each
+ * state of the automaton records the indices of every expression that
+ * matches an input ending in that state, so a single pass over an input
+ * yields all of the matching expressions.
+ */
+
+final class GTFilterAutomaton
+{
+  /**
+   * The state returned when no expression can match the input.
+   */
+
+  static final int DEAD = -1;
+
+  /**
+   * The maximum number of deterministic states in a single automaton.
+   */
+
+  static final int MAXIMUM_STATES = 10_000;
+
+  private static final int MAXIMUM_NFA_STATES = 100_000;
+  private static final int ASCII = 128;
+  private static final int[] NONE = new int[0];
+
+  private final int[] bounds;
+  private final int[] ascii;
+  private final int classes;
+  private final int[] transitions;
+  private final int[][] accepts;
+
+  private GTFilterAutomaton(
+    final int[] in_bounds,
+    final int[] in_transitions,
+    final int[][] in_accepts)
+  {
+    this.bounds = in_bounds;
+    this.classes = in_bounds.length;
+    this.transitions = in_transitions;
+    this.accepts = in_accepts;
+    this.ascii = new int[ASCII];
+    for (int c = 0; c < ASCII; ++c) {
+      this.ascii[c] = this.classOfSlow(c);
+    }
+  }
+
+  /**
+   * Compile a set of expressions.
+   *
+   * @param indices The index of each expression, reported when it matches
+   * @param nodes   The expressions
+   *
+   * @return An automaton, or nothing if the automaton would exceed
+   * {@link #MAXIMUM_STATES}
+   */
+
+  static Optional<GTFilterAutomaton> compile(
+    final int[] indices,
+    final List<GTFilterRegex.NodeType> nodes)
+  {
+    final var nfa = new NFA();
+    final var start = nfa.state();
+    for (int index = 0; index < indices.length; ++index) {
+      final var fragment = nfa.build(nodes.get(index));
+      if (fragment == null) {
+        return Optional.empty();
+      }
+      nfa.states.get(start).epsilon(fragment.start);
+      nfa.states.get(fragment.end).accept = indices[index];
+    }
+    return new Determinizer(nfa).run(start);
+  }
+
+  /**
+   * @return The number of states in the automaton
+   */
+
+  int stateCount()
+  {
+    return this.accepts.length;
+  }
+
+  /**
+   * @return The initial state
+   */
+
+  static int start()
+  {
+    return 0;
+  }
+
+  /**
+   * @param state A state
+   * @param c     The next input character
+   *
+   * @return The state reached from {@code state} on {@code c}, or
+   * {@link #DEAD}
+   */
+
+  int step(
+    final int state,
+    final char c)
+  {
+    final var cls = c < ASCII ? this.ascii[c] : this.classOfSlow(c);
+    return this.transitions[state * this.classes + cls];
+  }
+
+  /**
+   * @param first  The owner, or the whole name
+   * @param second The name, or {@code null}
+   *
+   * @return The state reached after consuming all of the joined name, or
+   * {@link #DEAD}
+   *
+   * @see GTFilterNames
+   */
+
+  int run(
+    final CharSequence first,
+    final CharSequence second)
+  {
+    final var state = this.run(start(), first);
+    if (second == null || state == DEAD) {
+      return state;
+    }
+    final var separated = this.step(state, GTFilterNames.SEPARATOR);
+    if (separated == DEAD) {
+      return DEAD;
+    }
+    return this.run(separated, second);
+  }
+
+  private int run(
+    final int initial,
+    final CharSequence text)
+  {
+    var state = initial;
+    final var length = text.length();
+    for (int index = 0; index < length; ++index) {
+      state = this.step(state, text.charAt(index));
+      if (state == DEAD) {
+        return DEAD;
+      }
+    }
+    return state;
+  }
+
+  /**
+   * @param state A state
+   *
+   * @return The ascending indices of the expressions that match in
+   * {@code state}
+   */
+
+  int[] accepts(
+    final int state)
+  {
+    return this.accepts[state];
+  }
+
+  private int classOfSlow(
+    final int c)
+  {
+    final var found = Arrays.binarySearch(this.bounds, c);
+    if (found >= 0) {
+      return found;
+    }
+    return -found - 2;
+  }
+
+  private record Fragment(int start, int end)
+  {
+    // No extra members
+  }
+
+  private static final class NState
+  {
+    private int[] ranges;
+    private BitSet classes;
+    private int target;
+    private int[] epsilons;
+    private int accept;
+
+    NState()
+    {
+      this.target = DEAD;
+      this.epsilons = NONE;
+      this.accept = -1;
+    }
+
+    void epsilon(
+      final int state)
+    {
+      this.epsilons = Arrays.copyOf(this.epsilons, this.epsilons.length + 1);
+      this.epsilons[this.epsilons.length - 1] = state;
+    }
+  }
+
+  private static final class NFA
+  {
+    private final ArrayList<NState> states;
+
+    NFA()
+    {
+      this.states = new ArrayList<>();
+    }
+
+    int state()
+    {
+      this.states.add(new NState());
+      return this.states.size() - 1;
+    }
+
+    Fragment build(
+      final GTFilterRegex.NodeType node)
+    {
+      if (this.states.size() > MAXIMUM_NFA_STATES) {
+        return null;
+      }
+
+      if (node instanceof final GTFilterRegex.Chars chars) {
+        final var start = this.state();
+        final var end = this.state();
+        final var state = this.states.get(start);
+        state.ranges = chars.ranges();
+        state.target = end;
+        return new Fragment(start, end);
+      }
+      if (node instanceof final GTFilterRegex.Concat concat) {
+        return this.buildConcat(concat.nodes());
+      }
+      if (node instanceof final GTFilterRegex.Alt alt) {
+        return this.buildAlt(alt.nodes());
+      }
+      return this.buildRepeat((GTFilterRegex.Repeat) node);
+    }
+
+    private Fragment buildConcat(
+      final List<GTFilterRegex.NodeType> nodes)
+    {
+      final var start = this.state();
+      var end = start;
+      for (final var node : nodes) {
+        final var fragment = this.build(node);
+        if (fragment == null) {
+          return null;
+        }
+        this.states.get(end).epsilon(fragment.start);
+        end = fragment.end;
+      }
+      return new Fragment(start, end);
+    }
+
+    private Fragment buildAlt(
+      final List<GTFilterRegex.NodeType> nodes)
+    {
+      final var start = this.state();
+      final var end = this.state();
+      for (final var node : nodes) {
+        final var fragment = this.build(node);
+        if (fragment == null) {
+          return null;
+        }
+        this.states.get(start).epsilon(fragment.start);
+        this.states.get(fragment.end).epsilon(end);
+      }
+      return new Fragment(start, end);
+    }
+
+    private Fragment buildRepeat(
+      final GTFilterRegex.Repeat repeat)
+    {
+      final var start = this.state();
+      var end = start;
+      for (int count = 0; count < repeat.min(); ++count) {
+        final var fragment = this.build(repeat.node());
+        if (fragment == null) {
+          return null;
+        }
+        this.states.get(end).epsilon(fragment.start);
+        end = fragment.end;
+      }
+
+      if (repeat.max() == -1) {
+        final var fragment = this.build(repeat.node());
+        if (fragment == null) {
+          return null;
+        }
+        final var loop = this.state();
+        this.states.get(end).epsilon(loop);
+        this.states.get(loop).epsilon(fragment.start);
+        this.states.get(fragment.end).epsilon(loop);
+        return new Fragment(start, loop);
+      }
+
+      final var exit = this.state();
+      for (int count = repeat.min(); count < repeat.max(); ++count) {
+        final var fragment = this.build(repeat.node());
+        if (fragment == null) {
+          return null;
+        }
+        this.states.get(end).epsilon(fragment.start);
+        this.states.get(end).epsilon(exit);
+        end = fragment.end;
+      }
+      this.states.get(end).epsilon(exit);
+      return new Fragment(start, exit);
+    }
+  }
+
+  private record StateSet(int[] members)
+  {
+    @Override
+    public boolean equals(
+      final Object other)
+    {
+      return other instanceof final StateSet set
+        && Arrays.equals(this.members, set.members);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return Arrays.hashCode(this.members);
+    }
+  }
+
+  private static final class Determinizer
+  {
+    private final NFA nfa;
+    private final int[] bounds;
+    private final BitSet visited;
+    private final ArrayDeque<Integer> stack;
+    private final HashMap<StateSet, Integer> numbers;
+    private final ArrayList<int[]> sets;
+
+    Determinizer(
+      final NFA in_nfa)
+    {
+      this.nfa = in_nfa;
+      this.bounds = boundsOf(in_nfa.states);
+      this.visited = new BitSet(in_nfa.states.size());
+      this.stack = new ArrayDeque<>();
+      this.numbers = new HashMap<>();
+      this.sets = new ArrayList<>();
+
+      for (final var state : in_nfa.states) {
+        if (state.ranges != null) {
+          state.classes = this.classesOf(state.ranges);
+        }
+      }
+    }
+
+    /**
+     * Partition the characters into classes such that every character in a
+     * class is accepted by exactly the same NFA states. The classes are
+     * identified by their lowest character.
+     */
+
+    private static int[] boundsOf(
+      final List<NState> states)
+    {
+      final var points = new TreeSet<Integer>();
+      points.add(Integer.valueOf(0));
+      for (final var state : states) {
+        if (state.ranges != null) {
+          for (int index = 0; index < state.ranges.length; index += 2) {
+            points.add(Integer.valueOf(state.ranges[index]));
+            if (state.ranges[index + 1] < GTFilterRegex.CHAR_MAX) {
+              points.add(Integer.valueOf(state.ranges[index + 1] + 1));
+            }
+          }
+        }
+      }
+      return points.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private BitSet classesOf(
+      final int[] ranges)
+    {
+      final var result = new BitSet(this.bounds.length);
+      for (int index = 0; index < ranges.length; index += 2) {
+        final var lo = Arrays.binarySearch(this.bounds, ranges[index]);
+        var hi = this.bounds.length - 1;
+        if (ranges[index + 1] < GTFilterRegex.CHAR_MAX) {
+          hi = Arrays.binarySearch(this.bounds, ranges[index + 1] + 1) - 1;
+        }
+        result.set(lo, hi + 1);
+      }
+      return result;
+    }
+
+    Optional<GTFilterAutomaton> run(
+      final int start)
+    {
+      final var classes = this.bounds.length;
+      this.number(this.closure(new int[]{start}, 1));
+
+      var transitions = new int[classes * 16];
+      final var targets = new int[this.nfa.states.size()];
+      for (int current = 0; current < this.sets.size(); ++current) {
+        if (this.sets.size() > MAXIMUM_STATES) {
+          return Optional.empty();
+        }
+        if (transitions.length < (current + 1) * classes) {
+          transitions = Arrays.copyOf(transitions, transitions.length * 2);
+        }
+
+        final var members = this.sets.get(current);
+        for (int cls = 0; cls < classes; ++cls) {
+          var count = 0;
+          for (final var member : members) {
+            final var state = this.nfa.states.get(member);
+            if (state.classes != null && state.classes.get(cls)) {
+              targets[count] = state.target;
+              ++count;
+            }
+          }
+
+          var next = DEAD;
+          if (count > 0) {
+            next = this.number(this.closure(targets, count));
+          }
+          transitions[current * classes + cls] = next;
+        }
+      }
+
+      final var accepts = new int[this.sets.size()][];
+      for (int index = 0; index < accepts.length; ++index) {
+        accepts[index] = this.acceptsOf(this.sets.get(index));
+      }
+      return Optional.of(new GTFilterAutomaton(
+        this.bounds,
+        Arrays.copyOf(transitions, accepts.length * classes),
+        accepts
+      ));
+    }
+
+    private int number(
+      final int[] members)
+    {
+      final var key = new StateSet(members);
+      final var existing = this.numbers.get(key);
+      if (existing != null) {
+        return existing.intValue();
+      }
+      final var number = this.sets.size();
+      this.sets.add(members);
+      this.numbers.put(key, Integer.valueOf(number));
+      return number;
+    }
+
+    private int[] closure(
+      final int[] seeds,
+      final int count)
+    {
+      this.visited.clear();
+      for (int index = 0; index < count; ++index) {
+        if (!this.visited.get(seeds[index])) {
+          this.visited.set(seeds[index]);
+          this.stack.push(Integer.valueOf(seeds[index]));
+        }
+      }
+
+      while (!this.stack.isEmpty()) {
+        final var state = this.nfa.states.get(this.stack.pop().intValue());
+        for (final var next : state.epsilons) {
+          if (!this.visited.get(next)) {
+            this.visited.set(next);
+            this.stack.push(Integer.valueOf(next));
+          }
+        }
+      }
+
+      /*
+       * States that neither consume input nor accept contribute nothing to
+       * the behaviour of the set, so leaving them out avoids creating
+       * distinct but equivalent deterministic states.
+       */
+
+      return this.visited.stream()
+        .filter(member -> {
+          final var state = this.nfa.states.get(member);
+          return state.ranges != null || state.accept >= 0;
+        })
+        .toArray();
+    }
+
+    private int[] acceptsOf(
+      final int[] members)
+    {
+      return Arrays.stream(members)
+        .map(member -> this.nfa.states.get(member).accept)
+        .filter(accept -> accept >= 0)
+        .sorted()
+        .distinct()
+        .toArray();
+    }
+  }
+}
@@ -94,6 +94,7 @@ public final class GTFilterCompilers implements GTFilterCompilersType
           .collect(Collectors.toList());
 
       var filters = List.<GTFilterRule>of();
+      var positions = List.<LexicalPosition<URI>>of();
       var errors = List.<GTFilterCompilationError>of();
       for (var line_number = 0; line_number < lines.size(); ++line_number) {
         final var line = lines.get(line_number).trim();
@@ -132,11 +133,20 @@ public final class GTFilterCompilers implements GTFilterCompilersType
         final var trimmed = pattern.trim();
         try {
           final var compiled = Pattern.compile(trimmed);
+          final var position =
+            LexicalPosition.<URI>builder()
+              .setLine(line_number + 1)
+              .setColumn(0)
+              .setFile(this.uri)
+              .build();
           filters = filters.append(
             GTFilterRule.builder()
               .setKind(kind)
               .setPattern(compiled)
+              .setPosition(position)
+              .setSourceIndex(filters.size())
               .build());
+          positions = positions.append(position);
         } catch (final PatternSyntaxException e) {
           errors = errors.append(
             GTFilterCompilationError.builder()
@@ -153,10 +163,22 @@ public final class GTFilterCompilers implements GTFilterCompilersType
       }
 
       if (errors.isEmpty()) {
-        return GTFilterProgram.builder()
-          .setCompiled(LocalDateTime.now(this.clock))
-          .setRules(filters)
-          .build();
+        final var optimized =
+          GTFilterOptimizer.optimize(filters, positions);
+        final var program =
+          GTFilterProgram.builder()
+            .setCompiled(LocalDateTime.now(this.clock))
+            .setRules(optimized.rules())
+            .setWarnings(optimized.warnings())
+            .build();
+
+        /*
+         * Build the combined automata now so that the cost is paid when the
+         * program is compiled rather than on the first evaluation.
+         */
+
+        program.matcher();
+        return program;
       }
 
       throw new GTFilterCompilerException("One or more compilation errors occurred", errors);
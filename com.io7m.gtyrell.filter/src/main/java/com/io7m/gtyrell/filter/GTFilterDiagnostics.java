@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.filter;
+
+import com.io7m.jlexing.core.LexicalPosition;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.slf4j.Logger;
+
+import java.net.URI;
+import java.util.Objects;
+
+/**
+ * Functions to log the errors and warnings produced when filter programs are
+ * compiled.
+ */
+
+public final class GTFilterDiagnostics
+{
+  private GTFilterDiagnostics()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Log each of the errors that caused compilation to fail.
+   *
+   * @param log The log
+   * @param e   The compilation exception
+   */
+
+  public static void logErrors(
+    final Logger log,
+    final GTFilterCompilerException e)
+  {
+    Objects.requireNonNull(log, "log");
+    Objects.requireNonNull(e, "e");
+
+    for (final var error : e.errors()) {
+      final var position = error.position();
+      log.error(
+        "{}:{}:{}: {}",
+        fileOf(position),
+        Integer.valueOf(position.line()),
+        Integer.valueOf(position.column()),
+        error.message());
+      error.exception().ifPresent(ex -> log.error("exception: ", ex));
+    }
+  }
+
+  /**
+   * Log each of the warnings produced when a program was compiled.
+   *
+   * @param log     The log
+   * @param program The compiled program
+   */
+
+  public static void logWarnings(
+    final Logger log,
+    final GTFilterProgram program)
+  {
+    Objects.requireNonNull(log, "log");
+    Objects.requireNonNull(program, "program");
+
+    for (final var warning : program.warnings()) {
+      final var position = warning.position();
+      log.warn(
+        "{}:{}:{}: {}",
+        fileOf(position),
+        Integer.valueOf(position.line()),
+        Integer.valueOf(position.column()),
+        warning.message());
+    }
+  }
+
+  static String fileOf(
+    final LexicalPosition<URI> position)
+  {
+    return position.file().map(URI::toString).orElse("<unknown>");
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.filter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+/**
+ * A hash index of the rules whose patterns match exactly one string.
+ * Lookups compare the contents of character sequences directly and do not
+ * allocate.
+ */
+
+final class GTFilterLiteralIndex
+{
+  private final String[] keys;
+  private final int[][] rules;
+  private final int mask;
+
+  private GTFilterLiteralIndex(
+    final String[] in_keys,
+    final int[][] in_rules)
+  {
+    this.keys = in_keys;
+    this.rules = in_rules;
+    this.mask = in_keys.length - 1;
+  }
+
+  /**
+   * @return A new index builder
+   */
+
+  static Builder builder()
+  {
+    return new Builder();
+  }
+
+  /**
+   * @return The number of slots in the index; entries are numbered from
+   * {@code 0} up to this value
+   */
+
+  int capacity()
+  {
+    return this.keys.length;
+  }
+
+  /**
+   * @param entry An entry
+   *
+   * @return The ascending indices of the rules that match the entry's
+   * literal, or an empty array for an empty slot
+   */
+
+  int[] rules(
+    final int entry)
+  {
+    return this.rules[entry];
+  }
+
+  /**
+   * @param first  The owner, or the whole name
+   * @param second The name, or {@code null}
+   *
+   * @return The entry whose literal equals the joined name, or {@code -1}
+   *
+   * @see GTFilterNames
+   */
+
+  int find(
+    final CharSequence first,
+    final CharSequence second)
+  {
+    final var hash = GTFilterNames.hashOf(first, second);
+    var slot = spread(hash) & this.mask;
+    while (true) {
+      final var key = this.keys[slot];
+      if (key == null) {
+        return -1;
+      }
+      if (key.hashCode() == hash && GTFilterNames.contentEquals(key, first, second)) {
+        return slot;
+      }
+      slot = (slot + 1) & this.mask;
+    }
+  }
+
+  private static int spread(
+    final int hash)
+  {
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * A mutable builder of indices.
+   */
+
+  static final class Builder
+  {
+    private final LinkedHashMap<String, ArrayList<Integer>> entries;
+
+    private Builder()
+    {
+      this.entries = new LinkedHashMap<>();
+    }
+
+    /**
+     * Add a rule.
+     *
+     * @param literal The literal matched by the rule
+     * @param rule    The rule index, which must be greater than any index
+     *                previously added
+     */
+
+    void add(
+      final String literal,
+      final int rule)
+    {
+      Objects.requireNonNull(literal, "literal");
+      this.entries.computeIfAbsent(literal, k -> new ArrayList<>())
+        .add(Integer.valueOf(rule));
+    }
+
+    /**
+     * @return An immutable index
+     */
+
+    GTFilterLiteralIndex build()
+    {
+      var capacity = 2;
+      while (capacity < this.entries.size() * 2) {
+        capacity *= 2;
+      }
+
+      final var keys = new String[capacity];
+      final var rules = new int[capacity][];
+      final var mask = capacity - 1;
+      for (final var entry : this.entries.entrySet()) {
+        var slot = spread(entry.getKey().hashCode()) & mask;
+        while (keys[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = entry.getKey();
+        rules[slot] =
+          entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+      }
+      for (int slot = 0; slot < capacity; ++slot) {
+        if (rules[slot] == null) {
+          rules[slot] = new int[0];
+        }
+      }
+      return new GTFilterLiteralIndex(keys, rules);
+    }
+  }
+}
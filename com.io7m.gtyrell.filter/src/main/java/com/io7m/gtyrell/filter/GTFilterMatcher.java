@@ -0,0 +1,625 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.filter;
+
+import io.vavr.collection.List;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * A matcher that evaluates all of the rules of a filter program at once.
+ *
+ * Rules are classified by the shape of their patterns. Rules that match a
+ * single literal name are held in a hash index, rules that match a literal
+ * prefix followed by anything are held in a trie, and the remaining
+ * patterns are compiled into one or more combined automata that report
+ * every matching rule in a single pass over a repository name. Patterns
+ * that use constructs that the automata do not support are evaluated with
+ * {@link Pattern}. The result is always the same as evaluating each rule in
+ * order.
+ */
+
+public final class GTFilterMatcher
+{
+  private static final int NO_HALT = Integer.MAX_VALUE;
+  private static final int NO_MATCH = -1;
+  private static final int SURROGATE = -1;
+
+  /**
+   * The number of distinct names above which batches are evaluated in
+   * parallel.
+   */
+
+  private static final int PARALLEL_THRESHOLD = 4096;
+
+  private final GTFilterRuleType.Kind[] kinds;
+  private final Pattern[] patterns;
+  private final GTFilterLiteralIndex literals;
+  private final int[] literalHalts;
+  private final int[] literalLasts;
+  private final int literalCount;
+  private final GTFilterPrefixTrie prefixes;
+  private final int[] prefixHalts;
+  private final int[] prefixLasts;
+  private final int prefixCount;
+  private final GTFilterAutomaton[] automata;
+  private final int[][] automatonHalts;
+  private final int[][] automatonLasts;
+  private final int[] fallbacks;
+
+  private GTFilterMatcher(
+    final GTFilterRuleType.Kind[] in_kinds,
+    final Pattern[] in_patterns,
+    final Compilation compilation)
+  {
+    this.kinds = in_kinds;
+    this.patterns = in_patterns;
+    this.literals = compilation.literals.build();
+    this.literalCount = compilation.literalCount;
+    this.prefixes = compilation.prefixes.build();
+    this.prefixCount = compilation.prefixCount;
+    this.automata = compilation.automata.toArray(new GTFilterAutomaton[0]);
+    this.fallbacks =
+      compilation.fallbacks.stream()
+        .mapToInt(Integer::intValue)
+        .sorted()
+        .toArray();
+
+    /*
+     * Only two facts about a set of matched rules affect the result: the
+     * first matching rule that halts evaluation, and the last matching rule
+     * overall. These are computed ahead of time for every literal, prefix,
+     * and automaton state.
+     */
+
+    this.literalHalts =
+      this.haltsOf(this.literals.capacity(), this.literals::rules);
+    this.literalLasts =
+      lastsOf(this.literals.capacity(), this.literals::rules);
+    this.prefixHalts =
+      this.haltsOf(this.prefixes.nodeCount(), this.prefixes::rules);
+    this.prefixLasts =
+      lastsOf(this.prefixes.nodeCount(), this.prefixes::rules);
+
+    this.automatonHalts = new int[this.automata.length][];
+    this.automatonLasts = new int[this.automata.length][];
+    for (int index = 0; index < this.automata.length; ++index) {
+      final var automaton = this.automata[index];
+      this.automatonHalts[index] =
+        this.haltsOf(automaton.stateCount(), automaton::accepts);
+      this.automatonLasts[index] =
+        lastsOf(automaton.stateCount(), automaton::accepts);
+    }
+  }
+
+  /**
+   * Compile a matcher for the given rules.
+   *
+   * @param rules The rules
+   *
+   * @return A matcher
+   */
+
+  static GTFilterMatcher create(
+    final List<GTFilterRule> rules)
+  {
+    Objects.requireNonNull(rules, "rules");
+
+    final var size = rules.size();
+    final var kinds = new GTFilterRuleType.Kind[size];
+    final var patterns = new Pattern[size];
+    final var nodes = new GTFilterRegex.NodeType[size];
+    final var general = new ArrayList<Integer>();
+    final var compilation = new Compilation();
+
+    for (int index = 0; index < size; ++index) {
+      final var rule = rules.get(index);
+      kinds[index] = rule.kind();
+      patterns[index] = rule.pattern();
+
+      final var shape = GTFilterRuleShape.classify(rule);
+      switch (shape.form()) {
+        case LITERAL -> {
+          compilation.literals.add(shape.text(), index);
+          ++compilation.literalCount;
+        }
+        case PREFIX -> {
+          compilation.prefixes.add(shape.text(), index);
+          ++compilation.prefixCount;
+        }
+        case GENERAL -> {
+          if (shape.node().isPresent()) {
+            nodes[index] = shape.node().get();
+            general.add(Integer.valueOf(index));
+          } else {
+            compilation.fallbacks.add(Integer.valueOf(index));
+          }
+        }
+      }
+    }
+
+    compileAutomata(
+      general.stream().mapToInt(Integer::intValue).toArray(),
+      nodes,
+      compilation);
+
+    return new GTFilterMatcher(kinds, patterns, compilation);
+  }
+
+  /**
+   * Compile the given rules into a single automaton if possible, splitting
+   * them into smaller groups if the automaton would be too large. A rule
+   * that is too large to compile alone is evaluated with {@link Pattern}.
+   */
+
+  private static void compileAutomata(
+    final int[] indices,
+    final GTFilterRegex.NodeType[] nodes,
+    final Compilation compilation)
+  {
+    if (indices.length == 0) {
+      return;
+    }
+
+    final var group =
+      Arrays.stream(indices)
+        .mapToObj(index -> nodes[index])
+        .toList();
+
+    final var automaton = GTFilterAutomaton.compile(indices, group);
+    if (automaton.isPresent()) {
+      compilation.automata.add(automaton.get());
+      return;
+    }
+
+    if (indices.length == 1) {
+      compilation.fallbacks.add(Integer.valueOf(indices[0]));
+      return;
+    }
+
+    final var half = indices.length / 2;
+    compileAutomata(Arrays.copyOfRange(indices, 0, half), nodes, compilation);
+    compileAutomata(Arrays.copyOfRange(indices, half, indices.length), nodes, compilation);
+  }
+
+  private int[] haltsOf(
+    final int count,
+    final IntFunction<int[]> rules)
+  {
+    final var result = new int[count];
+    for (int index = 0; index < count; ++index) {
+      result[index] = NO_HALT;
+      for (final var rule : rules.apply(index)) {
+        if (isHalting(this.kinds[rule])) {
+          result[index] = rule;
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static int[] lastsOf(
+    final int count,
+    final IntFunction<int[]> rules)
+  {
+    final var result = new int[count];
+    for (int index = 0; index < count; ++index) {
+      final var matched = rules.apply(index);
+      result[index] = NO_MATCH;
+      if (matched.length > 0) {
+        result[index] = matched[matched.length - 1];
+      }
+    }
+    return result;
+  }
+
+  private static boolean isHalting(
+    final GTFilterRuleType.Kind kind)
+  {
+    return switch (kind) {
+      case INCLUDE, EXCLUDE -> false;
+      case INCLUDE_AND_HALT, EXCLUDE_AND_HALT -> true;
+    };
+  }
+
+  /**
+   * @return The number of rules that match a single literal name
+   */
+
+  public int literalRuleCount()
+  {
+    return this.literalCount;
+  }
+
+  /**
+   * @return The number of rules that match a literal prefix
+   */
+
+  public int prefixRuleCount()
+  {
+    return this.prefixCount;
+  }
+
+  /**
+   * @return The number of combined automata used to evaluate the remaining rules
+   */
+
+  public int automatonCount()
+  {
+    return this.automata.length;
+  }
+
+  /**
+   * @return The number of rules that are evaluated with {@link Pattern}
+   */
+
+  public int fallbackCount()
+  {
+    return this.fallbacks.length;
+  }
+
+  /**
+   * Determine if a repository name is included by the rules.
+   *
+   * @param name The repository name
+   *
+   * @return {@code true} if the given repository is permitted by the filter rules
+   */
+
+  public boolean includes(
+    final CharSequence name)
+  {
+    Objects.requireNonNull(name, "name");
+    return this.decide(this.evaluate(name, null));
+  }
+
+  /**
+   * Determine if a repository is included by the rules. The rules are
+   * matched against the owner and name separated by a slash, but the
+   * owner and name are not concatenated. Unless the rules include patterns
+   * that must be evaluated with {@link Pattern}, or the owner or name
+   * contain characters outside the Basic Multilingual Plane, this method
+   * does not allocate.
+   *
+   * @param owner The repository owner
+   * @param name  The repository name
+   *
+   * @return {@code true} if the given repository is permitted by the filter rules
+   */
+
+  public boolean includes(
+    final CharSequence owner,
+    final CharSequence name)
+  {
+    Objects.requireNonNull(owner, "owner");
+    Objects.requireNonNull(name, "name");
+    return this.decide(this.evaluate(owner, name));
+  }
+
+  /**
+   * Determine which of the given repository names are included by the rules.
+   * Each distinct name is evaluated once, and large arrays of names are
+   * evaluated in parallel.
+   *
+   * @param names The repository names
+   *
+   * @return A set containing the index of every name that is permitted by
+   * the filter rules
+   */
+
+  public BitSet includesAll(
+    final String[] names)
+  {
+    Objects.requireNonNull(names, "names");
+
+    final var slots = new HashMap<String, Integer>(names.length * 2);
+    final var distinct = new ArrayList<String>();
+    final var slotOf = new int[names.length];
+    for (int index = 0; index < names.length; ++index) {
+      final var name = Objects.requireNonNull(names[index], "names");
+      final var existing = slots.get(name);
+      if (existing == null) {
+        slotOf[index] = distinct.size();
+        slots.put(name, Integer.valueOf(distinct.size()));
+        distinct.add(name);
+      } else {
+        slotOf[index] = existing.intValue();
+      }
+    }
+
+    final var results = new boolean[distinct.size()];
+    var slotRange = IntStream.range(0, results.length);
+    if (results.length >= PARALLEL_THRESHOLD) {
+      slotRange = slotRange.parallel();
+    }
+    slotRange.forEach(slot -> results[slot] = this.includes(distinct.get(slot)));
+
+    final var included = new BitSet(names.length);
+    for (int index = 0; index < names.length; ++index) {
+      if (results[slotOf[index]]) {
+        included.set(index);
+      }
+    }
+    return included;
+  }
+
+  /**
+   * Determine the rule that decides whether a repository name is included.
+   *
+   * @param name The repository name
+   *
+   * @return The index of the deciding rule, or {@code -1} if no rule matches
+   */
+
+  public int decidingRule(
+    final CharSequence name)
+  {
+    Objects.requireNonNull(name, "name");
+    return decider(this.evaluate(name, null));
+  }
+
+  /**
+   * Determine the rule that decides whether a repository is included.
+   *
+   * @param owner The repository owner
+   * @param name  The repository name
+   *
+   * @return The index of the deciding rule, or {@code -1} if no rule matches
+   *
+   * @see #includes(CharSequence, CharSequence)
+   */
+
+  public int decidingRule(
+    final CharSequence owner,
+    final CharSequence name)
+  {
+    Objects.requireNonNull(owner, "owner");
+    Objects.requireNonNull(name, "name");
+    return decider(this.evaluate(owner, name));
+  }
+
+  private long evaluate(
+    final CharSequence first,
+    final CharSequence second)
+  {
+    /*
+     * The automata operate on UTF-16 code units, which only agrees with
+     * the code point semantics of Pattern when no surrogates are present.
+     * A prefix rule only matches if no line terminator follows the prefix.
+     */
+
+    var limit = scan(first, 0, 0);
+    if (limit != SURROGATE && second != null) {
+      limit = scan(second, first.length() + 1, limit);
+    }
+    if (limit == SURROGATE) {
+      return this.evaluateSlowly(GTFilterNames.join(first, second));
+    }
+
+    var outcome = outcome(NO_HALT, NO_MATCH);
+    outcome = this.matchLiteral(first, second, outcome);
+    outcome = this.matchPrefixes(first, second, limit, outcome);
+    outcome = this.matchAutomata(first, second, outcome);
+    return this.matchFallbacks(first, second, outcome);
+  }
+
+  /**
+   * @return The position after the last line terminator in {@code text},
+   * offset by {@code offset}, or {@code limit} if there is none, or
+   * {@link #SURROGATE} if {@code text} contains a surrogate
+   */
+
+  private static int scan(
+    final CharSequence text,
+    final int offset,
+    final int limit)
+  {
+    var result = limit;
+    final var length = text.length();
+    for (int index = 0; index < length; ++index) {
+      final var c = text.charAt(index);
+      if (Character.isSurrogate(c)) {
+        return SURROGATE;
+      }
+      if (GTFilterRegex.isLineTerminator(c)) {
+        result = offset + index + 1;
+      }
+    }
+    return result;
+  }
+
+  private long matchLiteral(
+    final CharSequence first,
+    final CharSequence second,
+    final long outcome)
+  {
+    final var entry = this.literals.find(first, second);
+    if (entry == -1) {
+      return outcome;
+    }
+    return merge(outcome, this.literalHalts[entry], this.literalLasts[entry]);
+  }
+
+  private long matchPrefixes(
+    final CharSequence first,
+    final CharSequence second,
+    final int limit,
+    final long outcome)
+  {
+    final var length = GTFilterNames.length(first, second);
+
+    var result = outcome;
+    var node = GTFilterPrefixTrie.root();
+    for (int depth = 0; node != GTFilterPrefixTrie.NONE; ++depth) {
+      if (depth >= limit) {
+        result = merge(result, this.prefixHalts[node], this.prefixLasts[node]);
+      }
+      if (depth == length) {
+        break;
+      }
+      node = this.prefixes.child(node, GTFilterNames.charAt(first, second, depth));
+    }
+    return result;
+  }
+
+  private long matchAutomata(
+    final CharSequence first,
+    final CharSequence second,
+    final long outcome)
+  {
+    var result = outcome;
+    for (int index = 0; index < this.automata.length; ++index) {
+      final var state = this.automata[index].run(first, second);
+      if (state != GTFilterAutomaton.DEAD) {
+        result = merge(
+          result,
+          this.automatonHalts[index][state],
+          this.automatonLasts[index][state]);
+      }
+    }
+    return result;
+  }
+
+  private long matchFallbacks(
+    final CharSequence first,
+    final CharSequence second,
+    final long outcome)
+  {
+    var result = outcome;
+    String text = null;
+    for (final var rule : this.fallbacks) {
+      if (rule > haltOf(result)) {
+        break;
+      }
+
+      /*
+       * A rule that does not halt evaluation cannot change the result if
+       * a later rule is already known to match.
+       */
+
+      final var halting = isHalting(this.kinds[rule]);
+      if (!halting && rule < lastOf(result)) {
+        continue;
+      }
+      if (text == null) {
+        text = GTFilterNames.join(first, second);
+      }
+      if (this.patterns[rule].matcher(text).matches()) {
+        result = merge(result, halting ? rule : NO_HALT, rule);
+      }
+    }
+    return result;
+  }
+
+  private long evaluateSlowly(
+    final String name)
+  {
+    var outcome = outcome(NO_HALT, NO_MATCH);
+    for (int rule = 0; rule < this.patterns.length; ++rule) {
+      if (this.patterns[rule].matcher(name).matches()) {
+        if (isHalting(this.kinds[rule])) {
+          return merge(outcome, rule, rule);
+        }
+        outcome = merge(outcome, NO_HALT, rule);
+      }
+    }
+    return outcome;
+  }
+
+  private static int decider(
+    final long outcome)
+  {
+    final var halt = haltOf(outcome);
+    if (halt != NO_HALT) {
+      return halt;
+    }
+    return lastOf(outcome);
+  }
+
+  private boolean decide(
+    final long outcome)
+  {
+    final var rule = decider(outcome);
+    if (rule == NO_MATCH) {
+      return false;
+    }
+    return switch (this.kinds[rule]) {
+      case INCLUDE, INCLUDE_AND_HALT -> true;
+      case EXCLUDE, EXCLUDE_AND_HALT -> false;
+    };
+  }
+
+  /*
+   * The outcome of matching a set of rules is the first matching halting
+   * rule and the last matching rule, packed into a long so that the
+   * evaluation does not allocate.
+   */
+
+  private static long outcome(
+    final int halt,
+    final int last)
+  {
+    return ((long) halt << 32) | (last & 0xffff_ffffL);
+  }
+
+  private static int haltOf(
+    final long outcome)
+  {
+    return (int) (outcome >>> 32);
+  }
+
+  private static int lastOf(
+    final long outcome)
+  {
+    return (int) outcome;
+  }
+
+  private static long merge(
+    final long outcome,
+    final int halt,
+    final int last)
+  {
+    return outcome(
+      Math.min(haltOf(outcome), halt),
+      Math.max(lastOf(outcome), last));
+  }
+
+  private static final class Compilation
+  {
+    private final GTFilterLiteralIndex.Builder literals;
+    private final GTFilterPrefixTrie.Builder prefixes;
+    private final ArrayList<GTFilterAutomaton> automata;
+    private final ArrayList<Integer> fallbacks;
+    private int literalCount;
+    private int prefixCount;
+
+    Compilation()
+    {
+      this.literals = GTFilterLiteralIndex.builder();
+      this.prefixes = GTFilterPrefixTrie.builder();
+      this.automata = new ArrayList<>();
+      this.fallbacks = new ArrayList<>();
+    }
+  }
+}
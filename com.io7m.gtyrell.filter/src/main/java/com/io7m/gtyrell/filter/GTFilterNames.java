@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.filter;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * Functions over repository names given either as a single sequence, or as
+ * an owner and a name that are treated as if they were joined with a slash
+ * without actually being concatenated. In the latter form, the owner is
+ * passed as {@code first} and the name as {@code second}; in the former,
+ * {@code second} is {@code null}.
+ */
+
+final class GTFilterNames
+{
+  /**
+   * The separator between an owner and a name.
+   */
+
+  static final char SEPARATOR = '/';
+
+  private GTFilterNames()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * @param first  The owner, or the whole name
+   * @param second The name, or {@code null}
+   *
+   * @return The length of the joined name
+   */
+
+  static int length(
+    final CharSequence first,
+    final CharSequence second)
+  {
+    if (second == null) {
+      return first.length();
+    }
+    return first.length() + 1 + second.length();
+  }
+
+  /**
+   * @param first  The owner, or the whole name
+   * @param second The name, or {@code null}
+   * @param index  The index of a character in the joined name
+   *
+   * @return The character at {@code index} in the joined name
+   */
+
+  static char charAt(
+    final CharSequence first,
+    final CharSequence second,
+    final int index)
+  {
+    final var length = first.length();
+    if (index < length) {
+      return first.charAt(index);
+    }
+    if (index == length) {
+      return SEPARATOR;
+    }
+    return second.charAt(index - length - 1);
+  }
+
+  /**
+   * @param first  The owner, or the whole name
+   * @param second The name, or {@code null}
+   *
+   * @return The same value as {@link String#hashCode()} of the joined name
+   */
+
+  static int hashOf(
+    final CharSequence first,
+    final CharSequence second)
+  {
+    var hash = hashOf(0, first);
+    if (second != null) {
+      hash = 31 * hash + SEPARATOR;
+      hash = hashOf(hash, second);
+    }
+    return hash;
+  }
+
+  private static int hashOf(
+    final int initial,
+    final CharSequence text)
+  {
+    var hash = initial;
+    final var length = text.length();
+    for (int index = 0; index < length; ++index) {
+      hash = 31 * hash + text.charAt(index);
+    }
+    return hash;
+  }
+
+  /**
+   * @param text   A string
+   * @param first  The owner, or the whole name
+   * @param second The name, or {@code null}
+   *
+   * @return {@code true} if {@code text} is equal to the joined name
+   */
+
+  static boolean contentEquals(
+    final String text,
+    final CharSequence first,
+    final CharSequence second)
+  {
+    final var length = length(first, second);
+    if (text.length() != length) {
+      return false;
+    }
+    for (int index = 0; index < length; ++index) {
+      if (text.charAt(index) != charAt(first, second, index)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param first  The owner, or the whole name
+   * @param second The name, or {@code null}
+   *
+   * @return The joined name as a new string
+   */
+
+  static String join(
+    final CharSequence first,
+    final CharSequence second)
+  {
+    if (second == null) {
+      return first.toString();
+    }
+    return new StringBuilder(length(first, second))
+      .append(first)
+      .append(SEPARATOR)
+      .append(second)
+      .toString();
+  }
+}
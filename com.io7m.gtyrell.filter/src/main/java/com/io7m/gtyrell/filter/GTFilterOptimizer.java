@@ -0,0 +1,207 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.filter;
+
+import com.io7m.jlexing.core.LexicalPosition;
+import com.io7m.junreachable.UnreachableCodeException;
+import io.vavr.collection.List;
+
+import java.net.URI;
+import java.util.Objects;
+
+/**
+ * An optimization pass that removes rules that can never decide whether a
+ * repository is included.
+ *
+ * A rule decides the result for a name if it is the first matching rule
+ * that halts evaluation, or, if no matching rule halts evaluation, the last
+ * matching rule. Removing any number of rules that never decide the result
+ * for any name cannot change the result for any name. A rule provably never
+ * decides the result if either:
+ *
+ * <ul>
+ *   <li>An earlier rule that halts evaluation matches every name that the
+ *   rule matches, so that evaluation never reaches the rule with a name
+ *   that it matches.</li>
+ *   <li>The rule does not halt evaluation, and a later rule matches every
+ *   name that the rule matches, so that the rule is never the last matching
+ *   rule.</li>
+ * </ul>
+ *
+ * Containment is decided for literal and prefix patterns, for literal
+ * patterns contained in arbitrary patterns, and for identical patterns.
+ */
+
+final class GTFilterOptimizer
+{
+  private GTFilterOptimizer()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * The result of optimization.
+   *
+   * @param rules    The remaining rules
+   * @param warnings A warning for each removed rule
+   */
+
+  record Result(
+    List<GTFilterRule> rules,
+    List<GTFilterCompilationWarning> warnings)
+  {
+    Result
+    {
+      Objects.requireNonNull(rules, "rules");
+      Objects.requireNonNull(warnings, "warnings");
+    }
+  }
+
+  /**
+   * Remove rules that can never decide the result.
+   *
+   * @param rules     The rules
+   * @param positions The position of each rule
+   *
+   * @return The remaining rules and the warnings
+   */
+
+  static Result optimize(
+    final List<GTFilterRule> rules,
+    final List<LexicalPosition<URI>> positions)
+  {
+    Objects.requireNonNull(rules, "rules");
+    Objects.requireNonNull(positions, "positions");
+
+    final var size = rules.size();
+    final var ruleArray = rules.toJavaArray(GTFilterRule[]::new);
+    final var shapes = new GTFilterRuleShape[size];
+    for (int index = 0; index < size; ++index) {
+      shapes[index] = GTFilterRuleShape.classify(ruleArray[index]);
+    }
+
+    var kept = List.<GTFilterRule>empty();
+    var warnings = List.<GTFilterCompilationWarning>empty();
+    for (int index = 0; index < size; ++index) {
+      final var message = deadReason(ruleArray, shapes, positions, index);
+      if (message == null) {
+        kept = kept.append(ruleArray[index]);
+      } else {
+        warnings = warnings.append(
+          GTFilterCompilationWarning.of(positions.get(index), message));
+      }
+    }
+    return new Result(kept, warnings);
+  }
+
+  private static String deadReason(
+    final GTFilterRule[] rules,
+    final GTFilterRuleShape[] shapes,
+    final List<LexicalPosition<URI>> positions,
+    final int index)
+  {
+    for (int earlier = 0; earlier < index; ++earlier) {
+      if (isHalting(rules[earlier].kind())
+        && contains(rules[earlier], shapes[earlier], rules[index], shapes[index])) {
+        return String.format(
+          "Rule has no effect: every name it matches is decided by the rule at line %d",
+          Integer.valueOf(positions.get(earlier).line()));
+      }
+    }
+
+    if (isHalting(rules[index].kind())) {
+      return null;
+    }
+
+    for (int later = index + 1; later < rules.length; ++later) {
+      if (contains(rules[later], shapes[later], rules[index], shapes[index])) {
+        return String.format(
+          "Rule has no effect: every name it matches is also matched by the rule at line %d",
+          Integer.valueOf(positions.get(later).line()));
+      }
+    }
+    return null;
+  }
+
+  private static boolean isHalting(
+    final GTFilterRuleType.Kind kind)
+  {
+    return switch (kind) {
+      case INCLUDE, EXCLUDE -> false;
+      case INCLUDE_AND_HALT, EXCLUDE_AND_HALT -> true;
+    };
+  }
+
+  /**
+   * @return {@code true} if {@code outer} provably matches every name that
+   * {@code inner} matches
+   */
+
+  private static boolean contains(
+    final GTFilterRule outer,
+    final GTFilterRuleShape outer_shape,
+    final GTFilterRule inner,
+    final GTFilterRuleShape inner_shape)
+  {
+    final var outer_pattern = outer.pattern();
+    final var inner_pattern = inner.pattern();
+    if (outer_pattern.flags() == inner_pattern.flags()
+      && outer_pattern.pattern().equals(inner_pattern.pattern())) {
+      return true;
+    }
+
+    return switch (inner_shape.form()) {
+      case LITERAL -> containsLiteral(outer, outer_shape, inner_shape.text());
+      case PREFIX -> outer_shape.form() == GTFilterRuleShape.Form.PREFIX
+        && extendsPrefix(inner_shape.text(), outer_shape.text());
+      case GENERAL -> false;
+    };
+  }
+
+  private static boolean containsLiteral(
+    final GTFilterRule outer,
+    final GTFilterRuleShape outer_shape,
+    final String literal)
+  {
+    return switch (outer_shape.form()) {
+      case LITERAL -> outer_shape.text().equals(literal);
+      case PREFIX -> extendsPrefix(literal, outer_shape.text());
+      case GENERAL -> outer.pattern().matcher(literal).matches();
+    };
+  }
+
+  /**
+   * @return {@code true} if {@code text} starts with {@code prefix} and no
+   * line terminator follows the prefix, so that a prefix pattern with the
+   * given prefix matches every string starting with {@code text} that it
+   * could match
+   */
+
+  private static boolean extendsPrefix(
+    final String text,
+    final String prefix)
+  {
+    if (!text.startsWith(prefix)) {
+      return false;
+    }
+    for (int index = prefix.length(); index < text.length(); ++index) {
+      if (GTFilterRegex.isLineTerminator(text.charAt(index))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.filter;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * A trie of the literal prefixes of the rules whose patterns match a prefix
+ * followed by any other characters. Walking the trie along a repository
+ * name visits every node whose prefix the name starts with.
+ */
+
+final class GTFilterPrefixTrie
+{
+  /**
+   * The value returned when a node has no child for a character.
+   */
+
+  static final int NONE = -1;
+
+  private final char[][] labels;
+  private final int[][] children;
+  private final int[][] rules;
+
+  private GTFilterPrefixTrie(
+    final char[][] in_labels,
+    final int[][] in_children,
+    final int[][] in_rules)
+  {
+    this.labels = in_labels;
+    this.children = in_children;
+    this.rules = in_rules;
+  }
+
+  /**
+   * @return A new trie builder
+   */
+
+  static Builder builder()
+  {
+    return new Builder();
+  }
+
+  /**
+   * @return The root node, representing the empty prefix
+   */
+
+  static int root()
+  {
+    return 0;
+  }
+
+  /**
+   * @return The number of nodes in the trie
+   */
+
+  int nodeCount()
+  {
+    return this.rules.length;
+  }
+
+  /**
+   * @param node A node
+   * @param c    A character
+   *
+   * @return The child of {@code node} for {@code c}, or {@link #NONE}
+   */
+
+  int child(
+    final int node,
+    final char c)
+  {
+    final var node_labels = this.labels[node];
+    var low = 0;
+    var high = node_labels.length - 1;
+    while (low <= high) {
+      final var middle = (low + high) >>> 1;
+      final var label = node_labels[middle];
+      if (label < c) {
+        low = middle + 1;
+      } else if (label > c) {
+        high = middle - 1;
+      } else {
+        return this.children[node][middle];
+      }
+    }
+    return NONE;
+  }
+
+  /**
+   * @param node A node
+   *
+   * @return The ascending indices of the rules whose prefix ends at
+   * {@code node}
+   */
+
+  int[] rules(
+    final int node)
+  {
+    return this.rules[node];
+  }
+
+  /**
+   * A mutable builder of tries.
+   */
+
+  static final class Builder
+  {
+    private final ArrayList<TreeMap<Character, Integer>> nodes;
+    private final ArrayList<ArrayList<Integer>> nodeRules;
+
+    private Builder()
+    {
+      this.nodes = new ArrayList<>();
+      this.nodeRules = new ArrayList<>();
+      this.node();
+    }
+
+    private int node()
+    {
+      this.nodes.add(new TreeMap<>());
+      this.nodeRules.add(new ArrayList<>());
+      return this.nodes.size() - 1;
+    }
+
+    /**
+     * Add a rule.
+     *
+     * @param prefix The prefix matched by the rule
+     * @param rule   The rule index, which must be greater than any index
+     *               previously added
+     */
+
+    void add(
+      final String prefix,
+      final int rule)
+    {
+      Objects.requireNonNull(prefix, "prefix");
+
+      var current = root();
+      for (int index = 0; index < prefix.length(); ++index) {
+        final var c = Character.valueOf(prefix.charAt(index));
+        final var existing = this.nodes.get(current).get(c);
+        if (existing == null) {
+          final var created = this.node();
+          this.nodes.get(current).put(c, Integer.valueOf(created));
+          current = created;
+        } else {
+          current = existing.intValue();
+        }
+      }
+      this.nodeRules.get(current).add(Integer.valueOf(rule));
+    }
+
+    /**
+     * @return An immutable trie
+     */
+
+    GTFilterPrefixTrie build()
+    {
+      final var count = this.nodes.size();
+      final var labels = new char[count][];
+      final var children = new int[count][];
+      final var rules = new int[count][];
+      for (int node = 0; node < count; ++node) {
+        final var edges = this.nodes.get(node);
+        labels[node] = new char[edges.size()];
+        children[node] = new int[edges.size()];
+        var index = 0;
+        for (final Map.Entry<Character, Integer> edge : edges.entrySet()) {
+          labels[node][index] = edge.getKey().charValue();
+          children[node][index] = edge.getValue().intValue();
+          ++index;
+        }
+        rules[node] =
+          this.nodeRules.get(node).stream().mapToInt(Integer::intValue).toArray();
+      }
+      return new GTFilterPrefixTrie(labels, children, rules);
+    }
+  }
+}
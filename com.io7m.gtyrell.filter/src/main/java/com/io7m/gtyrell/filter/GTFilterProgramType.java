@@ -23,6 +23,7 @@ import org.immutables.value.Value;
 import org.slf4j.Logger;
 
 import java.time.LocalDateTime;
+import java.util.BitSet;
 
 /**
  * A compiled filter program.
@@ -44,64 +45,167 @@ public interface GTFilterProgramType
 
   List<GTFilterRule> rules();
 
+  /**
+   * @return The warnings produced when the program was compiled, such as for rules that were removed
+   * because they could never affect the result
+   */
+
+  @Value.Default
+  default List<GTFilterCompilationWarning> warnings()
+  {
+    return List.empty();
+  }
+
+  /**
+   * @return A matcher that evaluates all of the rules at once
+   */
+
+  @Value.Lazy
+  default GTFilterMatcher matcher()
+  {
+    return GTFilterMatcher.create(this.rules());
+  }
+
   /**
    * Determine if a repository name is included by the given rules. By default, no repositories are
-   * included, so a program with no rules automatically excludes all repositories.
+   * included, so a program with no rules automatically excludes all repositories. If debug logging
+   * is enabled, the evaluation is traced and the rule that decided the result is logged.
    *
    * @param logger The logger used for debug messages
    * @param name   The repository name
    *
    * @return {@code true} if the given repository is permitted by the filter rules
+   *
+   * @see #trace(CharSequence)
    */
 
   default boolean includes(
     final Logger logger,
     final String name)
   {
-    var included = false;
-
-    EVALUATION: for (final var rule : this.rules()) {
-      final var matches = rule.pattern().matcher(name).matches();
-      if (logger.isDebugEnabled()) {
-        logger.debug(
-          "filter: (rule {} {}) {} {}",
-          rule.kind(),
-          rule.pattern().pattern(),
-          name,
-          matches ? "matches" : "does not match");
-      }
+    if (logger.isDebugEnabled()) {
+      return logTrace(logger, this.trace(name));
+    }
+    return this.matcher().includes(name);
+  }
+
+  /**
+   * Determine if a repository is included by the given rules. The rules are matched against the
+   * owner and name separated by a slash, without concatenating them.
+   *
+   * @param logger The logger used for debug messages
+   * @param owner  The repository owner
+   * @param name   The repository name
+   *
+   * @return {@code true} if the given repository is permitted by the filter rules
+   *
+   * @see #includes(Logger, String)
+   * @see GTFilterMatcher#includes(CharSequence, CharSequence)
+   */
+
+  default boolean includes(
+    final Logger logger,
+    final CharSequence owner,
+    final CharSequence name)
+  {
+    if (logger.isDebugEnabled()) {
+      return logTrace(logger, this.trace(owner, name));
+    }
+    return this.matcher().includes(owner, name);
+  }
 
+  /**
+   * Determine which of the given repository names are included by the given rules. Each distinct
+   * name is evaluated once, and large arrays of names are evaluated in parallel. Nothing is logged.
+   *
+   * @param names The repository names
+   *
+   * @return A set containing the index of every name that is permitted by the filter rules
+   *
+   * @see GTFilterMatcher#includesAll(String[])
+   */
+
+  default BitSet includesAll(
+    final String[] names)
+  {
+    return this.matcher().includesAll(names);
+  }
+
+  /**
+   * Evaluate the given rules for a repository name, and explain the result.
+   *
+   * @param name The repository name
+   *
+   * @return The result of evaluation, and the rule that decided it
+   */
+
+  default GTFilterTrace trace(
+    final CharSequence name)
+  {
+    return this.traceOf(name.toString(), this.matcher().decidingRule(name));
+  }
+
+  /**
+   * Evaluate the given rules for a repository, and explain the result.
+   *
+   * @param owner The repository owner
+   * @param name  The repository name
+   *
+   * @return The result of evaluation, and the rule that decided it
+   */
+
+  default GTFilterTrace trace(
+    final CharSequence owner,
+    final CharSequence name)
+  {
+    return this.traceOf(
+      GTFilterNames.join(owner, name),
+      this.matcher().decidingRule(owner, name));
+  }
+
+  private GTFilterTrace traceOf(
+    final String name,
+    final int index)
+  {
+    final var builder = GTFilterTrace.builder();
+    builder.setName(name);
+    builder.setIncluded(false);
+    if (index >= 0) {
+      final var rule = this.rules().get(index);
+      builder.setRuleIndex(rule.sourceIndex().orElse(index));
+      builder.setPosition(rule.position());
+      builder.setRule(rule);
       switch (rule.kind()) {
-        case INCLUDE: {
-          if (matches) {
-            included = true;
-          }
-          break;
-        }
-        case EXCLUDE: {
-          if (matches) {
-            included = false;
-          }
-          break;
-        }
-        case INCLUDE_AND_HALT: {
-          if (matches) {
-            included = true;
-            break EVALUATION;
-          }
-          break;
-        }
-        case EXCLUDE_AND_HALT: {
-          if (matches) {
-            included = false;
-            break EVALUATION;
-          }
-          break;
-        }
+        case INCLUDE, INCLUDE_AND_HALT -> builder.setIncluded(true);
+        case EXCLUDE, EXCLUDE_AND_HALT -> builder.setIncluded(false);
       }
     }
+    return builder.build();
+  }
 
-    logger.debug("filter: result {} -> {}", name, Boolean.valueOf(included));
-    return included;
+  private static boolean logTrace(
+    final Logger logger,
+    final GTFilterTrace trace)
+  {
+    if (trace.rule().isPresent()) {
+      final var rule = trace.rule().get();
+      final var origin =
+        trace.position()
+          .map(position -> String.format(
+            "%s:%d",
+            GTFilterDiagnostics.fileOf(position),
+            Integer.valueOf(position.line())))
+          .orElseGet(() -> "rule " + (trace.ruleIndex().getAsInt() + 1));
+      logger.debug(
+        "filter: result {} -> {} ({}: {} {})",
+        trace.name(),
+        Boolean.valueOf(trace.included()),
+        origin,
+        rule.kind(),
+        rule.pattern().pattern());
+    } else {
+      logger.debug("filter: result {} -> false (no rule matched)", trace.name());
+    }
+    return trace.included();
   }
 }
@@ -0,0 +1,554 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A parser for the subset of {@link java.util.regex.Pattern} syntax that can
+ * be compiled into a {@link GTFilterAutomaton}. The subset consists of
+ * literal characters, {@code .}, character classes with ranges and
+ * negation, the {@code \d \D \w \W \s \S} classes, groups, alternation, and
+ * the {@code * + ? {n} {n,} {n,m}} quantifiers (greedy or reluctant), along
+ * with a {@code ^} at the very start or a {@code $} at the very end of the
+ * pattern, which never affect a match of the whole input.
+ *
+ * The parser is deliberately conservative: anything that is not certainly
+ * equivalent to the behaviour of {@link java.util.regex.Pattern}, such as
+ * flags, back references, lookaround, possessive quantifiers, character
+ * class intersections, and characters outside the Basic Multilingual Plane,
+ * causes the pattern to be rejected, and the pattern is then matched with
+ * {@link java.util.regex.Pattern} itself.
+ */
+
+final class GTFilterRegex
+{
+  /**
+   * The largest character value.
+   */
+
+  static final int CHAR_MAX = Character.MAX_VALUE;
+
+  /**
+   * The largest bound accepted in a counted quantifier.
+   */
+
+  private static final int REPEAT_MAX = 64;
+
+  private static final int[] DIGIT = {'0', '9'};
+  private static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+  private static final int[] SPACE = {'\t', '\r', ' ', ' '};
+
+  /**
+   * The characters matched by {@code .}: everything except the line
+   * terminators LF, CR, NEL (U+0085), LINE SEPARATOR (U+2028), and
+   * PARAGRAPH SEPARATOR (U+2029).
+   */
+
+  private static final int[] DOT = {
+    0, '\n' - 1,
+    '\n' + 1, '\r' - 1,
+    '\r' + 1, 0x84,
+    0x86, 0x2027,
+    0x202A, CHAR_MAX,
+  };
+
+  private final String text;
+  private int position;
+
+  /**
+   * @param c A character
+   *
+   * @return {@code true} if {@code c} is a line terminator, and is therefore
+   * not matched by {@code .}
+   */
+
+  static boolean isLineTerminator(
+    final char c)
+  {
+    return switch (c) {
+      case '\n', '\r', '\u0085', '\u2028', '\u2029' -> true;
+      default -> false;
+    };
+  }
+
+  /**
+   * @param chars A character set
+   *
+   * @return {@code true} if {@code chars} is the set matched by {@code .}
+   */
+
+  static boolean isDot(
+    final Chars chars)
+  {
+    return Arrays.equals(chars.ranges(), DOT);
+  }
+
+  private GTFilterRegex(
+    final String in_text)
+  {
+    this.text = in_text;
+    this.position = 0;
+  }
+
+  /**
+   * A node of a parsed expression.
+   */
+
+  sealed interface NodeType
+  {
+    // No methods
+  }
+
+  /**
+   * A single character drawn from a set.
+   *
+   * @param ranges The set, as sorted, disjoint, non-adjacent inclusive
+   *               ranges {@code lo0, hi0, lo1, hi1, ...}
+   */
+
+  record Chars(int[] ranges) implements NodeType
+  {
+    // No extra members
+  }
+
+  /**
+   * A sequence of expressions. The empty sequence matches the empty string.
+   *
+   * @param nodes The expressions
+   */
+
+  record Concat(List<NodeType> nodes) implements NodeType
+  {
+    // No extra members
+  }
+
+  /**
+   * A choice of expressions.
+   *
+   * @param nodes The expressions
+   */
+
+  record Alt(List<NodeType> nodes) implements NodeType
+  {
+    // No extra members
+  }
+
+  /**
+   * A repeated expression.
+   *
+   * @param node The expression
+   * @param min  The minimum number of repetitions
+   * @param max  The maximum number of repetitions, or {@code -1} if unbounded
+   */
+
+  record Repeat(NodeType node, int min, int max) implements NodeType
+  {
+    // No extra members
+  }
+
+  /**
+   * Parse a pattern.
+   *
+   * @param pattern The pattern, which must be a valid
+   *                {@link java.util.regex.Pattern}
+   *
+   * @return The parsed expression, or nothing if the pattern uses any
+   * unsupported construct
+   */
+
+  static Optional<NodeType> parse(
+    final String pattern)
+  {
+    final var parser = new GTFilterRegex(pattern);
+    try {
+      final var node = parser.parseAlt();
+      if (parser.position != pattern.length()) {
+        return Optional.empty();
+      }
+      return Optional.of(node);
+    } catch (final UnsupportedException e) {
+      return Optional.empty();
+    }
+  }
+
+  private NodeType parseAlt()
+    throws UnsupportedException
+  {
+    final var nodes = new ArrayList<NodeType>();
+    nodes.add(this.parseConcat());
+    while (this.peek() == '|') {
+      ++this.position;
+      nodes.add(this.parseConcat());
+    }
+    if (nodes.size() == 1) {
+      return nodes.get(0);
+    }
+    return new Alt(List.copyOf(nodes));
+  }
+
+  private NodeType parseConcat()
+    throws UnsupportedException
+  {
+    final var nodes = new ArrayList<NodeType>();
+    while (true) {
+      final var c = this.peek();
+      if (c == -1 || c == '|' || c == ')') {
+        break;
+      }
+      nodes.add(this.parseQuantified(this.parseAtom()));
+    }
+    if (nodes.size() == 1) {
+      return nodes.get(0);
+    }
+    return new Concat(List.copyOf(nodes));
+  }
+
+  private NodeType parseQuantified(
+    final NodeType atom)
+    throws UnsupportedException
+  {
+    final NodeType result;
+    switch (this.peek()) {
+      case '*' -> {
+        ++this.position;
+        result = new Repeat(atom, 0, -1);
+      }
+      case '+' -> {
+        ++this.position;
+        result = new Repeat(atom, 1, -1);
+      }
+      case '?' -> {
+        ++this.position;
+        result = new Repeat(atom, 0, 1);
+      }
+      case '{' -> {
+        ++this.position;
+        result = this.parseCounted(atom);
+      }
+      default -> {
+        return atom;
+      }
+    }
+
+    /*
+     * A reluctant quantifier matches the same inputs as a greedy one when
+     * the whole input must match; a possessive quantifier does not.
+     */
+
+    if (this.peek() == '?') {
+      ++this.position;
+    } else if (this.peek() == '+') {
+      throw new UnsupportedException();
+    }
+
+    switch (this.peek()) {
+      case '*', '+', '?', '{' -> throw new UnsupportedException();
+      default -> {
+        return result;
+      }
+    }
+  }
+
+  private NodeType parseCounted(
+    final NodeType atom)
+    throws UnsupportedException
+  {
+    final var min = this.parseNumber();
+    final int max;
+    if (this.peek() == ',') {
+      ++this.position;
+      if (this.peek() == '}') {
+        max = -1;
+      } else {
+        max = this.parseNumber();
+      }
+    } else {
+      max = min;
+    }
+
+    if (this.next() != '}') {
+      throw new UnsupportedException();
+    }
+    if (max != -1 && max < min) {
+      throw new UnsupportedException();
+    }
+    return new Repeat(atom, min, max);
+  }
+
+  private int parseNumber()
+    throws UnsupportedException
+  {
+    final var start = this.position;
+    while (this.peek() >= '0' && this.peek() <= '9') {
+      ++this.position;
+    }
+    if (this.position == start || this.position - start > 2) {
+      throw new UnsupportedException();
+    }
+
+    final var value =
+      Integer.parseInt(this.text.substring(start, this.position));
+    if (value > REPEAT_MAX) {
+      throw new UnsupportedException();
+    }
+    return value;
+  }
+
+  private NodeType parseAtom()
+    throws UnsupportedException
+  {
+    final var start = this.position;
+    final var c = this.next();
+    return switch (c) {
+      case '(' -> this.parseGroup();
+      case '[' -> new Chars(this.parseClass());
+      case '.' -> new Chars(DOT);
+      case '\\' -> new Chars(this.parseEscape());
+      case '^' -> this.parseAnchor(start == 0);
+      case '$' -> this.parseAnchor(this.position == this.text.length());
+      case ')', ']', '{', '}', '*', '+', '?' -> throw new UnsupportedException();
+      default -> new Chars(single(checkCharacter(c)));
+    };
+  }
+
+  private NodeType parseAnchor(
+    final boolean at_edge)
+    throws UnsupportedException
+  {
+    if (!at_edge) {
+      throw new UnsupportedException();
+    }
+    return new Concat(List.of());
+  }
+
+  private NodeType parseGroup()
+    throws UnsupportedException
+  {
+    if (this.peek() == '?') {
+      ++this.position;
+      if (this.next() != ':') {
+        throw new UnsupportedException();
+      }
+    }
+
+    final var node = this.parseAlt();
+    if (this.next() != ')') {
+      throw new UnsupportedException();
+    }
+    return node;
+  }
+
+  private int[] parseClass()
+    throws UnsupportedException
+  {
+    var negated = false;
+    if (this.peek() == '^') {
+      ++this.position;
+      negated = true;
+    }
+    if (this.peek() == ']') {
+      throw new UnsupportedException();
+    }
+
+    var ranges = new int[0];
+    while (true) {
+      final var c = this.next();
+      switch (c) {
+        case -1, '[' -> throw new UnsupportedException();
+        case ']' -> {
+          return negated ? complement(ranges) : ranges;
+        }
+        case '&' -> {
+          if (this.peek() == '&') {
+            throw new UnsupportedException();
+          }
+          ranges = union(ranges, this.parseClassRange(c));
+        }
+        case '\\' -> {
+          ranges = union(ranges, this.parseEscape());
+          if (this.peek() == '-' && this.peekAt(1) != ']') {
+            throw new UnsupportedException();
+          }
+        }
+        default -> {
+          ranges = union(ranges, this.parseClassRange(c));
+        }
+      }
+    }
+  }
+
+  private int[] parseClassRange(
+    final int lo)
+    throws UnsupportedException
+  {
+    checkCharacter(lo);
+    if (this.peek() != '-' || this.peekAt(1) == ']' || this.peekAt(1) == -1) {
+      return single(lo);
+    }
+
+    ++this.position;
+    final var hi = checkCharacter(this.next());
+    if (hi == '\\' || hi == '[' || hi < lo) {
+      throw new UnsupportedException();
+    }
+    if (this.peek() == '-' && this.peekAt(1) != ']') {
+      throw new UnsupportedException();
+    }
+    return new int[]{lo, hi};
+  }
+
+  private int[] parseEscape()
+    throws UnsupportedException
+  {
+    final var c = this.next();
+    return switch (c) {
+      case 'd' -> DIGIT;
+      case 'D' -> complement(DIGIT);
+      case 'w' -> WORD;
+      case 'W' -> complement(WORD);
+      case 's' -> SPACE;
+      case 'S' -> complement(SPACE);
+      case 't' -> single('\t');
+      case 'n' -> single('\n');
+      case 'r' -> single('\r');
+      case 'f' -> single('\f');
+      case -1 -> throw new UnsupportedException();
+      default -> {
+        if (Character.isLetterOrDigit(c) || c > 0x7f) {
+          throw new UnsupportedException();
+        }
+        yield single(c);
+      }
+    };
+  }
+
+  private static int checkCharacter(
+    final int c)
+    throws UnsupportedException
+  {
+    if (c == -1 || Character.isSurrogate((char) c)) {
+      throw new UnsupportedException();
+    }
+    return c;
+  }
+
+  private int peek()
+  {
+    return this.peekAt(0);
+  }
+
+  private int peekAt(
+    final int offset)
+  {
+    final var index = this.position + offset;
+    if (index >= this.text.length()) {
+      return -1;
+    }
+    return this.text.charAt(index);
+  }
+
+  private int next()
+  {
+    final var c = this.peek();
+    if (c != -1) {
+      ++this.position;
+    }
+    return c;
+  }
+
+  private static int[] single(
+    final int c)
+  {
+    return new int[]{c, c};
+  }
+
+  /**
+   * @param ranges A set of ranges
+   *
+   * @return The characters not in the set
+   */
+
+  static int[] complement(
+    final int[] ranges)
+  {
+    final var result = new ArrayList<Integer>();
+    var next = 0;
+    for (int index = 0; index < ranges.length; index += 2) {
+      if (ranges[index] > next) {
+        result.add(Integer.valueOf(next));
+        result.add(Integer.valueOf(ranges[index] - 1));
+      }
+      next = ranges[index + 1] + 1;
+    }
+    if (next <= CHAR_MAX) {
+      result.add(Integer.valueOf(next));
+      result.add(Integer.valueOf(CHAR_MAX));
+    }
+    return result.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * @param x A set of ranges
+   * @param y A set of ranges
+   *
+   * @return The union of the sets
+   */
+
+  static int[] union(
+    final int[] x,
+    final int[] y)
+  {
+    final var pairs = new int[(x.length + y.length) / 2][];
+    var count = 0;
+    for (int index = 0; index < x.length; index += 2) {
+      pairs[count] = new int[]{x[index], x[index + 1]};
+      ++count;
+    }
+    for (int index = 0; index < y.length; index += 2) {
+      pairs[count] = new int[]{y[index], y[index + 1]};
+      ++count;
+    }
+    Arrays.sort(pairs, (p, q) -> Integer.compare(p[0], q[0]));
+
+    final var result = new ArrayList<Integer>();
+    for (final var pair : pairs) {
+      final var last = result.size() - 1;
+      if (last > 0 && pair[0] <= result.get(last).intValue() + 1) {
+        result.set(last, Integer.valueOf(Math.max(result.get(last).intValue(), pair[1])));
+      } else {
+        result.add(Integer.valueOf(pair[0]));
+        result.add(Integer.valueOf(pair[1]));
+      }
+    }
+    return result.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * Raised when a pattern uses an unsupported construct.
+   */
+
+  private static final class UnsupportedException extends Exception
+  {
+    UnsupportedException()
+    {
+      super(null, null, false, false);
+    }
+  }
+}
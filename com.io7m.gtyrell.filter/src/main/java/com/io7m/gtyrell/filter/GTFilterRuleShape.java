@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The shape of a filter rule's pattern, used to pick the cheapest way of
+ * evaluating the rule.
+ *
+ * @param form The form of the pattern
+ * @param text The literal text for {@link Form#LITERAL} patterns, or the
+ *             prefix for {@link Form#PREFIX} patterns, and otherwise empty
+ * @param node The parsed pattern, if the pattern can be compiled into an
+ *             automaton
+ */
+
+record GTFilterRuleShape(
+  Form form,
+  String text,
+  Optional<GTFilterRegex.NodeType> node)
+{
+  /**
+   * The form of a pattern.
+   */
+
+  enum Form
+  {
+    /**
+     * The pattern matches exactly one string, such as {@code acme/widget}.
+     */
+
+    LITERAL,
+
+    /**
+     * The pattern matches a literal prefix followed by any characters
+     * other than line terminators, such as {@code acme/.*}.
+     */
+
+    PREFIX,
+
+    /**
+     * The pattern is any other expression.
+     */
+
+    GENERAL
+  }
+
+  /**
+   * The shape of a filter rule.
+   *
+   * @param form The form of the pattern
+   * @param text The literal text or prefix
+   * @param node The parsed pattern
+   */
+
+  GTFilterRuleShape
+  {
+    Objects.requireNonNull(form, "form");
+    Objects.requireNonNull(text, "text");
+    Objects.requireNonNull(node, "node");
+  }
+
+  /**
+   * Classify a rule.
+   *
+   * @param rule The rule
+   *
+   * @return The shape of the rule's pattern
+   */
+
+  static GTFilterRuleShape classify(
+    final GTFilterRule rule)
+  {
+    Objects.requireNonNull(rule, "rule");
+
+    if (rule.pattern().flags() != 0) {
+      return new GTFilterRuleShape(Form.GENERAL, "", Optional.empty());
+    }
+
+    final var parsed = GTFilterRegex.parse(rule.pattern().pattern());
+    if (parsed.isEmpty()) {
+      return new GTFilterRuleShape(Form.GENERAL, "", parsed);
+    }
+
+    final var sequence = new ArrayList<GTFilterRegex.NodeType>();
+    flatten(parsed.get(), sequence);
+
+    final var text = new StringBuilder(sequence.size());
+    for (int index = 0; index < sequence.size(); ++index) {
+      final var node = sequence.get(index);
+      final var last = index == sequence.size() - 1;
+      if (last && isAnything(node)) {
+        return new GTFilterRuleShape(Form.PREFIX, text.toString(), parsed);
+      }
+      if (!isSingle(node)) {
+        return new GTFilterRuleShape(Form.GENERAL, "", parsed);
+      }
+      text.append((char) ((GTFilterRegex.Chars) node).ranges()[0]);
+    }
+    return new GTFilterRuleShape(Form.LITERAL, text.toString(), parsed);
+  }
+
+  private static boolean isAnything(
+    final GTFilterRegex.NodeType node)
+  {
+    if (node instanceof final GTFilterRegex.Repeat repeat) {
+      return repeat.min() == 0
+        && repeat.max() == -1
+        && repeat.node() instanceof final GTFilterRegex.Chars chars
+        && GTFilterRegex.isDot(chars);
+    }
+    return false;
+  }
+
+  private static boolean isSingle(
+    final GTFilterRegex.NodeType node)
+  {
+    if (node instanceof final GTFilterRegex.Chars chars) {
+      final var ranges = chars.ranges();
+      return ranges.length == 2 && ranges[0] == ranges[1];
+    }
+    return false;
+  }
+
+  private static void flatten(
+    final GTFilterRegex.NodeType node,
+    final List<GTFilterRegex.NodeType> output)
+  {
+    if (node instanceof final GTFilterRegex.Concat concat) {
+      for (final var child : concat.nodes()) {
+        flatten(child, output);
+      }
+    } else {
+      output.add(node);
+    }
+  }
+}
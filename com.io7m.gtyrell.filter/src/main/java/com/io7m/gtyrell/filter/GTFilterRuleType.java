@@ -17,8 +17,12 @@
 package com.io7m.gtyrell.filter;
 
 import com.io7m.gtyrell.core.GTImmutableStyleType;
+import com.io7m.jlexing.core.LexicalPosition;
 import org.immutables.value.Value;
 
+import java.net.URI;
+import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.regex.Pattern;
 
 /**
@@ -73,4 +77,19 @@ public interface GTFilterRuleType
 
   @Value.Parameter
   Pattern pattern();
+
+  /**
+   * @return The position of the rule in the source of the program, if the
+   * rule was compiled from a source
+   */
+
+  Optional<LexicalPosition<URI>> position();
+
+  /**
+   * @return The index of the rule among all of the rules in the source of the
+   * program, including rules that were removed because they could never
+   * affect the result, if the rule was compiled from a source
+   */
+
+  OptionalInt sourceIndex();
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.filter;
+
+import com.io7m.gtyrell.core.GTImmutableStyleType;
+import com.io7m.jlexing.core.LexicalPosition;
+import org.immutables.value.Value;
+
+import java.net.URI;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+/**
+ * An explanation of the evaluation of a filter program for a single
+ * repository name.
+ */
+
+@GTImmutableStyleType
+@Value.Immutable
+public interface GTFilterTraceType
+{
+  /**
+   * @return The repository name
+   */
+
+  String name();
+
+  /**
+   * @return {@code true} if the repository is included
+   */
+
+  boolean included();
+
+  /**
+   * @return The index of the rule that decided the result, or nothing if no
+   * rule matched. For a program compiled from a source, this is the index of
+   * the rule among all of the rules in the source, including rules that were
+   * removed because they could never affect the result.
+   *
+   * @see GTFilterRuleType#sourceIndex()
+   */
+
+  OptionalInt ruleIndex();
+
+  /**
+   * @return The position in the source of the rule that decided the result,
+   * or nothing if no rule matched or the program was not compiled from a
+   * source
+   */
+
+  Optional<LexicalPosition<URI>> position();
+
+  /**
+   * @return The rule that decided the result, or nothing if no rule matched
+   */
+
+  Optional<GTFilterRule> rule();
+}
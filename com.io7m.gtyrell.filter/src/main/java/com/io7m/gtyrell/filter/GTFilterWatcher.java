@@ -0,0 +1,218 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.filter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A watcher that recompiles a filter program whenever the file that
+ * contains it changes. A recompiled program is only delivered if
+ * compilation succeeds; otherwise, the compilation errors are logged and
+ * the previous program remains in effect.
+ */
+
+public final class GTFilterWatcher implements Closeable
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTFilterWatcher.class);
+  }
+
+  /**
+   * The time allowed for a burst of changes to a file to settle before the
+   * file is read. Editors frequently write files in several steps.
+   */
+
+  private static final long SETTLE_MILLISECONDS = 250L;
+
+  private final GTFilterCompilersType compilers;
+  private final Path file;
+  private final Consumer<GTFilterProgram> receiver;
+  private final WatchService watcher;
+  private final Thread thread;
+  private byte[] compiled;
+
+  private GTFilterWatcher(
+    final GTFilterCompilersType in_compilers,
+    final Path in_file,
+    final Consumer<GTFilterProgram> in_receiver,
+    final WatchService in_watcher,
+    final byte[] in_compiled)
+  {
+    this.compilers = in_compilers;
+    this.file = in_file;
+    this.receiver = in_receiver;
+    this.watcher = in_watcher;
+    this.compiled = in_compiled;
+    this.thread = new Thread(this::run);
+    this.thread.setName(String.format(
+      "com.io7m.gtyrell.filter.watcher[%s]", in_file));
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Start watching a filter file. The file is assumed to contain the
+   * program that is currently in effect; only subsequent changes are
+   * delivered to {@code receiver}, on a dedicated thread.
+   *
+   * @param compilers A provider of filter compilers
+   * @param file      The filter file
+   * @param receiver  A function that receives each recompiled program
+   *
+   * @return A watcher
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static GTFilterWatcher watch(
+    final GTFilterCompilersType compilers,
+    final Path file,
+    final Consumer<GTFilterProgram> receiver)
+    throws IOException
+  {
+    Objects.requireNonNull(compilers, "compilers");
+    Objects.requireNonNull(file, "file");
+    Objects.requireNonNull(receiver, "receiver");
+
+    final var absolute = file.toAbsolutePath();
+    final var service = absolute.getFileSystem().newWatchService();
+    try {
+      absolute.getParent().register(
+        service,
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+
+      final var watcher =
+        new GTFilterWatcher(
+          compilers,
+          absolute,
+          receiver,
+          service,
+          Files.readAllBytes(absolute));
+      watcher.thread.start();
+      return watcher;
+    } catch (final IOException e) {
+      service.close();
+      throw e;
+    }
+  }
+
+  private void run()
+  {
+    LOG.debug("watching filter file {}", this.file);
+
+    try {
+      while (true) {
+        final var key = this.watcher.take();
+        var changed = false;
+        for (final var event : key.pollEvents()) {
+          final var context = event.context();
+          if (context == null || this.file.getFileName().equals(context)) {
+            changed = true;
+          }
+        }
+        key.reset();
+
+        if (changed) {
+          this.settle();
+          this.reload();
+        }
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (final ClosedWatchServiceException e) {
+      LOG.debug("stopped watching filter file {}", this.file);
+    }
+  }
+
+  private void settle()
+    throws InterruptedException
+  {
+    while (true) {
+      final var key =
+        this.watcher.poll(SETTLE_MILLISECONDS, TimeUnit.MILLISECONDS);
+      if (key == null) {
+        return;
+      }
+      key.pollEvents();
+      key.reset();
+    }
+  }
+
+  private void reload()
+  {
+    final byte[] data;
+    try {
+      data = Files.readAllBytes(this.file);
+    } catch (final IOException e) {
+      LOG.error("unable to read filter file {}: ", this.file, e);
+      return;
+    }
+
+    if (Arrays.equals(data, this.compiled)) {
+      LOG.debug("filter file {} is unchanged", this.file);
+      return;
+    }
+
+    final GTFilterProgram program;
+    try {
+      program =
+        this.compilers.createFor(this.file.toUri(), new ByteArrayInputStream(data))
+          .compile();
+    } catch (final GTFilterCompilerException e) {
+      LOG.error(
+        "filter file {} could not be compiled; the previous filter remains in effect",
+        this.file);
+      GTFilterDiagnostics.logErrors(LOG, e);
+      return;
+    }
+
+    GTFilterDiagnostics.logWarnings(LOG, program);
+
+    this.compiled = data;
+    LOG.info(
+      "reloaded filter file {} ({} rules)",
+      this.file,
+      Integer.valueOf(program.rules().size()));
+    try {
+      this.receiver.accept(program);
+    } catch (final RuntimeException e) {
+      LOG.error("unable to apply filter file {}: ", this.file, e);
+    }
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    this.watcher.close();
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import javax.management.MXBean;
+
+/**
+ * Issue archival metrics for a single repository source.
+ */
+
+// CHECKSTYLE:OFF
+@MXBean
+public interface GTGithubArchivalMXBean
+{
+  // CHECKSTYLE:ON
+
+  /**
+   * @return The number of archivals for which GitHub reported that no
+   * page of the listing was modified
+   */
+
+  long getArchivesNotModifiedTotal();
+
+  /**
+   * @return The number of archivals that fetched issues, but found that the
+   * archive content was unchanged and left the archive file untouched
+   */
+
+  long getArchivesUnchangedTotal();
+
+  /**
+   * @return The number of archivals that rewrote the archive file
+   */
+
+  long getArchivesRewrittenTotal();
+}
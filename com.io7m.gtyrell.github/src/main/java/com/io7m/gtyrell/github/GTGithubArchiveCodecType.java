@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.io7m.gtyrell.core.GTImmutableStyleType;
+import org.immutables.value.Value;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.OptionalInt;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+
+/**
+ * The compression settings for archives.
+ */
+
+@GTImmutableStyleType
+@Value.Immutable
+public interface GTGithubArchiveCodecType
+{
+  /**
+   * @return The compression format
+   */
+
+  @Value.Default
+  default GTGithubArchiveCompression compression()
+  {
+    return GTGithubArchiveCompression.GZIP;
+  }
+
+  /**
+   * @return The compression level (the format's default level if not specified)
+   */
+
+  OptionalInt level();
+
+  /**
+   * @return The number of threads used to compress a single archive
+   */
+
+  @Value.Default
+  default int threads()
+  {
+    return 1;
+  }
+
+  /**
+   * Compress data written to the given stream.
+   *
+   * @param output   The output stream
+   * @param executor An executor used for parallel gzip compression
+   *
+   * @return A compressing stream
+   *
+   * @throws IOException On I/O errors
+   */
+
+  default OutputStream compressing(
+    final OutputStream output,
+    final ExecutorService executor)
+    throws IOException
+  {
+    return switch (this.compression()) {
+      case NONE -> new BufferedOutputStream(output);
+      case GZIP -> {
+        final var level = this.level().orElse(Deflater.DEFAULT_COMPRESSION);
+        if (this.threads() > 1) {
+          yield new GTGithubParallelGzipOutputStream(
+            output, level, this.threads(), executor);
+        }
+        yield new GTGithubGzipOutputStream(output, level);
+      }
+      case ZSTD -> {
+        final var stream = new ZstdOutputStream(
+          output, this.level().orElse(Zstd.defaultCompressionLevel()));
+        if (this.threads() > 1) {
+          stream.setWorkers(this.threads());
+        }
+        yield stream;
+      }
+    };
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    if (this.threads() < 1) {
+      throw new IllegalArgumentException(
+        "Compression threads must be at least 1");
+    }
+
+    if (this.level().isPresent()) {
+      final var level = this.level().getAsInt();
+      switch (this.compression()) {
+        case NONE -> {
+          throw new IllegalArgumentException(
+            "A compression level cannot be specified without compression");
+        }
+        case GZIP -> {
+          if (level < 0 || level > 9) {
+            throw new IllegalArgumentException(
+              "Gzip compression levels must be in the range [0, 9]");
+          }
+        }
+        case ZSTD -> {
+          if (level < 1 || level > 22) {
+            throw new IllegalArgumentException(
+              "Zstandard compression levels must be in the range [1, 22]");
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The compression formats available for archives.
+ */
+
+public enum GTGithubArchiveCompression
+{
+  /**
+   * Archives are not compressed.
+   */
+
+  NONE(""),
+
+  /**
+   * Archives are compressed with gzip.
+   */
+
+  GZIP(".gz"),
+
+  /**
+   * Archives are compressed with Zstandard.
+   */
+
+  ZSTD(".zst");
+
+  private static final byte[] GZIP_MAGIC = {
+    (byte) 0x1f, (byte) 0x8b,
+  };
+
+  private static final byte[] ZSTD_MAGIC = {
+    (byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd,
+  };
+
+  private final String extension;
+
+  GTGithubArchiveCompression(
+    final String in_extension)
+  {
+    this.extension = in_extension;
+  }
+
+  /**
+   * @return The file name suffix of archives in this format
+   */
+
+  public String extension()
+  {
+    return this.extension;
+  }
+
+  /**
+   * Decompress a stream in any supported format. The format is determined
+   * from the first bytes of the stream rather than from a file name, so
+   * archives written with any compression setting can always be read.
+   *
+   * @param stream The input stream
+   *
+   * @return A decompressed stream
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static InputStream decompressing(
+    final InputStream stream)
+    throws IOException
+  {
+    final var buffered = new BufferedInputStream(stream);
+    buffered.mark(4);
+    final var magic = new byte[4];
+    final var count = buffered.readNBytes(magic, 0, 4);
+    buffered.reset();
+
+    if (count >= 2 && Arrays.equals(magic, 0, 2, GZIP_MAGIC, 0, 2)) {
+      return new GZIPInputStream(buffered);
+    }
+    if (count == 4 && Arrays.equals(magic, ZSTD_MAGIC)) {
+      return new ZstdInputStream(buffered);
+    }
+    return buffered;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.gtyrell.github;
+
+/**
+ * The kinds of repository metadata that can be archived.
+ */
+
+public enum GTGithubArchivedResource
+{
+  /**
+   * Issues and pull requests.
+   */
+
+  ISSUES(
+    "issues",
+    "repos/%s/%s/issues?state=all&sort=updated&direction=desc&per_page=100",
+    true),
+
+  /**
+   * Comments on issues and pull requests.
+   */
+
+  ISSUE_COMMENTS(
+    "issue-comments",
+    "repos/%s/%s/issues/comments?sort=updated&direction=desc&per_page=100",
+    true),
+
+  /**
+   * Pull request review comments, including the replies that make up review
+   * threads.
+   */
+
+  REVIEW_COMMENTS(
+    "review-comments",
+    "repos/%s/%s/pulls/comments?sort=updated&direction=desc&per_page=100",
+    true),
+
+  /**
+   * Releases. The release listing cannot be restricted to recent updates,
+   * and so every page of it is revalidated on each archival; the archive is
+   * rewritten from the fresh and cached pages whenever any page has
+   * changed.
+   */
+
+  RELEASES(
+    "releases",
+    "repos/%s/%s/releases?per_page=100",
+    false);
+
+  private final String fileName;
+  private final String path;
+  private final boolean incremental;
+
+  GTGithubArchivedResource(
+    final String in_file_name,
+    final String in_path,
+    final boolean in_incremental)
+  {
+    this.fileName = in_file_name;
+    this.path = in_path;
+    this.incremental = in_incremental;
+  }
+
+  /**
+   * @return The name used for the archive file, such as {@code issues} in
+   * {@code <repository>.issues.json.gz}
+   */
+
+  public String fileName()
+  {
+    return this.fileName;
+  }
+
+  /**
+   * @return The API path of the listing, taking the owner and name of the
+   * repository as format arguments
+   */
+
+  String path()
+  {
+    return this.path;
+  }
+
+  /**
+   * @return {@code true} if the listing is ordered by most recent update and
+   * accepts a {@code since} parameter
+   */
+
+  boolean isIncremental()
+  {
+    return this.incremental;
+  }
+}
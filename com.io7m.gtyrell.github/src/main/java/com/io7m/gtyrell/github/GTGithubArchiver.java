@@ -0,0 +1,813 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metadata archiver for a source. An archive is a single compressed
+ * JSON array containing every item of one {@link GTGithubArchivedResource}
+ * of a repository, such as its issues, assembled from every page of the
+ * listing. Pages are written to the archive in order as they arrive, so at
+ * most {@link GTGithubSourceConfigurationType#archivalParallelism()} pages
+ * are held in memory at any one time.
+ *
+ * Every request made by the archiver, for any repository and any kind of
+ * resource, shares a single limit of
+ * {@link GTGithubSourceConfigurationType#archivalParallelism()} requests in
+ * flight, so archiving more kinds of resource does not increase the load
+ * placed on the API at any one moment.
+ *
+ * For incremental resources, once an archive exists, the time of the most
+ * recent update of any item in the archive is stored alongside it, and only
+ * items updated since that time are fetched. Those items are written to the
+ * front of the new archive, and the remaining items are streamed across from
+ * the existing archive, omitting any item that was fetched again. The
+ * archive therefore remains ordered by most recent update, and the cost of
+ * archival depends on the number of changed items rather than the size of
+ * the archive.
+ *
+ * Update times only have a resolution of one second, so the items updated
+ * in the same second as the most recent item are always fetched again. A
+ * digest of those items is stored alongside the archive, and an archive is
+ * only considered up-to-date if nothing newer was fetched and the digest
+ * of the items fetched again is unchanged.
+ *
+ * Every page of a listing is requested with the validators of the previous
+ * response for the same page, and the payload of a page that has not been
+ * modified is taken from the cache. An existing archive is left alone if
+ * no page at all was modified.
+ *
+ * An existing archive that cannot be read is discarded, and the listing is
+ * fetched again in full.
+ */
+
+final class GTGithubArchiver implements GTGithubArchivalMXBean
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTGithubArchiver.class);
+  }
+
+  private final GTGithubClient client;
+  private final int parallelism;
+  private final Semaphore permits;
+  private final ExecutorService executor;
+  private final GTGithubArchiveCodec codec;
+  private final ExecutorService compressor;
+  private final AtomicLong notModified;
+  private final AtomicLong unchanged;
+  private final AtomicLong rewritten;
+  private final Set<GTGithubArchivedResource> resources;
+
+  GTGithubArchiver(
+    final GTGithubClient in_client,
+    final GTGithubSourceConfiguration in_configuration)
+  {
+    this.client =
+      Objects.requireNonNull(in_client, "client");
+    this.parallelism =
+      in_configuration.archivalParallelism();
+    this.permits =
+      new Semaphore(this.parallelism, true);
+    this.executor =
+      Executors.newFixedThreadPool(this.parallelism, r -> {
+        final var thread = new Thread(r);
+        thread.setName(String.format(
+          "com.io7m.gtyrell.github.archival[%d]",
+          Long.valueOf(thread.threadId())));
+        thread.setDaemon(true);
+        return thread;
+      });
+    this.notModified =
+      new AtomicLong();
+    this.unchanged =
+      new AtomicLong();
+    this.rewritten =
+      new AtomicLong();
+    this.resources =
+      in_configuration.archivedResources();
+    this.codec =
+      in_configuration.archiveCodec();
+    this.compressor =
+      Executors.newFixedThreadPool(this.codec.threads(), r -> {
+        final var thread = new Thread(r);
+        thread.setName(String.format(
+          "com.io7m.gtyrell.github.compression[%d]",
+          Long.valueOf(thread.threadId())));
+        thread.setDaemon(true);
+        return thread;
+      });
+  }
+
+  @Override
+  public long getArchivesNotModifiedTotal()
+  {
+    return this.notModified.get();
+  }
+
+  @Override
+  public long getArchivesUnchangedTotal()
+  {
+    return this.unchanged.get();
+  }
+
+  @Override
+  public long getArchivesRewrittenTotal()
+  {
+    return this.rewritten.get();
+  }
+
+  /**
+   * @return The kinds of resource archived for each repository
+   */
+
+  Set<GTGithubArchivedResource> resources()
+  {
+    return this.resources;
+  }
+
+  /**
+   * Archive a resource of the given repository.
+   *
+   * @param group    The repository owner
+   * @param name     The repository name
+   * @param resource The resource
+   * @param base     The archive file, without any compression suffix
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void archive(
+    final GTRepositoryGroupName group,
+    final GTRepositoryName name,
+    final GTGithubArchivedResource resource,
+    final Path base)
+    throws IOException
+  {
+    final var existing = this.existingArchive(base);
+    try {
+      this.archiveFrom(group, name, resource, base, existing);
+    } catch (final CorruptArchiveException e) {
+      LOG.warn(
+        "unable to read archive {}, fetching all {} again: ",
+        e.file,
+        resource.fileName(),
+        e);
+      Files.deleteIfExists(e.file);
+      this.archiveFrom(group, name, resource, base, Optional.empty());
+    }
+  }
+
+  private void archiveFrom(
+    final GTRepositoryGroupName group,
+    final GTRepositoryName name,
+    final GTGithubArchivedResource resource,
+    final Path base,
+    final Optional<Path> existing)
+    throws IOException
+  {
+    final var file =
+      base.resolveSibling(base.getFileName() + this.codec.compression().extension());
+
+    LOG.debug("fetching {}: {}", resource.fileName(), file);
+
+    final var state_file =
+      base.resolveSibling(base.getFileName() + ".properties");
+    final var state =
+      existing.isPresent() ? readState(state_file) : new Properties();
+    final var since =
+      sinceOf(resource, state);
+
+    final var uri =
+      this.client.api(
+        String.format(resource.path(), group.text(), name.text())
+          + since.map(time -> "&since=" + time).orElse(""));
+
+    final var file_tmp =
+      file.resolveSibling(file.getFileName() + ".tmp");
+    final var summary =
+      new Summary(since, Optional.ofNullable(state.getProperty("updated_at_sha256")));
+
+    final String digest;
+    try {
+      digest = this.write(existing, file_tmp, this.fetchPage(uri), summary);
+    } catch (final CorruptArchiveException e) {
+      Files.deleteIfExists(file_tmp);
+      throw e;
+    } catch (final JsonProcessingException e) {
+      LOG.error(
+        "could not parse {} for {}/{}: ",
+        resource.fileName(),
+        group.text(),
+        name.text(),
+        e);
+      Files.deleteIfExists(file_tmp);
+      summary.pages.forEach(this.client::forget);
+      return;
+    }
+
+    /*
+     * Every page is requested with the validators of the previous response
+     * for the same page. If the server reported that none of the pages have
+     * been modified, the existing archive is already up-to-date.
+     */
+
+    if (existing.isPresent() && !summary.modified) {
+      LOG.debug("{} are unchanged: {}", resource.fileName(), file);
+      Files.deleteIfExists(file_tmp);
+      this.notModified.incrementAndGet();
+      return;
+    }
+
+    /*
+     * GitHub returns items updated at or after the given time, so the most
+     * recently updated items are always returned again. If nothing newer
+     * was returned, and those items are unchanged, the archive is already
+     * up-to-date, and the request will be repeated verbatim next time.
+     */
+
+    if (summary.isUpToDate()) {
+      LOG.debug("{} are unchanged: {}", resource.fileName(), file);
+      Files.deleteIfExists(file_tmp);
+      this.unchanged.incrementAndGet();
+      return;
+    }
+
+    this.replaceIfChanged(existing, file, file_tmp, state, digest);
+    writeState(state_file, state, summary, digest);
+
+    /*
+     * The next request will be for a different URI, so the cached pages
+     * of this one are of no further use.
+     */
+
+    if (since.isPresent()) {
+      summary.pages.forEach(this.client::forget);
+    }
+  }
+
+  private void acquire()
+    throws InterruptedIOException
+  {
+    try {
+      this.permits.acquire();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst waiting to fetch a page");
+    }
+  }
+
+  /**
+   * Replace the archive with the new archive, unless their contents are
+   * identical. Rewriting an archive with identical content would needlessly
+   * change its modification time, and cause backup tools to copy it again.
+   */
+
+  private void replaceIfChanged(
+    final Optional<Path> existing,
+    final Path file,
+    final Path file_tmp,
+    final Properties state,
+    final String digest)
+    throws IOException
+  {
+    if (existing.equals(Optional.of(file))
+      && digest.equals(state.getProperty("sha256"))) {
+      LOG.debug("archive content is unchanged: {}", file);
+      Files.deleteIfExists(file_tmp);
+      this.unchanged.incrementAndGet();
+      return;
+    }
+
+    LOG.debug("rewriting archive: {}", file);
+    this.rewritten.incrementAndGet();
+    Files.move(
+      file_tmp,
+      file,
+      StandardCopyOption.ATOMIC_MOVE,
+      StandardCopyOption.REPLACE_EXISTING);
+    if (existing.isPresent() && !existing.get().equals(file)) {
+      Files.deleteIfExists(existing.get());
+    }
+  }
+
+  /**
+   * Find the existing archive, which may have been written with a
+   * different compression setting.
+   */
+
+  private Optional<Path> existingArchive(
+    final Path base)
+  {
+    final var preferred =
+      base.resolveSibling(base.getFileName() + this.codec.compression().extension());
+    if (Files.isRegularFile(preferred)) {
+      return Optional.of(preferred);
+    }
+
+    for (final var compression : GTGithubArchiveCompression.values()) {
+      final var file =
+        base.resolveSibling(base.getFileName() + compression.extension());
+      if (Files.isRegularFile(file)) {
+        return Optional.of(file);
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Write the new archive to a temporary file.
+   *
+   * @return The SHA-256 digest of the uncompressed archive content
+   */
+
+  private String write(
+    final Optional<Path> existing,
+    final Path file_tmp,
+    final GTGithubResponse first,
+    final Summary summary)
+    throws IOException
+  {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    try (OutputStream output =
+           new DigestOutputStream(
+             this.codec.compressing(Files.newOutputStream(file_tmp), this.compressor),
+             digest);
+         JsonGenerator generator =
+           this.client.mapper().getFactory().createGenerator(output)) {
+      generator.writeStartArray();
+      this.copyItems(first, generator, summary);
+      this.copyRemainingPages(
+        Optional.ofNullable(first.links().get("last")),
+        first.next(),
+        generator,
+        summary);
+      if (existing.isPresent() && summary.since.isPresent() && !summary.isUpToDate()) {
+        this.copyExisting(existing.get(), generator, summary);
+      }
+      generator.writeEndArray();
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  private static Optional<Instant> sinceOf(
+    final GTGithubArchivedResource resource,
+    final Properties state)
+  {
+    if (resource.isIncremental()) {
+      return parseTime(state.getProperty("updated_at", ""));
+    }
+    return Optional.empty();
+  }
+
+  private static Properties readState(
+    final Path file)
+  {
+    final var properties = new Properties();
+    if (!Files.isRegularFile(file)) {
+      return properties;
+    }
+
+    try (InputStream stream = Files.newInputStream(file)) {
+      properties.load(stream);
+    } catch (final IOException e) {
+      LOG.warn("unable to read archive state {}: ", file, e);
+    }
+    return properties;
+  }
+
+  private static void writeState(
+    final Path file,
+    final Properties previous,
+    final Summary summary,
+    final String digest)
+    throws IOException
+  {
+    final var properties = new Properties();
+    summary.newest.ifPresent(time -> {
+      properties.setProperty("updated_at", time.toString());
+      properties.setProperty("updated_at_sha256", summary.newestDigest());
+    });
+    properties.setProperty("sha256", digest);
+    if (properties.equals(previous)) {
+      return;
+    }
+
+    final var file_tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (OutputStream stream = Files.newOutputStream(file_tmp)) {
+      properties.store(stream, null);
+    }
+    Files.move(
+      file_tmp,
+      file,
+      StandardCopyOption.ATOMIC_MOVE,
+      StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Copy the items of the existing archive that were not fetched again.
+   * The identifier of an item is not necessarily its first field, so each
+   * item is buffered as a sequence of tokens until it is known whether
+   * the item is to be kept. Items without an identifier cannot have been
+   * fetched again, and are always kept.
+   */
+
+  private void copyExisting(
+    final Path file,
+    final JsonGenerator generator,
+    final Summary summary)
+    throws CorruptArchiveException
+  {
+    try {
+      this.copyExistingItems(file, generator, summary);
+    } catch (final IOException e) {
+      throw new CorruptArchiveException(file, e);
+    }
+  }
+
+  private void copyExistingItems(
+    final Path file,
+    final JsonGenerator generator,
+    final Summary summary)
+    throws IOException
+  {
+    try (InputStream input =
+           GTGithubArchiveCompression.decompressing(Files.newInputStream(file));
+         JsonParser parser = this.client.mapper().getFactory().createParser(input)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new JsonParseException(parser, "Expected an array");
+      }
+
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        try (TokenBuffer buffer = new TokenBuffer(parser)) {
+          final var item = copyItem(parser, buffer);
+          if (!summary.wasFetched(item)) {
+            buffer.serialize(generator);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Copy every page after the first. If the {@code last} link reveals the
+   * number of pages, the pages are fetched concurrently and copied in
+   * order; otherwise, {@code next} links are followed one at a time.
+   */
+
+  private void copyRemainingPages(
+    final Optional<URI> last,
+    final Optional<URI> next,
+    final JsonGenerator generator,
+    final Summary summary)
+    throws IOException
+  {
+    final var count = last.flatMap(GTGithubClient::pageNumberOf);
+    if (last.isPresent() && count.isPresent()) {
+      this.copyPagesInParallel(last.get(), count.get().intValue(), generator, summary);
+      return;
+    }
+
+    var uri = next;
+    while (uri.isPresent()) {
+      final var page = this.fetchPage(uri.get());
+      this.copyItems(page, generator, summary);
+      uri = page.next();
+    }
+  }
+
+  private void copyPagesInParallel(
+    final URI last,
+    final int count,
+    final JsonGenerator generator,
+    final Summary summary)
+    throws IOException
+  {
+    final var pending = new ArrayDeque<Future<GTGithubResponse>>(this.parallelism);
+
+    try {
+      var index = 2;
+      while (index <= count || !pending.isEmpty()) {
+        while (index <= count && pending.size() < this.parallelism) {
+          final var uri = GTGithubClient.withPageNumber(last, index);
+          pending.add(this.executor.submit(() -> this.fetchPage(uri)));
+          ++index;
+        }
+
+        this.copyItems(pending.remove().get(), generator, summary);
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst fetching pages");
+    } catch (final ExecutionException e) {
+      final var cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    } finally {
+      for (final var future : pending) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private GTGithubResponse fetchPage(
+    final URI uri)
+    throws IOException
+  {
+    this.acquire();
+    try {
+      return this.client.getCached(uri, GTGithubRequestPriority.ARCHIVAL);
+    } finally {
+      this.permits.release();
+    }
+  }
+
+  /**
+   * Copy the items in the JSON array of the given page to the generator.
+   * Items are copied token by token, so the page is validated, compressed,
+   * and written in a single pass without ever being parsed into a
+   * document.
+   */
+
+  private void copyItems(
+    final GTGithubResponse page,
+    final JsonGenerator generator,
+    final Summary summary)
+    throws IOException
+  {
+    summary.observePage(page);
+
+    try (JsonParser parser =
+           this.client.mapper().getFactory().createParser(page.body())) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new JsonParseException(parser, "Expected an array");
+      }
+
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        try (TokenBuffer buffer = new TokenBuffer(parser)) {
+          final var item = copyItem(parser, buffer);
+          buffer.serialize(generator);
+          if (summary.mayBeNewest(item)) {
+            item.content = this.client.mapper().writeValueAsBytes(buffer);
+          }
+          summary.observe(item);
+        }
+      }
+
+      if (parser.currentToken() != JsonToken.END_ARRAY) {
+        throw new JsonParseException(parser, "Expected an object");
+      }
+    }
+  }
+
+  /**
+   * Copy the object at the parser's current position, noting the
+   * identifier and update time of the item on the way past.
+   */
+
+  private static ItemKey copyItem(
+    final JsonParser parser,
+    final JsonGenerator generator)
+    throws IOException
+  {
+    final var key = new ItemKey();
+
+    generator.writeStartObject();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final var field = parser.currentName();
+      generator.writeFieldName(field);
+
+      final var value = parser.nextToken();
+      if (value == JsonToken.VALUE_NUMBER_INT && "id".equals(field)) {
+        key.id = OptionalLong.of(parser.getLongValue());
+      } else if (value == JsonToken.VALUE_STRING && "updated_at".equals(field)) {
+        key.updated = parseTime(parser.getText());
+      }
+      generator.copyCurrentStructure(parser);
+    }
+    generator.writeEndObject();
+    return key;
+  }
+
+  private static Optional<Instant> parseTime(
+    final String text)
+  {
+    try {
+      return Optional.of(Instant.parse(text));
+    } catch (final DateTimeParseException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * The fields of an item that are needed to merge archives.
+   */
+
+  private static final class ItemKey
+  {
+    private OptionalLong id;
+    private Optional<Instant> updated;
+    private byte[] content;
+
+    ItemKey()
+    {
+      this.id = OptionalLong.empty();
+      this.updated = Optional.empty();
+      this.content = new byte[0];
+    }
+  }
+
+  /**
+   * An existing archive could not be read.
+   */
+
+  private static final class CorruptArchiveException extends IOException
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Path file;
+
+    CorruptArchiveException(
+      final Path in_file,
+      final IOException cause)
+    {
+      super(String.format("Unreadable archive: %s", in_file), cause);
+      this.file = in_file;
+    }
+  }
+
+  /**
+   * The items fetched during a single archival.
+   */
+
+  private static final class Summary
+  {
+    private final Optional<Instant> since;
+    private final Optional<String> sinceDigest;
+    private final Set<Long> fetched;
+    private final List<byte[]> newestItems;
+    private final List<URI> pages;
+    private Optional<Instant> newest;
+    private long changed;
+    private boolean modified;
+
+    Summary(
+      final Optional<Instant> in_since,
+      final Optional<String> in_since_digest)
+    {
+      this.since = in_since;
+      this.sinceDigest = in_since_digest;
+      this.fetched = new HashSet<>();
+      this.newestItems = new ArrayList<>();
+      this.pages = new ArrayList<>();
+      this.newest = in_since;
+    }
+
+    void observePage(
+      final GTGithubResponse page)
+    {
+      this.pages.add(page.uri());
+      this.modified = this.modified || page.modified();
+    }
+
+    boolean mayBeNewest(
+      final ItemKey item)
+    {
+      final var updated = item.updated;
+      return updated.isPresent()
+        && (this.newest.isEmpty() || !updated.get().isBefore(this.newest.get()));
+    }
+
+    boolean wasFetched(
+      final ItemKey item)
+    {
+      final var id = item.id;
+      return id.isPresent() && this.fetched.contains(Long.valueOf(id.getAsLong()));
+    }
+
+    void observe(
+      final ItemKey item)
+    {
+      if (this.since.isPresent()) {
+        item.id.ifPresent(id -> this.fetched.add(Long.valueOf(id)));
+      }
+
+      final var updated = item.updated;
+      if (updated.isEmpty()) {
+        ++this.changed;
+        return;
+      }
+
+      final var time = updated.get();
+      if (this.newest.isEmpty() || time.isAfter(this.newest.get())) {
+        this.newest = updated;
+        this.newestItems.clear();
+      }
+      if (time.equals(this.newest.get())) {
+        this.newestItems.add(item.content);
+      }
+      if (this.since.isEmpty() || time.isAfter(this.since.get())) {
+        ++this.changed;
+      }
+    }
+
+    /**
+     * @return The SHA-256 digest of the items updated at the most recent
+     * update time, regardless of the order in which they were listed
+     */
+
+    String newestDigest()
+    {
+      final MessageDigest digest;
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (final NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+
+      final var items = new ArrayList<>(this.newestItems);
+      items.sort(Arrays::compare);
+      for (final var item : items) {
+        digest.update(item);
+        digest.update((byte) '\n');
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return {@code true} if nothing was updated since the last archival
+     */
+
+    boolean isUpToDate()
+    {
+      return this.since.isPresent()
+        && this.changed == 0L
+        && this.sinceDigest.equals(Optional.of(this.newestDigest()));
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * A persistent cache of response validators ({@code ETag} and
+ * {@code Last-Modified}) and, optionally, response payloads, keyed by
+ * request URI. The cached validators are sent with later requests for the
+ * same URI so that the server can answer with {@code 304 Not Modified}.
+ */
+
+final class GTGithubCache
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTGithubCache.class);
+  }
+
+  private final Optional<Path> directory;
+
+  GTGithubCache(
+    final Optional<Path> in_directory)
+  {
+    this.directory = Objects.requireNonNull(in_directory, "directory");
+  }
+
+  /**
+   * Add the validators of a cache entry to a request.
+   *
+   * @param request The request
+   * @param entry   The cache entry
+   */
+
+  static void addValidators(
+    final HttpRequest.Builder request,
+    final GTGithubCacheEntry entry)
+  {
+    entry.entityTag()
+      .ifPresent(tag -> request.header("If-None-Match", tag));
+    entry.lastModified()
+      .ifPresent(time -> request.header("If-Modified-Since", time));
+  }
+
+  /**
+   * Find the cache entry for a URI.
+   *
+   * @param uri The URI
+   *
+   * @return The entry, if one exists
+   */
+
+  Optional<GTGithubCacheEntry> find(
+    final URI uri)
+  {
+    if (this.directory.isEmpty()) {
+      return Optional.empty();
+    }
+
+    final var base = this.baseFor(uri);
+    final var meta = metaFile(base);
+    if (!Files.isRegularFile(meta)) {
+      return Optional.empty();
+    }
+
+    final var properties = new Properties();
+    try (InputStream stream = Files.newInputStream(meta)) {
+      properties.load(stream);
+    } catch (final IOException e) {
+      LOG.debug("unreadable cache entry {}: ", meta, e);
+      return Optional.empty();
+    }
+
+    if (!Objects.equals(properties.getProperty("uri"), uri.toString())) {
+      return Optional.empty();
+    }
+
+    final var links = new ArrayList<String>();
+    for (var index = 0; ; ++index) {
+      final var link = properties.getProperty("link." + index);
+      if (link == null) {
+        break;
+      }
+      links.add(link);
+    }
+
+    final var body = bodyFile(base);
+    return Optional.of(
+      GTGithubCacheEntry.builder()
+        .setEntityTag(Optional.ofNullable(properties.getProperty("etag")))
+        .setLastModified(Optional.ofNullable(properties.getProperty("last_modified")))
+        .setLinks(links)
+        .setBody(Optional.of(body).filter(Files::isRegularFile))
+        .build());
+  }
+
+  /**
+   * Store the validators and the payload of a response.
+   *
+   * @param uri     The request URI
+   * @param headers The response headers
+   * @param body    The response payload
+   */
+
+  void storeWithBody(
+    final URI uri,
+    final HttpHeaders headers,
+    final byte[] body)
+  {
+    if (this.directory.isEmpty()) {
+      return;
+    }
+
+    final var tag = headers.firstValue("ETag");
+    final var modified = headers.firstValue("Last-Modified");
+    final var base = this.baseFor(uri);
+
+    try {
+      if (tag.isEmpty() && modified.isEmpty()) {
+        Files.deleteIfExists(metaFile(base));
+        Files.deleteIfExists(bodyFile(base));
+        return;
+      }
+
+      final var properties = new Properties();
+      properties.setProperty("uri", uri.toString());
+      tag.ifPresent(t -> properties.setProperty("etag", t));
+      modified.ifPresent(t -> properties.setProperty("last_modified", t));
+
+      final var links = headers.allValues("Link");
+      for (var index = 0; index < links.size(); ++index) {
+        properties.setProperty("link." + index, links.get(index));
+      }
+
+      Files.createDirectories(base.getParent());
+
+      /*
+       * The payload is written before the validators, so that validators
+       * never refer to a payload that does not exist.
+       */
+
+      final var body_tmp = temporary(bodyFile(base));
+      Files.write(body_tmp, body);
+      Files.move(
+        body_tmp,
+        bodyFile(base),
+        StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+
+      final var meta_tmp = temporary(metaFile(base));
+      try (OutputStream stream = Files.newOutputStream(meta_tmp)) {
+        properties.store(stream, null);
+      }
+      Files.move(
+        meta_tmp,
+        metaFile(base),
+        StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    } catch (final IOException e) {
+      LOG.warn("unable to cache response for {}: ", uri, e);
+    }
+  }
+
+  /**
+   * Remove the cache entry for a URI, if one exists.
+   *
+   * @param uri The request URI
+   */
+
+  void remove(
+    final URI uri)
+  {
+    if (this.directory.isEmpty()) {
+      return;
+    }
+
+    final var base = this.baseFor(uri);
+    try {
+      Files.deleteIfExists(metaFile(base));
+      Files.deleteIfExists(bodyFile(base));
+    } catch (final IOException e) {
+      LOG.warn("unable to remove cached response for {}: ", uri, e);
+    }
+  }
+
+  private static Path temporary(
+    final Path file)
+  {
+    return file.resolveSibling(file.getFileName() + ".tmp");
+  }
+
+  private static Path metaFile(
+    final Path base)
+  {
+    return base.resolveSibling(base.getFileName() + ".properties");
+  }
+
+  private static Path bodyFile(
+    final Path base)
+  {
+    return base.resolveSibling(base.getFileName() + ".body");
+  }
+
+  private Path baseFor(
+    final URI uri)
+  {
+    try {
+      final var digest = MessageDigest.getInstance("SHA-256");
+      final var hash =
+        HexFormat.of().formatHex(
+          digest.digest(uri.toString().getBytes(StandardCharsets.UTF_8)));
+      return this.directory.orElseThrow()
+        .resolve(hash.substring(0, 2))
+        .resolve(hash);
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
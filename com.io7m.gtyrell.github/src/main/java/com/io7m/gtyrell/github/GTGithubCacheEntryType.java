@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import com.io7m.gtyrell.core.GTImmutableStyleType;
+import org.immutables.value.Value;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The validators (and optionally the payload) of a response that was
+ * previously received for a URI.
+ */
+
+@GTImmutableStyleType
+@Value.Immutable
+interface GTGithubCacheEntryType
+{
+  /**
+   * @return The value of the {@code ETag} header of the response
+   */
+
+  Optional<String> entityTag();
+
+  /**
+   * @return The value of the {@code Last-Modified} header of the response
+   */
+
+  Optional<String> lastModified();
+
+  /**
+   * @return The values of the {@code Link} header of the response
+   */
+
+  List<String> links();
+
+  /**
+   * @return The file containing the payload of the response, if the payload
+   * was cached
+   */
+
+  Optional<Path> body();
+}
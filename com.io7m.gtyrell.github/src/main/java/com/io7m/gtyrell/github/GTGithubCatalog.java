@@ -0,0 +1,209 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.io7m.gtyrell.core.GTRepositoryFullName;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The persisted catalog of the most recent successful enumeration of a
+ * source. The catalog is a compressed JSON document that is small enough
+ * to be loaded in well under a second, even for tens of thousands of
+ * repositories.
+ */
+
+final class GTGithubCatalog
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTGithubCatalog.class);
+  }
+
+  private static final int VERSION = 1;
+
+  private final Optional<Path> file;
+  private final ObjectMapper mapper;
+
+  GTGithubCatalog(
+    final Optional<Path> in_directory,
+    final ObjectMapper in_mapper)
+  {
+    this.file =
+      Objects.requireNonNull(in_directory, "directory")
+        .map(d -> d.resolve("catalog.json.gz"));
+    this.mapper =
+      Objects.requireNonNull(in_mapper, "mapper");
+  }
+
+  /**
+   * Load the catalog.
+   *
+   * @return The catalog, or nothing if no usable catalog exists
+   */
+
+  Optional<List<GTGithubCatalogEntry>> load()
+  {
+    if (this.file.isEmpty() || !Files.isRegularFile(this.file.get())) {
+      return Optional.empty();
+    }
+
+    final var path = this.file.get();
+    try (InputStream stream = new GZIPInputStream(Files.newInputStream(path))) {
+      final var root = this.mapper.readTree(stream);
+      if (root.path("version").asInt() != VERSION) {
+        LOG.debug("ignoring catalog {} with unsupported version", path);
+        return Optional.empty();
+      }
+
+      final var entries = new ArrayList<GTGithubCatalogEntry>();
+      for (final var node : root.path("repositories")) {
+        entries.add(parseEntry(node));
+      }
+      return Optional.of(entries);
+    } catch (final IOException | IllegalArgumentException e) {
+      LOG.warn("unable to load catalog {}: ", path, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Atomically replace the catalog.
+   *
+   * @param entries The catalog entries
+   */
+
+  void save(
+    final List<GTGithubCatalogEntry> entries)
+  {
+    if (this.file.isEmpty()) {
+      return;
+    }
+
+    final var root = this.mapper.createObjectNode();
+    root.put("version", VERSION);
+    final var array = root.putArray("repositories");
+    for (final var entry : entries) {
+      serializeEntry(array.addObject(), entry);
+    }
+
+    final var path = this.file.get();
+    final var path_tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try {
+      Files.createDirectories(path.getParent());
+      try (OutputStream stream = new GZIPOutputStream(Files.newOutputStream(path_tmp))) {
+        this.mapper.writeValue(stream, root);
+      }
+      Files.move(
+        path_tmp,
+        path,
+        StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+      LOG.debug("saved catalog of {} repositories", Integer.valueOf(entries.size()));
+    } catch (final IOException e) {
+      LOG.warn("unable to save catalog {}: ", path, e);
+    }
+  }
+
+  private static void serializeEntry(
+    final ObjectNode node,
+    final GTGithubCatalogEntry entry)
+  {
+    final var r = entry.remote();
+    node.put("id", r.id());
+    node.put("owner", r.owner());
+    node.put("name", r.name());
+    node.put("clone_url", r.cloneURL().toString());
+    node.put("fork", r.isFork());
+    node.put("archived", r.isArchived());
+    r.pushedAt().ifPresent(t -> node.put("pushed_at", t.toString()));
+    r.diskUsageKiB().ifPresent(x -> node.put("disk_usage", x));
+    r.issueCount().ifPresent(x -> node.put("issue_count", x));
+    r.issuesUpdatedAt().ifPresent(t -> node.put("issues_updated_at", t.toString()));
+
+    final var network = entry.network();
+    node.put("fork_network_known", network.isKnown());
+    network.root().ifPresent(root -> node.put("fork_root", root.text()));
+  }
+
+  private static GTGithubCatalogEntry parseEntry(
+    final JsonNode node)
+    throws IOException
+  {
+    final var remote =
+      GTGithubRemoteRepository.builder()
+        .setId(GTGithubListingREST.requireId(node, "id"))
+        .setOwner(node.path("owner").asText())
+        .setName(node.path("name").asText())
+        .setCloneURL(URI.create(node.path("clone_url").asText()))
+        .setFork(node.path("fork").asBoolean())
+        .setArchived(node.path("archived").asBoolean())
+        .setPushedAt(GTGithubListingREST.parseTime(node.path("pushed_at")))
+        .setDiskUsageKiB(optionalLong(node.path("disk_usage")))
+        .setIssueCount(optionalLong(node.path("issue_count")))
+        .setIssuesUpdatedAt(GTGithubListingREST.parseTime(node.path("issues_updated_at")))
+        .build();
+
+    final GTGithubForkNetwork network;
+    if (!node.path("fork_network_known").asBoolean()) {
+      network = GTGithubForkNetwork.UNKNOWN;
+    } else if (node.path("fork_root").isTextual()) {
+      final var text = node.path("fork_root").asText();
+      final var slash = text.indexOf('/');
+      network = GTGithubForkNetwork.of(
+        Optional.of(
+          GTRepositoryFullName.of(
+            GTRepositoryGroupName.of(text.substring(0, slash)),
+            GTRepositoryName.of(text.substring(slash + 1)))));
+    } else {
+      network = GTGithubForkNetwork.NOT_A_FORK;
+    }
+
+    return GTGithubCatalogEntry.of(remote, network);
+  }
+
+  private static OptionalLong optionalLong(
+    final JsonNode node)
+  {
+    if (node.isNumber()) {
+      return OptionalLong.of(node.asLong());
+    }
+    return OptionalLong.empty();
+  }
+}
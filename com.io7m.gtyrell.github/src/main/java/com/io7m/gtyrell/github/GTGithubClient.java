@@ -0,0 +1,436 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A long-lived client for the GitHub REST API. The underlying HTTP client
+ * keeps connections alive between requests (and between sync cycles), so
+ * that the cost of connection setup and TLS handshakes is paid once rather
+ * than once per request.
+ */
+
+final class GTGithubClient
+{
+  private static final Logger LOG;
+  private static final Pattern LINK_PATTERN;
+  private static final Pattern PAGE_PARAMETER;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTGithubClient.class);
+    LINK_PATTERN = Pattern.compile("<([^>]+)>\\s*;\\s*rel=\"([^\"]+)\"");
+    PAGE_PARAMETER = Pattern.compile("(^|&)page=([0-9]+)");
+  }
+
+  private static final int MAXIMUM_ATTEMPTS = 5;
+
+  private final GTGithubSourceConfiguration configuration;
+  private final HttpClient http;
+  private final ObjectMapper mapper;
+  private final String authorization;
+  private final GTGithubCache cache;
+  private final GTGithubRequestScheduler scheduler;
+
+  GTGithubClient(
+    final GTGithubSourceConfiguration in_configuration)
+  {
+    this.configuration =
+      Objects.requireNonNull(in_configuration, "configuration");
+
+    this.http =
+      HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .connectTimeout(this.configuration.connectTimeout())
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .build();
+
+    this.mapper = new ObjectMapper();
+    this.cache = new GTGithubCache(this.configuration.cacheDirectory());
+    this.scheduler = new GTGithubRequestScheduler(Clock.systemUTC());
+
+    final var token =
+      this.configuration.user() + ":" + this.configuration.password();
+    this.authorization =
+      "Basic " + Base64.getEncoder()
+        .encodeToString(token.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return The value of the {@code Authorization} header sent with each
+   * request
+   */
+
+  String authorization()
+  {
+    return this.authorization;
+  }
+
+  /**
+   * Parse the values of the {@code Link} header of a response.
+   *
+   * @param values The header values
+   *
+   * @return The links, by relation
+   */
+
+  static Map<String, URI> links(
+    final List<String> values)
+  {
+    final var results = new HashMap<String, URI>(4);
+    for (final var value : values) {
+      final var matcher = LINK_PATTERN.matcher(value);
+      while (matcher.find()) {
+        try {
+          results.put(matcher.group(2), URI.create(matcher.group(1)));
+        } catch (final IllegalArgumentException e) {
+          LOG.debug("unparseable link: {}", matcher.group(1));
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * @param uri A paginated URI
+   *
+   * @return The value of the {@code page} parameter of the URI, if any
+   */
+
+  static Optional<Integer> pageNumberOf(
+    final URI uri)
+  {
+    final var query = uri.getRawQuery();
+    if (query == null) {
+      return Optional.empty();
+    }
+
+    final var matcher = PAGE_PARAMETER.matcher(query);
+    if (!matcher.find()) {
+      return Optional.empty();
+    }
+
+    try {
+      return Optional.of(Integer.valueOf(matcher.group(2)));
+    } catch (final NumberFormatException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * @param uri  A paginated URI
+   * @param page The page number
+   *
+   * @return The URI with the value of the {@code page} parameter replaced
+   */
+
+  static URI withPageNumber(
+    final URI uri,
+    final int page)
+  {
+    final var text = uri.toString();
+    final var query_start = text.indexOf('?');
+    final var matcher = PAGE_PARAMETER.matcher(text.substring(query_start + 1));
+    return URI.create(
+      text.substring(0, query_start + 1)
+        + matcher.replaceFirst("$1page=" + page));
+  }
+
+  /**
+   * Resolve a path against the base URI of the API.
+   *
+   * @param path The path (such as {@code user/repos?per_page=100})
+   *
+   * @return The resolved URI
+   */
+
+  URI api(
+    final String path)
+  {
+    return this.configuration.apiURI().resolve(path);
+  }
+
+  /**
+   * @return The rate limit metrics of the client
+   */
+
+  GTGithubRateLimitMXBean rateLimit()
+  {
+    return this.scheduler;
+  }
+
+  /**
+   * @return The object mapper used to parse responses
+   */
+
+  ObjectMapper mapper()
+  {
+    return this.mapper;
+  }
+
+  /**
+   * Create a request builder for the given URI, with authentication and
+   * timeouts configured.
+   *
+   * @param uri The URI
+   *
+   * @return A request builder
+   */
+
+  HttpRequest.Builder request(
+    final URI uri)
+  {
+    return HttpRequest.newBuilder(uri)
+      .timeout(this.configuration.requestTimeout())
+      .header("Authorization", this.authorization)
+      .header("Accept", "application/vnd.github+json")
+      .header("Accept-Encoding", "gzip")
+      .header("User-Agent", "gtyrell")
+      .GET();
+  }
+
+  /**
+   * Send a request, returning the response body as a stream. The request
+   * waits for the rate limit scheduler, and is retried if it is rejected
+   * because a rate limit was exceeded. The stream is not decompressed (see
+   * {@link #body(HttpResponse)}). The caller is responsible for closing the
+   * stream.
+   *
+   * @param request  The request
+   * @param priority The request priority
+   *
+   * @return The response
+   *
+   * @throws IOException On I/O errors, or if the server returned an error
+   */
+
+  HttpResponse<InputStream> send(
+    final HttpRequest request,
+    final GTGithubRequestPriority priority)
+    throws IOException
+  {
+    for (var attempt = 1; ; ++attempt) {
+      this.scheduler.acquire(priority);
+
+      final HttpResponse<InputStream> response;
+      try {
+        LOG.debug("{} {}", request.method(), request.uri());
+        response = this.http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted whilst waiting for " + request.uri(), e);
+      }
+
+      this.scheduler.update(response.headers());
+
+      final var status = response.statusCode();
+      if (status < 400) {
+        return response;
+      }
+
+      final String message;
+      try (var stream = body(response)) {
+        message =
+          StandardCharsets.UTF_8.decode(ByteBuffer.wrap(stream.readNBytes(4096)))
+            .toString();
+      }
+
+      final var limited = status == 403 || status == 429;
+      if (limited
+        && this.scheduler.exceeded(response.headers(), message)
+        && attempt < MAXIMUM_ATTEMPTS) {
+        continue;
+      }
+
+      throw new IOException(String.format(
+        "%s %s: server returned status %d",
+        request.method(),
+        request.uri(),
+        Integer.valueOf(status)));
+    }
+  }
+
+  /**
+   * Open the (possibly compressed) body of a response.
+   *
+   * @param response The response
+   *
+   * @return The decompressed body
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static InputStream body(
+    final HttpResponse<InputStream> response)
+    throws IOException
+  {
+    final var encoding =
+      response.headers().firstValue("Content-Encoding");
+    if (Objects.equals(Optional.of("gzip"), encoding)) {
+      return new GZIPInputStream(response.body());
+    }
+    return response.body();
+  }
+
+  /**
+   * Forget the validators of a URI.
+   *
+   * @param uri The URI
+   */
+
+  void forget(
+    final URI uri)
+  {
+    this.cache.remove(uri);
+  }
+
+  /**
+   * Post a JSON document and parse the JSON response. Responses to posted
+   * documents are not cached.
+   *
+   * @param uri      The URI
+   * @param document The document
+   * @param priority The request priority
+   *
+   * @return The response document
+   *
+   * @throws IOException On I/O errors, or if the server returned an error
+   */
+
+  JsonNode postJSON(
+    final URI uri,
+    final JsonNode document,
+    final GTGithubRequestPriority priority)
+    throws IOException
+  {
+    final var request =
+      this.request(uri)
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofByteArray(
+          this.mapper.writeValueAsBytes(document)))
+        .build();
+
+    final var response = this.send(request, priority);
+    try (var stream = body(response)) {
+      return this.mapper.readTree(stream);
+    }
+  }
+
+  /**
+   * Fetch and parse a JSON document. The document is cached, and is
+   * returned from the cache if the server reports that it has not been
+   * modified.
+   *
+   * @param uri      The URI
+   * @param priority The request priority
+   *
+   * @return The document and the response links
+   *
+   * @throws IOException On I/O errors, or if the server returned an error
+   */
+
+  GTGithubPage getJSON(
+    final URI uri,
+    final GTGithubRequestPriority priority)
+    throws IOException
+  {
+    final var response = this.getCached(uri, priority);
+    try {
+      return GTGithubPage.of(
+        this.mapper.readTree(response.body()),
+        response.links());
+    } catch (final JsonProcessingException e) {
+      this.cache.remove(uri);
+      throw e;
+    }
+  }
+
+  /**
+   * Fetch a resource. The payload is cached along with its validators, and
+   * the validators are sent with later requests for the same URI; if the
+   * server reports that the resource has not been modified, the cached
+   * payload is returned.
+   *
+   * @param uri      The URI
+   * @param priority The request priority
+   *
+   * @return The payload and the response links
+   *
+   * @throws IOException On I/O errors, or if the server returned an error
+   */
+
+  GTGithubResponse getCached(
+    final URI uri,
+    final GTGithubRequestPriority priority)
+    throws IOException
+  {
+    final var cached =
+      this.cache.find(uri)
+        .filter(entry -> entry.body().isPresent());
+
+    final var request = this.request(uri);
+    cached.ifPresent(entry -> GTGithubCache.addValidators(request, entry));
+
+    final var response = this.send(request.build(), priority);
+    if (response.statusCode() == 304 && cached.isPresent()) {
+      response.body().close();
+      LOG.debug("not modified: {}", uri);
+      final var entry = cached.get();
+      return GTGithubResponse.of(
+        uri,
+        Files.readAllBytes(entry.body().orElseThrow()),
+        links(entry.links()),
+        false);
+    }
+
+    final byte[] data;
+    try (var stream = body(response)) {
+      data = stream.readAllBytes();
+    }
+
+    this.cache.storeWithBody(uri, response.headers(), data);
+    return GTGithubResponse.of(
+      uri,
+      data,
+      links(response.headers().allValues("Link")),
+      true);
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import com.io7m.gtyrell.core.GTRepositoryFullName;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * What is known about the fork network of a repository.
+ */
+
+final class GTGithubForkNetwork
+{
+  static final GTGithubForkNetwork NOT_A_FORK =
+    new GTGithubForkNetwork(true, Optional.empty());
+
+  static final GTGithubForkNetwork UNKNOWN =
+    new GTGithubForkNetwork(false, Optional.empty());
+
+  private final boolean known;
+  private final Optional<GTRepositoryFullName> root;
+
+  private GTGithubForkNetwork(
+    final boolean in_known,
+    final Optional<GTRepositoryFullName> in_root)
+  {
+    this.known = in_known;
+    this.root = Objects.requireNonNull(in_root, "root");
+  }
+
+  static GTGithubForkNetwork of(
+    final Optional<GTRepositoryFullName> root)
+  {
+    return new GTGithubForkNetwork(true, root);
+  }
+
+  /**
+   * @return {@code false} if the fork network could not be determined
+   */
+
+  boolean isKnown()
+  {
+    return this.known;
+  }
+
+  /**
+   * @return The root of the fork network, if the repository is a fork
+   */
+
+  Optional<GTRepositoryFullName> root()
+  {
+    return this.root;
+  }
+}
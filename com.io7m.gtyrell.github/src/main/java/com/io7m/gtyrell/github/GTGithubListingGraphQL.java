@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.io7m.gtyrell.core.GTRepositoryFullName;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * A repository listing that uses a single paginated GraphQL query, fetching
+ * only the fields that are needed to mirror and schedule repositories.
+ */
+
+final class GTGithubListingGraphQL implements GTGithubListingType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTGithubListingGraphQL.class);
+  }
+
+  private static final String QUERY = String.join(
+    "\n",
+    "query($cursor: String) {",
+    "  viewer {",
+    "    repositories(",
+    "      first: 100,",
+    "      after: $cursor,",
+    "      affiliations: [OWNER, COLLABORATOR, ORGANIZATION_MEMBER],",
+    "      ownerAffiliations: [OWNER, COLLABORATOR, ORGANIZATION_MEMBER]",
+    "    ) {",
+    "      pageInfo { hasNextPage endCursor }",
+    "      nodes {",
+    "        databaseId",
+    "        name",
+    "        owner { login }",
+    "        url",
+    "        isFork",
+    "        isArchived",
+    "        pushedAt",
+    "        diskUsage",
+    "        parent { name owner { login } isFork }",
+    "        issues { totalCount }",
+    "        latestIssues: issues(first: 1, orderBy: {field: UPDATED_AT, direction: DESC}) {",
+    "          nodes { updatedAt }",
+    "        }",
+    "      }",
+    "    }",
+    "  }",
+    "}"
+  );
+
+  private final GTGithubClient client;
+
+  GTGithubListingGraphQL(
+    final GTGithubClient in_client)
+  {
+    this.client = Objects.requireNonNull(in_client, "client");
+  }
+
+  @Override
+  public List<GTGithubRemoteRepository> list()
+    throws IOException
+  {
+    final var mapper = this.client.mapper();
+    final var endpoint = this.client.api("graphql");
+    final var results = new ArrayList<GTGithubRemoteRepository>();
+
+    String cursor = null;
+    while (true) {
+      final var request = mapper.createObjectNode();
+      request.put("query", QUERY);
+      request.putObject("variables").put("cursor", cursor);
+
+      final var response =
+        this.client.postJSON(endpoint, request, GTGithubRequestPriority.LISTING);
+
+      final var errors = response.path("errors");
+      if (errors.isArray() && !errors.isEmpty()) {
+        throw new IOException(String.format(
+          "GraphQL query failed: %s",
+          errors.path(0).path("message").asText()));
+      }
+
+      final var connection =
+        response.path("data").path("viewer").path("repositories");
+      if (!connection.isObject()) {
+        throw new IOException("GraphQL response did not contain repositories");
+      }
+
+      for (final var node : connection.path("nodes")) {
+        if (node.isObject()) {
+          results.add(parseRepository(node));
+        }
+      }
+
+      final var page_info = connection.path("pageInfo");
+      if (!page_info.path("hasNextPage").asBoolean()) {
+        break;
+      }
+      cursor = page_info.path("endCursor").asText();
+    }
+
+    LOG.debug("listed {} repositories", Integer.valueOf(results.size()));
+    return results;
+  }
+
+  private static GTGithubRemoteRepository parseRepository(
+    final JsonNode node)
+    throws IOException
+  {
+    try {
+      final var latest_issue =
+        node.path("latestIssues").path("nodes").path(0);
+
+      return GTGithubRemoteRepository.builder()
+        .setId(GTGithubListingREST.requireId(node, "databaseId"))
+        .setOwner(node.path("owner").path("login").asText())
+        .setName(node.path("name").asText())
+        .setCloneURL(new URI(node.path("url").asText() + ".git"))
+        .setFork(node.path("isFork").asBoolean())
+        .setArchived(node.path("isArchived").asBoolean())
+        .setPushedAt(GTGithubListingREST.parseTime(node.path("pushedAt")))
+        .setDiskUsageKiB(optionalLong(node.path("diskUsage")))
+        .setIssueCount(optionalLong(node.path("issues").path("totalCount")))
+        .setIssuesUpdatedAt(GTGithubListingREST.parseTime(latest_issue.path("updatedAt")))
+        .setForkSource(forkSourceOf(node.path("parent")))
+        .build();
+    } catch (final URISyntaxException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * A fork whose parent is not itself a fork belongs to the fork network
+   * rooted at its parent, and so its network is known without another
+   * request. The network of a fork of a fork must still be requested.
+   */
+
+  private static Optional<GTRepositoryFullName> forkSourceOf(
+    final JsonNode parent)
+  {
+    if (!parent.isObject() || parent.path("isFork").asBoolean(true)) {
+      return Optional.empty();
+    }
+
+    return Optional.of(
+      GTRepositoryFullName.of(
+        GTRepositoryGroupName.of(parent.path("owner").path("login").asText()),
+        GTRepositoryName.of(parent.path("name").asText())));
+  }
+
+  private static OptionalLong optionalLong(
+    final JsonNode node)
+  {
+    if (node.isNumber()) {
+      return OptionalLong.of(node.asLong());
+    }
+    return OptionalLong.empty();
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A repository listing that uses the REST API ({@code /user/repos}).
+ */
+
+final class GTGithubListingREST implements GTGithubListingType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTGithubListingREST.class);
+  }
+
+  private final GTGithubClient client;
+  private final GTGithubSourceConfiguration configuration;
+
+  GTGithubListingREST(
+    final GTGithubClient in_client,
+    final GTGithubSourceConfiguration in_configuration)
+  {
+    this.client =
+      Objects.requireNonNull(in_client, "client");
+    this.configuration =
+      Objects.requireNonNull(in_configuration, "configuration");
+  }
+
+  @Override
+  public List<GTGithubRemoteRepository> list()
+    throws IOException
+  {
+    final var results = new ArrayList<GTGithubRemoteRepository>();
+    for (final var page : this.listPages()) {
+      for (final var node : page.json()) {
+        results.add(parseRepository(node));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Fetch every page of the repository listing, in order. The first page
+   * reveals (via the {@code last} link) how many pages there are, and the
+   * remaining pages are then fetched concurrently. If the number of pages
+   * cannot be determined, the pages are fetched one at a time by following
+   * {@code next} links.
+   */
+
+  private List<GTGithubPage> listPages()
+    throws IOException
+  {
+    final var first =
+      this.client.getJSON(
+        this.client.api("user/repos?per_page=100&type=all"),
+        GTGithubRequestPriority.LISTING);
+
+    final var pages = new ArrayList<GTGithubPage>();
+    pages.add(first);
+
+    final var last = Optional.ofNullable(first.links().get("last"));
+    final var count = last.flatMap(GTGithubClient::pageNumberOf);
+    final var parallelism = this.configuration.listingParallelism();
+
+    if (parallelism > 1 && last.isPresent() && count.isPresent()) {
+      pages.addAll(this.listPagesInParallel(last.get(), count.get().intValue()));
+      return pages;
+    }
+
+    var next = first.next();
+    while (next.isPresent()) {
+      final var page =
+        this.client.getJSON(next.get(), GTGithubRequestPriority.LISTING);
+      pages.add(page);
+      next = page.next();
+    }
+    return pages;
+  }
+
+  private List<GTGithubPage> listPagesInParallel(
+    final URI last,
+    final int count)
+    throws IOException
+  {
+    LOG.debug("fetching {} listing pages", Integer.valueOf(count));
+
+    final var executor =
+      Executors.newFixedThreadPool(
+        Math.min(this.configuration.listingParallelism(), Math.max(count - 1, 1)),
+        r -> {
+          final var thread = new Thread(r);
+          thread.setName(String.format(
+            "com.io7m.gtyrell.github.listing[%d]",
+            Long.valueOf(thread.threadId()))
+          );
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    try {
+      final var futures = new ArrayList<Future<GTGithubPage>>(count);
+      for (var index = 2; index <= count; ++index) {
+        final var uri = GTGithubClient.withPageNumber(last, index);
+        futures.add(executor.submit(
+          () -> this.client.getJSON(uri, GTGithubRequestPriority.LISTING)));
+      }
+
+      final var pages = new ArrayList<GTGithubPage>(count);
+      for (final var future : futures) {
+        pages.add(future.get());
+      }
+      return pages;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst listing repositories");
+    } catch (final ExecutionException e) {
+      final var cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static GTGithubRemoteRepository parseRepository(
+    final JsonNode node)
+    throws IOException
+  {
+    try {
+      return GTGithubRemoteRepository.builder()
+        .setId(requireId(node, "id"))
+        .setOwner(node.path("owner").path("login").asText())
+        .setName(node.path("name").asText())
+        .setCloneURL(new URI(node.path("clone_url").asText()))
+        .setFork(node.path("fork").asBoolean())
+        .setArchived(node.path("archived").asBoolean())
+        .setPushedAt(parseTime(node.path("pushed_at")))
+        .setDiskUsageKiB(
+          node.path("size").isNumber()
+            ? OptionalLong.of(node.path("size").asLong())
+            : OptionalLong.empty())
+        .build();
+    } catch (final URISyntaxException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Read the numeric identifier of a repository. The identifier is the
+   * stable identity of the repository across renames, so a repository
+   * without one is rejected rather than given a default.
+   *
+   * @param node  The repository node
+   * @param field The name of the identifier field
+   *
+   * @return The identifier
+   *
+   * @throws IOException If the identifier is missing or not an integer
+   */
+
+  static long requireId(
+    final JsonNode node,
+    final String field)
+    throws IOException
+  {
+    final var id = node.path(field);
+    if (!id.isIntegralNumber() || !id.canConvertToLong()) {
+      throw new IOException(String.format(
+        "Repository '%s' has a missing or non-integer '%s' field",
+        node.path("name").asText(),
+        field));
+    }
+    return id.asLong();
+  }
+
+  static Optional<Instant> parseTime(
+    final JsonNode node)
+  {
+    if (!node.isTextual()) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(Instant.parse(node.asText()));
+    } catch (final DateTimeParseException e) {
+      LOG.debug("unparseable time: {}", node.asText());
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A gzip stream that compresses fixed-size blocks in parallel. Each block
+ * is compressed into a separate gzip member, and the members are written
+ * in order. A sequence of gzip members is itself a valid gzip stream, and
+ * is read transparently by {@link java.util.zip.GZIPInputStream} and by
+ * {@code gzip -d}, at the cost of a slightly worse compression ratio.
+ */
+
+final class GTGithubParallelGzipOutputStream extends OutputStream
+{
+  private static final int BLOCK_SIZE = 1048576;
+
+  private final OutputStream output;
+  private final int level;
+  private final int window;
+  private final ExecutorService executor;
+  private final ArrayDeque<Future<byte[]>> pending;
+  private byte[] block;
+  private int blockUsed;
+  private boolean written;
+  private boolean closed;
+
+  GTGithubParallelGzipOutputStream(
+    final OutputStream in_output,
+    final int in_level,
+    final int in_threads,
+    final ExecutorService in_executor)
+  {
+    this.output = Objects.requireNonNull(in_output, "output");
+    this.executor = Objects.requireNonNull(in_executor, "executor");
+    this.level = in_level;
+    this.window = in_threads * 2;
+    this.pending = new ArrayDeque<>(this.window);
+    this.block = new byte[BLOCK_SIZE];
+  }
+
+  private static byte[] compress(
+    final byte[] data,
+    final int size,
+    final int level)
+    throws IOException
+  {
+    final var bytes = new ByteArrayOutputStream(size / 4 + 64);
+    try (var gzip = new GTGithubGzipOutputStream(bytes, level)) {
+      gzip.write(data, 0, size);
+    }
+    return bytes.toByteArray();
+  }
+
+  @Override
+  public void write(
+    final int b)
+    throws IOException
+  {
+    this.write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(
+    final byte[] data,
+    final int offset,
+    final int length)
+    throws IOException
+  {
+    Objects.checkFromIndexSize(offset, length, data.length);
+    if (this.closed) {
+      throw new IOException("Stream is closed");
+    }
+
+    var position = offset;
+    var remaining = length;
+    while (remaining > 0) {
+      final var count = Math.min(remaining, BLOCK_SIZE - this.blockUsed);
+      System.arraycopy(data, position, this.block, this.blockUsed, count);
+      this.blockUsed += count;
+      position += count;
+      remaining -= count;
+
+      if (this.blockUsed == BLOCK_SIZE) {
+        this.submitBlock();
+      }
+    }
+  }
+
+  private void submitBlock()
+    throws IOException
+  {
+    final var data = this.block;
+    final var size = this.blockUsed;
+    final var block_level = this.level;
+    this.pending.add(this.executor.submit(() -> compress(data, size, block_level)));
+    this.block = new byte[BLOCK_SIZE];
+    this.blockUsed = 0;
+    this.written = true;
+
+    while (this.pending.size() >= this.window) {
+      this.writeCompleted();
+    }
+  }
+
+  private void writeCompleted()
+    throws IOException
+  {
+    try {
+      this.output.write(this.pending.remove().get());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst compressing");
+    } catch (final ExecutionException e) {
+      final var cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  @Override
+  public void flush()
+    throws IOException
+  {
+    if (this.blockUsed > 0) {
+      this.submitBlock();
+    }
+    while (!this.pending.isEmpty()) {
+      this.writeCompleted();
+    }
+    this.output.flush();
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    if (this.closed) {
+      return;
+    }
+
+    try {
+      if (this.blockUsed > 0 || !this.written) {
+        this.submitBlock();
+      }
+      while (!this.pending.isEmpty()) {
+        this.writeCompleted();
+      }
+    } finally {
+      this.closed = true;
+      for (final var future : this.pending) {
+        future.cancel(true);
+      }
+      this.output.close();
+    }
+  }
+}
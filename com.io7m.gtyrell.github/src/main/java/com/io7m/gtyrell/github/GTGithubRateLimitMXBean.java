@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import javax.management.MXBean;
+
+/**
+ * GitHub API rate limit metrics for a single repository source.
+ */
+
+// CHECKSTYLE:OFF
+@MXBean
+public interface GTGithubRateLimitMXBean
+{
+  // CHECKSTYLE:ON
+
+  /**
+   * @return The number of requests allowed per rate limit window, or -1 if
+   * not yet known
+   */
+
+  long getRateLimit();
+
+  /**
+   * @return The number of requests remaining in the current rate limit
+   * window, or -1 if not yet known
+   */
+
+  long getRateLimitRemaining();
+
+  /**
+   * @return The time at which the current rate limit window resets
+   */
+
+  String getRateLimitResetTime();
+
+  /**
+   * @return The number of requests made in total
+   */
+
+  long getRequestsTotal();
+
+  /**
+   * @return The number of times a request was rejected because a primary or
+   * secondary rate limit had been exceeded
+   */
+
+  long getRateLimitExceededTotal();
+
+  /**
+   * @return The total number of seconds requests have spent waiting for the
+   * rate limit
+   */
+
+  long getThrottledTimeSecondsTotal();
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import com.io7m.gtyrell.core.GTImmutableStyleType;
+import com.io7m.gtyrell.core.GTRepositoryFullName;
+import org.immutables.value.Value;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * A repository as described by a GitHub listing.
+ */
+
+@GTImmutableStyleType
+@Value.Immutable
+interface GTGithubRemoteRepositoryType
+{
+  /**
+   * @return The stable GitHub ID of the repository
+   */
+
+  long id();
+
+  /**
+   * @return The name of the owner of the repository
+   */
+
+  String owner();
+
+  /**
+   * @return The name of the repository
+   */
+
+  String name();
+
+  /**
+   * @return The HTTPS clone URL of the repository
+   */
+
+  URI cloneURL();
+
+  /**
+   * @return {@code true} if the repository is a fork
+   */
+
+  boolean isFork();
+
+  /**
+   * @return {@code true} if the repository is archived
+   */
+
+  @Value.Default
+  default boolean isArchived()
+  {
+    return false;
+  }
+
+  /**
+   * @return The time of the most recent push to the repository
+   */
+
+  Optional<Instant> pushedAt();
+
+  /**
+   * @return The approximate size of the repository in KiB
+   */
+
+  OptionalLong diskUsageKiB();
+
+  /**
+   * @return The number of issues in the repository, if known
+   */
+
+  OptionalLong issueCount();
+
+  /**
+   * @return The time at which the most recently updated issue was updated,
+   * if known
+   */
+
+  Optional<Instant> issuesUpdatedAt();
+
+  /**
+   * @return The root of the fork network to which the repository belongs,
+   * if the listing reported it
+   */
+
+  Optional<GTRepositoryFullName> forkSource();
+}
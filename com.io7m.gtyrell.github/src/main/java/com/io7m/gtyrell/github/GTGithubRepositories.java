@@ -17,27 +17,46 @@
 package com.io7m.gtyrell.github;
 
 import com.io7m.gtyrell.core.GTGitExecutableType;
+import com.io7m.gtyrell.core.GTLFSRemote;
+import com.io7m.gtyrell.core.GTRepositoryFullName;
 import com.io7m.gtyrell.core.GTRepositoryGroup;
 import com.io7m.gtyrell.core.GTRepositoryGroupName;
 import com.io7m.gtyrell.core.GTRepositoryGroupType;
 import com.io7m.gtyrell.core.GTRepositoryName;
 import com.io7m.gtyrell.core.GTRepositorySourceType;
 import com.io7m.gtyrell.core.GTRepositoryType;
+import com.io7m.gtyrell.filter.GTFilterCompilers;
 import com.io7m.gtyrell.filter.GTFilterProgram;
+import com.io7m.gtyrell.filter.GTFilterWatcher;
 import io.vavr.Tuple;
 import io.vavr.collection.SortedMap;
 import io.vavr.collection.TreeMap;
-import org.kohsuke.github.GHMyself;
-import org.kohsuke.github.GitHubBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.text.SimpleDateFormat;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Objects;
-import java.util.Properties;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A repository group producer that fetches the owned repositories of a single (authenticated) user
@@ -52,28 +71,56 @@ public final class GTGithubRepositories implements GTRepositorySourceType
     LOG = LoggerFactory.getLogger(GTGithubRepositories.class);
   }
 
-  private final Properties props;
   private final String username;
-  private final String password;
-  private final SimpleDateFormat formatter;
-  private final GTFilterProgram filter;
+  private volatile GTFilterProgram filter;
+  private final GTGithubSourceConfiguration configuration;
+  private final GTGithubClient client;
+  private final GTGithubListingType listing;
+  private final GTGithubArchiver archiver;
+  private final GTGithubCatalog catalog;
+  private final ExecutorService catalogExecutor;
+  private final Object catalogLock;
+  private final Object enumerationLock;
+  private final ConcurrentHashMap<String, GTGithubForkNetwork> networks;
+  private boolean catalogLoaded;
+  private CompletableFuture<Filtered> catalogPending;
+  private Filtered filtered;
+  private boolean filterReloaded;
 
   private GTGithubRepositories(
-    final String in_username,
-    final String in_password,
-    final GTFilterProgram in_filter)
+    final GTGithubSourceConfiguration in_configuration)
   {
+    this.configuration =
+      Objects.requireNonNull(in_configuration, "configuration");
     this.username =
-      Objects.requireNonNull(in_username, "in_username");
-    this.password =
-      Objects.requireNonNull(in_password, "in_password");
+      this.configuration.user();
     this.filter =
-      Objects.requireNonNull(in_filter, "filter");
-
-    this.props = new Properties();
-    this.props.setProperty("login", this.username);
-    this.props.setProperty("password", this.password);
-    this.formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SZ");
+      this.configuration.filter();
+    this.client =
+      new GTGithubClient(this.configuration);
+    this.listing =
+      switch (this.configuration.listingBackend()) {
+        case REST -> new GTGithubListingREST(this.client, this.configuration);
+        case GRAPHQL -> new GTGithubListingGraphQL(this.client);
+      };
+    this.archiver =
+      new GTGithubArchiver(this.client, this.configuration);
+    this.catalog =
+      new GTGithubCatalog(
+        this.configuration.cacheDirectory(),
+        this.client.mapper());
+    this.catalogExecutor =
+      Executors.newSingleThreadExecutor(runnable -> {
+        final var thread = new Thread(runnable);
+        thread.setName(String.format(
+          "com.io7m.gtyrell.github.catalog[%s]",
+          this.configuration.name()));
+        thread.setDaemon(true);
+        return thread;
+      });
+    this.catalogLock = new Object();
+    this.enumerationLock = new Object();
+    this.networks = new ConcurrentHashMap<>();
   }
 
   /**
@@ -91,7 +138,136 @@ public final class GTGithubRepositories implements GTRepositorySourceType
     final String in_password,
     final GTFilterProgram in_filter)
   {
-    return new GTGithubRepositories(in_username, in_password, in_filter);
+    return newSource(
+      GTGithubSourceConfiguration.builder()
+        .setUser(in_username)
+        .setPassword(in_password)
+        .setFilter(in_filter)
+        .build());
+  }
+
+  /**
+   * Create a new repository source.
+   *
+   * @param in_configuration The source configuration
+   *
+   * @return A new source
+   */
+
+  public static GTRepositorySourceType newSource(
+    final GTGithubSourceConfiguration in_configuration)
+  {
+    final var source = new GTGithubRepositories(in_configuration);
+    source.registerMetrics();
+    in_configuration.filterFile().ifPresent(source::watchFilter);
+    return source;
+  }
+
+  private void watchFilter(
+    final Path file)
+  {
+    try {
+      GTFilterWatcher.watch(
+        GTFilterCompilers.create(Clock.systemDefaultZone()),
+        file,
+        this::setFilter);
+    } catch (final IOException e) {
+      LOG.error("unable to watch filter file {}: ", file, e);
+    }
+  }
+
+  /**
+   * Replace the repository filter. The repositories of the current catalog
+   * are re-evaluated against the new filter at once, and the next call to
+   * {@link #get(GTGitExecutableType)} serves the current catalog with the
+   * new filter rather than enumerating the source again. The catalog lock
+   * is only held to read and replace the current catalog, so a reload is
+   * never held up by an enumeration in progress.
+   */
+
+  private void setFilter(
+    final GTFilterProgram program)
+  {
+    final Filtered current;
+    synchronized (this.catalogLock) {
+      this.filter = program;
+      current = this.filtered;
+    }
+
+    if (current == null) {
+      return;
+    }
+
+    final var next = current.withFilter(program);
+    synchronized (this.catalogLock) {
+      if (this.filtered != current || this.filter != program) {
+        LOG.debug("catalog replaced during filter evaluation");
+        return;
+      }
+      this.filtered = next;
+      this.filterReloaded = true;
+    }
+
+    final var previous = current.included;
+    final var included = next.included;
+    final var changed = (BitSet) previous.clone();
+    changed.xor(included);
+
+    var added = 0;
+    for (var index = changed.nextSetBit(0); index >= 0; index = changed.nextSetBit(index + 1)) {
+      if (included.get(index)) {
+        LOG.debug("repository {} is now included", current.names[index]);
+        ++added;
+      } else {
+        LOG.debug("repository {} is no longer included", current.names[index]);
+      }
+    }
+
+    LOG.info(
+      "filter changed: {} repositories included, {} newly included, {} no longer included",
+      Integer.valueOf(included.cardinality()),
+      Integer.valueOf(added),
+      Integer.valueOf(changed.cardinality() - added));
+  }
+
+  private void registerMetrics()
+  {
+    this.registerMetricsBean("GitHubRateLimit", this.client.rateLimit());
+    this.registerMetricsBean("GitHubArchival", this.archiver);
+  }
+
+  private void registerMetricsBean(
+    final String name,
+    final Object bean)
+  {
+    try {
+      final var server =
+        ManagementFactory.getPlatformMBeanServer();
+      final var objectName =
+        new ObjectName(String.format(
+          "com.io7m.gtyrell:name=%s,source=%s",
+          name,
+          ObjectName.quote(this.configuration.name())));
+
+      /*
+       * A source created again under the same name (such as when the
+       * configuration is reloaded) replaces the bean of the previous one,
+       * rather than failing to register and leaving the stale bean behind.
+       */
+
+      if (server.isRegistered(objectName)) {
+        LOG.debug("replacing {} metrics bean of source {}",
+                  name, this.configuration.name());
+        server.unregisterMBean(objectName);
+      }
+      server.registerMBean(bean, objectName);
+    } catch (final MalformedObjectNameException
+      | InstanceAlreadyExistsException
+      | InstanceNotFoundException
+      | MBeanRegistrationException
+      | NotCompliantMBeanException e) {
+      LOG.error("unable to register {} metrics bean: ", name, e);
+    }
   }
 
   @Override
@@ -101,92 +277,396 @@ public final class GTGithubRepositories implements GTRepositorySourceType
   {
     Objects.requireNonNull(in_git, "Git");
 
-    try {
-      final var ghb = GitHubBuilder.fromProperties(this.props);
-      final var gh = ghb.build();
+    final var current = this.currentCatalog();
+    final var entries = current.entries;
+    final var included = current.included;
 
-      LOG.debug(
-        "github api rate limit {} remaining {} reset {}",
-        Integer.valueOf(gh.getRateLimit().limit),
-        Integer.valueOf(gh.rateLimit().remaining),
-        this.formatter.format(gh.rateLimit().getResetDate()));
+    SortedMap<GTRepositoryGroupName, SortedMap<GTRepositoryName, GTRepositoryType>> groups =
+      TreeMap.empty();
 
-      final var me = gh.getMyself();
+    for (var index = included.nextSetBit(0); index >= 0; index = included.nextSetBit(index + 1)) {
+      groups = this.addRepository(in_git, groups, this.resolveNetwork(entries.get(index)));
+    }
 
-      SortedMap<GTRepositoryGroupName, SortedMap<GTRepositoryName, GTRepositoryType>> groups =
-        TreeMap.empty();
+    return groups.map(
+      (group_name, repositories) ->
+        Tuple.of(group_name, GTRepositoryGroup.of(group_name, repositories)));
+  }
 
-      final var rs = me.listRepositories(100, GHMyself.RepositoryListFilter.ALL);
-      final var rsi = rs.iterator();
+  /**
+   * Determine the catalog for the current cycle, and which of its entries
+   * are included by the current filter. Immediately after the filter has
+   * been reloaded, the catalog that was re-evaluated against the new filter
+   * is served again. A catalog is only re-evaluated if it was evaluated
+   * against a filter that has since been replaced. The source is enumerated
+   * without holding the catalog lock.
+   */
+
+  private Filtered currentCatalog()
+    throws IOException
+  {
+    synchronized (this.enumerationLock) {
+      Filtered reloaded = null;
+      synchronized (this.catalogLock) {
+        if (this.filterReloaded && this.filtered != null) {
+          LOG.debug("filter was reloaded, using the current catalog");
+          reloaded = this.filtered;
+        }
+        this.filterReloaded = false;
+      }
 
-      while (rsi.hasNext()) {
-        final var r = rsi.next();
+      var current =
+        reloaded != null ? reloaded : this.catalogEntries();
 
-        LOG.debug(
-          "repository: {}/{} {}",
-          r.getOwnerName(),
-          r.getName(),
-          r.getGitTransportUrl());
-
-        if (!this.repositoryIsIncluded(r.getOwnerName(), r.getName())) {
-          LOG.debug(
-            "repository {}/{} is not included",
-            r.getOwnerName(),
-            r.getName());
-          continue;
+      /*
+       * The filter may be replaced whilst the catalog is being evaluated
+       * against it, in which case the catalog is evaluated again.
+       */
+
+      while (true) {
+        final GTFilterProgram program;
+        synchronized (this.catalogLock) {
+          program = this.filter;
+        }
+
+        if (current.filter != program) {
+          current = current.withFilter(program);
         }
 
-        final var group =
-          GTRepositoryGroupName.of(r.getOwnerName());
-        final var name =
-          GTRepositoryName.of(r.getName());
-        final var base_clone_url =
-          new URI(r.gitHttpTransportUrl());
-
-        final var clone_url =
-          new URI(
-            base_clone_url.getScheme(),
-            this.username,
-            base_clone_url.getHost(),
-            base_clone_url.getPort(),
-            base_clone_url.getPath(),
-            base_clone_url.getQuery(),
-            base_clone_url.getFragment());
-
-        SortedMap<GTRepositoryName, GTRepositoryType> repositories;
-        if (groups.containsKey(group)) {
-          repositories = groups.get(group).get();
-        } else {
-          repositories = TreeMap.empty();
+        synchronized (this.catalogLock) {
+          if (this.filter == program) {
+            this.filtered = current;
+            this.filterReloaded = false;
+            return current;
+          }
         }
+      }
+    }
+  }
 
-        final GTRepositoryType repository =
-          new GTGithubRepository(
-            in_git, this.username, this.password, group, name, clone_url);
+  /**
+   * The catalog records the fork networks of excluded forks as unknown, as
+   * determining them costs an API call each. Such forks that have since been
+   * included by a change of filter have their networks determined here.
+   */
 
-        repositories = repositories.put(name, repository);
-        groups = groups.put(group, repositories);
+  private GTGithubCatalogEntry resolveNetwork(
+    final GTGithubCatalogEntry entry)
+  {
+    final var r = entry.remote();
+    if (!this.configuration.forkAlternates()
+      || !r.isFork()
+      || entry.network().isKnown()) {
+      return entry;
+    }
+
+    final var key = r.owner() + "/" + r.name();
+    var network = this.networks.get(key);
+    if (network == null) {
+      network = this.forkNetworkRootOf(r);
+      if (network.isKnown()) {
+        this.networks.put(key, network);
       }
+    }
+    return GTGithubCatalogEntry.of(r, network);
+  }
 
-      return groups.map(
-        (group_name, repositories) ->
-          Tuple.of(group_name, GTRepositoryGroup.of(group_name, repositories)));
+  /**
+   * Determine the catalog for the current cycle. On the first cycle, the
+   * persisted catalog (if any) is returned immediately and an enumeration is
+   * started in the background; the result of that enumeration is then used
+   * by the next cycle. Otherwise, the source is enumerated directly.
+   */
+
+  private Filtered catalogEntries()
+    throws IOException
+  {
+    final var pending = this.catalogPending;
+    if (pending != null) {
+      this.catalogPending = null;
+      final var entries = awaitEnumeration(pending);
+      this.catalog.save(entries.entries);
+      return entries;
+    }
+
+    if (!this.catalogLoaded) {
+      this.catalogLoaded = true;
+      final var cached = this.catalog.load();
+      if (cached.isPresent()) {
+        LOG.info(
+          "using catalog of {} repositories, enumerating in the background",
+          Integer.valueOf(cached.get().size()));
+        this.catalogPending =
+          CompletableFuture.supplyAsync(this::enumerateUnchecked, this.catalogExecutor);
+        return Filtered.of(cached.get(), this.filter);
+      }
+    }
+
+    final var entries = this.enumerate();
+    this.catalog.save(entries.entries);
+    return entries;
+  }
+
+  private static Filtered awaitEnumeration(
+    final CompletableFuture<Filtered> pending)
+    throws IOException
+  {
+    try {
+      return pending.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (final ExecutionException e) {
+      final var cause = e.getCause();
+      if (cause instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) cause).getCause();
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private Filtered enumerateUnchecked()
+  {
+    try {
+      return this.enumerate();
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Enumerate the source. The filter is evaluated once for every listed
+   * repository, and the result is kept with the catalog.
+   */
+
+  private Filtered enumerate()
+    throws IOException
+  {
+    final var program = this.filter;
+    final var remotes = this.listing.list();
+    final var names = namesOf(remotes);
+    final var included = program.includesAll(names);
+
+    final var entries = new ArrayList<GTGithubCatalogEntry>(remotes.size());
+    for (var index = 0; index < names.length; ++index) {
+      final var r = remotes.get(index);
+      LOG.debug(
+        "repository: {} {}",
+        names[index],
+        r.cloneURL());
+
+      /*
+       * Excluded repositories are kept in the catalog so that a change of
+       * filter can include them without enumerating the source again.
+       */
+
+      if (!included.get(index)) {
+        LOG.debug("repository {} is not included", names[index]);
+        entries.add(GTGithubCatalogEntry.of(r, unresolvedNetworkOf(r)));
+        continue;
+      }
+
+      entries.add(GTGithubCatalogEntry.of(r, this.forkNetworkRootOf(r)));
+    }
+    return new Filtered(List.copyOf(entries), names, program, included);
+  }
+
+  private static String[] namesOf(
+    final List<? extends GTGithubRemoteRepositoryType> remotes)
+  {
+    final var names = new String[remotes.size()];
+    for (var index = 0; index < names.length; ++index) {
+      final var r = remotes.get(index);
+      names[index] = r.owner() + "/" + r.name();
+    }
+    return names;
+  }
+
+  private SortedMap<GTRepositoryGroupName, SortedMap<GTRepositoryName, GTRepositoryType>> addRepository(
+    final GTGitExecutableType in_git,
+    final SortedMap<GTRepositoryGroupName, SortedMap<GTRepositoryName, GTRepositoryType>> groups,
+    final GTGithubCatalogEntry entry)
+    throws IOException
+  {
+    final var r =
+      entry.remote();
+    final var group =
+      GTRepositoryGroupName.of(r.owner());
+    final var name =
+      GTRepositoryName.of(r.name());
+    final var base_clone_url =
+      r.cloneURL();
+
+    final URI clone_url;
+    try {
+      clone_url =
+        new URI(
+          base_clone_url.getScheme(),
+          this.username,
+          base_clone_url.getHost(),
+          base_clone_url.getPort(),
+          base_clone_url.getPath(),
+          base_clone_url.getQuery(),
+          base_clone_url.getFragment());
     } catch (final URISyntaxException e) {
       throw new IOException(e);
     }
+
+    SortedMap<GTRepositoryName, GTRepositoryType> repositories;
+    if (groups.containsKey(group)) {
+      repositories = groups.get(group).get();
+    } else {
+      repositories = TreeMap.empty();
+    }
+
+    final GTRepositoryType repository =
+      new GTGithubRepository(
+        in_git,
+        this.archiver,
+        group,
+        name,
+        clone_url,
+        this.networkOf(entry),
+        r,
+        GTLFSRemote.builder()
+          .setEndpoint(lfsEndpointOf(base_clone_url))
+          .putHeaders("Authorization", this.client.authorization())
+          .build());
+
+    repositories = repositories.put(name, repository);
+    return groups.put(group, repositories);
   }
 
-  private boolean repositoryIsIncluded(
-    final String owner_name,
-    final String name)
+  /**
+   * Derive the LFS endpoint of a repository from its clone URL, following
+   * the rules used by {@code git lfs} itself.
+   */
+
+  private static URI lfsEndpointOf(
+    final URI clone_url)
   {
-    final var repos_name =
-      new StringBuilder(128)
-        .append(owner_name)
-        .append("/")
-        .append(name)
-        .toString();
+    final var text = clone_url.toString();
+    if (text.endsWith(".git")) {
+      return URI.create(text + "/info/lfs");
+    }
+    return URI.create(text + ".git/info/lfs");
+  }
+
+  /**
+   * The fork network of a catalog entry. A catalog written while fork
+   * alternates were disabled records the networks of forks as unknown.
+   */
 
-    return this.filter.includes(LOG, repos_name);
+  private GTGithubForkNetwork networkOf(
+    final GTGithubCatalogEntry entry)
+  {
+    if (!this.configuration.forkAlternates() || !entry.remote().isFork()) {
+      return GTGithubForkNetwork.NOT_A_FORK;
+    }
+    return entry.network();
+  }
+
+  private static GTGithubForkNetwork unresolvedNetworkOf(
+    final GTGithubRemoteRepository r)
+  {
+    if (!r.isFork()) {
+      return GTGithubForkNetwork.NOT_A_FORK;
+    }
+    if (r.forkSource().isPresent()) {
+      return GTGithubForkNetwork.of(r.forkSource());
+    }
+    return GTGithubForkNetwork.UNKNOWN;
+  }
+
+  /**
+   * Determine the root of the fork network to which the given repository
+   * belongs. Unless the listing reported the root, this costs an extra API
+   * call per fork, and is therefore only done when forks are configured to
+   * share objects.
+   */
+
+  private GTGithubForkNetwork forkNetworkRootOf(
+    final GTGithubRemoteRepository r)
+  {
+    if (!r.isFork()) {
+      return GTGithubForkNetwork.NOT_A_FORK;
+    }
+    if (!this.configuration.forkAlternates()) {
+      return GTGithubForkNetwork.UNKNOWN;
+    }
+    if (r.forkSource().isPresent()) {
+      return GTGithubForkNetwork.of(r.forkSource());
+    }
+
+    try {
+      final var page =
+        this.client.getJSON(
+          this.client.api(String.format("repos/%s/%s", r.owner(), r.name())),
+          GTGithubRequestPriority.LISTING);
+      final var source = page.json().path("source");
+      if (source.isMissingNode() || source.isNull()) {
+        LOG.debug(
+          "repository {}/{} has no fork source",
+          r.owner(),
+          r.name());
+        return GTGithubForkNetwork.NOT_A_FORK;
+      }
+
+      return GTGithubForkNetwork.of(
+        Optional.of(
+          GTRepositoryFullName.of(
+            GTRepositoryGroupName.of(source.path("owner").path("login").asText()),
+            GTRepositoryName.of(source.path("name").asText()))));
+    } catch (final IOException | IllegalArgumentException e) {
+      LOG.error(
+        "could not determine fork source of {}/{}: ",
+        r.owner(),
+        r.name(),
+        e);
+      return GTGithubForkNetwork.UNKNOWN;
+    }
+  }
+
+  /**
+   * A catalog, along with the set of its entries included by a filter.
+   */
+
+  private static final class Filtered
+  {
+    private final List<GTGithubCatalogEntry> entries;
+    private final String[] names;
+    private final GTFilterProgram filter;
+    private final BitSet included;
+
+    Filtered(
+      final List<GTGithubCatalogEntry> in_entries,
+      final String[] in_names,
+      final GTFilterProgram in_filter,
+      final BitSet in_included)
+    {
+      this.entries = in_entries;
+      this.names = in_names;
+      this.filter = in_filter;
+      this.included = in_included;
+    }
+
+    static Filtered of(
+      final List<GTGithubCatalogEntry> entries,
+      final GTFilterProgram filter)
+    {
+      final var remotes = new ArrayList<GTGithubRemoteRepositoryType>(entries.size());
+      for (final var entry : entries) {
+        remotes.add(entry.remote());
+      }
+      final var names = namesOf(remotes);
+      return new Filtered(entries, names, filter, filter.includesAll(names));
+    }
+
+    Filtered withFilter(
+      final GTFilterProgram program)
+    {
+      return new Filtered(
+        this.entries, this.names, program, program.includesAll(this.names));
+    }
   }
 }
@@ -16,34 +16,26 @@
 
 package com.io7m.gtyrell.github;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.io7m.gtyrell.core.GTGitCloneRequest;
 import com.io7m.gtyrell.core.GTGitExecutableType;
+import com.io7m.gtyrell.core.GTGitRecovery;
+import com.io7m.gtyrell.core.GTLFSRemote;
+import com.io7m.gtyrell.core.GTRepositoryFullName;
 import com.io7m.gtyrell.core.GTRepositoryGroupName;
 import com.io7m.gtyrell.core.GTRepositoryName;
 import com.io7m.gtyrell.core.GTRepositoryType;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.CountingInputStream;
-import org.apache.commons.io.input.ProxyInputStream;
+import com.io7m.gtyrell.core.GTRepositoryUpdateContext;
+import com.io7m.gtyrell.core.GTRepositoryUpdateContextType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
-import java.util.Base64;
+import java.time.Instant;
 import java.util.Objects;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.Optional;
 
 final class GTGithubRepository implements GTRepositoryType
 {
@@ -57,21 +49,23 @@ final class GTGithubRepository implements GTRepositoryType
   private final URI url;
   private final GTRepositoryGroupName group;
   private final GTRepositoryName name;
-  private final String username;
-  private final String password;
+  private final GTGithubArchiver archiver;
+  private final GTGithubForkNetwork network;
+  private final GTGithubRemoteRepository remote;
+  private final GTLFSRemote lfs;
 
   GTGithubRepository(
     final GTGitExecutableType in_git,
-    final String in_username,
-    final String in_password,
+    final GTGithubArchiver in_archiver,
     final GTRepositoryGroupName in_group,
     final GTRepositoryName in_name,
-    final URI in_url)
+    final URI in_url,
+    final GTGithubForkNetwork in_network,
+    final GTGithubRemoteRepository in_remote,
+    final GTLFSRemote in_lfs)
   {
-    this.username =
-      Objects.requireNonNull(in_username, "in_username");
-    this.password =
-      Objects.requireNonNull(in_password, "in_password");
+    this.archiver =
+      Objects.requireNonNull(in_archiver, "Archiver");
     this.git =
       Objects.requireNonNull(in_git, "Git");
     this.url =
@@ -80,17 +74,12 @@ final class GTGithubRepository implements GTRepositoryType
       Objects.requireNonNull(in_group, "Group");
     this.name =
       Objects.requireNonNull(in_name, "Name");
-  }
-
-  private static GZIPOutputStream createOutput(
-    final Path path)
-    throws IOException
-  {
-    return new GZIPOutputStream(Files.newOutputStream(
-      path,
-      StandardOpenOption.TRUNCATE_EXISTING,
-      StandardOpenOption.CREATE,
-      StandardOpenOption.WRITE));
+    this.network =
+      Objects.requireNonNull(in_network, "Network");
+    this.remote =
+      Objects.requireNonNull(in_remote, "Remote");
+    this.lfs =
+      Objects.requireNonNull(in_lfs, "LFS");
   }
 
   @Override
@@ -110,114 +99,200 @@ final class GTGithubRepository implements GTRepositoryType
     final File output)
     throws IOException
   {
+    this.update(GTRepositoryUpdateContext.of(output));
+  }
+
+  @Override
+  public Optional<GTRepositoryFullName> forkNetworkRoot()
+  {
+    return this.network.root();
+  }
+
+  @Override
+  public Optional<String> stableIdentifier()
+  {
+    return Optional.of("github:" + this.remote.id());
+  }
+
+  /**
+   * @return The repository as described by the listing
+   */
+
+  GTGithubRemoteRepository remote()
+  {
+    return this.remote;
+  }
+
+  @Override
+  public void update(
+    final GTRepositoryUpdateContextType context)
+    throws IOException
+  {
+    final var output = context.directory();
+    final var alternate = context.alternate();
+
     if (output.isDirectory()) {
-      this.git.fetch(output);
-    } else {
-      final File parent = output.getParentFile();
-      if (!parent.mkdirs()) {
-        if (!parent.isDirectory()) {
-          throw new IOException(String.format("Not a directory: %s", parent));
-        }
+      final var orphaned = this.orphanIfBroken(output);
+      if (orphaned.isPresent()) {
+        this.cloneFresh(output, alternate, context.bundle());
+        LOG.info("{}: deleting {}", this, orphaned.get());
+        GTGitRecovery.deleteDirectory(orphaned.get());
+      } else {
+        this.reconcileAlternates(output, alternate);
+        this.git.fetch(output);
       }
-      this.git.clone(this.url, output);
+    } else {
+      this.cloneFresh(output, alternate, context.bundle());
     }
-
-    this.fetchIssues(
-      new File(output.toString() + ".issues.json.gz"),
-      new File(output.toString() + ".issues.json.gz.tmp"));
   }
 
-  private void fetchIssues(
-    final File file,
-    final File file_tmp)
+  @Override
+  public void relocated(
+    final File directory)
     throws IOException
   {
-    LOG.debug("fetching issues: {}", file);
+    LOG.debug("{} now fetches from {}", directory, this.url);
+    this.git.setRemoteURL(directory, this.url);
+  }
 
-    final StringBuilder sb = new StringBuilder(128);
-    sb.append("https://api.github.com/repos/");
-    sb.append(this.group.text());
-    sb.append("/");
-    sb.append(this.name.text());
-    sb.append("/issues?state=all");
-
-    final URL issue_url = new URL(sb.toString());
-    final String token = this.username + ":" + this.password;
-    final Base64.Encoder enc = Base64.getMimeEncoder();
-    final String encoding =
-      enc.encodeToString(token.getBytes(StandardCharsets.UTF_8));
-
-    final HttpURLConnection conn = (HttpURLConnection) issue_url.openConnection();
-    conn.setRequestProperty("Authorization", "Basic " + encoding);
-    conn.setRequestProperty("Accept-Encoding", "gzip");
-    conn.connect();
-
-    final Path path = file.toPath();
-    final Path path_tmp = file_tmp.toPath();
-
-    try (CountedMaybeCompressedStream input =
-           CountedMaybeCompressedStream.fromHTTPConnection(conn)) {
-      try (OutputStream output = createOutput(path_tmp)) {
-        IOUtils.copy(input, output);
-        LOG.debug(
-          "received {} octets",
-          Long.toUnsignedString(input.inner.getByteCount()));
-        output.flush();
+  @Override
+  public Optional<GTLFSRemote> lfsRemote()
+  {
+    return Optional.of(this.lfs);
+  }
+
+  @Override
+  public void archiveMetadata(
+    final File directory)
+    throws IOException
+  {
+    final var parent = directory.getParentFile();
+    if (!parent.mkdirs()) {
+      if (!parent.isDirectory()) {
+        throw new IOException(String.format("Not a directory: %s", parent));
       }
+    }
 
-      if (this.parseJSON(path_tmp)) {
-        Files.move(path_tmp, path, StandardCopyOption.ATOMIC_MOVE);
+    /*
+     * A failure to archive one kind of resource does not prevent the others
+     * from being archived.
+     */
+
+    IOException failure = null;
+    for (final var resource : this.archiver.resources()) {
+      try {
+        this.archiver.archive(
+          this.group,
+          this.name,
+          resource,
+          new File(directory + "." + resource.fileName() + ".json").toPath());
+      } catch (final IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
       }
     }
+
+    if (failure != null) {
+      throw failure;
+    }
   }
 
-  private boolean parseJSON(
-    final Path file)
+  private void cloneFresh(
+    final File output,
+    final Optional<File> alternate,
+    final Optional<File> bundle)
     throws IOException
   {
-    final ObjectMapper m = new ObjectMapper();
-    try {
-      try (GZIPInputStream is = new GZIPInputStream(Files.newInputStream(file))) {
-        m.readTree(is);
-        LOG.debug("parsed issues correctly, replacing");
-        return true;
+    final File parent = output.getParentFile();
+    if (!parent.mkdirs()) {
+      if (!parent.isDirectory()) {
+        throw new IOException(String.format("Not a directory: %s", parent));
       }
-    } catch (final JsonProcessingException e) {
-      LOG.error(
-        "could not parse issues for {}/{}: ",
-        this.group.text(),
-        this.name.text(),
-        e);
-      return false;
     }
+
+    this.git.clone(
+      GTGitCloneRequest.builder()
+        .setUrl(this.url)
+        .setOutput(output)
+        .setReference(alternate)
+        .setBundle(bundle)
+        .build());
   }
 
-  private static final class CountedMaybeCompressedStream extends
-    ProxyInputStream
+  /**
+   * A mirror that borrows objects from a repository that no longer exists
+   * is missing objects, and cannot be repaired. Such a mirror is moved aside
+   * so that it can be cloned again; the old mirror is deleted once the new
+   * clone has succeeded.
+   *
+   * @return The location of the unusable mirror, if it was moved aside
+   */
+
+  private Optional<File> orphanIfBroken(
+    final File output)
+    throws IOException
   {
-    private final CountingInputStream inner;
-
-    private CountedMaybeCompressedStream(
-      final CountingInputStream in_inner,
-      final InputStream in_outer)
-    {
-      super(in_outer);
-      this.inner = Objects.requireNonNull(in_inner, "Inner");
+    if (!this.network.isKnown()) {
+      return Optional.empty();
     }
 
-    static CountedMaybeCompressedStream fromHTTPConnection(
-      final HttpURLConnection conn)
-      throws IOException
-    {
-      final InputStream raw = conn.getInputStream();
-      final CountingInputStream counter = new CountingInputStream(raw);
-      final InputStream outer;
-      if (Objects.equals("gzip", conn.getContentEncoding())) {
-        outer = new GZIPInputStream(counter);
-      } else {
-        outer = counter;
+    for (final var borrowed : this.git.alternates(output)) {
+      if (!borrowed.isDirectory()) {
+        final var orphaned =
+          new File(output + ".orphaned-" + Instant.now().getEpochSecond());
+        LOG.error(
+          "{} borrows objects from {}, which no longer exists; moving the mirror to {} and cloning again",
+          output,
+          borrowed,
+          orphaned);
+        Files.move(output.toPath(), orphaned.toPath());
+        return Optional.of(orphaned);
       }
-      return new CountedMaybeCompressedStream(counter, outer);
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Make the set of repositories that the mirror borrows objects from agree
+   * with the fork network. Objects are always copied into the mirror before
+   * an alternate is removed, so that the mirror remains complete if the root
+   * of the network is deleted or changes.
+   */
+
+  private void reconcileAlternates(
+    final File output,
+    final Optional<File> alternate)
+    throws IOException
+  {
+    if (!this.network.isKnown()) {
+      return;
+    }
+
+    final var expected =
+      alternate.map(f -> new File(f, "objects"));
+    final var existing =
+      this.git.alternates(output);
+
+    final var canonical_expected =
+      expected.isPresent()
+        ? Optional.of(expected.get().getCanonicalFile())
+        : Optional.<File>empty();
+
+    if (existing.size() == 1 && Objects.equals(
+      Optional.of(existing.get(0).getCanonicalFile()), canonical_expected)) {
+      return;
+    }
+
+    if (!existing.isEmpty()) {
+      LOG.info("{}: detaching from {}", this, existing);
+      this.git.detachAlternates(output);
+    }
+    if (alternate.isPresent()) {
+      LOG.info("{}: borrowing objects from {}", this, alternate.get());
+      this.git.attachAlternate(output, alternate.get());
     }
   }
 }
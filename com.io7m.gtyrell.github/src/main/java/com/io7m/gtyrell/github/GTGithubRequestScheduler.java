@@ -0,0 +1,365 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.net.http.HttpHeaders;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.time.format.DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+
+/**
+ * A scheduler that every request to the GitHub API passes through. The
+ * scheduler tracks the rate limit reported by each response and delays
+ * requests so that the budget is not exhausted before the rate limit window
+ * resets:
+ *
+ * <ul>
+ *   <li>When less than half of the budget remains, requests are spread
+ *   evenly across the rest of the window.</li>
+ *   <li>Waiting requests are granted strictly in priority order, and in
+ *   arrival order within a priority, so an archival request is never made
+ *   while a listing request is waiting.</li>
+ *   <li>The last tenth of the budget is reserved for listing requests.</li>
+ *   <li>When a primary or secondary rate limit is exceeded, all requests
+ *   pause until the time indicated by the server.</li>
+ * </ul>
+ */
+
+final class GTGithubRequestScheduler implements GTGithubRateLimitMXBean
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTGithubRequestScheduler.class);
+  }
+
+  private static final Duration SECONDARY_PAUSE = Duration.ofMinutes(1L);
+  private static final Duration POLL_INTERVAL = Duration.ofSeconds(1L);
+
+  private final Clock clock;
+  private final ReentrantLock lock;
+  private final Condition changed;
+  private final PriorityQueue<Ticket> waiting;
+  private final AtomicLong requests;
+  private final AtomicLong exceeded;
+  private final AtomicLong throttledNanos;
+  private volatile long limit;
+  private volatile long remaining;
+  private volatile Instant reset;
+  private Instant pausedUntil;
+  private Instant nextRequest;
+  private Instant lastRequest;
+  private long ticketNext;
+
+  GTGithubRequestScheduler(
+    final Clock in_clock)
+  {
+    this.clock = Objects.requireNonNull(in_clock, "clock");
+    this.lock = new ReentrantLock();
+    this.changed = this.lock.newCondition();
+    this.waiting = new PriorityQueue<>();
+    this.requests = new AtomicLong();
+    this.exceeded = new AtomicLong();
+    this.throttledNanos = new AtomicLong();
+    this.limit = -1L;
+    this.remaining = -1L;
+    this.reset = Instant.EPOCH;
+    this.pausedUntil = Instant.EPOCH;
+    this.nextRequest = Instant.EPOCH;
+    this.lastRequest = Instant.EPOCH;
+  }
+
+  /**
+   * Wait until a request of the given priority may be made.
+   *
+   * @param priority The request priority
+   *
+   * @throws InterruptedIOException If interrupted whilst waiting
+   */
+
+  void acquire(
+    final GTGithubRequestPriority priority)
+    throws InterruptedIOException
+  {
+    final var time_start = System.nanoTime();
+
+    this.lock.lock();
+    try {
+      final var ticket = new Ticket(priority, this.ticketNext);
+      ++this.ticketNext;
+      this.waiting.add(ticket);
+      try {
+        while (true) {
+          final var now = this.clock.instant();
+          final var not_before = this.notBefore(priority, now);
+          if (this.waiting.peek() == ticket && !not_before.isAfter(now)) {
+            this.grant(now);
+            return;
+          }
+
+          final var delay =
+            Duration.between(now, not_before).compareTo(POLL_INTERVAL) < 0
+              ? Duration.between(now, not_before)
+              : POLL_INTERVAL;
+          this.changed.awaitNanos(delay.toNanos());
+        }
+      } finally {
+        this.waiting.remove(ticket);
+        this.changed.signalAll();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst waiting for the rate limit");
+    } finally {
+      this.lock.unlock();
+
+      final var waited = System.nanoTime() - time_start;
+      if (waited > TimeUnit.MILLISECONDS.toNanos(10L)) {
+        this.throttledNanos.addAndGet(waited);
+      }
+    }
+  }
+
+  private void grant(
+    final Instant now)
+  {
+    this.requests.incrementAndGet();
+    if (this.remaining > 0L) {
+      --this.remaining;
+    }
+    this.lastRequest = now;
+    this.nextRequest = now.plus(this.pacingInterval(now));
+  }
+
+  private Instant notBefore(
+    final GTGithubRequestPriority priority,
+    final Instant now)
+  {
+    var time = later(this.pausedUntil, this.nextRequest);
+
+    final var window_open = this.reset.isAfter(now);
+    if (window_open && this.remaining == 0L) {
+      time = later(time, this.reset);
+    }
+
+    if (priority == GTGithubRequestPriority.ARCHIVAL
+      && window_open
+      && this.remaining >= 0L
+      && this.remaining <= this.limit / 10L) {
+      time = later(time, this.reset);
+    }
+    return time;
+  }
+
+  private Duration pacingInterval(
+    final Instant now)
+  {
+    if (this.limit <= 0L || this.remaining < 0L || !this.reset.isAfter(now)) {
+      return Duration.ZERO;
+    }
+    if (this.remaining >= this.limit / 2L) {
+      return Duration.ZERO;
+    }
+    return Duration.between(now, this.reset)
+      .dividedBy(Math.max(this.remaining, 1L));
+  }
+
+  private static Instant later(
+    final Instant x,
+    final Instant y)
+  {
+    return x.isAfter(y) ? x : y;
+  }
+
+  /**
+   * Update the rate limit state from the headers of a response.
+   *
+   * @param headers The response headers
+   */
+
+  void update(
+    final HttpHeaders headers)
+  {
+    final var header_limit =
+      headerLong(headers, "X-RateLimit-Limit");
+    final var header_remaining =
+      headerLong(headers, "X-RateLimit-Remaining");
+    final var header_reset =
+      headerLong(headers, "X-RateLimit-Reset");
+
+    this.lock.lock();
+    try {
+      header_limit.ifPresent(x -> this.limit = x);
+      header_remaining.ifPresent(x -> this.remaining = x);
+      header_reset.ifPresent(x -> this.reset = Instant.ofEpochSecond(x));
+
+      /*
+       * Requests granted before the budget was known were not paced, so
+       * pace the next request from the most recent one.
+       */
+
+      final var now = this.clock.instant();
+      this.nextRequest = later(
+        this.nextRequest,
+        this.lastRequest.plus(this.pacingInterval(now)));
+      this.changed.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Determine whether a rejected request was rejected because a rate limit
+   * was exceeded, and if so, pause all requests until the limit lifts.
+   *
+   * @param headers The response headers
+   * @param message The start of the response body
+   *
+   * @return {@code true} if a rate limit was exceeded and the request should
+   * be retried
+   */
+
+  boolean exceeded(
+    final HttpHeaders headers,
+    final String message)
+  {
+    final var now = this.clock.instant();
+    final var retry_after = headerLong(headers, "Retry-After");
+
+    final Instant until;
+    if (retry_after.isPresent()) {
+      until = now.plusSeconds(retry_after.getAsLong());
+    } else if (headerLong(headers, "X-RateLimit-Remaining").orElse(-1L) == 0L) {
+      until = this.reset;
+    } else if (message.toLowerCase(Locale.ROOT).contains("rate limit")) {
+      until = now.plus(SECONDARY_PAUSE);
+    } else {
+      return false;
+    }
+
+    this.exceeded.incrementAndGet();
+    LOG.warn(
+      "github rate limit exceeded, pausing requests until {}",
+      until.atOffset(ZoneOffset.UTC).format(ISO_OFFSET_DATE_TIME));
+
+    this.lock.lock();
+    try {
+      this.pausedUntil = later(this.pausedUntil, until);
+      this.changed.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+    return true;
+  }
+
+  private static OptionalLong headerLong(
+    final HttpHeaders headers,
+    final String name)
+  {
+    final var value = headers.firstValue(name);
+    if (value.isEmpty()) {
+      return OptionalLong.empty();
+    }
+    try {
+      return OptionalLong.of(Long.parseLong(value.get().trim()));
+    } catch (final NumberFormatException e) {
+      return OptionalLong.empty();
+    }
+  }
+
+  @Override
+  public long getRateLimit()
+  {
+    return this.limit;
+  }
+
+  @Override
+  public long getRateLimitRemaining()
+  {
+    return this.remaining;
+  }
+
+  @Override
+  public String getRateLimitResetTime()
+  {
+    return this.reset.atOffset(ZoneOffset.UTC).format(ISO_OFFSET_DATE_TIME);
+  }
+
+  @Override
+  public long getRequestsTotal()
+  {
+    return this.requests.get();
+  }
+
+  @Override
+  public long getRateLimitExceededTotal()
+  {
+    return this.exceeded.get();
+  }
+
+  @Override
+  public long getThrottledTimeSecondsTotal()
+  {
+    return TimeUnit.NANOSECONDS.toSeconds(this.throttledNanos.get());
+  }
+
+  /**
+   * A request waiting to be granted. Tickets are ordered by priority, and
+   * then by arrival.
+   */
+
+  private static final class Ticket implements Comparable<Ticket>
+  {
+    private final GTGithubRequestPriority priority;
+    private final long sequence;
+
+    Ticket(
+      final GTGithubRequestPriority in_priority,
+      final long in_sequence)
+    {
+      this.priority = in_priority;
+      this.sequence = in_sequence;
+    }
+
+    @Override
+    public int compareTo(
+      final Ticket other)
+    {
+      final var c = this.priority.compareTo(other.priority);
+      if (c != 0) {
+        return c;
+      }
+      return Long.compare(this.sequence, other.sequence);
+    }
+  }
+}
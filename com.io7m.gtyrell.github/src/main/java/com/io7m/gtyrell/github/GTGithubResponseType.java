@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import com.io7m.gtyrell.core.GTImmutableStyleType;
+import org.immutables.value.Value;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The payload of a response from the GitHub API, either freshly received or
+ * reused from the cache.
+ */
+
+@GTImmutableStyleType
+@Value.Immutable
+interface GTGithubResponseType
+{
+  /**
+   * @return The request URI
+   */
+
+  @Value.Parameter
+  URI uri();
+
+  /**
+   * @return The (decompressed) response payload
+   */
+
+  @Value.Parameter
+  byte[] body();
+
+  /**
+   * @return The links returned with the response, by relation
+   */
+
+  @Value.Parameter
+  Map<String, URI> links();
+
+  /**
+   * @return {@code false} if the server reported that the resource has not
+   * been modified since the cached payload was received
+   */
+
+  @Value.Parameter
+  boolean modified();
+
+  /**
+   * @return The next page, if any
+   */
+
+  default Optional<URI> next()
+  {
+    return Optional.ofNullable(this.links().get("next"));
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.github;
+
+import com.io7m.gtyrell.core.GTImmutableStyleType;
+import com.io7m.gtyrell.filter.GTFilterProgram;
+import org.immutables.value.Value;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The configuration of a GitHub repository source.
+ */
+
+@GTImmutableStyleType
+@Value.Immutable
+public interface GTGithubSourceConfigurationType
+{
+  /**
+   * @return The name of the source, used to identify its metrics
+   */
+
+  @Value.Default
+  default String name()
+  {
+    return this.user();
+  }
+
+  /**
+   * @return The GitHub user
+   */
+
+  String user();
+
+  /**
+   * @return The user's password
+   */
+
+  @Value.Redacted
+  String password();
+
+  /**
+   * @return The repository filter
+   */
+
+  GTFilterProgram filter();
+
+  /**
+   * @return The file from which the repository filter was compiled, if the
+   * file should be watched and the filter recompiled when the file changes
+   */
+
+  Optional<Path> filterFile();
+
+  /**
+   * @return {@code true} if forks should borrow objects from the mirror of
+   * the root of their fork network via git alternates
+   */
+
+  @Value.Default
+  default boolean forkAlternates()
+  {
+    return false;
+  }
+
+  /**
+   * @return The maximum time allowed to establish a connection to GitHub
+   */
+
+  @Value.Default
+  default Duration connectTimeout()
+  {
+    return Duration.ofSeconds(30L);
+  }
+
+  /**
+   * @return The maximum time allowed to wait for the response to a request
+   */
+
+  @Value.Default
+  default Duration requestTimeout()
+  {
+    return Duration.ofMinutes(5L);
+  }
+
+  /**
+   * @return The directory in which response validators and payloads are
+   * cached between requests, if any
+   */
+
+  Optional<Path> cacheDirectory();
+
+  /**
+   * @return The base URI of the GitHub API; API paths are resolved against
+   * it, so it should end with a slash
+   */
+
+  @Value.Default
+  default URI apiURI()
+  {
+    return URI.create("https://api.github.com/");
+  }
+
+  /**
+   * @return The API used to enumerate repositories
+   */
+
+  @Value.Default
+  default GTGithubListingBackend listingBackend()
+  {
+    return GTGithubListingBackend.REST;
+  }
+
+  /**
+   * @return The maximum number of repository listing pages fetched at once
+   */
+
+  @Value.Default
+  default int listingParallelism()
+  {
+    return 4;
+  }
+
+  /**
+   * @return The maximum number of archival requests in flight at once,
+   * shared between every repository and every kind of archived resource
+   */
+
+  @Value.Default
+  default int archivalParallelism()
+  {
+    return 4;
+  }
+
+  /**
+   * @return The kinds of resource archived for each repository
+   */
+
+  @Value.Default
+  default Set<GTGithubArchivedResource> archivedResources()
+  {
+    return EnumSet.allOf(GTGithubArchivedResource.class);
+  }
+
+  /**
+   * @return The compression settings for archives
+   */
+
+  @Value.Default
+  default GTGithubArchiveCodec archiveCodec()
+  {
+    return GTGithubArchiveCodec.builder().build();
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    if (this.listingParallelism() < 1) {
+      throw new IllegalArgumentException(
+        "Listing parallelism must be at least 1");
+    }
+    if (this.archivalParallelism() < 1) {
+      throw new IllegalArgumentException(
+        "Archival parallelism must be at least 1");
+    }
+  }
+}
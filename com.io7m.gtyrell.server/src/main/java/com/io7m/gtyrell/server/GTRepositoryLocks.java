@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.server;
+
+import java.io.File;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-repository locks that prevent syncing and maintenance from operating
+ * on the same repository at the same time. The metadata archives stored
+ * next to a repository have locks of their own, so that a slow archival
+ * never holds up syncing or maintenance of the repository itself.
+ */
+
+final class GTRepositoryLocks
+{
+  private final ConcurrentHashMap<File, ReentrantLock> locks;
+  private final ConcurrentHashMap<File, ReentrantLock> archiveLocks;
+
+  GTRepositoryLocks()
+  {
+    this.locks = new ConcurrentHashMap<>(128);
+    this.archiveLocks = new ConcurrentHashMap<>(128);
+  }
+
+  /**
+   * A held lock.
+   */
+
+  interface HeldType extends AutoCloseable
+  {
+    @Override
+    void close();
+  }
+
+  private ReentrantLock lockFor(
+    final File repository)
+  {
+    return this.locks.computeIfAbsent(
+      repository.getAbsoluteFile(), f -> new ReentrantLock());
+  }
+
+  /**
+   * Lock the given repository, waiting for any other holder.
+   *
+   * @param repository The repository
+   *
+   * @return The held lock
+   */
+
+  HeldType lock(
+    final File repository)
+  {
+    Objects.requireNonNull(repository, "repository");
+
+    final var lock = this.lockFor(repository);
+    lock.lock();
+    return lock::unlock;
+  }
+
+  /**
+   * Lock the metadata archives of the given repository, waiting for any
+   * other holder. This does not lock the repository itself.
+   *
+   * @param repository The repository
+   *
+   * @return The held lock
+   */
+
+  HeldType lockArchives(
+    final File repository)
+  {
+    Objects.requireNonNull(repository, "repository");
+
+    final var lock =
+      this.archiveLocks.computeIfAbsent(
+        repository.getAbsoluteFile(), f -> new ReentrantLock());
+    lock.lock();
+    return lock::unlock;
+  }
+
+  /**
+   * Lock the given repository if no one else holds it.
+   *
+   * @param repository The repository
+   *
+   * @return The held lock, if the repository was not already locked
+   */
+
+  Optional<HeldType> tryLock(
+    final File repository)
+  {
+    Objects.requireNonNull(repository, "repository");
+
+    final var lock = this.lockFor(repository);
+    if (lock.tryLock()) {
+      return Optional.of(lock::unlock);
+    }
+    return Optional.empty();
+  }
+}
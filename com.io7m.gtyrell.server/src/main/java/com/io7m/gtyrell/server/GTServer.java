@@ -16,21 +16,23 @@
 
 package com.io7m.gtyrell.server;
 
+import com.io7m.gtyrell.core.GTGitRecovery;
 import com.io7m.gtyrell.core.GTRepositoryGroupName;
 import com.io7m.gtyrell.core.GTRepositoryGroupType;
 import com.io7m.gtyrell.core.GTRepositoryName;
 import com.io7m.gtyrell.core.GTRepositoryType;
+import com.io7m.gtyrell.core.GTRepositoryUpdateContext;
 import io.vavr.collection.Map;
 import io.vavr.collection.SortedMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
 import javax.management.MBeanRegistrationException;
 import javax.management.MalformedObjectNameException;
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
-import java.io.File;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.time.Duration;
@@ -61,8 +63,14 @@ public final class GTServer implements GTServerType
   private final GTServerConfiguration config;
   private final GTServerMetricsBean metrics;
   private final ExecutorService executor;
+  private final GTRepositoryLocks locks;
+  private final GTServerMaintenance maintenance;
+  private final GTServerRelocations relocations;
+  private final GTServerArchival archival;
+  private final GTServerLFS lfs;
   private volatile Instant timeSyncStart;
   private volatile Instant timeSyncNext;
+  private volatile boolean metricsRegistered;
 
   private GTServer(
     final GTServerConfiguration in_config)
@@ -71,6 +79,15 @@ public final class GTServer implements GTServerType
     this.done = new AtomicBoolean(false);
     this.started = new AtomicBoolean(false);
     this.metrics = new GTServerMetricsBean();
+    this.locks = new GTRepositoryLocks();
+    this.maintenance =
+      new GTServerMaintenance(this.config, this.metrics, this.locks);
+    this.relocations =
+      new GTServerRelocations(this.config, this.metrics, this.locks);
+    this.archival =
+      new GTServerArchival(this.config, this.metrics, this.locks);
+    this.lfs =
+      new GTServerLFS(this.config, this.metrics, this.locks);
     this.executor = Executors.newSingleThreadExecutor(r -> {
       final var thread = new Thread(r);
       thread.setName(String.format(
@@ -101,20 +118,16 @@ public final class GTServer implements GTServerType
     return new GTServer(config);
   }
 
-  private static File makeRepositoryName(
-    final File directory,
-    final GTRepositoryGroupName group,
-    final GTRepositoryName name)
-  {
-    return new File(new File(directory, group.text()), name.text() + ".git");
-  }
-
   @Override
   public void stop()
   {
     if (this.done.compareAndSet(false, true)) {
       LOG.debug("scheduling server shutdown");
       this.executor.shutdown();
+      this.maintenance.stop();
+      this.archival.stop();
+      this.lfs.stop();
+      this.teardownMetrics();
     }
   }
 
@@ -132,7 +145,13 @@ public final class GTServer implements GTServerType
 
       this.setupMetrics();
 
+      if (this.config.maintenance().enabled()) {
+        this.maintenance.start();
+      }
+
       this.executor.execute(() -> {
+        this.recover();
+
         while (!this.done.get()) {
           try {
             this.runOnce();
@@ -146,6 +165,41 @@ public final class GTServer implements GTServerType
     }
   }
 
+  /**
+   * Repair whatever a crash or an interrupted git process left behind in the
+   * server directory. Each repository is locked while it is repaired, so
+   * that maintenance, archival, and LFS fetches that are already running do
+   * not see it half-repaired.
+   */
+
+  private void recover()
+  {
+    if (this.config.dryRun()) {
+      return;
+    }
+
+    try {
+      final var repositories =
+        GTServerDirectories.findRepositories(this.config.directory(), true);
+
+      LOG.debug("checking {} repositories for recovery",
+                Integer.valueOf(repositories.size()));
+
+      for (final var repository : repositories) {
+        try (var ignored = this.locks.lock(repository)) {
+          final var result = GTGitRecovery.recover(repository);
+          if (result != GTGitRecovery.Result.UNCHANGED) {
+            LOG.info("recovery: {}: {}", repository, result);
+          }
+        } catch (final IOException e) {
+          LOG.error("unable to recover {}: ", repository, e);
+        }
+      }
+    } catch (final IOException e) {
+      LOG.error("unable to list repositories for recovery: ", e);
+    }
+  }
+
   private void setupMetrics()
   {
     try {
@@ -155,6 +209,7 @@ public final class GTServer implements GTServerType
         new ObjectName("com.io7m.gtyrell:name=Metrics");
 
       server.registerMBean(this.metrics, objectName);
+      this.metricsRegistered = true;
     } catch (final MalformedObjectNameException
       | InstanceAlreadyExistsException
       | MBeanRegistrationException
@@ -163,6 +218,27 @@ public final class GTServer implements GTServerType
     }
   }
 
+  private void teardownMetrics()
+  {
+    if (!this.metricsRegistered) {
+      return;
+    }
+
+    try {
+      final var server =
+        ManagementFactory.getPlatformMBeanServer();
+      final var objectName =
+        new ObjectName("com.io7m.gtyrell:name=Metrics");
+
+      server.unregisterMBean(objectName);
+      this.metricsRegistered = false;
+    } catch (final MalformedObjectNameException
+      | InstanceNotFoundException
+      | MBeanRegistrationException e) {
+      LOG.error("unable to unregister metrics bean: ", e);
+    }
+  }
+
   private String version()
   {
     final var p = this.getClass().getPackage();
@@ -180,6 +256,13 @@ public final class GTServer implements GTServerType
     this.timeSyncStart = Instant.now();
     this.timeSyncNext = this.timeSyncStart.plus(this.config.pauseDuration());
 
+    try {
+      this.relocations.begin();
+    } catch (final IOException e) {
+      LOG.error("unable to open repository index: ", e);
+    }
+
+    var complete = true;
     final var producers = this.config.producers();
     for (var index = 0; index < producers.size(); ++index) {
       if (this.done.get()) {
@@ -195,6 +278,11 @@ public final class GTServer implements GTServerType
 
       try {
         groups = p.get(this.config.git());
+        for (final var group : groups) {
+          for (final var repository : group._2.repositories()) {
+            this.relocations.observe(group._1, repository._1, repository._2);
+          }
+        }
         for (final var group : groups) {
           try {
             this.metrics.repositoryCountAdd(group._2.repositories().size());
@@ -206,9 +294,11 @@ public final class GTServer implements GTServerType
       } catch (final Exception e) {
         LOG.error("error retrieving repository groups: ", e);
         this.metrics.repositoryGroupSyncFailed();
+        complete = false;
       }
     }
 
+    this.relocations.finish(complete);
     this.metrics.update();
 
     final var timeNow = Instant.now();
@@ -302,9 +392,26 @@ public final class GTServer implements GTServerType
       LOG.debug("syncing {}", repos);
       try {
         final var output =
-          makeRepositoryName(this.config.directory(), group, name);
+          GTServerDirectories.repositoryDirectory(this.config.directory(), group, name);
+        final var alternate =
+          repos.forkNetworkRoot()
+            .map(root -> GTServerDirectories.repositoryDirectory(
+              this.config.directory(), root.group(), root.name()))
+            .filter(root -> !root.equals(output) && root.isDirectory());
+        final var bundle =
+          this.config.bundleDirectory()
+            .map(bundles -> GTServerDirectories.bundleFile(bundles, group, name));
+
         if (!this.config.dryRun()) {
-          repos.update(output);
+          try (var ignored = this.locks.lock(output)) {
+            repos.update(
+              GTRepositoryUpdateContext.builder()
+                .setDirectory(output)
+                .setAlternate(alternate)
+                .setBundle(bundle)
+                .build());
+          }
+          this.lfs.submit(output, repos);
         } else {
           LOG.debug("not syncing due to dry run");
         }
@@ -313,6 +420,12 @@ public final class GTServer implements GTServerType
         LOG.error("error syncing {}: ", repos, e);
         this.metrics.repositorySyncFailed();
       }
+
+      if (!this.config.dryRun()) {
+        this.archival.submit(
+          GTServerDirectories.repositoryDirectory(this.config.directory(), group, name),
+          repos);
+      }
     }
   }
 }
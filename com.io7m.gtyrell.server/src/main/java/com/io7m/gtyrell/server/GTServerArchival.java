@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.server;
+
+import com.io7m.gtyrell.core.GTRepositoryType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository metadata archival. Archival runs as a separate stage with its
+ * own queue and worker threads, fed by the sync loop, so that slow or
+ * rate-limited API requests never hold up git transfers, and git failures
+ * never prevent metadata from being archived. Archival only locks the
+ * archives of a repository, and so runs alongside syncing and maintenance
+ * of the repository itself.
+ */
+
+final class GTServerArchival
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTServerArchival.class);
+  }
+
+  private final GTServerConfiguration config;
+  private final GTServerMetricsBean metrics;
+  private final GTRepositoryLocks locks;
+  private final ConcurrentHashMap<File, Instant> lastArchived;
+  private final Set<File> queued;
+  private final ThreadPoolExecutor workers;
+
+  GTServerArchival(
+    final GTServerConfiguration in_config,
+    final GTServerMetricsBean in_metrics,
+    final GTRepositoryLocks in_locks)
+  {
+    this.config =
+      Objects.requireNonNull(in_config, "config");
+    this.metrics =
+      Objects.requireNonNull(in_metrics, "metrics");
+    this.locks =
+      Objects.requireNonNull(in_locks, "locks");
+    this.lastArchived =
+      new ConcurrentHashMap<>(128);
+    this.queued =
+      ConcurrentHashMap.newKeySet(128);
+
+    final var concurrency = this.config.archival().concurrency();
+    this.workers = new ThreadPoolExecutor(
+      concurrency,
+      concurrency,
+      0L,
+      TimeUnit.MILLISECONDS,
+      new LinkedBlockingQueue<>(),
+      r -> {
+        final var thread = new Thread(r);
+        thread.setName(String.format(
+          "com.io7m.gtyrell.server.archival[%d]",
+          Long.valueOf(thread.threadId()))
+        );
+        thread.setDaemon(true);
+        return thread;
+      });
+  }
+
+  /**
+   * Queue the metadata of a repository for archival. A repository that is
+   * already queued, or that was archived less than the configured interval
+   * ago, is not queued again.
+   *
+   * @param directory  The repository clone
+   * @param repository The repository
+   */
+
+  void submit(
+    final File directory,
+    final GTRepositoryType repository)
+  {
+    final var archival = this.config.archival();
+    if (!archival.enabled()) {
+      return;
+    }
+
+    final var last = this.lastArchived.get(directory);
+    if (last != null && Instant.now().isBefore(last.plus(archival.interval()))) {
+      LOG.debug("{} was archived recently, skipping", repository);
+      return;
+    }
+
+    if (!this.queued.add(directory)) {
+      LOG.debug("{} is already queued for archival", repository);
+      return;
+    }
+
+    try {
+      this.workers.execute(() -> this.archive(directory, repository));
+    } catch (final RejectedExecutionException e) {
+      this.queued.remove(directory);
+    }
+    this.metrics.setRepositoryArchivalQueueLength(this.workers.getQueue().size());
+  }
+
+  /**
+   * Stop archiving. Queued archivals are discarded, and archivals that are
+   * already running are allowed to complete; they are not interrupted, as
+   * an interrupted archival would discard the partially written archive
+   * and the requests spent on it.
+   */
+
+  void stop()
+  {
+    this.workers.shutdown();
+    final var discarded = new ArrayList<Runnable>();
+    this.workers.getQueue().drainTo(discarded);
+    this.queued.clear();
+    if (!discarded.isEmpty()) {
+      LOG.debug("discarded {} queued archivals", Integer.valueOf(discarded.size()));
+    }
+    this.metrics.setRepositoryArchivalQueueLength(0L);
+  }
+
+  private void archive(
+    final File directory,
+    final GTRepositoryType repository)
+  {
+    this.queued.remove(directory);
+    this.metrics.setRepositoryArchivalQueueLength(this.workers.getQueue().size());
+
+    try (var ignored = this.locks.lockArchives(directory)) {
+      LOG.debug("archiving {}", repository);
+      repository.archiveMetadata(directory);
+      this.lastArchived.put(directory, Instant.now());
+      this.metrics.repositoryArchivalSucceeded();
+    } catch (final IOException e) {
+      LOG.error("error archiving {}: ", repository, e);
+      this.metrics.repositoryArchivalFailed();
+    }
+  }
+}
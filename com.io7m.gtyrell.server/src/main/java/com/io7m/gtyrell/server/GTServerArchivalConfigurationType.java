@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.server;
+
+import com.io7m.gtyrell.core.GTImmutableStyleType;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+
+/**
+ * Configuration values for repository metadata archival.
+ */
+
+@Value.Immutable
+@GTImmutableStyleType
+public interface GTServerArchivalConfigurationType
+{
+  /**
+   * @return {@code true} if repository metadata (such as issues) should be
+   * archived
+   */
+
+  @Value.Default
+  default boolean enabled()
+  {
+    return true;
+  }
+
+  /**
+   * @return The maximum number of repositories archived at the same time
+   */
+
+  @Value.Default
+  default int concurrency()
+  {
+    return 2;
+  }
+
+  /**
+   * @return The minimum time between archivals of the same repository
+   */
+
+  @Value.Default
+  default Duration interval()
+  {
+    return Duration.ZERO;
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    if (this.concurrency() < 1) {
+      throw new IllegalArgumentException(
+        "Archival concurrency must be at least 1");
+    }
+  }
+}
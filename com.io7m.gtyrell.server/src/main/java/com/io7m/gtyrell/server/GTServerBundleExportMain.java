@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.server;
+
+import com.io7m.gtyrell.filter.GTFilterCompilerException;
+import com.io7m.gtyrell.filter.GTFilterCompilers;
+import com.io7m.gtyrell.filter.GTFilterDiagnostics;
+import com.io7m.jproperties.JProperties;
+import com.io7m.jproperties.JPropertyException;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Clock;
+
+/**
+ * A frontend that exports a bundle of every repository in the server
+ * directory. The resulting directory can be used as the bundle directory
+ * of another server, so that its initial clones are seeded locally.
+ */
+
+public final class GTServerBundleExportMain
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTServerBundleExportMain.class);
+  }
+
+  private GTServerBundleExportMain()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Main function for exporting bundles.
+   *
+   * @param args Command line arguments
+   *
+   * @throws IOException               On I/O errors
+   * @throws JPropertyException        On configuration errors
+   * @throws GTFilterCompilerException On compilation errors
+   */
+
+  public static void main(final String[] args)
+    throws IOException, JPropertyException, GTFilterCompilerException
+  {
+    try {
+      if (args.length < 2) {
+        System.err.println("usage: server.conf bundle-directory [logback.xml]");
+        System.exit(1);
+      }
+
+      if (args.length > 2) {
+        GTServerMain.configureLogging(args[2]);
+      }
+
+      final var config =
+        GTServerConfigurations.fromProperties(
+          GTFilterCompilers.create(Clock.systemDefaultZone()),
+          JProperties.fromFile(new File(args[0])));
+
+      if (!exportAll(config, new File(args[1]))) {
+        System.exit(1);
+      }
+    } catch (final JPropertyException | IOException e) {
+      throw e;
+    } catch (final GTFilterCompilerException e) {
+      GTFilterDiagnostics.logErrors(LOG, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Export a bundle of every repository in the server directory.
+   *
+   * @return {@code true} if every bundle was exported successfully
+   */
+
+  private static boolean exportAll(
+    final GTServerConfiguration config,
+    final File bundles)
+    throws IOException
+  {
+    final var git = config.git();
+    final var directory = config.directory().toPath();
+    final var repositories =
+      GTServerDirectories.findRepositories(config.directory(), false);
+
+    var written = 0;
+    var unchanged = 0;
+    var failed = 0;
+    for (final var repository : repositories) {
+      final var relative = directory.relativize(repository.toPath());
+      final var group = relative.getParent().toString();
+      final var file = relative.getFileName().toString();
+      final var name = file.substring(0, file.length() - ".git".length());
+      final var bundle =
+        new File(new File(bundles, group), name + ".bundle");
+
+      try {
+        if (git.exportBundle(repository, bundle)) {
+          LOG.info("exported {}", bundle);
+          ++written;
+        } else {
+          ++unchanged;
+        }
+      } catch (final IOException e) {
+        LOG.error("unable to export {}: ", repository, e);
+        ++failed;
+      }
+    }
+
+    LOG.info(
+      "bundles: {} written, {} unchanged, {} failed",
+      Integer.valueOf(written),
+      Integer.valueOf(unchanged),
+      Integer.valueOf(failed));
+    return failed == 0;
+  }
+}
@@ -24,6 +24,7 @@ import org.immutables.value.Value;
 
 import java.io.File;
 import java.time.Duration;
+import java.util.Optional;
 
 /**
  * Configuration values for the server.
@@ -72,4 +73,41 @@ public interface GTServerConfigurationType
   {
     return false;
   }
+
+  /**
+   * @return The repository maintenance configuration
+   */
+
+  @Value.Default
+  default GTServerMaintenanceConfiguration maintenance()
+  {
+    return GTServerMaintenanceConfiguration.builder().build();
+  }
+
+  /**
+   * @return The repository metadata archival configuration
+   */
+
+  @Value.Default
+  default GTServerArchivalConfiguration archival()
+  {
+    return GTServerArchivalConfiguration.builder().build();
+  }
+
+  /**
+   * @return The Git LFS mirroring configuration
+   */
+
+  @Value.Default
+  default GTServerLFSConfiguration lfs()
+  {
+    return GTServerLFSConfiguration.builder().build();
+  }
+
+  /**
+   * @return A directory containing bundles ({@code group/name.bundle}) from
+   * which new clones are seeded
+   */
+
+  Optional<File> bundleDirectory();
 }
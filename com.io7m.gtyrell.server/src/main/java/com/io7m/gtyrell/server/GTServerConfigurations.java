@@ -21,23 +21,35 @@ import com.io7m.gtyrell.core.GTGitExecutableType;
 import com.io7m.gtyrell.core.GTRepositorySourceType;
 import com.io7m.gtyrell.filter.GTFilterCompilerException;
 import com.io7m.gtyrell.filter.GTFilterCompilersType;
+import com.io7m.gtyrell.filter.GTFilterDiagnostics;
 import com.io7m.gtyrell.filter.GTFilterProgram;
+import com.io7m.gtyrell.github.GTGithubArchiveCodec;
+import com.io7m.gtyrell.github.GTGithubArchiveCompression;
+import com.io7m.gtyrell.github.GTGithubArchivedResource;
+import com.io7m.gtyrell.github.GTGithubListingBackend;
 import com.io7m.gtyrell.github.GTGithubRepositories;
+import com.io7m.gtyrell.github.GTGithubSourceConfiguration;
 import com.io7m.jproperties.JProperties;
 import com.io7m.jproperties.JPropertyException;
 import com.io7m.jproperties.JPropertyIncorrectType;
 import com.io7m.jproperties.JPropertyNonexistent;
 import com.io7m.junreachable.UnreachableCodeException;
 import io.vavr.collection.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -46,6 +58,12 @@ import java.util.regex.Pattern;
 
 public final class GTServerConfigurations
 {
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTServerConfigurations.class);
+  }
+
   private GTServerConfigurations()
   {
     throw new UnreachableCodeException();
@@ -73,7 +91,10 @@ public final class GTServerConfigurations
     Objects.requireNonNull(p, "p");
 
     final var root = parseDirectory(p);
-    final var git = parseGit(p);
+    final var maintenance = parseMaintenance(p);
+    final var archival = parseArchival(p);
+    final var lfs = parseLFS(p);
+    final var git = parseGit(p, maintenance);
     final var pause = parseDuration(p);
 
     List<GTRepositorySourceType> sources = List.empty();
@@ -81,7 +102,7 @@ public final class GTServerConfigurations
       JProperties.getString(p, "com.io7m.gtyrell.server.repository_sources");
     final var source_names = source_names_text.split("\\s+");
     for (final var source_name : source_names) {
-      final var source = parseSource(compilers, p, source_name);
+      final var source = parseSource(compilers, p, root, source_name);
       sources = sources.append(source);
     }
 
@@ -89,12 +110,22 @@ public final class GTServerConfigurations
       JProperties.getBooleanWithDefault(
         p, "com.io7m.gtyrell.server.dry_run", false);
 
-    return GTServerConfiguration.of(root, sources, git, pause, dry_run);
+    final var bundles =
+      JProperties.getStringOptional(
+        p, "com.io7m.gtyrell.server.bundle_directory")
+        .map(File::new);
+
+    return GTServerConfiguration.of(root, sources, git, pause, dry_run)
+      .withMaintenance(maintenance)
+      .withArchival(archival)
+      .withLfs(lfs)
+      .withBundleDirectory(bundles);
   }
 
   private static GTRepositorySourceType parseSource(
     final GTFilterCompilersType compilers,
     final Properties p,
+    final File root,
     final String source_name)
     throws JPropertyException, IOException, GTFilterCompilerException
   {
@@ -113,6 +144,8 @@ public final class GTServerConfigurations
         "com.io7m.gtyrell.server.repository_source.%s.password", source_name);
       final var filter_file_key = String.format(
         "com.io7m.gtyrell.server.repository_source.%s.filter", source_name);
+      final var fork_alternates_key = String.format(
+        "com.io7m.gtyrell.server.repository_source.%s.fork_alternates", source_name);
 
       final var user =
         JProperties.getString(p, user_key);
@@ -129,7 +162,91 @@ public final class GTServerConfigurations
         filter = compiler.compile();
       }
 
-      return GTGithubRepositories.newSource(user, pass, filter);
+      GTFilterDiagnostics.logWarnings(LOG, filter);
+
+      final var fork_alternates =
+        JProperties.getBooleanWithDefault(p, fork_alternates_key, false);
+
+      final var builder =
+        GTGithubSourceConfiguration.builder()
+          .setName(source_name)
+          .setUser(user)
+          .setPassword(pass)
+          .setFilter(filter)
+          .setForkAlternates(fork_alternates);
+
+      if (JProperties.getBooleanWithDefault(
+        p, sourceKey(source_name, "filter_reload"), true)) {
+        builder.setFilterFile(Paths.get(filter_file));
+      }
+
+      final var defaults = builder.build();
+      builder.setConnectTimeout(
+        parseDurationWithDefault(
+          p,
+          sourceKey(source_name, "connect_timeout"),
+          defaults.connectTimeout()));
+      builder.setRequestTimeout(
+        parseDurationWithDefault(
+          p,
+          sourceKey(source_name, "request_timeout"),
+          defaults.requestTimeout()));
+
+      builder.setCacheDirectory(
+        JProperties.getStringOptional(p, sourceKey(source_name, "cache_directory"))
+          .map(Paths::get)
+          .orElseGet(() -> root.toPath()
+            .resolve(".gtyrell")
+            .resolve("http")
+            .resolve(source_name)));
+
+      final var backend_key = sourceKey(source_name, "listing_backend");
+      final var backend_text =
+        JProperties.getStringOptional(p, backend_key);
+      if (backend_text.isPresent()) {
+        try {
+          builder.setListingBackend(
+            GTGithubListingBackend.valueOf(
+              backend_text.get().trim().toUpperCase(Locale.ROOT)));
+        } catch (final IllegalArgumentException e) {
+          throw new JPropertyIncorrectType(
+            String.format(
+              "%s: unsupported listing backend '%s'",
+              backend_key,
+              backend_text.get()),
+            e);
+        }
+      }
+
+      final var api_key = sourceKey(source_name, "api_uri");
+      final var api_text = JProperties.getStringOptional(p, api_key);
+      if (api_text.isPresent()) {
+        builder.setApiURI(parseBaseURI(api_key, api_text.get()));
+      }
+
+      builder.setListingParallelism(
+        JProperties.getIntegerWithDefault(
+          p,
+          sourceKey(source_name, "listing_parallelism"),
+          defaults.listingParallelism()));
+      builder.setArchivalParallelism(
+        JProperties.getIntegerWithDefault(
+          p,
+          sourceKey(source_name, "archival_parallelism"),
+          defaults.archivalParallelism()));
+      builder.setArchiveCodec(parseArchiveCodec(p, source_name));
+      builder.setArchivedResources(parseArchivedResources(p, source_name));
+
+      try {
+        return GTGithubRepositories.newSource(builder.build());
+      } catch (final IllegalArgumentException e) {
+        throw new JPropertyIncorrectType(
+          String.format(
+            "%s: %s",
+            type_key,
+            e.getMessage()),
+          e);
+      }
     }
 
     throw new JPropertyException(
@@ -137,6 +254,77 @@ public final class GTServerConfigurations
         "%s: unsupported repository source type '%s'", type_key, type));
   }
 
+  private static Set<GTGithubArchivedResource> parseArchivedResources(
+    final Properties p,
+    final String source_name)
+    throws JPropertyException
+  {
+    final var resources = EnumSet.noneOf(GTGithubArchivedResource.class);
+    for (final var resource : GTGithubArchivedResource.values()) {
+      final var key =
+        sourceKey(
+          source_name,
+          "archive_" + resource.name().toLowerCase(Locale.ROOT));
+      if (JProperties.getBooleanWithDefault(p, key, true)) {
+        resources.add(resource);
+      }
+    }
+    return resources;
+  }
+
+  private static GTGithubArchiveCodec parseArchiveCodec(
+    final Properties p,
+    final String source_name)
+    throws JPropertyException
+  {
+    final var builder = GTGithubArchiveCodec.builder();
+
+    final var compression_key = sourceKey(source_name, "archive_compression");
+    final var compression_text =
+      JProperties.getStringOptional(p, compression_key);
+    if (compression_text.isPresent()) {
+      try {
+        builder.setCompression(
+          GTGithubArchiveCompression.valueOf(
+            compression_text.get().trim().toUpperCase(Locale.ROOT)));
+      } catch (final IllegalArgumentException e) {
+        throw new JPropertyIncorrectType(
+          String.format(
+            "%s: unsupported compression '%s'",
+            compression_key,
+            compression_text.get()),
+          e);
+      }
+    }
+
+    final var level_key = sourceKey(source_name, "archive_compression_level");
+    if (p.containsKey(level_key)) {
+      builder.setLevel(JProperties.getInteger(p, level_key));
+    }
+
+    builder.setThreads(
+      JProperties.getIntegerWithDefault(
+        p,
+        sourceKey(source_name, "archive_compression_threads"),
+        1));
+
+    try {
+      return builder.build();
+    } catch (final IllegalArgumentException e) {
+      throw new JPropertyIncorrectType(
+        String.format("%s: %s", compression_key, e.getMessage()),
+        e);
+    }
+  }
+
+  private static String sourceKey(
+    final String source_name,
+    final String name)
+  {
+    return String.format(
+      "com.io7m.gtyrell.server.repository_source.%s.%s", source_name, name);
+  }
+
   private static File parseDirectory(final Properties p)
     throws JPropertyNonexistent
   {
@@ -145,13 +333,125 @@ public final class GTServerConfigurations
         p, "com.io7m.gtyrell.server.directory"));
   }
 
-  private static GTGitExecutableType parseGit(final Properties p)
+  private static GTGitExecutableType parseGit(
+    final Properties p,
+    final GTServerMaintenanceConfiguration maintenance)
     throws JPropertyNonexistent
   {
     return GTGitExecutable.newExecutable(
       new File(
         JProperties.getString(
-          p, "com.io7m.gtyrell.server.git_executable")));
+          p, "com.io7m.gtyrell.server.git_executable")),
+      !maintenance.enabled());
+  }
+
+  private static GTServerArchivalConfiguration parseArchival(
+    final Properties p)
+    throws JPropertyException
+  {
+    final var defaults =
+      GTServerArchivalConfiguration.builder().build();
+
+    final var enabled =
+      JProperties.getBooleanWithDefault(
+        p, "com.io7m.gtyrell.server.archival.enabled", defaults.enabled());
+    final var concurrency =
+      parsePositiveIntegerWithDefault(
+        p,
+        "com.io7m.gtyrell.server.archival.concurrency",
+        defaults.concurrency());
+    final var interval =
+      parseDurationWithDefault(
+        p,
+        "com.io7m.gtyrell.server.archival.interval",
+        defaults.interval());
+
+    try {
+      return GTServerArchivalConfiguration.builder()
+        .setEnabled(enabled)
+        .setConcurrency(concurrency)
+        .setInterval(interval)
+        .build();
+    } catch (final IllegalArgumentException e) {
+      throw new JPropertyIncorrectType(
+        "com.io7m.gtyrell.server.archival: " + e.getMessage(),
+        e);
+    }
+  }
+
+  private static GTServerLFSConfiguration parseLFS(
+    final Properties p)
+    throws JPropertyException
+  {
+    final var defaults =
+      GTServerLFSConfiguration.builder().build();
+
+    final var builder =
+      GTServerLFSConfiguration.builder()
+        .setEnabled(JProperties.getBooleanWithDefault(
+          p, "com.io7m.gtyrell.server.lfs.enabled", defaults.enabled()))
+        .setConcurrency(JProperties.getIntegerWithDefault(
+          p, "com.io7m.gtyrell.server.lfs.concurrency", defaults.concurrency()))
+        .setTransfers(JProperties.getIntegerWithDefault(
+          p, "com.io7m.gtyrell.server.lfs.transfers", defaults.transfers()))
+        .setTimeout(parseDurationWithDefault(
+          p, "com.io7m.gtyrell.server.lfs.timeout", defaults.timeout()))
+        .setStore(JProperties.getStringOptional(
+          p, "com.io7m.gtyrell.server.lfs.store").map(File::new));
+
+    try {
+      return builder.build();
+    } catch (final IllegalArgumentException e) {
+      throw new JPropertyIncorrectType(
+        "com.io7m.gtyrell.server.lfs: " + e.getMessage(),
+        e);
+    }
+  }
+
+  private static GTServerMaintenanceConfiguration parseMaintenance(
+    final Properties p)
+    throws JPropertyException
+  {
+    final var defaults =
+      GTServerMaintenanceConfiguration.builder().build();
+
+    final var enabled =
+      JProperties.getBooleanWithDefault(
+        p, "com.io7m.gtyrell.server.maintenance.enabled", defaults.enabled());
+    final var concurrency =
+      parsePositiveIntegerWithDefault(
+        p,
+        "com.io7m.gtyrell.server.maintenance.concurrency",
+        defaults.concurrency());
+    final var interval =
+      parseDurationWithDefault(
+        p,
+        "com.io7m.gtyrell.server.maintenance.interval",
+        defaults.interval());
+    final var budget =
+      parseDurationWithDefault(
+        p,
+        "com.io7m.gtyrell.server.maintenance.budget",
+        defaults.budget());
+    final var lowPriority =
+      JProperties.getBooleanWithDefault(
+        p,
+        "com.io7m.gtyrell.server.maintenance.low_priority",
+        defaults.lowPriority());
+
+    try {
+      return GTServerMaintenanceConfiguration.builder()
+        .setEnabled(enabled)
+        .setConcurrency(concurrency)
+        .setInterval(interval)
+        .setBudget(budget)
+        .setLowPriority(lowPriority)
+        .build();
+    } catch (final IllegalArgumentException e) {
+      throw new JPropertyIncorrectType(
+        "com.io7m.gtyrell.server.maintenance: " + e.getMessage(),
+        e);
+    }
   }
 
   private static Duration parseDuration(final Properties p)
@@ -160,8 +460,79 @@ public final class GTServerConfigurations
     final var duration_text = JProperties.getString(
       p, "com.io7m.gtyrell.server.pause_duration");
 
+    return parseDurationValue(
+      "com.io7m.gtyrell.server.pause_duration", duration_text);
+  }
+
+  private static Duration parseDurationWithDefault(
+    final Properties p,
+    final String key,
+    final Duration default_value)
+    throws JPropertyIncorrectType
+  {
+    final var text = JProperties.getStringOptional(p, key);
+    if (text.isPresent()) {
+      return parseDurationValue(key, text.get());
+    }
+    return default_value;
+  }
+
+  /**
+   * Parse a base URI against which relative paths are resolved. A trailing
+   * slash is added if missing, as otherwise the last path segment (such as
+   * {@code v3} in {@code https://host/api/v3}) would be replaced by each
+   * resolved path.
+   */
+
+  private static URI parseBaseURI(
+    final String key,
+    final String text)
+    throws JPropertyIncorrectType
+  {
+    final URI uri;
+    try {
+      uri = new URI(text.trim());
+    } catch (final URISyntaxException e) {
+      throw new JPropertyIncorrectType(
+        key + ": " + e.getMessage(),
+        new IllegalArgumentException(e));
+    }
+
+    if (!uri.isAbsolute() || uri.getHost() == null) {
+      throw new JPropertyIncorrectType(
+        key + ": Expected an absolute URI with a host",
+        new IllegalArgumentException());
+    }
+
+    if (uri.getRawPath().endsWith("/")) {
+      return uri;
+    }
+    return uri.resolve(uri.getRawPath() + "/");
+  }
+
+  private static int parsePositiveIntegerWithDefault(
+    final Properties p,
+    final String key,
+    final int default_value)
+    throws JPropertyIncorrectType
+  {
+    final var value =
+      JProperties.getIntegerWithDefault(p, key, default_value);
+    if (value < 1) {
+      throw new JPropertyIncorrectType(
+        key + ": Value is too small (must be at least 1)",
+        new IllegalArgumentException());
+    }
+    return value;
+  }
+
+  private static Duration parseDurationValue(
+    final String key,
+    final String duration_text)
+    throws JPropertyIncorrectType
+  {
     final var pattern = Pattern.compile("([0-9]+)h ([0-9]+)m ([0-9]+)s");
-    final var matcher = pattern.matcher(duration_text);
+    final var matcher = pattern.matcher(duration_text.trim());
     if (matcher.matches()) {
       final var hours =
         Duration.ofHours(Long.parseUnsignedLong(matcher.group(1)));
@@ -174,14 +545,14 @@ public final class GTServerConfigurations
 
       if (total.getSeconds() < 1L) {
         throw new JPropertyIncorrectType(
-          "com.io7m.gtyrell.server.pause_duration: Duration is too small (must be at least 1 second)",
+          key + ": Duration is too small (must be at least 1 second)",
           new IllegalArgumentException());
       }
       return total;
     }
 
     throw new JPropertyIncorrectType(
-      "com.io7m.gtyrell.server.pause_duration: Expected a duration of the form: " + pattern.pattern(),
+      key + ": Expected a duration of the form: " + pattern.pattern(),
       new IllegalArgumentException());
   }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.server;
+
+import com.io7m.gtyrell.core.GTGitRecovery;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryName;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * The layout of repositories inside the server directory. Each repository
+ * is stored in {@code group/name.git}.
+ */
+
+final class GTServerDirectories
+{
+  private GTServerDirectories()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  static File repositoryDirectory(
+    final File directory,
+    final GTRepositoryGroupName group,
+    final GTRepositoryName name)
+  {
+    return new File(new File(directory, group.text()), name.text() + ".git");
+  }
+
+  static File bundleFile(
+    final File directory,
+    final GTRepositoryGroupName group,
+    final GTRepositoryName name)
+  {
+    return new File(new File(directory, group.text()), name.text() + ".bundle");
+  }
+
+  /**
+   * Find all repositories inside the server directory.
+   *
+   * @param directory           The server directory
+   * @param include_incomplete  {@code true} if repositories that only exist
+   *                            as staging directories should be included
+   *
+   * @return The repositories, sorted by path
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static List<File> findRepositories(
+    final File directory,
+    final boolean include_incomplete)
+    throws IOException
+  {
+    Objects.requireNonNull(directory, "directory");
+
+    final var root = directory.toPath();
+    if (!Files.isDirectory(root)) {
+      return new ArrayList<>();
+    }
+
+    final TreeSet<File> results;
+    try (var stream = Files.find(
+      root,
+      2,
+      (path, attributes) -> attributes.isDirectory()
+        && root.relativize(path).getNameCount() == 2)) {
+      results = stream.map(path -> repositoryFor(path, include_incomplete))
+        .filter(Objects::nonNull)
+        .collect(Collectors.toCollection(TreeSet::new));
+    }
+    return new ArrayList<>(results);
+  }
+
+  private static File repositoryFor(
+    final Path path,
+    final boolean include_incomplete)
+  {
+    final var group = path.getParent().getFileName().toString();
+    if (group.startsWith(".")) {
+      return null;
+    }
+
+    final var name = path.getFileName().toString();
+    if (name.startsWith(".")) {
+      return null;
+    }
+    if (name.endsWith(".git")) {
+      return path.toFile();
+    }
+
+    final var staging_suffix = ".git" + GTGitRecovery.STAGING_SUFFIX;
+    if (include_incomplete && name.endsWith(staging_suffix)) {
+      return path.resolveSibling(
+        name.substring(0, name.length() - GTGitRecovery.STAGING_SUFFIX.length()))
+        .toFile();
+    }
+    return null;
+  }
+}
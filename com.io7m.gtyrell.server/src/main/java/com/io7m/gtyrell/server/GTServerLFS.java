@@ -0,0 +1,278 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.server;
+
+import com.io7m.gtyrell.core.GTLFSClient;
+import com.io7m.gtyrell.core.GTLFSPointer;
+import com.io7m.gtyrell.core.GTLFSRemote;
+import com.io7m.gtyrell.core.GTLFSStore;
+import com.io7m.gtyrell.core.GTRepositoryType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Git LFS mirroring. {@code git clone --mirror} does not fetch LFS objects,
+ * so after each successful sync, the history added since the last scan is
+ * searched for LFS pointers, and any objects not already held are downloaded
+ * into a single content-addressed store shared by every repository. An
+ * asset shared by a repository and its forks is therefore stored once.
+ *
+ * The ref targets of each repository at the time of its last complete scan
+ * are recorded in {@code <repository>.lfs.properties}, and are only updated
+ * once every object found by a scan is in the store, so a failed download
+ * is retried on the next cycle.
+ */
+
+final class GTServerLFS
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTServerLFS.class);
+  }
+
+  /**
+   * The suffix of the file, stored next to the mirror of a repository, that
+   * records the state of the most recent scan.
+   */
+
+  static final String STATE_SUFFIX = ".lfs.properties";
+
+  private final GTServerConfiguration config;
+  private final GTServerMetricsBean metrics;
+  private final GTRepositoryLocks locks;
+  private final Set<File> queued;
+  private final ThreadPoolExecutor workers;
+  private final GTLFSClient client;
+
+  GTServerLFS(
+    final GTServerConfiguration in_config,
+    final GTServerMetricsBean in_metrics,
+    final GTRepositoryLocks in_locks)
+  {
+    this.config =
+      Objects.requireNonNull(in_config, "config");
+    this.metrics =
+      Objects.requireNonNull(in_metrics, "metrics");
+    this.locks =
+      Objects.requireNonNull(in_locks, "locks");
+    this.queued =
+      ConcurrentHashMap.newKeySet(128);
+
+    final var lfs = this.config.lfs();
+    final var store =
+      lfs.store()
+        .map(File::toPath)
+        .orElseGet(() -> this.config.directory().toPath()
+          .resolve(".gtyrell")
+          .resolve("lfs"));
+
+    this.client =
+      GTLFSClient.create(GTLFSStore.open(store), lfs.transfers(), lfs.timeout());
+
+    final var concurrency = lfs.concurrency();
+    this.workers = new ThreadPoolExecutor(
+      concurrency,
+      concurrency,
+      0L,
+      TimeUnit.MILLISECONDS,
+      new LinkedBlockingQueue<>(),
+      r -> {
+        final var thread = new Thread(r);
+        thread.setName(String.format(
+          "com.io7m.gtyrell.server.lfs[%d]",
+          Long.valueOf(thread.threadId()))
+        );
+        thread.setDaemon(true);
+        return thread;
+      });
+  }
+
+  /**
+   * Queue a repository for LFS mirroring. A repository that is already
+   * queued is not queued again.
+   *
+   * @param directory  The repository clone
+   * @param repository The repository
+   */
+
+  void submit(
+    final File directory,
+    final GTRepositoryType repository)
+  {
+    if (!this.config.lfs().enabled()) {
+      return;
+    }
+
+    final var remote = repository.lfsRemote();
+    if (remote.isEmpty()) {
+      return;
+    }
+
+    if (!this.queued.add(directory)) {
+      LOG.debug("{} is already queued for LFS mirroring", repository);
+      return;
+    }
+
+    try {
+      this.workers.execute(() -> this.mirror(directory, repository, remote.get()));
+    } catch (final RejectedExecutionException e) {
+      this.queued.remove(directory);
+    }
+  }
+
+  /**
+   * Stop mirroring. Queued repositories are discarded, and repositories that
+   * are already being mirrored are interrupted.
+   */
+
+  void stop()
+  {
+    this.workers.shutdownNow();
+  }
+
+  private void mirror(
+    final File directory,
+    final GTRepositoryType repository,
+    final GTLFSRemote remote)
+  {
+    this.queued.remove(directory);
+
+    try {
+      final var state_file = stateFile(directory);
+
+      /*
+       * The repository is only locked whilst it is being scanned; objects are
+       * downloaded into the store, which no other stage touches, so the
+       * repository can be synced again while downloads are in progress.
+       */
+
+      final Set<String> targets;
+      final Set<GTLFSPointer> pointers;
+      try (var ignored = this.locks.lock(directory)) {
+        if (!directory.isDirectory()) {
+          return;
+        }
+
+        final var scanned = readState(state_file);
+
+        final var git = this.config.git();
+        targets = git.refTargets(directory);
+        if (targets.equals(scanned)) {
+          LOG.debug("{}: no new commits to scan for LFS objects", repository);
+          return;
+        }
+        pointers = git.lfsPointers(directory, targets, scanned);
+      }
+
+      if (!pointers.isEmpty()) {
+        LOG.debug("{}: {} LFS pointers", repository, Integer.valueOf(pointers.size()));
+        final var result = this.client.fetch(remote, pointers);
+        this.metrics.repositoryLFSFetched(result);
+        if (result.downloaded() > 0L) {
+          LOG.info(
+            "{}: downloaded {} LFS objects ({} bytes)",
+            repository,
+            Long.valueOf(result.downloaded()),
+            Long.valueOf(result.downloadedBytes()));
+        }
+      }
+
+      /*
+       * The repository may have been moved or deleted whilst the objects were
+       * being downloaded; the state file must not be recreated next to a
+       * mirror that no longer exists.
+       */
+
+      try (var ignored = this.locks.lock(directory)) {
+        if (!directory.isDirectory()) {
+          return;
+        }
+        writeState(state_file, targets);
+      }
+    } catch (final IOException e) {
+      LOG.error("error mirroring LFS objects of {}: ", repository, e);
+      this.metrics.repositoryLFSFailed();
+    }
+  }
+
+  private static Path stateFile(
+    final File directory)
+  {
+    return directory.toPath()
+      .resolveSibling(directory.getName() + STATE_SUFFIX);
+  }
+
+  private static Set<String> readState(
+    final Path file)
+  {
+    final var targets = new TreeSet<String>();
+    if (!Files.isRegularFile(file)) {
+      return targets;
+    }
+
+    final var properties = new Properties();
+    try (InputStream stream = Files.newInputStream(file)) {
+      properties.load(stream);
+    } catch (final IOException e) {
+      LOG.warn("unable to read LFS state {}: ", file, e);
+      return targets;
+    }
+
+    final var text = properties.getProperty("scanned", "").trim();
+    if (!text.isEmpty()) {
+      targets.addAll(Arrays.asList(text.split("\\s+")));
+    }
+    return targets;
+  }
+
+  private static void writeState(
+    final Path file,
+    final Set<String> targets)
+    throws IOException
+  {
+    final var properties = new Properties();
+    properties.setProperty("scanned", String.join(" ", targets));
+
+    final var file_tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (OutputStream stream = Files.newOutputStream(file_tmp)) {
+      properties.store(stream, null);
+    }
+    Files.move(
+      file_tmp,
+      file,
+      StandardCopyOption.ATOMIC_MOVE,
+      StandardCopyOption.REPLACE_EXISTING);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.gtyrell.server;
+
+import com.io7m.gtyrell.core.GTImmutableStyleType;
+import org.immutables.value.Value;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Configuration values for Git LFS mirroring.
+ */
+
+@Value.Immutable
+@GTImmutableStyleType
+public interface GTServerLFSConfigurationType
+{
+  /**
+   * @return {@code true} if the LFS objects of repositories should be
+   * mirrored
+   */
+
+  @Value.Default
+  default boolean enabled()
+  {
+    return false;
+  }
+
+  /**
+   * @return The maximum number of repositories scanned for LFS objects at the
+   * same time
+   */
+
+  @Value.Default
+  default int concurrency()
+  {
+    return 1;
+  }
+
+  /**
+   * @return The maximum number of LFS objects downloaded at the same time,
+   * across all repositories
+   */
+
+  @Value.Default
+  default int transfers()
+  {
+    return 4;
+  }
+
+  /**
+   * @return The maximum time allowed for a single LFS request, including the
+   * download of an object
+   */
+
+  @Value.Default
+  default Duration timeout()
+  {
+    return Duration.ofHours(1L);
+  }
+
+  /**
+   * @return The directory in which LFS objects are stored, if not the
+   * default {@code .gtyrell/lfs} inside the server directory
+   */
+
+  Optional<File> store();
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    if (this.concurrency() < 1) {
+      throw new IllegalArgumentException(
+        "LFS concurrency must be at least 1");
+    }
+    if (this.transfers() < 1) {
+      throw new IllegalArgumentException(
+        "LFS transfers must be at least 1");
+    }
+  }
+}
@@ -20,6 +20,7 @@ import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.joran.JoranConfigurator;
 import com.io7m.gtyrell.filter.GTFilterCompilerException;
 import com.io7m.gtyrell.filter.GTFilterCompilers;
+import com.io7m.gtyrell.filter.GTFilterDiagnostics;
 import com.io7m.jproperties.JProperties;
 import com.io7m.jproperties.JPropertyException;
 import org.slf4j.LoggerFactory;
@@ -39,6 +40,20 @@ public final class GTServerMain
 
   }
 
+  static void configureLogging(
+    final String file)
+  {
+    final var context = (LoggerContext) LoggerFactory.getILoggerFactory();
+    try {
+      final var configurator = new JoranConfigurator();
+      configurator.setContext(context);
+      configurator.doConfigure(file);
+    } catch (final Exception ex) {
+      System.err.println("Could not load logback.xml: ");
+      ex.printStackTrace();
+    }
+  }
+
   /**
    * Main function for starting a server.
    *
@@ -59,15 +74,7 @@ public final class GTServerMain
       }
 
       if (args.length > 1) {
-        final var context = (LoggerContext) LoggerFactory.getILoggerFactory();
-        try {
-          final var configurator = new JoranConfigurator();
-          configurator.setContext(context);
-          configurator.doConfigure(args[1]);
-        } catch (final Exception ex) {
-          System.err.println("Could not load logback.xml: ");
-          ex.printStackTrace();
-        }
+        configureLogging(args[1]);
       }
 
       final var config =
@@ -80,17 +87,7 @@ public final class GTServerMain
     } catch (final JPropertyException | IOException e) {
       throw e;
     } catch (final GTFilterCompilerException e) {
-      final var log = LoggerFactory.getLogger(GTServerMain.class);
-      for (final var error : e.errors()) {
-        final var position = error.position();
-        log.error(
-          "{}:{}:{}: {}",
-          position.file(),
-          Integer.valueOf(position.line()),
-          Integer.valueOf(position.column()),
-          error.message());
-        error.exception().ifPresent(ex -> log.error("exception: ", ex));
-      }
+      GTFilterDiagnostics.logErrors(LoggerFactory.getLogger(GTServerMain.class), e);
       throw e;
     }
   }
@@ -0,0 +1,283 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.server;
+
+import com.io7m.gtyrell.core.GTGitExecutableType;
+import com.io7m.gtyrell.core.GTGitMaintenanceTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.time.temporal.ChronoUnit.SECONDS;
+
+/**
+ * Out-of-band repository maintenance. Repositories are periodically repacked
+ * incrementally, and have their commit-graph and multi-pack-index files
+ * updated, on threads that never run at the same time as a sync of the same
+ * repository.
+ */
+
+final class GTServerMaintenance
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTServerMaintenance.class);
+  }
+
+  private final GTServerConfiguration config;
+  private final GTServerMetricsBean metrics;
+  private final GTRepositoryLocks locks;
+  private final ConcurrentHashMap<File, Instant> lastMaintained;
+  private final ScheduledExecutorService scheduler;
+  private final ExecutorService workers;
+  private final List<String> prefix;
+
+  GTServerMaintenance(
+    final GTServerConfiguration in_config,
+    final GTServerMetricsBean in_metrics,
+    final GTRepositoryLocks in_locks)
+  {
+    this.config =
+      Objects.requireNonNull(in_config, "config");
+    this.metrics =
+      Objects.requireNonNull(in_metrics, "metrics");
+    this.locks =
+      Objects.requireNonNull(in_locks, "locks");
+    this.lastMaintained =
+      new ConcurrentHashMap<>(128);
+    this.prefix =
+      priorityPrefix(this.config.maintenance().lowPriority());
+
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      final var thread = new Thread(r);
+      thread.setName(String.format(
+        "com.io7m.gtyrell.server.maintenance[%d]",
+        Long.valueOf(thread.threadId()))
+      );
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    this.workers = Executors.newFixedThreadPool(
+      this.config.maintenance().concurrency(),
+      r -> {
+        final var thread = new Thread(r);
+        thread.setName(String.format(
+          "com.io7m.gtyrell.server.maintenance.worker[%d]",
+          Long.valueOf(thread.threadId()))
+        );
+        thread.setDaemon(true);
+        return thread;
+      });
+  }
+
+  /**
+   * Start running maintenance rounds.
+   */
+
+  void start()
+  {
+    final var interval = this.config.maintenance().interval();
+    LOG.debug("scheduling maintenance every {}", interval);
+    if (!this.prefix.isEmpty()) {
+      LOG.debug("running maintenance under {}", this.prefix);
+    }
+    this.scheduler.scheduleWithFixedDelay(
+      this::runRoundLogged,
+      interval.toSeconds(),
+      interval.toSeconds(),
+      TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stop running maintenance rounds. Maintenance that is already running
+   * is allowed to complete.
+   */
+
+  void stop()
+  {
+    this.scheduler.shutdown();
+    this.workers.shutdown();
+  }
+
+  private void runRoundLogged()
+  {
+    try {
+      this.runRound();
+    } catch (final Exception e) {
+      LOG.error("maintenance round failed: ", e);
+    }
+  }
+
+  private void runRound()
+    throws IOException, InterruptedException
+  {
+    final var timeStart = Instant.now();
+    final var deadline = timeStart.plus(this.config.maintenance().budget());
+
+    final var repositories =
+      GTServerDirectories.findRepositories(this.config.directory(), false);
+    repositories.sort(Comparator.comparing(
+      file -> this.lastMaintained.getOrDefault(file, Instant.EPOCH)));
+
+    LOG.debug("maintenance round: {} repositories", Integer.valueOf(repositories.size()));
+
+    final var tasks = new ArrayList<Callable<Void>>(repositories.size());
+    for (final var repository : repositories) {
+      tasks.add(() -> {
+        this.maintainIfTimeRemains(repository, deadline);
+        return null;
+      });
+    }
+    this.workers.invokeAll(tasks);
+
+    final var timeNow = Instant.now();
+    this.metrics.setRepositoryMaintenanceTimeSecondsLatest(
+      timeStart.until(timeNow, SECONDS));
+    LOG.debug("maintenance round completed");
+  }
+
+  private void maintainIfTimeRemains(
+    final File repository,
+    final Instant deadline)
+  {
+    if (Instant.now().isAfter(deadline)) {
+      LOG.debug("maintenance budget exhausted, skipping {}", repository);
+      this.metrics.repositoryMaintenanceSkipped();
+      return;
+    }
+
+    final var held_opt = this.locks.tryLock(repository);
+    if (held_opt.isEmpty()) {
+      LOG.debug("{} is busy, skipping maintenance", repository);
+      this.metrics.repositoryMaintenanceSkipped();
+      return;
+    }
+
+    try (var ignored = held_opt.get()) {
+      final GTGitExecutableType git = this.config.git();
+      LOG.debug("maintaining {}", repository);
+      git.maintain(repository, tasksFor(repository), this.prefix);
+      this.lastMaintained.put(repository, Instant.now());
+      this.metrics.repositoryMaintenanceSucceeded();
+      this.metrics.setRepositoryObjectCounts(
+        this.repositoryKey(repository),
+        git.objectCounts(repository));
+    } catch (final IOException e) {
+      LOG.error("error maintaining {}: ", repository, e);
+      this.metrics.repositoryMaintenanceFailed();
+    }
+  }
+
+  /**
+   * Incremental repacking fails on repositories that do not yet have any
+   * packs; the loose object task will create one for the next round.
+   */
+
+  private static EnumSet<GTGitMaintenanceTask> tasksFor(
+    final File repository)
+  {
+    final var tasks = EnumSet.allOf(GTGitMaintenanceTask.class);
+    final var packs =
+      new File(new File(repository, "objects"), "pack")
+        .list((dir, name) -> name.endsWith(".pack"));
+    if (packs == null || packs.length == 0) {
+      tasks.remove(GTGitMaintenanceTask.INCREMENTAL_REPACK);
+    }
+    return tasks;
+  }
+
+  /**
+   * Maintenance is run under {@code ionice -c3} and {@code nice -n 19}, if
+   * either program can be found on the {@code PATH}, so that it competes as
+   * little as possible with syncs.
+   */
+
+  private static List<String> priorityPrefix(
+    final boolean lowPriority)
+  {
+    if (!lowPriority) {
+      return List.of();
+    }
+
+    final var path = System.getenv("PATH");
+    if (path == null) {
+      return List.of();
+    }
+
+    final var prefix = new ArrayList<String>(5);
+    findExecutable(path, "ionice").ifPresent(ionice -> {
+      prefix.add(ionice.toString());
+      prefix.add("-c3");
+    });
+    findExecutable(path, "nice").ifPresent(nice -> {
+      prefix.add(nice.toString());
+      prefix.add("-n");
+      prefix.add("19");
+    });
+    return List.copyOf(prefix);
+  }
+
+  private static Optional<File> findExecutable(
+    final String path,
+    final String name)
+  {
+    for (final var directory : path.split(File.pathSeparator)) {
+      if (directory.isEmpty()) {
+        continue;
+      }
+      final var file = new File(directory, name);
+      if (file.isFile() && file.canExecute()) {
+        return Optional.of(file);
+      }
+    }
+    return Optional.empty();
+  }
+
+  private String repositoryKey(
+    final File repository)
+  {
+    final var relative =
+      this.config.directory()
+        .toPath()
+        .relativize(repository.toPath())
+        .toString()
+        .replace(File.separatorChar, '/');
+
+    if (relative.endsWith(".git")) {
+      return relative.substring(0, relative.length() - 4);
+    }
+    return relative;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.server;
+
+import com.io7m.gtyrell.core.GTImmutableStyleType;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+
+/**
+ * Configuration values for out-of-band repository maintenance.
+ */
+
+@Value.Immutable
+@GTImmutableStyleType
+public interface GTServerMaintenanceConfigurationType
+{
+  /**
+   * @return {@code true} if the server should maintain repositories itself,
+   * instead of letting git run garbage collection during fetches
+   */
+
+  @Value.Default
+  default boolean enabled()
+  {
+    return false;
+  }
+
+  /**
+   * @return The time between the end of one maintenance round and the
+   * start of the next
+   */
+
+  @Value.Default
+  default Duration interval()
+  {
+    return Duration.ofHours(1L);
+  }
+
+  /**
+   * @return The maximum number of repositories maintained at the same time
+   */
+
+  @Value.Default
+  default int concurrency()
+  {
+    return 1;
+  }
+
+  /**
+   * @return The maximum length of a maintenance round; maintenance of
+   * repositories is not started after the budget is exhausted
+   */
+
+  @Value.Default
+  default Duration budget()
+  {
+    return Duration.ofMinutes(30L);
+  }
+
+  /**
+   * @return {@code true} if maintenance should run at the lowest CPU and I/O
+   * priority, using {@code nice} and {@code ionice} when they are available
+   */
+
+  @Value.Default
+  default boolean lowPriority()
+  {
+    return true;
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    if (this.concurrency() < 1) {
+      throw new IllegalArgumentException(
+        "Maintenance concurrency must be at least 1");
+    }
+  }
+}
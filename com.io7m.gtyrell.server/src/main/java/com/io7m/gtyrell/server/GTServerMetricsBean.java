@@ -16,6 +16,14 @@
 
 package com.io7m.gtyrell.server;
 
+import com.io7m.gtyrell.core.GTGitObjectCounts;
+import com.io7m.gtyrell.core.GTLFSFetchResult;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * The metrics bean implementation.
  */
@@ -35,6 +43,21 @@ public final class GTServerMetricsBean implements GTServerMetricsMXBean
   private volatile long repositorySyncWaitSecondsRemaining;
   private volatile String repositorySyncTimeNext;
   private volatile long repositoryShortPauses;
+  private volatile long repositoryMaintenanceTimeSeconds;
+  private volatile long repositoryRemovedCount;
+  private final AtomicLong repositoryRelocated;
+  private final AtomicLong repositoryMaintenanceOK;
+  private final AtomicLong repositoryMaintenanceFail;
+  private final AtomicLong repositoryMaintenanceSkip;
+  private final AtomicLong repositoryArchivalOK;
+  private final AtomicLong repositoryArchivalFail;
+  private volatile long repositoryArchivalQueueLength;
+  private final AtomicLong repositoryLFSObjects;
+  private final AtomicLong repositoryLFSBytes;
+  private final AtomicLong repositoryLFSUnavailable;
+  private final AtomicLong repositoryLFSFail;
+  private final ConcurrentSkipListMap<String, Long> repositoryPackCounts;
+  private final ConcurrentSkipListMap<String, Long> repositoryLooseCounts;
 
   /**
    * The metrics bean implementation.
@@ -43,6 +66,18 @@ public final class GTServerMetricsBean implements GTServerMetricsMXBean
   public GTServerMetricsBean()
   {
     this.repositorySyncTimeNext = "";
+    this.repositoryMaintenanceOK = new AtomicLong();
+    this.repositoryRelocated = new AtomicLong();
+    this.repositoryMaintenanceFail = new AtomicLong();
+    this.repositoryMaintenanceSkip = new AtomicLong();
+    this.repositoryArchivalOK = new AtomicLong();
+    this.repositoryArchivalFail = new AtomicLong();
+    this.repositoryLFSObjects = new AtomicLong();
+    this.repositoryLFSBytes = new AtomicLong();
+    this.repositoryLFSUnavailable = new AtomicLong();
+    this.repositoryLFSFail = new AtomicLong();
+    this.repositoryPackCounts = new ConcurrentSkipListMap<>();
+    this.repositoryLooseCounts = new ConcurrentSkipListMap<>();
   }
 
   private void repositorySyncsFinish()
@@ -193,4 +228,178 @@ public final class GTServerMetricsBean implements GTServerMetricsMXBean
   {
     this.repositorySyncTimeNext = timestamp;
   }
+
+  void setRepositoryObjectCounts(
+    final String repository,
+    final GTGitObjectCounts counts)
+  {
+    Objects.requireNonNull(repository, "repository");
+    Objects.requireNonNull(counts, "counts");
+
+    this.repositoryPackCounts.put(
+      repository, Long.valueOf(counts.packs()));
+    this.repositoryLooseCounts.put(
+      repository, Long.valueOf(counts.looseObjects()));
+  }
+
+  void repositoryMaintenanceSucceeded()
+  {
+    this.repositoryMaintenanceOK.incrementAndGet();
+  }
+
+  void repositoryMaintenanceFailed()
+  {
+    this.repositoryMaintenanceFail.incrementAndGet();
+  }
+
+  void repositoryMaintenanceSkipped()
+  {
+    this.repositoryMaintenanceSkip.incrementAndGet();
+  }
+
+  void setRepositoryMaintenanceTimeSecondsLatest(
+    final long time)
+  {
+    this.repositoryMaintenanceTimeSeconds = time;
+  }
+
+  @Override
+  public Map<String, Long> getRepositoryPackCounts()
+  {
+    return Map.copyOf(this.repositoryPackCounts);
+  }
+
+  @Override
+  public Map<String, Long> getRepositoryLooseObjectCounts()
+  {
+    return Map.copyOf(this.repositoryLooseCounts);
+  }
+
+  @Override
+  public long getRepositoryPackCountMaximum()
+  {
+    return this.repositoryPackCounts.values()
+      .stream()
+      .mapToLong(Long::longValue)
+      .max()
+      .orElse(0L);
+  }
+
+  @Override
+  public long getRepositoryMaintenanceSucceededTotal()
+  {
+    return this.repositoryMaintenanceOK.get();
+  }
+
+  @Override
+  public long getRepositoryMaintenanceFailedTotal()
+  {
+    return this.repositoryMaintenanceFail.get();
+  }
+
+  @Override
+  public long getRepositoryMaintenanceSkippedTotal()
+  {
+    return this.repositoryMaintenanceSkip.get();
+  }
+
+  @Override
+  public long getRepositoryMaintenanceTimeSecondsLatest()
+  {
+    return this.repositoryMaintenanceTimeSeconds;
+  }
+
+  @Override
+  public long getRepositoryRelocatedTotal()
+  {
+    return this.repositoryRelocated.get();
+  }
+
+  @Override
+  public long getRepositoryRemovedCount()
+  {
+    return this.repositoryRemovedCount;
+  }
+
+  void repositoryRelocated()
+  {
+    this.repositoryRelocated.incrementAndGet();
+  }
+
+  void setRepositoryRemovedCount(
+    final long count)
+  {
+    this.repositoryRemovedCount = count;
+  }
+
+  void repositoryArchivalSucceeded()
+  {
+    this.repositoryArchivalOK.incrementAndGet();
+  }
+
+  void repositoryArchivalFailed()
+  {
+    this.repositoryArchivalFail.incrementAndGet();
+  }
+
+  void setRepositoryArchivalQueueLength(
+    final long length)
+  {
+    this.repositoryArchivalQueueLength = length;
+  }
+
+  @Override
+  public long getRepositoryArchivalSucceededTotal()
+  {
+    return this.repositoryArchivalOK.get();
+  }
+
+  @Override
+  public long getRepositoryArchivalFailedTotal()
+  {
+    return this.repositoryArchivalFail.get();
+  }
+
+  @Override
+  public long getRepositoryArchivalQueueLength()
+  {
+    return this.repositoryArchivalQueueLength;
+  }
+
+  void repositoryLFSFetched(
+    final GTLFSFetchResult result)
+  {
+    this.repositoryLFSObjects.addAndGet(result.downloaded());
+    this.repositoryLFSBytes.addAndGet(result.downloadedBytes());
+    this.repositoryLFSUnavailable.addAndGet(result.unavailable());
+  }
+
+  void repositoryLFSFailed()
+  {
+    this.repositoryLFSFail.incrementAndGet();
+  }
+
+  @Override
+  public long getRepositoryLFSObjectsDownloadedTotal()
+  {
+    return this.repositoryLFSObjects.get();
+  }
+
+  @Override
+  public long getRepositoryLFSBytesDownloadedTotal()
+  {
+    return this.repositoryLFSBytes.get();
+  }
+
+  @Override
+  public long getRepositoryLFSObjectsUnavailableTotal()
+  {
+    return this.repositoryLFSUnavailable.get();
+  }
+
+  @Override
+  public long getRepositoryLFSFailedTotal()
+  {
+    return this.repositoryLFSFail.get();
+  }
 }
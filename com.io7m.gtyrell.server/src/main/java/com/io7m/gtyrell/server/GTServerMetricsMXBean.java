@@ -17,6 +17,7 @@
 package com.io7m.gtyrell.server;
 
 import javax.management.MXBean;
+import java.util.Map;
 
 /**
  * Server metrics.
@@ -99,4 +100,108 @@ public interface GTServerMetricsMXBean
    */
 
   long getRepositorySyncShortPauses();
+
+  /**
+   * @return The number of packs in each repository, as of the most recent
+   * maintenance of each repository
+   */
+
+  Map<String, Long> getRepositoryPackCounts();
+
+  /**
+   * @return The number of loose objects in each repository, as of the most
+   * recent maintenance of each repository
+   */
+
+  Map<String, Long> getRepositoryLooseObjectCounts();
+
+  /**
+   * @return The largest number of packs in any single repository
+   */
+
+  long getRepositoryPackCountMaximum();
+
+  /**
+   * @return The number of repository maintenance runs that succeeded in total
+   */
+
+  long getRepositoryMaintenanceSucceededTotal();
+
+  /**
+   * @return The number of repository maintenance runs that failed in total
+   */
+
+  long getRepositoryMaintenanceFailedTotal();
+
+  /**
+   * @return The number of times maintenance of a repository was skipped
+   * because the repository was busy or the time budget was exhausted
+   */
+
+  long getRepositoryMaintenanceSkippedTotal();
+
+  /**
+   * @return The number of seconds the last maintenance round took
+   */
+
+  long getRepositoryMaintenanceTimeSecondsLatest();
+
+  /**
+   * @return The number of mirrors that have been moved because the
+   * repository was renamed or transferred
+   */
+
+  long getRepositoryRelocatedTotal();
+
+  /**
+   * @return The number of mirrors whose repositories are no longer listed by
+   * any source, and that are flagged for archival
+   */
+
+  long getRepositoryRemovedCount();
+
+  /**
+   * @return The number of repository metadata archivals that succeeded in
+   * total
+   */
+
+  long getRepositoryArchivalSucceededTotal();
+
+  /**
+   * @return The number of repository metadata archivals that failed in total
+   */
+
+  long getRepositoryArchivalFailedTotal();
+
+  /**
+   * @return The number of repositories waiting for metadata archival
+   */
+
+  long getRepositoryArchivalQueueLength();
+
+  /**
+   * @return The number of LFS objects downloaded in total
+   */
+
+  long getRepositoryLFSObjectsDownloadedTotal();
+
+  /**
+   * @return The number of bytes of LFS objects downloaded in total
+   */
+
+  long getRepositoryLFSBytesDownloadedTotal();
+
+  /**
+   * @return The number of LFS objects that servers reported as unavailable
+   * in total
+   */
+
+  long getRepositoryLFSObjectsUnavailableTotal();
+
+  /**
+   * @return The number of times mirroring the LFS objects of a repository
+   * failed in total
+   */
+
+  long getRepositoryLFSFailedTotal();
 }
@@ -0,0 +1,395 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.server;
+
+import com.io7m.gtyrell.core.GTGitRecovery;
+import com.io7m.gtyrell.core.GTRepositoryFullName;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryName;
+import com.io7m.gtyrell.core.GTRepositoryType;
+import com.io7m.gtyrell.github.GTGithubArchiveCompression;
+import com.io7m.gtyrell.github.GTGithubArchivedResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Tracks repositories by their stable identifiers across sync cycles. A
+ * repository that appears under a new name has its existing mirror moved to
+ * the new location so that only the delta needs to be fetched, and
+ * repositories that are no longer listed are flagged for archival.
+ */
+
+final class GTServerRelocations
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(GTServerRelocations.class);
+  }
+
+  /**
+   * The suffix of the marker file written next to the mirror of a repository
+   * that is no longer listed by any source.
+   */
+
+  static final String REMOVED_SUFFIX = ".removed";
+
+  /**
+   * The suffixes of every file that the server stores next to the mirror of
+   * a repository under the same name.
+   */
+
+  private static final List<String> SIDECAR_SUFFIXES = sidecarSuffixes();
+
+  private final GTServerConfiguration config;
+  private final GTServerMetricsBean metrics;
+  private final GTRepositoryLocks locks;
+  private final Set<String> seen;
+  private GTServerRepositoryIndex index;
+
+  GTServerRelocations(
+    final GTServerConfiguration in_config,
+    final GTServerMetricsBean in_metrics,
+    final GTRepositoryLocks in_locks)
+  {
+    this.config = Objects.requireNonNull(in_config, "config");
+    this.metrics = Objects.requireNonNull(in_metrics, "metrics");
+    this.locks = Objects.requireNonNull(in_locks, "locks");
+    this.seen = new HashSet<>();
+  }
+
+  /**
+   * Start a new sync cycle.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void begin()
+    throws IOException
+  {
+    this.seen.clear();
+    this.index = null;
+    this.index = GTServerRepositoryIndex.open(this.config.directory());
+  }
+
+  /**
+   * Record that a repository was listed under the given name, moving an
+   * existing mirror if the repository was previously listed under a
+   * different name.
+   *
+   * @param group      The group name
+   * @param name       The repository name
+   * @param repository The repository
+   */
+
+  void observe(
+    final GTRepositoryGroupName group,
+    final GTRepositoryName name,
+    final GTRepositoryType repository)
+  {
+    final var identifier_opt = repository.stableIdentifier();
+    if (identifier_opt.isEmpty() || this.index == null) {
+      return;
+    }
+
+    final var identifier = identifier_opt.get();
+    final var name_now = GTRepositoryFullName.of(group, name);
+    this.seen.add(identifier);
+
+    final var name_then_opt = this.index.nameOf(identifier);
+    if (name_then_opt.isPresent()) {
+      final var name_then = name_then_opt.get();
+      if (!name_then.equals(name_now)) {
+        LOG.info("{} has been renamed to {}", name_then.text(), name_now.text());
+        if (!this.config.dryRun()) {
+          try {
+            this.relocate(identifier, name_then, name_now, repository);
+          } catch (final IOException e) {
+            LOG.error("unable to relocate {} to {}: ",
+                      name_then.text(), name_now.text(), e);
+            return;
+          }
+        }
+      }
+    }
+
+    this.index.setName(identifier, name_now);
+    if (!this.config.dryRun()) {
+      final var directory = this.directoryOf(name_now);
+      try {
+        Files.deleteIfExists(markerOf(directory));
+      } catch (final IOException e) {
+        LOG.error("unable to delete removal marker of {}: ", directory, e);
+      }
+    }
+  }
+
+  /**
+   * Finish the current sync cycle. If every source was listed successfully,
+   * repositories that were not observed during the cycle are flagged as
+   * removed.
+   *
+   * @param complete {@code true} if every source was listed successfully
+   */
+
+  void finish(
+    final boolean complete)
+  {
+    if (this.index == null) {
+      return;
+    }
+
+    final var time_now = Instant.now();
+    long removed = 0L;
+
+    for (final var identifier : this.index.identifiers()) {
+      if (this.seen.contains(identifier)) {
+        continue;
+      }
+
+      if (complete && this.index.removedAt(identifier).isEmpty()) {
+        this.flagRemoved(identifier, time_now);
+      }
+      if (this.index.removedAt(identifier).isPresent()) {
+        ++removed;
+      }
+    }
+
+    this.metrics.setRepositoryRemovedCount(removed);
+
+    if (!this.config.dryRun()) {
+      try {
+        this.index.save();
+      } catch (final IOException e) {
+        LOG.error("unable to save repository index: ", e);
+      }
+    }
+  }
+
+  private void flagRemoved(
+    final String identifier,
+    final Instant time)
+  {
+    this.index.setRemoved(identifier, time);
+
+    final var name_opt = this.index.nameOf(identifier);
+    if (name_opt.isEmpty()) {
+      return;
+    }
+
+    final var name = name_opt.get();
+    LOG.warn("{} is no longer listed by any source and is flagged for archival",
+             name.text());
+
+    if (this.config.dryRun()) {
+      return;
+    }
+
+    writeMarker(this.directoryOf(name), time);
+  }
+
+  private static void writeMarker(
+    final File directory,
+    final Instant time)
+  {
+    if (!directory.isDirectory()) {
+      return;
+    }
+
+    try {
+      Files.writeString(
+        markerOf(directory),
+        time + System.lineSeparator(),
+        StandardCharsets.UTF_8);
+    } catch (final IOException e) {
+      LOG.error("unable to write removal marker of {}: ", directory, e);
+    }
+  }
+
+  private void relocate(
+    final String identifier,
+    final GTRepositoryFullName name_then,
+    final GTRepositoryFullName name_now,
+    final GTRepositoryType repository)
+    throws IOException
+  {
+    final var directory_then = this.directoryOf(name_then);
+    final var directory_now = this.directoryOf(name_now);
+
+    if (!directory_then.isDirectory()) {
+      LOG.debug("no existing mirror at {}", directory_then);
+      return;
+    }
+
+    /*
+     * The archives are locked first, so that the repositories are not held
+     * whilst waiting for an archival to complete.
+     */
+
+    try (var ignored_archives_then = this.locks.lockArchives(directory_then);
+         var ignored_archives_now = this.locks.lockArchives(directory_now);
+         var ignored_then = this.locks.lock(directory_then);
+         var ignored_now = this.locks.lock(directory_now)) {
+
+      /*
+       * The repository is synced into the new location regardless, so the
+       * old mirror is no longer updated by anything; unless another
+       * repository now goes by the old name, flag the old mirror in the same
+       * way as the mirror of a removed repository so that it does not linger
+       * unnoticed.
+       */
+
+      if (directory_now.exists()) {
+        LOG.warn("not moving {} because {} already exists",
+                 directory_then, directory_now);
+        if (!this.isClaimedByOther(identifier, name_then)) {
+          writeMarker(directory_then, Instant.now());
+        }
+        return;
+      }
+
+      final var parent_now = directory_now.getParentFile().toPath();
+      Files.createDirectories(parent_now);
+
+      /*
+       * Move the mirror itself, and everything stored next to it under the
+       * same name (issue archives, staging directories, markers).
+       */
+
+      final var prefix_then = directory_then.getName();
+      final var prefix_now = directory_now.getName();
+      for (final var source : siblingsOf(directory_then)) {
+        final var suffix =
+          source.getFileName().toString().substring(prefix_then.length());
+        final var target = parent_now.resolve(prefix_now + suffix);
+        LOG.debug("move {} -> {}", source, target);
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+      }
+
+      /*
+       * The mirror must fetch from the new remote location; the old one may
+       * stop redirecting, or be taken by a different repository.
+       */
+
+      try {
+        repository.relocated(directory_now);
+      } catch (final IOException e) {
+        LOG.error("unable to update the remote of {}: ", directory_now, e);
+      }
+    }
+
+    this.metrics.repositoryRelocated();
+    LOG.info("moved {} to {}", directory_then, directory_now);
+
+    /*
+     * Forks that borrowed objects from the old location must now borrow
+     * them from the new one.
+     */
+
+    final var git = this.config.git();
+    final var directories =
+      GTServerDirectories.findRepositories(this.config.directory(), false);
+    for (final var directory : directories) {
+      try (var ignored = this.locks.lock(directory)) {
+        git.relocateAlternate(directory, directory_then, directory_now);
+      } catch (final IOException e) {
+        LOG.error("unable to update alternates of {}: ", directory, e);
+      }
+    }
+  }
+
+  private boolean isClaimedByOther(
+    final String identifier,
+    final GTRepositoryFullName name)
+  {
+    for (final var other : this.index.identifiers()) {
+      if (!other.equals(identifier)
+        && this.index.nameOf(other).equals(Optional.of(name))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<String> sidecarSuffixes()
+  {
+    final var results = new ArrayList<String>();
+    results.add(GTGitRecovery.STAGING_SUFFIX);
+    results.add(REMOVED_SUFFIX);
+    results.add(GTServerLFS.STATE_SUFFIX);
+    for (final var resource : GTGithubArchivedResource.values()) {
+      final var base = "." + resource.fileName() + ".json";
+      results.add(base + ".properties");
+      for (final var compression : GTGithubArchiveCompression.values()) {
+        results.add(base + compression.extension());
+      }
+    }
+    return List.copyOf(results);
+  }
+
+  /**
+   * @return The mirror and the files stored next to it under the same name.
+   * Only the exact names of the files the server writes are matched, so the
+   * files of a repository whose name happens to begin with the name of this
+   * one are never included.
+   */
+
+  static List<Path> siblingsOf(
+    final File directory)
+  {
+    final var path = directory.toPath();
+    final var name = directory.getName();
+    final var results = new ArrayList<Path>();
+    results.add(path);
+    for (final var suffix : SIDECAR_SUFFIXES) {
+      final var sibling = path.resolveSibling(name + suffix);
+      if (Files.exists(sibling)) {
+        results.add(sibling);
+      }
+    }
+    return results;
+  }
+
+  private static Path markerOf(
+    final File directory)
+  {
+    return directory.toPath()
+      .resolveSibling(directory.getName() + REMOVED_SUFFIX);
+  }
+
+  private File directoryOf(
+    final GTRepositoryFullName name)
+  {
+    return GTServerDirectories.repositoryDirectory(
+      this.config.directory(), name.group(), name.name());
+  }
+}
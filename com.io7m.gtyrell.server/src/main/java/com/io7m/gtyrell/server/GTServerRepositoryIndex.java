@@ -0,0 +1,176 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.server;
+
+import com.io7m.gtyrell.core.GTRepositoryFullName;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryName;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A persistent index of the stable identifiers of repositories, and the
+ * names under which they were last seen.
+ */
+
+final class GTServerRepositoryIndex
+{
+  private static final String NAME_SUFFIX = ".name";
+  private static final String REMOVED_SUFFIX = ".removed";
+
+  private final Path file;
+  private final Properties properties;
+
+  private GTServerRepositoryIndex(
+    final Path in_file,
+    final Properties in_properties)
+  {
+    this.file = Objects.requireNonNull(in_file, "file");
+    this.properties = Objects.requireNonNull(in_properties, "properties");
+  }
+
+  /**
+   * Open the index stored in the given server directory, or create an empty
+   * index if none exists.
+   *
+   * @param directory The server directory
+   *
+   * @return The index
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static GTServerRepositoryIndex open(
+    final File directory)
+    throws IOException
+  {
+    final var file =
+      directory.toPath()
+        .resolve(".gtyrell")
+        .resolve("repositories.properties");
+
+    final var properties = new Properties();
+    if (Files.isRegularFile(file)) {
+      try (InputStream stream = Files.newInputStream(file)) {
+        properties.load(stream);
+      }
+    }
+    return new GTServerRepositoryIndex(file, properties);
+  }
+
+  Set<String> identifiers()
+  {
+    final var results = new TreeSet<String>();
+    for (final var key : this.properties.stringPropertyNames()) {
+      if (key.endsWith(NAME_SUFFIX)) {
+        results.add(key.substring(0, key.length() - NAME_SUFFIX.length()));
+      }
+    }
+    return results;
+  }
+
+  Optional<GTRepositoryFullName> nameOf(
+    final String identifier)
+  {
+    final var text = this.properties.getProperty(identifier + NAME_SUFFIX);
+    if (text == null) {
+      return Optional.empty();
+    }
+
+    final var slash = text.indexOf('/');
+    if (slash < 0) {
+      return Optional.empty();
+    }
+
+    try {
+      return Optional.of(
+        GTRepositoryFullName.of(
+          GTRepositoryGroupName.of(text.substring(0, slash)),
+          GTRepositoryName.of(text.substring(slash + 1))));
+    } catch (final IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Record the name under which a repository was seen, and clear any
+   * indication that the repository was removed.
+   *
+   * @param identifier The repository identifier
+   * @param name       The repository name
+   */
+
+  void setName(
+    final String identifier,
+    final GTRepositoryFullName name)
+  {
+    this.properties.setProperty(identifier + NAME_SUFFIX, name.text());
+    this.properties.remove(identifier + REMOVED_SUFFIX);
+  }
+
+  Optional<Instant> removedAt(
+    final String identifier)
+  {
+    final var text = this.properties.getProperty(identifier + REMOVED_SUFFIX);
+    if (text == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(Instant.parse(text));
+    } catch (final DateTimeParseException e) {
+      return Optional.empty();
+    }
+  }
+
+  void setRemoved(
+    final String identifier,
+    final Instant time)
+  {
+    this.properties.setProperty(identifier + REMOVED_SUFFIX, time.toString());
+  }
+
+  /**
+   * Atomically write the index to disk.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void save()
+    throws IOException
+  {
+    Files.createDirectories(this.file.getParent());
+    final var file_tmp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+    try (OutputStream stream = Files.newOutputStream(file_tmp)) {
+      this.properties.store(stream, "gtyrell repository index");
+    }
+    Files.move(file_tmp, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+}
@@ -17,6 +17,8 @@
 
 package com.io7m.gtyrell.tests;
 
+import com.io7m.gtyrell.filter.GTFilterCompilerException;
+import com.io7m.gtyrell.filter.GTFilterCompilers;
 import com.io7m.gtyrell.filter.GTFilterProgram;
 import com.io7m.gtyrell.filter.GTFilterRule;
 import com.io7m.gtyrell.filter.GTFilterRuleType;
@@ -26,13 +28,85 @@ import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Random;
 import java.util.regex.Pattern;
 
 public final class GTFilterProgramTest
 {
   private static final Logger LOG = LoggerFactory.getLogger(GTFilterProgramTest.class);
 
+  private static final String[] PATTERNS = {
+    ".*",
+    "example/.*",
+    "example/x",
+    "^example/[xyz]$",
+    "io7m/com\\.io7m\\..*",
+    "io7m/(jcanephora|jtensors|r2)(-.*)?",
+    "[a-z]+/[a-z]+",
+    "[^/]*/x",
+    "\\w+/\\d{2,4}",
+    "\\S+/\\s*",
+    "(?:a|b|)+/.?",
+    "a{3}/.*?",
+    ".*-(old|archive)",
+    "[\\-.a-c]+/[x-]",
+    "(?i)EXAMPLE/.*",
+    "(a)\\1/.*",
+    "a++/.*",
+    ".*(?=x)x",
+    "[a-z&&[^x]]+/.*",
+    "\\p{Alpha}+/.*",
+    "\\Qa.b\\E/.*",
+    "ex.mple/\u00e9",
+    ".*/\ud83d\ude00",
+    "acme/widget",
+    "^acme/widget$",
+    "(?:acme)/wid(?:get)",
+    "acme/.*",
+    "^acme/wid.*?$",
+    "acme/widget.*",
+    "[a]cme/.*",
+    "(acme/.*)",
+  };
+
+  private static final String[] NAMES = {
+    "",
+    "example/x",
+    "example/y",
+    "example/xx",
+    "io7m/com.io7m.gtyrell",
+    "io7m/comxio7m.gtyrell",
+    "io7m/jtensors",
+    "io7m/r2-old",
+    "io7m/r2-archive",
+    "aaa/b",
+    "aaa/",
+    "ab/c",
+    "abc/x",
+    "-/-",
+    "word/123",
+    "word/12345",
+    "EXAMPLE/x",
+    "aa/zz",
+    "exmple/\u00e9",
+    "example/\u00e9",
+    "ex\nmple/\u00e9",
+    "someone/\ud83d\ude00",
+    "z/ \t",
+    "acme/widget",
+    "acme/widgets",
+    "acme/widget\n",
+    "acme/\nwidget",
+    "acme/",
+    "acme",
+  };
+
   @Test
   public void testEmptyExcludes()
   {
@@ -160,4 +234,369 @@ public final class GTFilterProgramTest
 
     Assertions.assertFalse(program.includes(LOG, "example/x"));
   }
+
+  @Test
+  public void testMatcherAgreesWithRules()
+  {
+    final var random = new Random(0x6774797265L);
+
+    for (int iteration = 0; iteration < 500; ++iteration) {
+      final var rules = new ArrayList<GTFilterRule>();
+      final var count = random.nextInt(8);
+      for (int index = 0; index < count; ++index) {
+        final var kinds = GTFilterRuleType.Kind.values();
+        final var pattern = PATTERNS[random.nextInt(PATTERNS.length)];
+        rules.add(
+          GTFilterRule.builder()
+            .setKind(kinds[random.nextInt(kinds.length)])
+            .setPattern(Pattern.compile(pattern))
+            .build());
+      }
+
+      final var program =
+        GTFilterProgram.builder()
+          .setCompiled(LocalDateTime.now())
+          .setRules(List.ofAll(rules))
+          .build();
+
+      for (final var name : NAMES) {
+        final var expected = evaluateInOrder(program, name);
+        Assertions.assertEquals(
+          expected,
+          program.matcher().includes(name),
+          () -> String.format("%s: %s", program.rules(), name));
+        Assertions.assertEquals(
+          expected,
+          program.trace(name).included(),
+          () -> String.format("%s: %s", program.rules(), name));
+
+        final var slash = name.indexOf('/');
+        if (slash >= 0) {
+          final var owner = name.substring(0, slash);
+          final var repository = name.substring(slash + 1);
+          Assertions.assertEquals(
+            expected,
+            program.matcher().includes(owner, repository),
+            () -> String.format("%s: %s", program.rules(), name));
+          Assertions.assertEquals(
+            program.matcher().decidingRule(name),
+            program.matcher().decidingRule(owner, repository),
+            () -> String.format("%s: %s", program.rules(), name));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMatcherFallsBackForUnsupportedPatterns()
+  {
+    final var program =
+      GTFilterProgram.builder()
+        .setCompiled(LocalDateTime.now())
+        .setRules(
+          List.of(
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.INCLUDE)
+              .setPattern(Pattern.compile("example/.*"))
+              .build(),
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.EXCLUDE)
+              .setPattern(Pattern.compile("(a)\\1/.*"))
+              .build(),
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.EXCLUDE_AND_HALT)
+              .setPattern(Pattern.compile("example/x", Pattern.CASE_INSENSITIVE))
+              .build(),
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.INCLUDE)
+              .setPattern(Pattern.compile(".*"))
+              .build()
+          )
+        )
+        .build();
+
+    final var matcher = program.matcher();
+    Assertions.assertEquals(2, matcher.prefixRuleCount());
+    Assertions.assertEquals(0, matcher.automatonCount());
+    Assertions.assertEquals(2, matcher.fallbackCount());
+    Assertions.assertTrue(matcher.includes("example/y"));
+    Assertions.assertTrue(matcher.includes("aa/y"));
+    Assertions.assertFalse(matcher.includes("EXAMPLE/X"));
+  }
+
+  @Test
+  public void testMatcherClassifiesRules()
+  {
+    final var program =
+      GTFilterProgram.builder()
+        .setCompiled(LocalDateTime.now())
+        .setRules(
+          List.of(
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.INCLUDE)
+              .setPattern(Pattern.compile("acme/.*"))
+              .build(),
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.EXCLUDE)
+              .setPattern(Pattern.compile("acme/widget"))
+              .build(),
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.INCLUDE_AND_HALT)
+              .setPattern(Pattern.compile("^acme/widget-[0-9]+$"))
+              .build(),
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.EXCLUDE_AND_HALT)
+              .setPattern(Pattern.compile("acme/wid.*"))
+              .build()
+          )
+        )
+        .build();
+
+    final var matcher = program.matcher();
+    Assertions.assertEquals(1, matcher.literalRuleCount());
+    Assertions.assertEquals(2, matcher.prefixRuleCount());
+    Assertions.assertEquals(1, matcher.automatonCount());
+    Assertions.assertEquals(0, matcher.fallbackCount());
+    Assertions.assertTrue(matcher.includes("acme/gadget"));
+    Assertions.assertTrue(matcher.includes("acme/widget-23"));
+    Assertions.assertFalse(matcher.includes("acme/widget"));
+    Assertions.assertFalse(matcher.includes("acme/widgets"));
+    Assertions.assertFalse(matcher.includes("acme/gadget\n"));
+    Assertions.assertFalse(matcher.includes("other/widget"));
+  }
+
+  @Test
+  public void testTraceReportsDecidingRule()
+  {
+    final var program =
+      GTFilterProgram.builder()
+        .setCompiled(LocalDateTime.now())
+        .setRules(
+          List.of(
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.INCLUDE)
+              .setPattern(Pattern.compile(".*"))
+              .build(),
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.EXCLUDE)
+              .setPattern(Pattern.compile("x/.*"))
+              .build(),
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.INCLUDE_AND_HALT)
+              .setPattern(Pattern.compile("x/y"))
+              .build(),
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.EXCLUDE)
+              .setPattern(Pattern.compile(".*"))
+              .build()
+          )
+        )
+        .build();
+
+    final var trace_q = program.trace("x", "q");
+    Assertions.assertEquals("x/q", trace_q.name());
+    Assertions.assertFalse(trace_q.included());
+    Assertions.assertEquals(3, trace_q.ruleIndex().getAsInt());
+
+    final var trace_y = program.trace("x/y");
+    Assertions.assertTrue(trace_y.included());
+    Assertions.assertEquals(2, trace_y.ruleIndex().getAsInt());
+    Assertions.assertEquals(
+      GTFilterRuleType.Kind.INCLUDE_AND_HALT,
+      trace_y.rule().orElseThrow().kind());
+
+    final var trace_none =
+      GTFilterProgram.builder()
+        .from(program)
+        .setRules(List.empty())
+        .build()
+        .trace("x", "y");
+    Assertions.assertFalse(trace_none.included());
+    Assertions.assertTrue(trace_none.ruleIndex().isEmpty());
+    Assertions.assertTrue(trace_none.rule().isEmpty());
+  }
+
+  @Test
+  public void testIncludesAllAgreesWithIncludes()
+  {
+    final var program =
+      GTFilterProgram.builder()
+        .setCompiled(LocalDateTime.now())
+        .setRules(
+          List.of(
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.INCLUDE)
+              .setPattern(Pattern.compile("owner[0-9]*/.*"))
+              .build(),
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.EXCLUDE)
+              .setPattern(Pattern.compile("owner1[0-9]/.*"))
+              .build(),
+            GTFilterRule.builder()
+              .setKind(GTFilterRuleType.Kind.INCLUDE_AND_HALT)
+              .setPattern(Pattern.compile("owner12/repo3"))
+              .build()
+          )
+        )
+        .build();
+
+    final var names = new String[20000];
+    for (int index = 0; index < names.length; ++index) {
+      names[index] = String.format("owner%d/repo%d", index % 37, index % 1009);
+    }
+
+    final var included = program.includesAll(names);
+    for (int index = 0; index < names.length; ++index) {
+      Assertions.assertEquals(
+        program.matcher().includes(names[index]),
+        included.get(index),
+        names[index]);
+    }
+    Assertions.assertEquals(0, program.includesAll(new String[0]).cardinality());
+  }
+
+  @Test
+  public void testOptimizerRemovesDeadRules()
+    throws GTFilterCompilerException
+  {
+    final var program = compile(String.join(
+      "\n",
+      "include .*",
+      "exclude acme/widget",
+      "exclude-and-halt acme/.*",
+      "include acme/gadget",
+      "include other/x",
+      "include other/x",
+      "include-and-halt other/.*",
+      "exclude-and-halt other/y"
+    ));
+
+    Assertions.assertEquals(
+      List.of(".*", "acme/.*", "other/.*"),
+      program.rules().map(rule -> rule.pattern().pattern()));
+    Assertions.assertEquals(
+      List.of(2, 4, 5, 6, 8),
+      program.warnings().map(warning -> warning.position().line()));
+  }
+
+  @Test
+  public void testTraceReportsSourcePosition()
+    throws GTFilterCompilerException
+  {
+    final var program = compile(String.join(
+      "\n",
+      "# Comment",
+      "include .*",
+      "exclude acme/widget",
+      "exclude-and-halt acme/.*",
+      "include other/x"
+    ));
+
+    Assertions.assertEquals(3, program.rules().size());
+
+    final var trace_widget = program.trace("acme", "widget");
+    Assertions.assertFalse(trace_widget.included());
+    Assertions.assertEquals(2, trace_widget.ruleIndex().getAsInt());
+    Assertions.assertEquals(4, trace_widget.position().orElseThrow().line());
+    Assertions.assertEquals(
+      URI.create("urn:test"),
+      trace_widget.position().orElseThrow().file().orElseThrow());
+
+    final var trace_x = program.trace("other/x");
+    Assertions.assertTrue(trace_x.included());
+    Assertions.assertEquals(3, trace_x.ruleIndex().getAsInt());
+    Assertions.assertEquals(5, trace_x.position().orElseThrow().line());
+
+    final var trace_none =
+      GTFilterProgram.builder()
+        .setCompiled(LocalDateTime.now())
+        .setRules(List.of(GTFilterRule.of(
+          GTFilterRuleType.Kind.INCLUDE, Pattern.compile(".*"))))
+        .build()
+        .trace("x/y");
+    Assertions.assertEquals(0, trace_none.ruleIndex().getAsInt());
+    Assertions.assertTrue(trace_none.position().isEmpty());
+  }
+
+  @Test
+  public void testOptimizerPreservesResults()
+    throws GTFilterCompilerException
+  {
+    final var random = new Random(0x6f7074L);
+    final var commands = new String[]{
+      "include", "exclude", "include-and-halt", "exclude-and-halt",
+    };
+
+    for (int iteration = 0; iteration < 500; ++iteration) {
+      final var lines = new ArrayList<String>();
+      final var count = random.nextInt(10);
+      for (int index = 0; index < count; ++index) {
+        lines.add(String.format(
+          "%s %s",
+          commands[random.nextInt(commands.length)],
+          PATTERNS[random.nextInt(PATTERNS.length)]));
+      }
+
+      final var text = String.join("\n", lines);
+      final var optimized = compile(text);
+      Assertions.assertEquals(
+        count,
+        optimized.rules().size() + optimized.warnings().size());
+
+      final var original =
+        GTFilterProgram.builder()
+          .setCompiled(LocalDateTime.now())
+          .setRules(List.ofAll(lines).map(line -> {
+            final var space = line.indexOf(' ');
+            final var kind = switch (line.substring(0, space)) {
+              case "include" -> GTFilterRuleType.Kind.INCLUDE;
+              case "exclude" -> GTFilterRuleType.Kind.EXCLUDE;
+              case "include-and-halt" -> GTFilterRuleType.Kind.INCLUDE_AND_HALT;
+              default -> GTFilterRuleType.Kind.EXCLUDE_AND_HALT;
+            };
+            return GTFilterRule.of(kind, Pattern.compile(line.substring(space + 1)));
+          }))
+          .build();
+
+      for (final var name : NAMES) {
+        Assertions.assertEquals(
+          evaluateInOrder(original, name),
+          optimized.matcher().includes(name),
+          () -> String.format("%s: %s", text, name));
+      }
+    }
+  }
+
+  private static GTFilterProgram compile(
+    final String text)
+    throws GTFilterCompilerException
+  {
+    return GTFilterCompilers.create(Clock.systemUTC())
+      .createFor(
+        URI.create("urn:test"),
+        new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)))
+      .compile();
+  }
+
+  private static boolean evaluateInOrder(
+    final GTFilterProgram program,
+    final String name)
+  {
+    var included = false;
+    for (final var rule : program.rules()) {
+      if (rule.pattern().matcher(name).matches()) {
+        switch (rule.kind()) {
+          case INCLUDE -> included = true;
+          case EXCLUDE -> included = false;
+          case INCLUDE_AND_HALT -> {
+            return true;
+          }
+          case EXCLUDE_AND_HALT -> {
+            return false;
+          }
+        }
+      }
+    }
+    return included;
+  }
 }
@@ -0,0 +1,367 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.tests;
+
+import com.io7m.gtyrell.core.GTGitCloneRequest;
+import com.io7m.gtyrell.core.GTGitExecutable;
+import com.io7m.gtyrell.core.GTGitExecutableType;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryName;
+import com.io7m.gtyrell.core.GTRepositoryUpdateContext;
+import com.io7m.gtyrell.filter.GTFilterProgram;
+import com.io7m.gtyrell.filter.GTFilterRule;
+import com.io7m.gtyrell.filter.GTFilterRuleType;
+import com.io7m.gtyrell.github.GTGithubListingBackend;
+import com.io7m.gtyrell.github.GTGithubRepositories;
+import com.io7m.gtyrell.github.GTGithubSourceConfiguration;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public final class GTGitAlternatesTest
+{
+  private GTGitExecutableType git;
+
+  private static Path writeAlternates(
+    final Path repository,
+    final String text)
+    throws IOException
+  {
+    final var info = repository.resolve("objects").resolve("info");
+    Files.createDirectories(info);
+    return Files.writeString(
+      info.resolve("alternates"), text, StandardCharsets.UTF_8);
+  }
+
+  private static String run(
+    final Path directory,
+    final String... args)
+    throws IOException, InterruptedException
+  {
+    final var command = new ArrayList<String>();
+    command.add("git");
+    command.add("-c");
+    command.add("user.name=gtyrell");
+    command.add("-c");
+    command.add("user.email=gtyrell@example.com");
+    command.addAll(List.of(args));
+
+    final var process =
+      new ProcessBuilder(command)
+        .directory(directory.toFile())
+        .redirectErrorStream(true)
+        .start();
+    final var output =
+      new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    Assertions.assertEquals(0, process.waitFor(), output);
+    return output.trim();
+  }
+
+  private static Path origin(
+    final Path directory)
+    throws IOException, InterruptedException
+  {
+    final var origin = directory.resolve("origin");
+    Files.createDirectories(origin);
+    run(origin, "init", "-q");
+    for (var index = 0; index < 3; ++index) {
+      Files.writeString(origin.resolve("file" + index), "Hello " + index + ".\n");
+      run(origin, "add", ".");
+      run(origin, "commit", "-q", "-m", "Commit " + index);
+    }
+    return origin;
+  }
+
+  private void cloneMirror(
+    final Path origin,
+    final Path output,
+    final Path reference)
+    throws IOException
+  {
+    final var request =
+      GTGitCloneRequest.builder()
+        .setUrl(origin.toUri())
+        .setOutput(output.toFile());
+    if (reference != null) {
+      request.setReference(reference.toFile());
+    }
+    this.git.clone(request.build());
+  }
+
+  private long objectsIn(
+    final Path repository)
+    throws IOException
+  {
+    final var counts = this.git.objectCounts(repository.toFile());
+    return counts.looseObjects() + counts.packedObjects();
+  }
+
+  private static void respond(
+    final HttpExchange exchange,
+    final String text)
+    throws IOException
+  {
+    final var data = text.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, data.length);
+    try (var output = exchange.getResponseBody()) {
+      output.write(data);
+    }
+  }
+
+  @BeforeEach
+  public void setup()
+  {
+    this.git = GTGitExecutable.newExecutable(new File("git"));
+  }
+
+  @Test
+  public void testAlternatesMissing(
+    final @TempDir Path directory)
+    throws IOException
+  {
+    final var repository = directory.resolve("a.git");
+    Files.createDirectories(repository);
+    Assertions.assertEquals(List.of(), this.git.alternates(repository.toFile()));
+  }
+
+  @Test
+  public void testAlternatesRelativeToObjects(
+    final @TempDir Path directory)
+    throws IOException
+  {
+    final var root = directory.toRealPath();
+    final var repository = root.resolve("user").resolve("a.git");
+    final var reference = root.resolve("user").resolve("b.git");
+    Files.createDirectories(reference.resolve("objects"));
+    writeAlternates(repository, "../../b.git/objects\n");
+
+    Assertions.assertEquals(
+      List.of(reference.resolve("objects").toFile()),
+      this.git.alternates(repository.toFile()));
+  }
+
+  @Test
+  public void testAlternatesAbsoluteAndComments(
+    final @TempDir Path directory)
+    throws IOException
+  {
+    final var root = directory.toRealPath();
+    final var repository = root.resolve("a.git");
+    final var reference = root.resolve("b.git").resolve("objects");
+    writeAlternates(
+      repository,
+      String.format("# shared%n%n  %s  %n", reference));
+
+    Assertions.assertEquals(
+      List.of(reference.toFile()),
+      this.git.alternates(repository.toFile()));
+  }
+
+  /**
+   * A clone with a reference borrows every object from the reference.
+   */
+
+  @Test
+  public void testCloneWithReference(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var root = directory.toRealPath();
+    final var origin = origin(root);
+    final var mirror = root.resolve("up").resolve("x.git");
+    final var fork = root.resolve("a").resolve("f.git");
+
+    this.cloneMirror(origin, mirror, null);
+    this.cloneMirror(origin, fork, mirror);
+
+    Assertions.assertEquals(
+      List.of(mirror.resolve("objects").toFile()),
+      this.git.alternates(fork.toFile()));
+    Assertions.assertEquals(0L, this.objectsIn(fork));
+    Assertions.assertEquals("never", run(mirror, "config", "gc.pruneExpire"));
+    run(fork, "fsck", "--connectivity-only");
+  }
+
+  /**
+   * As with {@code --reference-if-able}, a missing reference is ignored.
+   */
+
+  @Test
+  public void testCloneWithMissingReference(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var root = directory.toRealPath();
+    final var origin = origin(root);
+    final var fork = root.resolve("a").resolve("f.git");
+
+    this.cloneMirror(origin, fork, root.resolve("up").resolve("missing.git"));
+
+    Assertions.assertEquals(List.of(), this.git.alternates(fork.toFile()));
+    Assertions.assertTrue(this.objectsIn(fork) > 0L);
+    run(fork, "fsck", "--connectivity-only");
+  }
+
+  /**
+   * Attaching an alternate removes the duplicated objects, and detaching it
+   * copies them back, so that the mirror survives the loss of the reference.
+   */
+
+  @Test
+  public void testAttachDetach(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var root = directory.toRealPath();
+    final var origin = origin(root);
+    final var mirror = root.resolve("up").resolve("x.git");
+    final var fork = root.resolve("a").resolve("f.git");
+
+    this.cloneMirror(origin, mirror, null);
+    this.cloneMirror(origin, fork, null);
+    run(mirror, "repack", "-a", "-d", "-q");
+    Assertions.assertTrue(this.objectsIn(fork) > 0L);
+
+    this.git.attachAlternate(fork.toFile(), mirror.toFile());
+    Assertions.assertEquals(
+      List.of(mirror.resolve("objects").toFile()),
+      this.git.alternates(fork.toFile()));
+    Assertions.assertEquals(0L, this.objectsIn(fork));
+
+    this.git.detachAlternates(fork.toFile());
+    Assertions.assertFalse(
+      Files.exists(fork.resolve("objects").resolve("info").resolve("alternates")));
+    Assertions.assertTrue(this.objectsIn(fork) > 0L);
+
+    Files.move(mirror, root.resolve("moved.git"));
+    run(fork, "fsck", "--connectivity-only");
+  }
+
+  /**
+   * A fork mirror whose alternate has been deleted is cloned again, and the
+   * broken mirror is deleted once the new clone exists.
+   */
+
+  @Test
+  public void testMissingRootRecloned(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var root = directory.toRealPath();
+    final var origin = URI.create("file://localhost" + origin(root));
+    final var server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/user/repos", exchange -> {
+      respond(exchange, String.format(
+        "[%s,%s]",
+        repository(1L, "up", "x", false, origin),
+        repository(2L, "a", "f", true, origin)));
+    });
+    server.createContext("/repos/a/f", exchange -> {
+      respond(exchange, "{\"source\":{\"name\":\"x\",\"owner\":{\"login\":\"up\"}}}");
+    });
+    server.start();
+
+    try {
+      final var source =
+        GTGithubRepositories.newSource(
+          GTGithubSourceConfiguration.builder()
+            .setName("alternates")
+            .setUser("user")
+            .setPassword("password")
+            .setFilter(
+              GTFilterProgram.builder()
+                .setCompiled(LocalDateTime.now())
+                .setRules(io.vavr.collection.List.of(
+                  GTFilterRule.builder()
+                    .setKind(GTFilterRuleType.Kind.INCLUDE)
+                    .setPattern(Pattern.compile(".*"))
+                    .build()))
+                .build())
+            .setApiURI(URI.create(String.format(
+              "http://127.0.0.1:%d/",
+              Integer.valueOf(server.getAddress().getPort()))))
+            .setListingBackend(GTGithubListingBackend.REST)
+            .setForkAlternates(true)
+            .build());
+
+      final var groups = source.get(this.git);
+      final var upstream =
+        groups.get(GTRepositoryGroupName.of("up")).get()
+          .repositories().get(GTRepositoryName.of("x")).get();
+      final var forked =
+        groups.get(GTRepositoryGroupName.of("a")).get()
+          .repositories().get(GTRepositoryName.of("f")).get();
+
+      final var mirror = root.resolve("up").resolve("x.git");
+      final var fork = root.resolve("a").resolve("f.git");
+
+      upstream.update(GTRepositoryUpdateContext.of(mirror.toFile()));
+      forked.update(
+        GTRepositoryUpdateContext.builder()
+          .setDirectory(fork.toFile())
+          .setAlternate(mirror.toFile())
+          .build());
+      Assertions.assertEquals(
+        List.of(mirror.resolve("objects").toFile()),
+        this.git.alternates(fork.toFile()));
+
+      Files.move(mirror, root.resolve("deleted.git"));
+      forked.update(GTRepositoryUpdateContext.of(fork.toFile()));
+
+      Assertions.assertEquals(List.of(), this.git.alternates(fork.toFile()));
+      run(fork, "fsck", "--connectivity-only");
+      try (var siblings = Files.list(fork.getParent())) {
+        Assertions.assertEquals(
+          List.of(fork),
+          siblings.toList());
+      }
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private static String repository(
+    final long id,
+    final String owner,
+    final String name,
+    final boolean fork,
+    final URI clone)
+  {
+    return String.format(
+      "{\"id\":%d,\"name\":\"%s\",\"owner\":{\"login\":\"%s\"},"
+        + "\"clone_url\":\"%s\",\"fork\":%s,"
+        + "\"archived\":false,\"size\":10,\"pushed_at\":\"2020-01-01T00:00:00Z\"}",
+      Long.valueOf(id), name, owner, clone, Boolean.valueOf(fork));
+  }
+}
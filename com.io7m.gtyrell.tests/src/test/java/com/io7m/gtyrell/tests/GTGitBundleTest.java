@@ -0,0 +1,276 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.tests;
+
+import com.io7m.gtyrell.core.GTGitCloneRequest;
+import com.io7m.gtyrell.core.GTGitExecutable;
+import com.io7m.gtyrell.core.GTGitExecutableType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+public final class GTGitBundleTest
+{
+  private GTGitExecutableType git;
+
+  private static String run(
+    final Path directory,
+    final String... args)
+    throws IOException, InterruptedException
+  {
+    final var command = new ArrayList<String>();
+    command.add("git");
+    command.add("-c");
+    command.add("user.name=gtyrell");
+    command.add("-c");
+    command.add("user.email=gtyrell@example.com");
+    command.addAll(List.of(args));
+
+    final var process =
+      new ProcessBuilder(command)
+        .directory(directory.toFile())
+        .redirectErrorStream(true)
+        .start();
+    final var output =
+      new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    Assertions.assertEquals(0, process.waitFor(), output);
+    return output.trim();
+  }
+
+  private static void commit(
+    final Path origin,
+    final String name)
+    throws IOException, InterruptedException
+  {
+    Files.writeString(origin.resolve(name), name + "\n");
+    run(origin, "add", ".");
+    run(origin, "commit", "-q", "-m", name);
+  }
+
+  private static Path origin(
+    final Path directory)
+    throws IOException, InterruptedException
+  {
+    final var origin = directory.resolve("origin");
+    Files.createDirectories(origin);
+    run(origin, "init", "-q");
+    commit(origin, "a");
+    commit(origin, "b");
+    return origin;
+  }
+
+  private static String branches(
+    final Path repository)
+    throws IOException, InterruptedException
+  {
+    return run(
+      repository, "for-each-ref", "--format=%(objectname) %(refname)", "refs/heads");
+  }
+
+  private void cloneMirror(
+    final Path origin,
+    final Path output,
+    final Path bundle)
+    throws IOException
+  {
+    final var request =
+      GTGitCloneRequest.builder()
+        .setUrl(origin.toUri())
+        .setOutput(output.toFile());
+    if (bundle != null) {
+      request.setBundle(bundle.toFile());
+    }
+    this.git.clone(request.build());
+  }
+
+  @BeforeEach
+  public void setup()
+  {
+    this.git = GTGitExecutable.newExecutable(new File("git"));
+  }
+
+  /**
+   * A clone is seeded from a stale bundle, and then brought up to date with
+   * the remote: refs that were deleted on the remote are pruned, and new
+   * commits are fetched.
+   */
+
+  @Test
+  public void testCloneSeededFromStaleBundle(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var origin = origin(directory);
+    run(origin, "checkout", "-q", "-b", "gone");
+    commit(origin, "gone");
+    final var gone = run(origin, "rev-parse", "HEAD");
+    run(origin, "checkout", "-q", "-");
+
+    final var mirror = directory.resolve("mirror.git");
+    this.cloneMirror(origin, mirror, null);
+    final var bundle = directory.resolve("bundles").resolve("mirror.bundle");
+    Assertions.assertTrue(this.git.exportBundle(mirror.toFile(), bundle.toFile()));
+
+    run(origin, "branch", "-q", "-D", "gone");
+    commit(origin, "c");
+
+    final var seeded = directory.resolve("seeded.git");
+    this.cloneMirror(origin, seeded, bundle);
+
+    Assertions.assertEquals(branches(origin), branches(seeded));
+    run(seeded, "cat-file", "-e", gone);
+  }
+
+  /**
+   * A bundle that cannot be read is ignored, and the clone is made from the
+   * remote in full.
+   */
+
+  @Test
+  public void testCloneUnreadableBundle(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var origin = origin(directory);
+    final var bundle =
+      Files.writeString(directory.resolve("mirror.bundle"), "Not a bundle.\n");
+
+    final var seeded = directory.resolve("seeded.git");
+    this.cloneMirror(origin, seeded, bundle);
+    Assertions.assertEquals(branches(origin), branches(seeded));
+  }
+
+  /**
+   * A bundle that does not exist is ignored.
+   */
+
+  @Test
+  public void testCloneMissingBundle(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var origin = origin(directory);
+
+    final var seeded = directory.resolve("seeded.git");
+    this.cloneMirror(origin, seeded, directory.resolve("missing.bundle"));
+    Assertions.assertEquals(branches(origin), branches(seeded));
+  }
+
+  /**
+   * A bundle is only rewritten when the refs of the repository have changed,
+   * or when the existing bundle cannot be read.
+   */
+
+  @Test
+  public void testExportBundleUpToDate(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var origin = origin(directory);
+    final var mirror = directory.resolve("mirror.git");
+    this.cloneMirror(origin, mirror, null);
+
+    final var bundle = directory.resolve("mirror.bundle");
+    Assertions.assertTrue(this.git.exportBundle(mirror.toFile(), bundle.toFile()));
+    Assertions.assertFalse(this.git.exportBundle(mirror.toFile(), bundle.toFile()));
+
+    commit(origin, "c");
+    this.git.fetch(mirror.toFile());
+    Assertions.assertTrue(this.git.exportBundle(mirror.toFile(), bundle.toFile()));
+    Assertions.assertFalse(this.git.exportBundle(mirror.toFile(), bundle.toFile()));
+
+    Files.writeString(bundle, "Not a bundle.\n");
+    Assertions.assertTrue(this.git.exportBundle(mirror.toFile(), bundle.toFile()));
+    Assertions.assertFalse(this.git.exportBundle(mirror.toFile(), bundle.toFile()));
+    run(mirror, "bundle", "verify", "-q", bundle.toString());
+  }
+
+  /**
+   * No bundle is written for a repository without refs.
+   */
+
+  @Test
+  public void testExportBundleEmpty(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var empty = directory.resolve("empty.git");
+    run(directory, "init", "-q", "--bare", empty.toString());
+
+    final var bundle = directory.resolve("empty.bundle");
+    Assertions.assertFalse(this.git.exportBundle(empty.toFile(), bundle.toFile()));
+    Assertions.assertFalse(Files.exists(bundle));
+  }
+
+  /**
+   * Diagnostics that git writes to standard error are never mistaken for
+   * the output of commands that are parsed, but are reported when a
+   * command fails.
+   */
+
+  @Test
+  public void testStandardErrorNotParsed(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var noisy = directory.resolve("noisy-git");
+    Files.writeString(
+      noisy,
+      "#!/bin/sh\necho 'warning: noise' >&2\nexec git \"$@\"\n");
+    Files.setPosixFilePermissions(
+      noisy, PosixFilePermissions.fromString("rwxr-xr-x"));
+    this.git = GTGitExecutable.newExecutable(noisy.toFile());
+
+    final var origin = origin(directory);
+    final var mirror = directory.resolve("mirror.git");
+    this.cloneMirror(origin, mirror, null);
+
+    final Set<String> expected = new TreeSet<>(
+      List.of(run(mirror, "for-each-ref", "--format=%(objectname)").split("\n")));
+    Assertions.assertEquals(expected, this.git.refTargets(mirror.toFile()));
+
+    final var bundle = directory.resolve("mirror.bundle");
+    Assertions.assertTrue(this.git.exportBundle(mirror.toFile(), bundle.toFile()));
+    Assertions.assertFalse(this.git.exportBundle(mirror.toFile(), bundle.toFile()));
+
+    final var empty = directory.resolve("empty.git");
+    run(directory, "init", "-q", "--bare", empty.toString());
+    Assertions.assertEquals(Set.of(), this.git.refTargets(empty.toFile()));
+    Assertions.assertFalse(
+      this.git.exportBundle(empty.toFile(), directory.resolve("empty.bundle").toFile()));
+
+    final var plain = Files.createDirectories(directory.resolve("plain"));
+    final var ex = Assertions.assertThrows(
+      IOException.class,
+      () -> this.git.refTargets(plain.toFile()));
+    Assertions.assertTrue(
+      ex.getMessage().contains("not a git repository"), ex.getMessage());
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.tests;
+
+import com.io7m.gtyrell.core.GTGitRecovery;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public final class GTGitRecoveryTest
+{
+  private static void initBare(
+    final Path repository)
+    throws IOException, InterruptedException
+  {
+    Files.createDirectories(repository);
+    final var process =
+      new ProcessBuilder(List.of("git", "init", "--bare", "-q"))
+        .directory(repository.toFile())
+        .redirectErrorStream(true)
+        .start();
+    final var output = process.getInputStream().readAllBytes();
+    Assertions.assertEquals(
+      0,
+      process.waitFor(),
+      new String(output, StandardCharsets.UTF_8));
+  }
+
+  private static Path touch(
+    final Path file,
+    final String text)
+    throws IOException
+  {
+    Files.createDirectories(file.getParent());
+    return Files.writeString(file, text, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testRemovesStaleFilesInKnownLocations(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var repository = directory.resolve("a.git");
+    initBare(repository);
+
+    final var objects = repository.resolve("objects");
+    final var stale = List.of(
+      touch(repository.resolve("HEAD.lock"), ""),
+      touch(repository.resolve("gc.pid"), "1 host"),
+      touch(repository.resolve("refs/heads/x/y.lock"), ""),
+      touch(objects.resolve("maintenance.lock"), ""),
+      touch(objects.resolve("info/commit-graph.lock"), ""),
+      touch(objects.resolve("info/commit-graphs/commit-graph-chain.lock"), ""),
+      touch(objects.resolve("pack/tmp_pack_abc"), ""),
+      touch(objects.resolve("pack/tmp_idx_abc"), ""),
+      touch(objects.resolve("pack/pack-1.keep"), "fetch-pack 123 on host"));
+
+    final var kept = List.of(
+      touch(objects.resolve("pack/pack-2.keep"), "kept by hand"),
+      touch(objects.resolve("ab/cdef.lock"), ""),
+      touch(repository.resolve("hooks/post-update.lock"), ""));
+
+    Assertions.assertEquals(
+      GTGitRecovery.Result.LOCKS_REMOVED,
+      GTGitRecovery.recover(repository.toFile()));
+
+    for (final var file : stale) {
+      Assertions.assertFalse(Files.exists(file), file.toString());
+    }
+    for (final var file : kept) {
+      Assertions.assertTrue(Files.exists(file), file.toString());
+    }
+
+    Assertions.assertEquals(
+      GTGitRecovery.Result.UNCHANGED,
+      GTGitRecovery.recover(repository.toFile()));
+  }
+
+  @Test
+  public void testUnusableRepositoryDiscarded(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var repository = directory.resolve("a.git");
+    touch(repository.resolve("config"), "");
+
+    Assertions.assertEquals(
+      GTGitRecovery.Result.DISCARDED,
+      GTGitRecovery.recover(repository.toFile()));
+    Assertions.assertFalse(Files.exists(repository));
+  }
+
+  @Test
+  public void testInterruptedCloneResumable(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var repository = directory.resolve("a.git");
+    final var staging =
+      GTGitRecovery.stagingDirectoryFor(repository.toFile()).toPath();
+    initBare(staging);
+    final var lock = touch(staging.resolve("config.lock"), "");
+
+    Assertions.assertEquals(
+      GTGitRecovery.Result.CLONE_RESUMABLE,
+      GTGitRecovery.recover(repository.toFile()));
+    Assertions.assertTrue(Files.isDirectory(staging));
+    Assertions.assertFalse(Files.exists(lock));
+  }
+
+  @Test
+  public void testStagingBesideCompleteRepositoryDiscarded(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var repository = directory.resolve("a.git");
+    final var staging =
+      GTGitRecovery.stagingDirectoryFor(repository.toFile()).toPath();
+    initBare(repository);
+    initBare(staging);
+
+    Assertions.assertEquals(
+      GTGitRecovery.Result.DISCARDED,
+      GTGitRecovery.recover(repository.toFile()));
+    Assertions.assertTrue(Files.isDirectory(repository));
+    Assertions.assertFalse(Files.exists(staging));
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright © 2017 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.tests;
+
+import com.io7m.gtyrell.github.GTGithubArchiveCodec;
+import com.io7m.gtyrell.github.GTGithubArchiveCompression;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public final class GTGithubArchiveCodecTest
+{
+  private static final List<String> WORDS = List.of(
+    "the", "build", "fails", "when", "running", "tests", "on", "windows",
+    "null", "pointer", "exception", "in", "parser", "please", "add",
+    "support", "for", "configuration", "files", "stack", "trace", "below",
+    "version", "regression", "since", "update", "documentation", "typo");
+
+  private ExecutorService executor;
+
+  /**
+   * Generate a JSON array of issues that resembles the output of the
+   * GitHub issues API: mostly URLs, user objects, and prose.
+   */
+
+  private static byte[] issues(
+    final int count)
+  {
+    final var random = new Random(0x6774L);
+    final var text = new StringBuilder(count * 2048);
+    text.append('[');
+    for (var index = 0; index < count; ++index) {
+      if (index > 0) {
+        text.append(',');
+      }
+
+      final var user = "user" + random.nextInt(200);
+      final var url = "https://api.github.com/repos/owner/project/issues/" + index;
+      text.append("{\"url\":\"").append(url).append('"');
+      text.append(",\"repository_url\":\"https://api.github.com/repos/owner/project\"");
+      text.append(",\"labels_url\":\"").append(url).append("/labels{/name}\"");
+      text.append(",\"comments_url\":\"").append(url).append("/comments\"");
+      text.append(",\"html_url\":\"https://github.com/owner/project/issues/")
+        .append(index).append('"');
+      text.append(",\"id\":").append(100000000L + random.nextInt(100000000));
+      text.append(",\"number\":").append(index);
+      text.append(",\"title\":\"").append(sentence(random, 8)).append('"');
+      text.append(",\"user\":{\"login\":\"").append(user)
+        .append("\",\"url\":\"https://api.github.com/users/").append(user)
+        .append("\",\"html_url\":\"https://github.com/").append(user)
+        .append("\",\"type\":\"User\",\"site_admin\":false}");
+      text.append(",\"state\":\"").append(random.nextBoolean() ? "open" : "closed").append('"');
+      text.append(",\"comments\":").append(random.nextInt(40));
+      text.append(",\"created_at\":\"")
+        .append(Instant.ofEpochSecond(1400000000L + random.nextInt(300000000)))
+        .append('"');
+      text.append(",\"updated_at\":\"")
+        .append(Instant.ofEpochSecond(1700000000L + random.nextInt(30000000)))
+        .append('"');
+      text.append(",\"author_association\":\"CONTRIBUTOR\"");
+      text.append(",\"body\":\"").append(sentence(random, 20 + random.nextInt(200))).append("\"}");
+    }
+    text.append(']');
+    return text.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String sentence(
+    final Random random,
+    final int words)
+  {
+    final var text = new StringBuilder(words * 8);
+    for (var index = 0; index < words; ++index) {
+      if (index > 0) {
+        text.append(' ');
+      }
+      text.append(WORDS.get(random.nextInt(WORDS.size())));
+    }
+    return text.toString();
+  }
+
+  private byte[] compress(
+    final GTGithubArchiveCodec codec,
+    final byte[] data)
+    throws IOException
+  {
+    final var bytes = new ByteArrayOutputStream(data.length);
+    try (var output = codec.compressing(bytes, this.executor)) {
+      output.write(data);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] decompress(
+    final byte[] data)
+    throws IOException
+  {
+    try (var input =
+           GTGithubArchiveCompression.decompressing(new ByteArrayInputStream(data))) {
+      return input.readAllBytes();
+    }
+  }
+
+  @BeforeEach
+  public void setup()
+  {
+    this.executor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterEach
+  public void tearDown()
+  {
+    this.executor.shutdown();
+  }
+
+  @Test
+  public void testRoundTrip()
+    throws IOException
+  {
+    final var data = issues(3000);
+
+    for (final var compression : GTGithubArchiveCompression.values()) {
+      for (final var threads : List.of(Integer.valueOf(1), Integer.valueOf(4))) {
+        final var codec =
+          GTGithubArchiveCodec.builder()
+            .setCompression(compression)
+            .setThreads(threads.intValue())
+            .build();
+
+        final var compressed = this.compress(codec, data);
+        Assertions.assertArrayEquals(data, decompress(compressed), codec.toString());
+        if (compression != GTGithubArchiveCompression.NONE) {
+          Assertions.assertTrue(compressed.length < data.length / 4, codec.toString());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRoundTripEmpty()
+    throws IOException
+  {
+    for (final var compression : GTGithubArchiveCompression.values()) {
+      final var codec =
+        GTGithubArchiveCodec.builder()
+          .setCompression(compression)
+          .setThreads(4)
+          .build();
+      Assertions.assertEquals(0, decompress(this.compress(codec, new byte[0])).length);
+    }
+  }
+
+  @Test
+  public void testLevelInvalid()
+  {
+    Assertions.assertThrows(
+      IllegalArgumentException.class,
+      () -> GTGithubArchiveCodec.builder()
+        .setCompression(GTGithubArchiveCompression.GZIP)
+        .setLevel(10)
+        .build());
+    Assertions.assertThrows(
+      IllegalArgumentException.class,
+      () -> GTGithubArchiveCodec.builder()
+        .setCompression(GTGithubArchiveCompression.NONE)
+        .setLevel(1)
+        .build());
+  }
+
+  /**
+   * Report the compression ratio and throughput of a range of codec
+   * settings. Run with {@code -Dcom.io7m.gtyrell.tests.benchmark=true}.
+   */
+
+  @Test
+  @EnabledIfSystemProperty(named = "com.io7m.gtyrell.tests.benchmark", matches = "true")
+  public void testBenchmark()
+    throws IOException
+  {
+    final var data = issues(40000);
+    final var threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    final var codecs = List.of(
+      GTGithubArchiveCodec.builder()
+        .setCompression(GTGithubArchiveCompression.NONE)
+        .build(),
+      GTGithubArchiveCodec.builder()
+        .setLevel(1)
+        .build(),
+      GTGithubArchiveCodec.builder()
+        .build(),
+      GTGithubArchiveCodec.builder()
+        .setLevel(9)
+        .build(),
+      GTGithubArchiveCodec.builder()
+        .setThreads(threads)
+        .build(),
+      GTGithubArchiveCodec.builder()
+        .setCompression(GTGithubArchiveCompression.ZSTD)
+        .setLevel(1)
+        .build(),
+      GTGithubArchiveCodec.builder()
+        .setCompression(GTGithubArchiveCompression.ZSTD)
+        .build(),
+      GTGithubArchiveCodec.builder()
+        .setCompression(GTGithubArchiveCompression.ZSTD)
+        .setLevel(12)
+        .build(),
+      GTGithubArchiveCodec.builder()
+        .setCompression(GTGithubArchiveCompression.ZSTD)
+        .setThreads(threads)
+        .build());
+
+    System.out.printf(
+      "%-8s %5s %7s %8s %12s %12s%n",
+      "codec", "level", "threads", "ratio", "write MiB/s", "read MiB/s");
+
+    for (final var codec : codecs) {
+      this.compress(codec, data);
+
+      final var write_start = System.nanoTime();
+      final var compressed = this.compress(codec, data);
+      final var write_time = System.nanoTime() - write_start;
+
+      final var read_start = System.nanoTime();
+      decompress(compressed);
+      final var read_time = System.nanoTime() - read_start;
+
+      final var mebibytes = data.length / 1048576.0;
+      System.out.printf(
+        "%-8s %5s %7d %8.2f %12.1f %12.1f%n",
+        codec.compression(),
+        codec.level().isPresent()
+          ? Integer.toString(codec.level().getAsInt())
+          : "-",
+        Integer.valueOf(codec.threads()),
+        Double.valueOf((double) data.length / (double) compressed.length),
+        Double.valueOf(mebibytes / (write_time / 1.0e9)),
+        Double.valueOf(mebibytes / (read_time / 1.0e9)));
+    }
+  }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.tests;
+
+import com.io7m.gtyrell.core.GTGitExecutable;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryName;
+import com.io7m.gtyrell.core.GTRepositoryType;
+import com.io7m.gtyrell.filter.GTFilterProgram;
+import com.io7m.gtyrell.filter.GTFilterRule;
+import com.io7m.gtyrell.filter.GTFilterRuleType;
+import com.io7m.gtyrell.github.GTGithubArchiveCodec;
+import com.io7m.gtyrell.github.GTGithubArchiveCompression;
+import com.io7m.gtyrell.github.GTGithubArchivedResource;
+import com.io7m.gtyrell.github.GTGithubListingBackend;
+import com.io7m.gtyrell.github.GTGithubRepositories;
+import com.io7m.gtyrell.github.GTGithubSourceConfiguration;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+public final class GTGithubArchiveTest
+{
+  private static final String ISSUES = "/repos/g/r/issues";
+  private static final String RELEASES = "/repos/g/r/releases";
+
+  private HttpServer server;
+  private List<String> requests;
+  private ConcurrentHashMap<String, String> pages;
+  private List<String> releaseRequests;
+  private volatile String releases;
+  private ConcurrentHashMap<Integer, String> releasePages;
+  private List<String> releaseStatuses;
+  private Path archive;
+  private GTRepositoryType repository;
+
+  private static String issue(
+    final long id,
+    final String updated,
+    final String title)
+  {
+    return String.format(
+      "{\"id\":%d,\"title\":\"%s\",\"updated_at\":\"%s\"}",
+      Long.valueOf(id), title, updated);
+  }
+
+  private static void respond(
+    final HttpExchange exchange,
+    final String link,
+    final String text)
+    throws IOException
+  {
+    final var data = text.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    if (!link.isEmpty()) {
+      exchange.getResponseHeaders().add("Link", link);
+    }
+    exchange.sendResponseHeaders(200, data.length);
+    try (var output = exchange.getResponseBody()) {
+      output.write(data);
+    }
+  }
+
+  private String base()
+  {
+    return String.format(
+      "http://127.0.0.1:%d",
+      Integer.valueOf(this.server.getAddress().getPort()));
+  }
+
+  /**
+   * Serve the issue listing from {@link #pages}, keyed by the {@code since}
+   * and {@code page} parameters of each request.
+   */
+
+  private void serveIssues(
+    final HttpExchange exchange)
+    throws IOException
+  {
+    final var query = exchange.getRequestURI().getQuery();
+    this.requests.add(query);
+
+    final var since =
+      Pattern.compile("since=([^&]+)").matcher(query);
+    final var page =
+      Pattern.compile("(^|&)page=([0-9]+)").matcher(query);
+    final var key =
+      (since.find() ? since.group(1) : "")
+        + "/"
+        + (page.find() ? page.group(2) : "1");
+
+    final var text = this.pages.getOrDefault(key + "/text", "[]");
+    final var last = this.pages.getOrDefault(key + "/last", "");
+    final var link =
+      last.isEmpty()
+        ? ""
+        : String.format(
+        "<%s%s?state=all&page=%s>; rel=\"last\"", this.base(), ISSUES, last);
+    respond(exchange, link, text);
+  }
+
+  /**
+   * Serve the release listing from {@link #releasePages}, with an
+   * {@code ETag} derived from the content of each page, answering
+   * {@code 304 Not Modified} to requests that carry the current tag.
+   */
+
+  private void serveReleasePage(
+    final HttpExchange exchange)
+    throws IOException
+  {
+    final var page =
+      Pattern.compile("(^|&)page=([0-9]+)")
+        .matcher(exchange.getRequestURI().getQuery());
+    final var number =
+      page.find() ? Integer.valueOf(page.group(2)) : Integer.valueOf(1);
+    final var text = this.releasePages.get(number);
+    final var tag = String.format("\"%08x\"", Integer.valueOf(text.hashCode()));
+
+    if (tag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      this.releaseStatuses.add(number + ":304");
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+
+    this.releaseStatuses.add(number + ":200");
+    exchange.getResponseHeaders().add("ETag", tag);
+    respond(
+      exchange,
+      String.format(
+        "<%s%s?per_page=100&page=%d>; rel=\"last\"",
+        this.base(),
+        RELEASES,
+        Integer.valueOf(this.releasePages.size())),
+      text);
+  }
+
+  @BeforeEach
+  public void setup(
+    final @TempDir Path directory)
+    throws IOException
+  {
+    this.requests = Collections.synchronizedList(new ArrayList<>());
+    this.pages = new ConcurrentHashMap<>();
+    this.releaseRequests = Collections.synchronizedList(new ArrayList<>());
+    this.releases = "[]";
+    this.releasePages = new ConcurrentHashMap<>();
+    this.releaseStatuses = Collections.synchronizedList(new ArrayList<>());
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    this.server.createContext("/user/repos", exchange -> {
+      respond(
+        exchange,
+        "",
+        "[{\"id\":1,\"name\":\"r\",\"owner\":{\"login\":\"g\"},"
+          + "\"clone_url\":\"https://github.com/g/r.git\",\"fork\":false,"
+          + "\"archived\":false,\"size\":10,\"pushed_at\":\"2020-01-01T00:00:00Z\"}]");
+    });
+    this.server.createContext(ISSUES, this::serveIssues);
+    this.server.createContext(RELEASES, exchange -> {
+      this.releaseRequests.add(exchange.getRequestURI().getQuery());
+      if (this.releasePages.isEmpty()) {
+        respond(exchange, "", this.releases);
+      } else {
+        this.serveReleasePage(exchange);
+      }
+    });
+    this.server.start();
+
+    final var configuration =
+      GTGithubSourceConfiguration.builder()
+        .setName("archive")
+        .setUser("user")
+        .setPassword("password")
+        .setFilter(
+          GTFilterProgram.builder()
+            .setCompiled(LocalDateTime.now())
+            .setRules(io.vavr.collection.List.of(
+              GTFilterRule.builder()
+                .setKind(GTFilterRuleType.Kind.INCLUDE)
+                .setPattern(Pattern.compile(".*"))
+                .build()))
+            .build())
+        .setApiURI(URI.create(this.base() + "/"))
+        .setCacheDirectory(directory.resolve("cache"))
+        .setListingBackend(GTGithubListingBackend.REST)
+        .setArchivedResources(
+          EnumSet.of(GTGithubArchivedResource.ISSUES, GTGithubArchivedResource.RELEASES))
+        .setArchiveCodec(
+          GTGithubArchiveCodec.builder()
+            .setCompression(GTGithubArchiveCompression.NONE)
+            .build())
+        .build();
+
+    this.repository =
+      GTGithubRepositories.newSource(configuration)
+        .get(GTGitExecutable.newExecutable(new File("git")))
+        .get(GTRepositoryGroupName.of("g")).get()
+        .repositories()
+        .get(GTRepositoryName.of("r")).get();
+
+    this.archive = directory.resolve("g").resolve("r.issues.json");
+  }
+
+  @AfterEach
+  public void tearDown()
+  {
+    this.server.stop(0);
+  }
+
+  private void archive()
+    throws IOException
+  {
+    this.repository.archiveMetadata(
+      this.archive.resolveSibling("r").toFile());
+  }
+
+  private String archived()
+    throws IOException
+  {
+    return Files.readString(this.archive).replace(" ", "");
+  }
+
+  /**
+   * Every page of the listing is archived, in order.
+   */
+
+  @Test
+  public void testPaginated()
+    throws IOException
+  {
+    this.pages.put("/1/text", String.format(
+      "[%s,%s]",
+      issue(6L, "2020-01-06T00:00:00Z", "f"),
+      issue(5L, "2020-01-05T00:00:00Z", "e")));
+    this.pages.put("/1/last", "3");
+    this.pages.put("/2/text", String.format(
+      "[%s,%s]",
+      issue(4L, "2020-01-04T00:00:00Z", "d"),
+      issue(3L, "2020-01-03T00:00:00Z", "c")));
+    this.pages.put("/3/text", String.format(
+      "[%s,%s]",
+      issue(2L, "2020-01-02T00:00:00Z", "b"),
+      issue(1L, "2020-01-01T00:00:00Z", "a")));
+
+    this.archive();
+
+    Assertions.assertEquals(
+      String.format(
+        "[%s,%s,%s,%s,%s,%s]",
+        issue(6L, "2020-01-06T00:00:00Z", "f"),
+        issue(5L, "2020-01-05T00:00:00Z", "e"),
+        issue(4L, "2020-01-04T00:00:00Z", "d"),
+        issue(3L, "2020-01-03T00:00:00Z", "c"),
+        issue(2L, "2020-01-02T00:00:00Z", "b"),
+        issue(1L, "2020-01-01T00:00:00Z", "a")),
+      this.archived());
+    Assertions.assertEquals(3, this.requests.size());
+  }
+
+  /**
+   * Items fetched since the last archival replace their archived copies,
+   * and items without identifiers are never mistaken for one another.
+   */
+
+  @Test
+  public void testIncrementalMerge()
+    throws IOException
+  {
+    this.pages.put("/1/text", String.format(
+      "[%s,%s,%s,%s]",
+      issue(3L, "2020-01-03T00:00:00Z", "c"),
+      "{\"title\":\"x\",\"updated_at\":\"2020-01-02T12:00:00Z\"}",
+      issue(2L, "2020-01-02T00:00:00Z", "b"),
+      issue(1L, "2020-01-01T00:00:00Z", "a")));
+    this.archive();
+
+    this.pages.put("2020-01-03T00:00:00Z/1/text", String.format(
+      "[%s,%s,%s]",
+      issue(1L, "2020-01-04T00:00:00Z", "a2"),
+      "{\"title\":\"y\",\"updated_at\":\"2020-01-03T12:00:00Z\"}",
+      issue(3L, "2020-01-03T00:00:00Z", "c")));
+    this.archive();
+
+    Assertions.assertEquals(
+      String.format(
+        "[%s,%s,%s,%s,%s]",
+        issue(1L, "2020-01-04T00:00:00Z", "a2"),
+        "{\"title\":\"y\",\"updated_at\":\"2020-01-03T12:00:00Z\"}",
+        issue(3L, "2020-01-03T00:00:00Z", "c"),
+        "{\"title\":\"x\",\"updated_at\":\"2020-01-02T12:00:00Z\"}",
+        issue(2L, "2020-01-02T00:00:00Z", "b")),
+      this.archived());
+  }
+
+  /**
+   * An item changed within the same second as the most recent archived
+   * update is not mistaken for the unchanged item, and an archive whose
+   * content is unchanged is not rewritten.
+   */
+
+  @Test
+  public void testSameSecondUpdate()
+    throws IOException
+  {
+    this.pages.put("/1/text", String.format(
+      "[%s,%s]",
+      issue(2L, "2020-01-02T00:00:00Z", "b"),
+      issue(1L, "2020-01-01T00:00:00Z", "a")));
+    this.archive();
+
+    this.pages.put("2020-01-02T00:00:00Z/1/text", String.format(
+      "[%s,%s]",
+      issue(3L, "2020-01-02T00:00:00Z", "c"),
+      issue(2L, "2020-01-02T00:00:00Z", "b")));
+    this.archive();
+
+    final var expected =
+      String.format(
+        "[%s,%s,%s]",
+        issue(3L, "2020-01-02T00:00:00Z", "c"),
+        issue(2L, "2020-01-02T00:00:00Z", "b"),
+        issue(1L, "2020-01-01T00:00:00Z", "a"));
+    Assertions.assertEquals(expected, this.archived());
+
+    final var time = FileTime.fromMillis(0L);
+    Files.setLastModifiedTime(this.archive, time);
+    this.pages.put("2020-01-02T00:00:00Z/1/text", String.format(
+      "[%s,%s]",
+      issue(2L, "2020-01-02T00:00:00Z", "b"),
+      issue(3L, "2020-01-02T00:00:00Z", "c")));
+    this.archive();
+
+    Assertions.assertEquals(expected, this.archived());
+    Assertions.assertEquals(time, Files.getLastModifiedTime(this.archive));
+  }
+
+  /**
+   * Releases cannot be requested by update time, and so are fetched in
+   * full each time, without being merged with the existing archive.
+   */
+
+  @Test
+  public void testReleasesFetchedInFull()
+    throws IOException
+  {
+    this.releases = "[{\"id\":1,\"tag_name\":\"v1\",\"updated_at\":\"2020-01-01T00:00:00Z\"}]";
+    this.archive();
+
+    this.releases = "[{\"id\":2,\"tag_name\":\"v2\",\"updated_at\":\"2020-01-02T00:00:00Z\"}]";
+    this.archive();
+
+    Assertions.assertEquals(
+      this.releases,
+      Files.readString(this.archive.resolveSibling("r.releases.json")).replace(" ", ""));
+    Assertions.assertEquals(2, this.releaseRequests.size());
+    for (final var query : this.releaseRequests) {
+      Assertions.assertFalse(query.contains("since="), query);
+    }
+  }
+
+  /**
+   * Every page of a listing that is fetched in full is revalidated, so a
+   * change on a later page is archived even though the first page is
+   * unchanged, and an archive is left alone if no page changed at all.
+   */
+
+  @Test
+  public void testReleasesRevalidatedPerPage()
+    throws IOException
+  {
+    final var v2 = "{\"id\":2,\"tag_name\":\"v2\",\"updated_at\":\"2020-01-02T00:00:00Z\"}";
+    final var v1 = "{\"id\":1,\"tag_name\":\"v1\",\"updated_at\":\"2020-01-01T00:00:00Z\"}";
+    final var v1_edited =
+      "{\"id\":1,\"tag_name\":\"v1\",\"updated_at\":\"2020-01-03T00:00:00Z\"}";
+
+    this.releasePages.put(Integer.valueOf(1), "[" + v2 + "]");
+    this.releasePages.put(Integer.valueOf(2), "[" + v1 + "]");
+    this.archive();
+    Assertions.assertEquals(List.of("1:200", "2:200"), this.releaseStatuses);
+
+    final var file = this.archive.resolveSibling("r.releases.json");
+    Assertions.assertEquals(
+      "[" + v2 + "," + v1 + "]",
+      Files.readString(file).replace(" ", ""));
+
+    this.releaseStatuses.clear();
+    this.releasePages.put(Integer.valueOf(2), "[" + v1_edited + "]");
+    this.archive();
+    Assertions.assertEquals(List.of("1:304", "2:200"), this.releaseStatuses);
+    Assertions.assertEquals(
+      "[" + v2 + "," + v1_edited + "]",
+      Files.readString(file).replace(" ", ""));
+
+    this.releaseStatuses.clear();
+    final var time = FileTime.fromMillis(0L);
+    Files.setLastModifiedTime(file, time);
+    this.archive();
+    Assertions.assertEquals(List.of("1:304", "2:304"), this.releaseStatuses);
+    Assertions.assertEquals(time, Files.getLastModifiedTime(file));
+    Assertions.assertEquals(
+      "[" + v2 + "," + v1_edited + "]",
+      Files.readString(file).replace(" ", ""));
+  }
+
+  /**
+   * An archive fetched again with identical content is not rewritten.
+   */
+
+  @Test
+  public void testUnchangedContentNotRewritten()
+    throws IOException
+  {
+    this.releases = "[{\"id\":1,\"tag_name\":\"v1\",\"updated_at\":\"2020-01-01T00:00:00Z\"}]";
+    this.archive();
+
+    final var file = this.archive.resolveSibling("r.releases.json");
+    final var time = FileTime.fromMillis(0L);
+    Files.setLastModifiedTime(file, time);
+    this.archive();
+
+    Assertions.assertEquals(2, this.releaseRequests.size());
+    Assertions.assertEquals(this.releases, Files.readString(file).replace(" ", ""));
+    Assertions.assertEquals(time, Files.getLastModifiedTime(file));
+  }
+
+  /**
+   * An archive that cannot be read is replaced by a full fetch.
+   */
+
+  @Test
+  public void testCorruptArchive()
+    throws IOException
+  {
+    this.pages.put("/1/text", String.format(
+      "[%s]",
+      issue(1L, "2020-01-01T00:00:00Z", "a")));
+    this.archive();
+
+    Files.writeString(this.archive, "[{\"id\":");
+    this.pages.put("2020-01-01T00:00:00Z/1/text", String.format(
+      "[%s,%s]",
+      issue(2L, "2020-01-02T00:00:00Z", "b"),
+      issue(1L, "2020-01-01T00:00:00Z", "a")));
+    this.pages.put("/1/text", String.format(
+      "[%s,%s]",
+      issue(2L, "2020-01-02T00:00:00Z", "b"),
+      issue(1L, "2020-01-01T00:00:00Z", "a")));
+    this.archive();
+
+    Assertions.assertEquals(
+      String.format(
+        "[%s,%s]",
+        issue(2L, "2020-01-02T00:00:00Z", "b"),
+        issue(1L, "2020-01-01T00:00:00Z", "a")),
+      this.archived());
+    Assertions.assertFalse(
+      this.requests.get(this.requests.size() - 1).contains("since="));
+  }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.tests;
+
+import com.io7m.gtyrell.core.GTGitExecutable;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryName;
+import com.io7m.gtyrell.core.GTRepositorySourceType;
+import com.io7m.gtyrell.filter.GTFilterProgram;
+import com.io7m.gtyrell.filter.GTFilterRule;
+import com.io7m.gtyrell.filter.GTFilterRuleType;
+import com.io7m.gtyrell.github.GTGithubListingBackend;
+import com.io7m.gtyrell.github.GTGithubRepositories;
+import com.io7m.gtyrell.github.GTGithubSourceConfiguration;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.vavr.collection.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The HTTP client used for the GitHub API authenticates, decompresses
+ * responses, times out, and retries requests that were rejected by a rate
+ * limit.
+ */
+
+public final class GTGithubClientTest
+{
+  private static final String LISTING =
+    "[{\"id\":1,\"name\":\"r\",\"owner\":{\"login\":\"g\"},"
+      + "\"clone_url\":\"https://github.com/g/r.git\",\"fork\":false,"
+      + "\"archived\":false,\"size\":10,\"pushed_at\":\"2020-01-01T00:00:00Z\"}]";
+
+  private HttpServer server;
+  private java.util.List<String> requests;
+
+  private static void respond(
+    final HttpExchange exchange,
+    final int status,
+    final byte[] data)
+    throws IOException
+  {
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, data.length);
+    try (var output = exchange.getResponseBody()) {
+      output.write(data);
+    }
+  }
+
+  private static void respond(
+    final HttpExchange exchange,
+    final int status,
+    final String text)
+    throws IOException
+  {
+    respond(exchange, status, text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static byte[] gzip(
+    final String text)
+    throws IOException
+  {
+    final var bytes = new ByteArrayOutputStream();
+    try (var output = new GZIPOutputStream(bytes)) {
+      output.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void assertListed(
+    final GTRepositorySourceType source)
+    throws IOException
+  {
+    final var groups =
+      source.get(GTGitExecutable.newExecutable(new File("git")));
+    Assertions.assertTrue(
+      groups.get(GTRepositoryGroupName.of("g"))
+        .get()
+        .repositories()
+        .containsKey(GTRepositoryName.of("r")));
+  }
+
+  private GTGithubSourceConfiguration.Builder configuration(
+    final String name,
+    final URI api)
+  {
+    return GTGithubSourceConfiguration.builder()
+      .setName(name)
+      .setUser("someone")
+      .setPassword("secret")
+      .setFilter(GTFilterProgram.builder()
+                   .setCompiled(LocalDateTime.now())
+                   .setRules(List.of(
+                     GTFilterRule.builder()
+                       .setKind(GTFilterRuleType.Kind.INCLUDE)
+                       .setPattern(Pattern.compile(".*"))
+                       .build()))
+                   .build())
+      .setApiURI(api)
+      .setListingBackend(GTGithubListingBackend.REST);
+  }
+
+  private GTGithubSourceConfiguration.Builder configuration(
+    final String name)
+  {
+    return this.configuration(name, URI.create(String.format(
+      "http://127.0.0.1:%d/",
+      Integer.valueOf(this.server.getAddress().getPort()))));
+  }
+
+  @BeforeEach
+  public void setup()
+    throws IOException
+  {
+    this.requests = Collections.synchronizedList(new ArrayList<>());
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    this.server.start();
+  }
+
+  @AfterEach
+  public void tearDown()
+  {
+    this.server.stop(0);
+  }
+
+  /**
+   * Requests carry Basic credentials, and ask for compressed responses.
+   */
+
+  @Test
+  public void testBasicAuthentication()
+    throws IOException
+  {
+    this.server.createContext("/user/repos", exchange -> {
+      final var headers = exchange.getRequestHeaders();
+      this.requests.add(headers.getFirst("Authorization"));
+      this.requests.add(headers.getFirst("Accept-Encoding"));
+      respond(exchange, 200, LISTING);
+    });
+
+    assertListed(GTGithubRepositories.newSource(
+      this.configuration("auth").build()));
+
+    final var expected =
+      "Basic " + Base64.getEncoder()
+        .encodeToString("someone:secret".getBytes(StandardCharsets.UTF_8));
+    Assertions.assertEquals(java.util.List.of(expected, "gzip"), this.requests);
+  }
+
+  /**
+   * Compressed responses are decompressed.
+   */
+
+  @Test
+  public void testGzipDecoding()
+    throws IOException
+  {
+    final var data = gzip(LISTING);
+    this.server.createContext("/user/repos", exchange -> {
+      exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+      respond(exchange, 200, data);
+    });
+
+    assertListed(GTGithubRepositories.newSource(
+      this.configuration("gzip").build()));
+  }
+
+  /**
+   * A request rejected by a rate limit is retried once the limit allows.
+   */
+
+  @Test
+  public void testRateLimitRetried()
+    throws IOException
+  {
+    final var count = new AtomicInteger();
+    this.server.createContext("/user/repos", exchange -> {
+      if (count.incrementAndGet() < 5) {
+        exchange.getResponseHeaders().add("Retry-After", "0");
+        respond(exchange, 403, "{\"message\":\"API rate limit exceeded\"}");
+        return;
+      }
+      respond(exchange, 200, LISTING);
+    });
+
+    assertListed(GTGithubRepositories.newSource(
+      this.configuration("retried").build()));
+    Assertions.assertEquals(5, count.get());
+  }
+
+  /**
+   * A request is made at most five times.
+   */
+
+  @Test
+  public void testRateLimitRetriesExhausted()
+  {
+    final var count = new AtomicInteger();
+    this.server.createContext("/user/repos", exchange -> {
+      count.incrementAndGet();
+      exchange.getResponseHeaders().add("Retry-After", "0");
+      respond(exchange, 429, "{\"message\":\"API rate limit exceeded\"}");
+    });
+
+    final var source =
+      GTGithubRepositories.newSource(this.configuration("exhausted").build());
+    final var ex =
+      Assertions.assertThrows(
+        IOException.class,
+        () -> source.get(GTGitExecutable.newExecutable(new File("git"))));
+    Assertions.assertTrue(ex.getMessage().contains("429"), ex.getMessage());
+    Assertions.assertEquals(5, count.get());
+  }
+
+  /**
+   * A request that is forbidden for reasons other than a rate limit is not
+   * retried.
+   */
+
+  @Test
+  public void testForbiddenNotRetried()
+  {
+    final var count = new AtomicInteger();
+    this.server.createContext("/user/repos", exchange -> {
+      count.incrementAndGet();
+      respond(exchange, 403, "{\"message\":\"Must have admin rights\"}");
+    });
+
+    final var source =
+      GTGithubRepositories.newSource(this.configuration("forbidden").build());
+    Assertions.assertThrows(
+      IOException.class,
+      () -> source.get(GTGitExecutable.newExecutable(new File("git"))));
+    Assertions.assertEquals(1, count.get());
+  }
+
+  /**
+   * Validators are stored with each response, sent with the next request
+   * for the same URI, and the cached payload is used when the server
+   * reports that the resource has not been modified.
+   */
+
+  @Test
+  public void testConditionalRequests(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    this.server.createContext("/user/repos", exchange -> {
+      final var tag = exchange.getRequestHeaders().getFirst("If-None-Match");
+      this.requests.add(String.valueOf(tag));
+      if ("\"v1\"".equals(tag)) {
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return;
+      }
+      exchange.getResponseHeaders().add("ETag", "\"v1\"");
+      respond(exchange, 200, LISTING);
+    });
+
+    final var cache = directory.resolve("cache");
+    final var source =
+      GTGithubRepositories.newSource(
+        this.configuration("conditional")
+          .setCacheDirectory(cache)
+          .build());
+
+    assertListed(source);
+    try (var files = Files.walk(cache)) {
+      final var stored =
+        files.filter(file -> file.toString().endsWith(".properties"))
+          .map(file -> {
+            try {
+              return Files.readString(file);
+            } catch (final IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          })
+          .filter(text -> text.contains("user/repos"))
+          .toList();
+      Assertions.assertEquals(1, stored.size());
+      Assertions.assertTrue(stored.get(0).contains("etag=\"v1\""), stored.get(0));
+    }
+
+    assertListed(source);
+    Assertions.assertEquals(java.util.List.of("null", "\"v1\""), this.requests);
+  }
+
+  /**
+   * A server that does not respond in time causes the request to fail.
+   */
+
+  @Test
+  public void testRequestTimeout()
+  {
+    this.server.createContext("/user/repos", exchange -> {
+      try {
+        Thread.sleep(5_000L);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      exchange.close();
+    });
+
+    final var source =
+      GTGithubRepositories.newSource(
+        this.configuration("request-timeout")
+          .setRequestTimeout(Duration.ofMillis(250L))
+          .build());
+
+    final var time_then = Instant.now();
+    final var ex =
+      Assertions.assertThrows(
+        IOException.class,
+        () -> source.get(GTGitExecutable.newExecutable(new File("git"))));
+    Assertions.assertInstanceOf(HttpTimeoutException.class, ex);
+    Assertions.assertTrue(
+      Duration.between(time_then, Instant.now()).toMillis() < 4_000L);
+  }
+
+  /**
+   * A server that does not accept connections in time causes the request
+   * to fail.
+   */
+
+  @Test
+  public void testConnectTimeout()
+    throws IOException
+  {
+    final var loopback = InetAddress.getLoopbackAddress();
+    try (var listener = new ServerSocket(0, 1, loopback)) {
+
+      /*
+       * The listener never accepts connections; once its backlog is full,
+       * further connection attempts are not answered at all.
+       */
+
+      final var fillers = new ArrayList<Socket>();
+      try {
+        for (var index = 0; index < 8; ++index) {
+          final var socket = new Socket();
+          try {
+            socket.connect(listener.getLocalSocketAddress(), 100);
+            fillers.add(socket);
+          } catch (final IOException e) {
+            socket.close();
+            break;
+          }
+        }
+
+        final var source =
+          GTGithubRepositories.newSource(
+            this.configuration(
+                "connect-timeout",
+                URI.create(String.format(
+                  "http://127.0.0.1:%d/",
+                  Integer.valueOf(listener.getLocalPort()))))
+              .setConnectTimeout(Duration.ofMillis(250L))
+              .setRequestTimeout(Duration.ofSeconds(30L))
+              .build());
+
+        final var time_then = Instant.now();
+        final var ex =
+          Assertions.assertThrows(
+            IOException.class,
+            () -> source.get(GTGitExecutable.newExecutable(new File("git"))));
+        Assertions.assertInstanceOf(HttpConnectTimeoutException.class, ex);
+        Assertions.assertTrue(
+          Duration.between(time_then, Instant.now()).toMillis() < 10_000L);
+      } finally {
+        for (final var socket : fillers) {
+          socket.close();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,623 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.gtyrell.tests;
+
+import com.io7m.gtyrell.core.GTGitExecutable;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryName;
+import com.io7m.gtyrell.filter.GTFilterCompilerException;
+import com.io7m.gtyrell.filter.GTFilterCompilers;
+import com.io7m.gtyrell.filter.GTFilterProgram;
+import com.io7m.gtyrell.filter.GTFilterRule;
+import com.io7m.gtyrell.filter.GTFilterRuleType;
+import com.io7m.gtyrell.github.GTGithubListingBackend;
+import com.io7m.gtyrell.github.GTGithubRepositories;
+import com.io7m.gtyrell.github.GTGithubSourceConfiguration;
+import com.io7m.gtyrell.server.GTServerConfigurations;
+import com.io7m.jproperties.JPropertyIncorrectType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.vavr.collection.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+public final class GTGithubListingTest
+{
+  private HttpServer server;
+  private java.util.List<String> requests;
+
+  private static String repository(
+    final long id,
+    final String owner,
+    final String name)
+  {
+    return String.format(
+      "{\"id\":%d,\"name\":\"%s\",\"owner\":{\"login\":\"%s\"},"
+        + "\"clone_url\":\"https://github.com/%s/%s.git\",\"fork\":false,"
+        + "\"archived\":false,\"size\":10,\"pushed_at\":\"2020-01-01T00:00:00Z\"}",
+      Long.valueOf(id), name, owner, owner, name);
+  }
+
+  private static String node(
+    final long id,
+    final String owner,
+    final String name)
+  {
+    return String.format(
+      "{\"databaseId\":%d,\"name\":\"%s\",\"owner\":{\"login\":\"%s\"},"
+        + "\"url\":\"https://github.com/%s/%s\",\"isFork\":false,"
+        + "\"isArchived\":true,\"pushedAt\":\"2020-01-01T00:00:00Z\","
+        + "\"diskUsage\":10,\"issues\":{\"totalCount\":3},"
+        + "\"latestIssues\":{\"nodes\":[{\"updatedAt\":\"2020-01-02T00:00:00Z\"}]}}",
+      Long.valueOf(id), name, owner, owner, name);
+  }
+
+  private static void respond(
+    final HttpExchange exchange,
+    final String text)
+    throws IOException
+  {
+    final var data = text.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, data.length);
+    try (var output = exchange.getResponseBody()) {
+      output.write(data);
+    }
+  }
+
+  private static GTFilterProgram includeAll()
+  {
+    return GTFilterProgram.builder()
+      .setCompiled(LocalDateTime.now())
+      .setRules(List.of(
+        GTFilterRule.builder()
+          .setKind(GTFilterRuleType.Kind.INCLUDE)
+          .setPattern(Pattern.compile(".*"))
+          .build()))
+      .build();
+  }
+
+  private GTGithubSourceConfiguration configuration(
+    final String name,
+    final GTGithubListingBackend backend)
+  {
+    return GTGithubSourceConfiguration.builder()
+      .setName(name)
+      .setUser("user")
+      .setPassword("password")
+      .setFilter(includeAll())
+      .setApiURI(URI.create(String.format(
+        "http://127.0.0.1:%d/",
+        Integer.valueOf(this.server.getAddress().getPort()))))
+      .setListingBackend(backend)
+      .build();
+  }
+
+  @BeforeEach
+  public void setup()
+    throws IOException
+  {
+    this.requests = Collections.synchronizedList(new ArrayList<>());
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    this.server.start();
+  }
+
+  @AfterEach
+  public void tearDown()
+  {
+    this.server.stop(0);
+  }
+
+  @Test
+  public void testGraphQLListing()
+    throws IOException
+  {
+    this.server.createContext("/graphql", exchange -> {
+      final var body =
+        new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+      this.requests.add(exchange.getRequestMethod() + " " + body);
+
+      if (body.contains("\"cursor\":null")) {
+        respond(exchange, String.format(
+          "{\"data\":{\"viewer\":{\"repositories\":{"
+            + "\"pageInfo\":{\"hasNextPage\":true,\"endCursor\":\"c1\"},"
+            + "\"nodes\":[%s,%s]}}}}",
+          node(1L, "a", "x"),
+          node(2L, "a", "y")));
+      } else {
+        respond(exchange, String.format(
+          "{\"data\":{\"viewer\":{\"repositories\":{"
+            + "\"pageInfo\":{\"hasNextPage\":false,\"endCursor\":\"c2\"},"
+            + "\"nodes\":[%s,null]}}}}",
+          node(3L, "b", "z")));
+      }
+    });
+
+    final var source =
+      GTGithubRepositories.newSource(
+        this.configuration("graphql", GTGithubListingBackend.GRAPHQL));
+    final var groups =
+      source.get(GTGitExecutable.newExecutable(new File("git")));
+
+    Assertions.assertEquals(2, this.requests.size());
+    Assertions.assertTrue(this.requests.get(0).startsWith("POST "));
+    Assertions.assertTrue(this.requests.get(1).contains("\"cursor\":\"c1\""));
+
+    final var group_a =
+      groups.get(GTRepositoryGroupName.of("a")).get().repositories();
+    final var group_b =
+      groups.get(GTRepositoryGroupName.of("b")).get().repositories();
+
+    Assertions.assertEquals(2, groups.size());
+    Assertions.assertEquals(2, group_a.size());
+    Assertions.assertEquals(1, group_b.size());
+    Assertions.assertEquals(
+      "github:3",
+      group_b.get(GTRepositoryName.of("z")).get().stableIdentifier().get());
+  }
+
+  @Test
+  public void testGraphQLErrors()
+  {
+    this.server.createContext("/graphql", exchange -> {
+      respond(exchange, "{\"errors\":[{\"message\":\"Bad credentials\"}]}");
+    });
+
+    final var source =
+      GTGithubRepositories.newSource(
+        this.configuration("graphql-errors", GTGithubListingBackend.GRAPHQL));
+
+    final var ex =
+      Assertions.assertThrows(
+        IOException.class,
+        () -> source.get(GTGitExecutable.newExecutable(new File("git"))));
+    Assertions.assertTrue(ex.getMessage().contains("Bad credentials"));
+  }
+
+  @Test
+  public void testRESTListingPages()
+    throws IOException
+  {
+    this.server.createContext("/user/repos", exchange -> {
+      final var query = exchange.getRequestURI().getRawQuery();
+      this.requests.add(query);
+
+      final var base = String.format(
+        "http://127.0.0.1:%d/user/repos?per_page=100&type=all",
+        Integer.valueOf(this.server.getAddress().getPort()));
+
+      final String page;
+      if (query.endsWith("&page=2")) {
+        page = "2";
+      } else if (query.endsWith("&page=3")) {
+        page = "3";
+      } else {
+        page = "1";
+        exchange.getResponseHeaders().add(
+          "Link",
+          String.format(
+            "<%s&page=2>; rel=\"next\", <%s&page=3>; rel=\"last\"",
+            base,
+            base));
+      }
+
+      respond(exchange, String.format(
+        "[%s]", repository(Long.parseLong(page), "g", "r" + page)));
+    });
+
+    final var source =
+      GTGithubRepositories.newSource(
+        this.configuration("rest", GTGithubListingBackend.REST));
+    final var groups =
+      source.get(GTGitExecutable.newExecutable(new File("git")));
+
+    Assertions.assertEquals(3, this.requests.size());
+
+    final var group =
+      groups.get(GTRepositoryGroupName.of("g")).get().repositories();
+    Assertions.assertEquals(
+      List.of("r1", "r2", "r3"),
+      group.keySet().toList().map(GTRepositoryName::text));
+  }
+
+  @Test
+  public void testCatalogStartup(
+    final @TempDir Path directory)
+    throws IOException
+  {
+    final var page = new AtomicInteger(1);
+    this.server.createContext("/user/repos", exchange -> {
+      this.requests.add(exchange.getRequestURI().getRawQuery());
+      final var id = page.get();
+      respond(exchange, String.format(
+        "[%s]", repository(id, "g", "r" + id)));
+    });
+
+    final var git =
+      GTGitExecutable.newExecutable(new File("git"));
+
+    final var first =
+      GTGithubRepositories.newSource(
+        GTGithubSourceConfiguration.builder()
+          .from(this.configuration("catalog-0", GTGithubListingBackend.REST))
+          .setCacheDirectory(directory)
+          .build());
+
+    Assertions.assertEquals(
+      List.of("r1"),
+      first.get(git).get(GTRepositoryGroupName.of("g")).get()
+        .repositories().keySet().toList().map(GTRepositoryName::text));
+
+    page.set(2);
+
+    final var second =
+      GTGithubRepositories.newSource(
+        GTGithubSourceConfiguration.builder()
+          .from(this.configuration("catalog-1", GTGithubListingBackend.REST))
+          .setCacheDirectory(directory)
+          .build());
+
+    Assertions.assertEquals(
+      List.of("r1"),
+      second.get(git).get(GTRepositoryGroupName.of("g")).get()
+        .repositories().keySet().toList().map(GTRepositoryName::text));
+    Assertions.assertEquals(
+      List.of("r2"),
+      second.get(git).get(GTRepositoryGroupName.of("g")).get()
+        .repositories().keySet().toList().map(GTRepositoryName::text));
+    Assertions.assertEquals(2, this.requests.size());
+  }
+
+  @Test
+  public void testFilterReload(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var listings = new AtomicInteger();
+    this.server.createContext("/user/repos", exchange -> {
+      listings.incrementAndGet();
+      respond(exchange, String.format(
+        "[%s,%s]", repository(1L, "g", "r1"), repository(2L, "g", "r2")));
+    });
+
+    final var file = directory.resolve("filter.conf");
+    Files.writeString(file, "include g/r1\n");
+
+    final var source =
+      GTGithubRepositories.newSource(
+        GTGithubSourceConfiguration.builder()
+          .from(this.configuration("reload", GTGithubListingBackend.REST))
+          .setFilter(compile(file))
+          .setFilterFile(file)
+          .build());
+
+    final var git =
+      GTGitExecutable.newExecutable(new File("git"));
+
+    Assertions.assertEquals(
+      List.of("r1"),
+      source.get(git).get(GTRepositoryGroupName.of("g")).get()
+        .repositories().keySet().toList().map(GTRepositoryName::text));
+
+    Files.writeString(file, "include g/r.*\nexclude g/r1\n");
+    Thread.sleep(1000L);
+
+    /*
+     * The first cycle after the reload serves the current catalog with the
+     * new filter, without listing the repositories again. A reload that
+     * lands whilst a cycle is enumerating the source is instead applied to
+     * the result of that enumeration, so no cycle runs until the reload has
+     * had time to land.
+     */
+
+    final var deadline = Instant.now().plus(Duration.ofSeconds(30L));
+    var names = List.<String>empty();
+    var listed = 0;
+    while (Instant.now().isBefore(deadline)) {
+      final var before = listings.get();
+      names = source.get(git).get(GTRepositoryGroupName.of("g")).get()
+        .repositories().keySet().toList().map(GTRepositoryName::text);
+      listed = listings.get() - before;
+      if (names.equals(List.of("r2"))) {
+        break;
+      }
+      Thread.sleep(100L);
+    }
+    Assertions.assertEquals(List.of("r2"), names);
+    Assertions.assertEquals(0, listed);
+
+    Files.writeString(file, "permit g/r1\n");
+    Thread.sleep(1000L);
+
+    Assertions.assertEquals(
+      List.of("r2"),
+      source.get(git).get(GTRepositoryGroupName.of("g")).get()
+        .repositories().keySet().toList().map(GTRepositoryName::text));
+  }
+
+  /**
+   * A filter reload is not held up by an enumeration in progress, and is
+   * applied to the result of that enumeration.
+   */
+
+  @Test
+  public void testFilterReloadDuringEnumeration(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var blocking = new AtomicBoolean();
+    final var entered = new CountDownLatch(1);
+    final var release = new CountDownLatch(1);
+    this.server.createContext("/user/repos", exchange -> {
+      if (blocking.get()) {
+        entered.countDown();
+        try {
+          release.await();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      respond(exchange, String.format(
+        "[%s,%s]", repository(1L, "g", "r1"), repository(2L, "g", "r2")));
+    });
+
+    final var file = directory.resolve("filter.conf");
+    Files.writeString(file, "include g/r1\n");
+
+    final var source =
+      GTGithubRepositories.newSource(
+        GTGithubSourceConfiguration.builder()
+          .from(this.configuration("reload-during", GTGithubListingBackend.REST))
+          .setFilter(compile(file))
+          .setFilterFile(file)
+          .build());
+
+    final var git =
+      GTGitExecutable.newExecutable(new File("git"));
+
+    Assertions.assertEquals(
+      List.of("r1"),
+      source.get(git).get(GTRepositoryGroupName.of("g")).get()
+        .repositories().keySet().toList().map(GTRepositoryName::text));
+
+    blocking.set(true);
+    final var result =
+      CompletableFuture.supplyAsync(() -> {
+        try {
+          return source.get(git).get(GTRepositoryGroupName.of("g")).get()
+            .repositories().keySet().toList().map(GTRepositoryName::text);
+        } catch (final IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+
+    Assertions.assertTrue(entered.await(30L, TimeUnit.SECONDS));
+    Files.writeString(file, "include g/r2\n");
+    Thread.sleep(2000L);
+    release.countDown();
+
+    Assertions.assertEquals(
+      List.of("r2"),
+      result.get(30L, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testRESTMissingIdRejected()
+  {
+    this.server.createContext("/user/repos", exchange -> {
+      respond(exchange, String.format(
+        "[%s,%s]",
+        repository(1L, "g", "r1"),
+        repository(2L, "g", "r2").replace("\"id\":2,", "")));
+    });
+
+    final var source =
+      GTGithubRepositories.newSource(
+        this.configuration("rest-no-id", GTGithubListingBackend.REST));
+
+    final var ex = Assertions.assertThrows(
+      IOException.class,
+      () -> source.get(GTGitExecutable.newExecutable(new File("git"))));
+    Assertions.assertTrue(ex.getMessage().contains("'id'"), ex.getMessage());
+  }
+
+  @Test
+  public void testGraphQLNonIntegerIdRejected()
+  {
+    this.server.createContext("/graphql", exchange -> {
+      respond(exchange, String.format(
+        "{\"data\":{\"viewer\":{\"repositories\":{"
+          + "\"pageInfo\":{\"hasNextPage\":false,\"endCursor\":\"c1\"},"
+          + "\"nodes\":[%s]}}}}",
+        node(1L, "a", "x").replace("\"databaseId\":1", "\"databaseId\":\"1\"")));
+    });
+
+    final var source =
+      GTGithubRepositories.newSource(
+        this.configuration("graphql-no-id", GTGithubListingBackend.GRAPHQL));
+
+    final var ex = Assertions.assertThrows(
+      IOException.class,
+      () -> source.get(GTGitExecutable.newExecutable(new File("git"))));
+    Assertions.assertTrue(ex.getMessage().contains("'databaseId'"), ex.getMessage());
+  }
+
+  /**
+   * The network of a fork whose parent is not a fork is taken from the
+   * GraphQL listing; only forks of forks need a request of their own.
+   */
+
+  @Test
+  public void testGraphQLForkSource()
+    throws IOException
+  {
+    this.server.createContext("/graphql", exchange -> {
+      respond(exchange, String.format(
+        "{\"data\":{\"viewer\":{\"repositories\":{"
+          + "\"pageInfo\":{\"hasNextPage\":false,\"endCursor\":\"c1\"},"
+          + "\"nodes\":[%s,%s]}}}}",
+        node(1L, "a", "f1")
+          .replace("\"isFork\":false", "\"isFork\":true")
+          .replace(
+            "\"diskUsage\"",
+            "\"parent\":{\"name\":\"x\",\"owner\":{\"login\":\"up\"},"
+              + "\"isFork\":false},\"diskUsage\""),
+        node(2L, "a", "f2")
+          .replace("\"isFork\":false", "\"isFork\":true")
+          .replace(
+            "\"diskUsage\"",
+            "\"parent\":{\"name\":\"f1\",\"owner\":{\"login\":\"a\"},"
+              + "\"isFork\":true},\"diskUsage\"")));
+    });
+
+    this.server.createContext("/repos/", exchange -> {
+      this.requests.add(exchange.getRequestURI().getPath());
+      respond(exchange, "{\"source\":{\"name\":\"x\",\"owner\":{\"login\":\"up\"}}}");
+    });
+
+    final var source =
+      GTGithubRepositories.newSource(
+        GTGithubSourceConfiguration.builder()
+          .from(this.configuration("graphql-forks", GTGithubListingBackend.GRAPHQL))
+          .setForkAlternates(true)
+          .build());
+
+    final var group =
+      source.get(GTGitExecutable.newExecutable(new File("git")))
+        .get(GTRepositoryGroupName.of("a")).get()
+        .repositories();
+
+    Assertions.assertEquals(
+      "up/x",
+      group.get(GTRepositoryName.of("f1")).get().forkNetworkRoot().get().text());
+    Assertions.assertEquals(
+      "up/x",
+      group.get(GTRepositoryName.of("f2")).get().forkNetworkRoot().get().text());
+    Assertions.assertEquals(java.util.List.of("/repos/a/f2"), this.requests);
+  }
+
+  /**
+   * An API base URI without a trailing slash keeps its last path segment.
+   */
+
+  @Test
+  public void testAPIBaseURIWithoutSlash(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    this.server.createContext("/api/v3/user/repos", exchange -> {
+      this.requests.add(exchange.getRequestURI().getPath());
+      respond(exchange, String.format("[%s]", repository(1L, "g", "r1")));
+    });
+
+    final var properties = this.serverProperties(directory);
+    properties.setProperty(
+      "com.io7m.gtyrell.server.repository_source.s.api_uri",
+      String.format(
+        "http://127.0.0.1:%d/api/v3",
+        Integer.valueOf(this.server.getAddress().getPort())));
+
+    final var config =
+      GTServerConfigurations.fromProperties(
+        GTFilterCompilers.create(Clock.systemUTC()), properties);
+    config.producers()
+      .get(0)
+      .get(GTGitExecutable.newExecutable(new File("git")));
+
+    Assertions.assertEquals(java.util.List.of("/api/v3/user/repos"), this.requests);
+  }
+
+  @Test
+  public void testAPIBaseURIInvalid(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var properties = this.serverProperties(directory);
+    properties.setProperty(
+      "com.io7m.gtyrell.server.repository_source.s.api_uri",
+      "http://[invalid");
+
+    Assertions.assertThrows(
+      JPropertyIncorrectType.class,
+      () -> GTServerConfigurations.fromProperties(
+        GTFilterCompilers.create(Clock.systemUTC()), properties));
+  }
+
+  private Properties serverProperties(
+    final Path directory)
+    throws IOException
+  {
+    final var filter = directory.resolve("filter.conf");
+    Files.writeString(filter, "include .*\n");
+
+    final var properties = new Properties();
+    properties.setProperty(
+      "com.io7m.gtyrell.server.directory",
+      directory.resolve("mirrors").toString());
+    properties.setProperty(
+      "com.io7m.gtyrell.server.git_executable", "git");
+    properties.setProperty(
+      "com.io7m.gtyrell.server.pause_duration", "1h 0m 0s");
+    properties.setProperty(
+      "com.io7m.gtyrell.server.repository_sources", "s");
+
+    final var prefix = "com.io7m.gtyrell.server.repository_source.s.";
+    properties.setProperty(prefix + "type", "github");
+    properties.setProperty(prefix + "user", "user");
+    properties.setProperty(prefix + "password", "password");
+    properties.setProperty(prefix + "filter", filter.toString());
+    properties.setProperty(prefix + "filter_reload", "false");
+    properties.setProperty(prefix + "listing_backend", "rest");
+    return properties;
+  }
+
+  private static GTFilterProgram compile(
+    final Path file)
+    throws IOException, GTFilterCompilerException
+  {
+    try (var stream = Files.newInputStream(file)) {
+      return GTFilterCompilers.create(Clock.systemUTC())
+        .createFor(file.toUri(), stream)
+        .compile();
+    }
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.tests;
+
+import com.io7m.gtyrell.core.GTGitExecutable;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryName;
+import com.io7m.gtyrell.filter.GTFilterProgram;
+import com.io7m.gtyrell.filter.GTFilterRule;
+import com.io7m.gtyrell.filter.GTFilterRuleType;
+import com.io7m.gtyrell.github.GTGithubArchivedResource;
+import com.io7m.gtyrell.github.GTGithubListingBackend;
+import com.io7m.gtyrell.github.GTGithubRepositories;
+import com.io7m.gtyrell.github.GTGithubSourceConfiguration;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.vavr.collection.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Requests to the API are paced according to the rate limit reported by
+ * the server, and listing requests are made before archival requests.
+ */
+
+public final class GTGithubRequestSchedulingTest
+{
+  private HttpServer server;
+  private java.util.List<String> requests;
+  private java.util.List<Long> times;
+
+  private static String repository(
+    final long id,
+    final String name)
+  {
+    return String.format(
+      "{\"id\":%d,\"name\":\"%s\",\"owner\":{\"login\":\"g\"},"
+        + "\"clone_url\":\"https://github.com/g/%s.git\",\"fork\":false,"
+        + "\"archived\":false,\"size\":10,\"pushed_at\":\"2020-01-01T00:00:00Z\"}",
+      Long.valueOf(id), name, name);
+  }
+
+  private static void rateLimit(
+    final HttpExchange exchange,
+    final long remaining,
+    final long reset_seconds)
+  {
+    final var headers = exchange.getResponseHeaders();
+    headers.add("X-RateLimit-Limit", "100");
+    headers.add("X-RateLimit-Remaining", Long.toString(remaining));
+    headers.add(
+      "X-RateLimit-Reset",
+      Long.toString(Instant.now().getEpochSecond() + reset_seconds));
+  }
+
+  private static void respond(
+    final HttpExchange exchange,
+    final int status,
+    final String text)
+    throws IOException
+  {
+    final var data = text.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, data.length);
+    try (var output = exchange.getResponseBody()) {
+      output.write(data);
+    }
+  }
+
+  private void record(
+    final String request)
+  {
+    synchronized (this.requests) {
+      this.requests.add(request);
+      this.times.add(Long.valueOf(System.nanoTime()));
+    }
+  }
+
+  private GTGithubSourceConfiguration configuration(
+    final String name)
+  {
+    return GTGithubSourceConfiguration.builder()
+      .setName(name)
+      .setUser("user")
+      .setPassword("password")
+      .setFilter(GTFilterProgram.builder()
+                   .setCompiled(LocalDateTime.now())
+                   .setRules(List.of(
+                     GTFilterRule.builder()
+                       .setKind(GTFilterRuleType.Kind.INCLUDE)
+                       .setPattern(Pattern.compile(".*"))
+                       .build()))
+                   .build())
+      .setApiURI(URI.create(String.format(
+        "http://127.0.0.1:%d/",
+        Integer.valueOf(this.server.getAddress().getPort()))))
+      .setListingBackend(GTGithubListingBackend.REST)
+      .setArchivedResources(EnumSet.of(GTGithubArchivedResource.ISSUES))
+      .build();
+  }
+
+  @BeforeEach
+  public void setup()
+    throws IOException
+  {
+    this.requests = new ArrayList<>();
+    this.times = new ArrayList<>();
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    this.server.start();
+  }
+
+  @AfterEach
+  public void tearDown()
+  {
+    this.server.stop(0);
+  }
+
+  /**
+   * Once less than half of the budget remains, requests are spread across
+   * the rest of the rate limit window.
+   */
+
+  @Test
+  public void testPacing()
+    throws IOException
+  {
+    this.server.createContext("/user/repos", exchange -> {
+      final var query = exchange.getRequestURI().getRawQuery();
+      this.record(query);
+
+      final var base = String.format(
+        "http://127.0.0.1:%d/user/repos?per_page=100&type=all",
+        Integer.valueOf(this.server.getAddress().getPort()));
+
+      final String page;
+      if (query.endsWith("&page=2")) {
+        page = "2";
+      } else if (query.endsWith("&page=3")) {
+        page = "3";
+      } else {
+        page = "1";
+        exchange.getResponseHeaders().add(
+          "Link",
+          String.format(
+            "<%s&page=2>; rel=\"next\", <%s&page=3>; rel=\"last\"",
+            base,
+            base));
+      }
+
+      rateLimit(exchange, 40L, 20L);
+      respond(exchange, 200, String.format(
+        "[%s]", repository(Long.parseLong(page), "r" + page)));
+    });
+
+    final var source =
+      GTGithubRepositories.newSource(this.configuration("pacing"));
+    source.get(GTGitExecutable.newExecutable(new File("git")));
+
+    Assertions.assertEquals(3, this.requests.size());
+
+    final var sorted = new ArrayList<>(this.times);
+    Collections.sort(sorted);
+    for (var index = 1; index < sorted.size(); ++index) {
+      final var gap =
+        sorted.get(index).longValue() - sorted.get(index - 1).longValue();
+      Assertions.assertTrue(
+        gap >= TimeUnit.MILLISECONDS.toNanos(300L),
+        "Requests must be paced, but were only " + gap + "ns apart");
+    }
+  }
+
+  /**
+   * When the budget is exhausted, no request is made until the window
+   * resets.
+   */
+
+  @Test
+  public void testExhausted()
+    throws IOException
+  {
+    this.server.createContext("/user/repos", exchange -> {
+      this.record(exchange.getRequestURI().getRawQuery());
+      rateLimit(exchange, 0L, 2L);
+      respond(exchange, 200, String.format("[%s]", repository(1L, "r1")));
+    });
+
+    final var source =
+      GTGithubRepositories.newSource(this.configuration("exhausted"));
+    final var git = GTGitExecutable.newExecutable(new File("git"));
+    source.get(git);
+    source.get(git);
+
+    Assertions.assertEquals(2, this.requests.size());
+    final var gap =
+      this.times.get(1).longValue() - this.times.get(0).longValue();
+    Assertions.assertTrue(
+      gap >= TimeUnit.MILLISECONDS.toNanos(900L),
+      "Requests must wait for the reset, but were only " + gap + "ns apart");
+  }
+
+  /**
+   * A listing request that starts waiting after an archival request is
+   * still made first.
+   */
+
+  @Test
+  public void testListingBeforeArchival(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var limited = new CountDownLatch(1);
+
+    this.server.createContext("/user/repos", exchange -> {
+      this.record("listing");
+      rateLimit(exchange, 40L, 20L);
+      respond(exchange, 200, String.format("[%s]", repository(1L, "r1")));
+    });
+
+    this.server.createContext("/repos/g/r1/issues", exchange -> {
+      rateLimit(exchange, 40L, 20L);
+      if (limited.getCount() > 0L) {
+        this.record("archival-limited");
+        exchange.getResponseHeaders().add("Retry-After", "2");
+        respond(exchange, 403, "{\"message\":\"API rate limit exceeded\"}");
+        limited.countDown();
+        return;
+      }
+      this.record("archival");
+      respond(exchange, 200, "[]");
+    });
+
+    final var source =
+      GTGithubRepositories.newSource(this.configuration("priority"));
+    final var git = GTGitExecutable.newExecutable(new File("git"));
+    final var repository =
+      source.get(git)
+        .get(GTRepositoryGroupName.of("g")).get()
+        .repositories()
+        .get(GTRepositoryName.of("r1")).get();
+
+    final var failures =
+      Collections.synchronizedList(new ArrayList<Exception>());
+    final var archival = new Thread(() -> {
+      try {
+        repository.archiveMetadata(directory.resolve("g/r1.git").toFile());
+      } catch (final Exception e) {
+        failures.add(e);
+      }
+    });
+    archival.start();
+
+    Assertions.assertTrue(limited.await(30L, TimeUnit.SECONDS));
+    source.get(git);
+    archival.join(30_000L);
+
+    Assertions.assertEquals(java.util.List.of(), failures);
+    Assertions.assertEquals(
+      java.util.List.of("listing", "archival-limited", "listing", "archival"),
+      this.requests);
+  }
+}
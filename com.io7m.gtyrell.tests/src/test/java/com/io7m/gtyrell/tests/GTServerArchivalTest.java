@@ -0,0 +1,317 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.tests;
+
+import com.io7m.gtyrell.core.GTGitExecutable;
+import com.io7m.gtyrell.core.GTGitExecutableType;
+import com.io7m.gtyrell.core.GTRepositoryGroup;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryGroupType;
+import com.io7m.gtyrell.core.GTRepositoryName;
+import com.io7m.gtyrell.core.GTRepositorySourceType;
+import com.io7m.gtyrell.core.GTRepositoryType;
+import com.io7m.gtyrell.server.GTServer;
+import com.io7m.gtyrell.server.GTServerArchivalConfiguration;
+import com.io7m.gtyrell.server.GTServerConfiguration;
+import io.vavr.collection.List;
+import io.vavr.collection.SortedMap;
+import io.vavr.collection.TreeMap;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+public final class GTServerArchivalTest
+{
+  private static void git(
+    final Path directory,
+    final String... args)
+    throws IOException, InterruptedException
+  {
+    final var command = new ArrayList<String>();
+    command.add("git");
+    command.add("-c");
+    command.add("user.name=gtyrell");
+    command.add("-c");
+    command.add("user.email=gtyrell@example.com");
+    command.addAll(java.util.List.of(args));
+
+    final var process =
+      new ProcessBuilder(command)
+        .directory(directory.toFile())
+        .redirectErrorStream(true)
+        .start();
+    final var output =
+      new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    Assertions.assertEquals(0, process.waitFor(), output);
+  }
+
+  private static void await(
+    final String description,
+    final BooleanSupplier condition)
+    throws InterruptedException
+  {
+    final var deadline = Instant.now().plusSeconds(60L);
+    while (!condition.getAsBoolean()) {
+      Assertions.assertTrue(
+        Instant.now().isBefore(deadline),
+        "Timed out waiting for " + description);
+      Thread.sleep(100L);
+    }
+  }
+
+  private static Path origin(
+    final Path directory)
+    throws IOException, InterruptedException
+  {
+    final var origin = directory.resolve("origin");
+    Files.createDirectories(origin);
+    git(origin, "init", "-q");
+    Files.writeString(origin.resolve("README"), "Hello.\n");
+    git(origin, "add", ".");
+    git(origin, "commit", "-q", "-m", "Initial");
+    return origin;
+  }
+
+  private static GTServerConfiguration configuration(
+    final Path directory,
+    final GTGitExecutableType git,
+    final FakeRepository repository,
+    final Duration interval)
+  {
+    final var group = GTRepositoryGroupName.of("user");
+    final GTRepositorySourceType source = in_git -> {
+      final SortedMap<GTRepositoryName, GTRepositoryType> repositories =
+        TreeMap.of(GTRepositoryName.of("a"), repository);
+      final SortedMap<GTRepositoryGroupName, GTRepositoryGroupType> groups =
+        TreeMap.of(group, GTRepositoryGroup.of(group, repositories));
+      return groups;
+    };
+
+    return GTServerConfiguration.of(
+        directory.resolve("mirrors").toFile(),
+        List.of(source),
+        git,
+        Duration.ofSeconds(1L),
+        false)
+      .withArchival(
+        GTServerArchivalConfiguration.builder()
+          .setConcurrency(1)
+          .setInterval(interval)
+          .build());
+  }
+
+  /**
+   * A repository that cannot be synced still has its metadata archived.
+   */
+
+  @Test
+  public void testArchivalAfterSyncFailure(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var git = GTGitExecutable.newExecutable(new File("git"));
+    final var repository =
+      new FakeRepository(git, directory.resolve("nonexistent").toUri());
+    repository.release.countDown();
+
+    final var server = GTServer.newServer(
+      configuration(directory, git, repository, Duration.ZERO));
+
+    server.run();
+    try {
+      await("archival after failed syncs", () -> repository.completed.get() >= 2);
+      Assertions.assertEquals(0, repository.fetches.get());
+      Assertions.assertFalse(
+        Files.exists(directory.resolve("mirrors/user/a.git")));
+    } finally {
+      server.stop();
+    }
+  }
+
+  /**
+   * A repository is archived on every cycle if the interval is zero, and
+   * otherwise only once the interval has elapsed.
+   */
+
+  @Test
+  public void testArchivalInterval(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var git = GTGitExecutable.newExecutable(new File("git"));
+    final var origin = origin(directory);
+
+    final var every = new FakeRepository(git, origin.toUri());
+    every.release.countDown();
+    final var server_every = GTServer.newServer(
+      configuration(directory.resolve("every"), git, every, Duration.ZERO));
+
+    server_every.run();
+    try {
+      await("repeated archivals", () -> every.completed.get() >= 3);
+    } finally {
+      server_every.stop();
+    }
+
+    final var hourly = new FakeRepository(git, origin.toUri());
+    hourly.release.countDown();
+    final var server_hourly = GTServer.newServer(
+      configuration(directory.resolve("hourly"), git, hourly, Duration.ofHours(1L)));
+
+    server_hourly.run();
+    try {
+      await("the first archival", () -> hourly.completed.get() == 1);
+      final var fetches = hourly.fetches.get();
+      await("later syncs", () -> hourly.fetches.get() >= fetches + 3);
+      Assertions.assertEquals(1, hourly.archivals.get());
+    } finally {
+      server_hourly.stop();
+    }
+  }
+
+  /**
+   * Stopping the server does not interrupt an archival that is running.
+   */
+
+  @Test
+  public void testStopCompletesRunningArchival(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var git = GTGitExecutable.newExecutable(new File("git"));
+    final var repository = new FakeRepository(git, origin(directory).toUri());
+    final var server = GTServer.newServer(
+      configuration(directory, git, repository, Duration.ZERO));
+
+    server.run();
+    try {
+      await("the first archival", () -> repository.archivals.get() == 1);
+    } finally {
+      server.stop();
+    }
+
+    Thread.sleep(500L);
+    Assertions.assertFalse(repository.interrupted.get());
+    repository.release.countDown();
+    await("the archival to complete", () -> repository.completed.get() == 1);
+    Assertions.assertFalse(repository.interrupted.get());
+  }
+
+  /**
+   * A repository keeps being synced whilst its metadata is being archived,
+   * is queued for archival at most once whilst an archival is in progress,
+   * and is not archived again until the archival interval has elapsed.
+   */
+
+  @Test
+  public void testArchivalRunsAlongsideSync(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var git = GTGitExecutable.newExecutable(new File("git"));
+    final var repository = new FakeRepository(git, origin(directory).toUri());
+    final var server = GTServer.newServer(
+      configuration(directory, git, repository, Duration.ofHours(1L)));
+
+    server.run();
+    try {
+      await("the first archival", () -> repository.archivals.get() == 1);
+      final var fetches = repository.fetches.get();
+      await("syncs during archival", () -> repository.fetches.get() >= fetches + 3);
+      Assertions.assertEquals(1, repository.archivals.get());
+
+      repository.release.countDown();
+      await("the queued archival", () -> repository.archivals.get() == 2);
+
+      final var fetches_after = repository.fetches.get();
+      await("later syncs", () -> repository.fetches.get() >= fetches_after + 3);
+      Assertions.assertEquals(2, repository.archivals.get());
+    } finally {
+      repository.release.countDown();
+      server.stop();
+    }
+  }
+
+  private static final class FakeRepository implements GTRepositoryType
+  {
+    private final GTGitExecutableType git;
+    private final URI url;
+    private final AtomicInteger fetches;
+    private final AtomicInteger archivals;
+    private final AtomicInteger completed;
+    private final AtomicBoolean interrupted;
+    private final CountDownLatch release;
+
+    FakeRepository(
+      final GTGitExecutableType in_git,
+      final URI in_url)
+    {
+      this.git = in_git;
+      this.url = in_url;
+      this.fetches = new AtomicInteger();
+      this.archivals = new AtomicInteger();
+      this.completed = new AtomicInteger();
+      this.interrupted = new AtomicBoolean();
+      this.release = new CountDownLatch(1);
+    }
+
+    @Override
+    public void update(
+      final File directory)
+      throws IOException
+    {
+      if (directory.isDirectory()) {
+        this.git.fetch(directory);
+        this.fetches.incrementAndGet();
+      } else {
+        this.git.clone(this.url, directory);
+      }
+    }
+
+    @Override
+    public void archiveMetadata(
+      final File directory)
+      throws IOException
+    {
+      this.archivals.incrementAndGet();
+      try {
+        this.release.await();
+      } catch (final InterruptedException e) {
+        this.interrupted.set(true);
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      this.completed.incrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.tests;
+
+import com.io7m.gtyrell.core.GTGitExecutable;
+import com.io7m.gtyrell.core.GTGitExecutableType;
+import com.io7m.gtyrell.core.GTGitMaintenanceTask;
+import com.io7m.gtyrell.core.GTRepositoryGroup;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryGroupType;
+import com.io7m.gtyrell.core.GTRepositoryName;
+import com.io7m.gtyrell.core.GTRepositorySourceType;
+import com.io7m.gtyrell.core.GTRepositoryType;
+import com.io7m.gtyrell.server.GTServer;
+import com.io7m.gtyrell.server.GTServerConfiguration;
+import com.io7m.gtyrell.server.GTServerMaintenanceConfiguration;
+import com.io7m.gtyrell.server.GTServerMetricsMXBean;
+import io.vavr.collection.List;
+import io.vavr.collection.SortedMap;
+import io.vavr.collection.TreeMap;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+public final class GTServerMaintenanceTest
+{
+  private static void git(
+    final Path directory,
+    final String... args)
+    throws IOException, InterruptedException
+  {
+    final var command = new ArrayList<String>();
+    command.add("git");
+    command.add("-c");
+    command.add("user.name=gtyrell");
+    command.add("-c");
+    command.add("user.email=gtyrell@example.com");
+    command.addAll(java.util.List.of(args));
+
+    final var process =
+      new ProcessBuilder(command)
+        .directory(directory.toFile())
+        .redirectErrorStream(true)
+        .start();
+    final var output =
+      new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    Assertions.assertEquals(0, process.waitFor(), output);
+  }
+
+  private static void await(
+    final String description,
+    final BooleanSupplier condition)
+    throws InterruptedException
+  {
+    final var deadline = Instant.now().plusSeconds(60L);
+    while (!condition.getAsBoolean()) {
+      Assertions.assertTrue(
+        Instant.now().isBefore(deadline),
+        "Timed out waiting for " + description);
+      Thread.sleep(100L);
+    }
+  }
+
+  private static Path origin(
+    final Path directory)
+    throws IOException, InterruptedException
+  {
+    final var origin = directory.resolve("origin");
+    Files.createDirectories(origin);
+    git(origin, "init", "-q");
+    Files.writeString(origin.resolve("README"), "Hello.\n");
+    git(origin, "add", ".");
+    git(origin, "commit", "-q", "-m", "Initial");
+    return origin;
+  }
+
+  private static GTServerMetricsMXBean metrics()
+    throws Exception
+  {
+    return JMX.newMXBeanProxy(
+      ManagementFactory.getPlatformMBeanServer(),
+      new ObjectName("com.io7m.gtyrell:name=Metrics"),
+      GTServerMetricsMXBean.class);
+  }
+
+  private static GTServerConfiguration configuration(
+    final Path directory,
+    final GTGitExecutableType git,
+    final FakeRepository repository,
+    final Duration budget)
+  {
+    final var group = GTRepositoryGroupName.of("user");
+    final GTRepositorySourceType source = in_git -> {
+      final SortedMap<GTRepositoryName, GTRepositoryType> repositories =
+        TreeMap.of(GTRepositoryName.of("a"), repository);
+      final SortedMap<GTRepositoryGroupName, GTRepositoryGroupType> groups =
+        TreeMap.of(group, GTRepositoryGroup.of(group, repositories));
+      return groups;
+    };
+
+    return GTServerConfiguration.of(
+        directory.resolve("mirrors").toFile(),
+        List.of(source),
+        git,
+        Duration.ofSeconds(1L),
+        false)
+      .withMaintenance(
+        GTServerMaintenanceConfiguration.builder()
+          .setEnabled(true)
+          .setInterval(Duration.ofSeconds(1L))
+          .setBudget(budget)
+          .build());
+  }
+
+  /**
+   * Object counts reflect the loose objects and packs of a bare repository
+   * before and after maintenance.
+   */
+
+  @Test
+  public void testObjectCounts(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var origin = origin(directory);
+    final var bare = directory.resolve("bare.git");
+    git(directory, "init", "-q", "--bare", bare.toString());
+    git(origin, "push", "-q", bare.toString(), "HEAD:refs/heads/main");
+
+    final var git = GTGitExecutable.newExecutable(new File("git"));
+    final var tasks =
+      EnumSet.of(GTGitMaintenanceTask.LOOSE_OBJECTS, GTGitMaintenanceTask.COMMIT_GRAPH);
+
+    final var before = git.objectCounts(bare.toFile());
+    Assertions.assertEquals(3L, before.looseObjects());
+    Assertions.assertEquals(0L, before.packs());
+    Assertions.assertEquals(0L, before.packedObjects());
+
+    git.maintain(bare.toFile(), tasks);
+    final var packed = git.objectCounts(bare.toFile());
+    Assertions.assertEquals(1L, packed.packs());
+    Assertions.assertEquals(3L, packed.packedObjects());
+
+    git.maintain(bare.toFile(), tasks);
+    final var pruned = git.objectCounts(bare.toFile());
+    Assertions.assertEquals(0L, pruned.looseObjects());
+    Assertions.assertEquals(1L, pruned.packs());
+    Assertions.assertTrue(
+      Files.isRegularFile(
+        bare.resolve("objects/info/commit-graphs/commit-graph-chain")));
+  }
+
+  /**
+   * Maintenance rounds run repeatedly, and publish the object counts of
+   * each maintained repository.
+   */
+
+  @Test
+  public void testMaintenanceScheduled(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var git = GTGitExecutable.newExecutable(new File("git"));
+    final var repository =
+      new FakeRepository(git, origin(directory).toUri());
+    repository.release.countDown();
+
+    final var server = GTServer.newServer(
+      configuration(directory, git, repository, Duration.ofHours(1L)));
+
+    server.run();
+    try {
+      final var metrics = metrics();
+      await("repeated maintenance",
+            () -> metrics.getRepositoryMaintenanceSucceededTotal() >= 2L);
+      Assertions.assertEquals(0L, metrics.getRepositoryMaintenanceFailedTotal());
+      Assertions.assertEquals(
+        java.util.Set.of("user/a"),
+        metrics.getRepositoryPackCounts().keySet());
+      Assertions.assertEquals(
+        java.util.Set.of("user/a"),
+        metrics.getRepositoryLooseObjectCounts().keySet());
+    } finally {
+      server.stop();
+    }
+  }
+
+  /**
+   * No repository is maintained once the time budget of a round has been
+   * exhausted.
+   */
+
+  @Test
+  public void testMaintenanceBudgetExhausted(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var git = GTGitExecutable.newExecutable(new File("git"));
+    final var repository =
+      new FakeRepository(git, origin(directory).toUri());
+    repository.release.countDown();
+
+    final var server = GTServer.newServer(
+      configuration(directory, git, repository, Duration.ZERO));
+
+    server.run();
+    try {
+      final var metrics = metrics();
+      await("skipped maintenance",
+            () -> metrics.getRepositoryMaintenanceSkippedTotal() >= 2L);
+      Assertions.assertEquals(0L, metrics.getRepositoryMaintenanceSucceededTotal());
+      Assertions.assertEquals(0L, metrics.getRepositoryMaintenanceFailedTotal());
+    } finally {
+      server.stop();
+    }
+  }
+
+  /**
+   * A repository that is being synced is skipped, and maintained in a later
+   * round once the sync has finished.
+   */
+
+  @Test
+  public void testMaintenanceSkipsBusyRepository(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var git = GTGitExecutable.newExecutable(new File("git"));
+    final var repository =
+      new FakeRepository(git, origin(directory).toUri());
+
+    final var server = GTServer.newServer(
+      configuration(directory, git, repository, Duration.ofHours(1L)));
+
+    server.run();
+    try {
+      final var metrics = metrics();
+      await("skipped maintenance",
+            () -> metrics.getRepositoryMaintenanceSkippedTotal() >= 1L);
+
+      final var succeeded = metrics.getRepositoryMaintenanceSucceededTotal();
+      final var skipped = metrics.getRepositoryMaintenanceSkippedTotal();
+      await("further skipped maintenance",
+            () -> metrics.getRepositoryMaintenanceSkippedTotal() >= skipped + 2L);
+      Assertions.assertEquals(
+        succeeded, metrics.getRepositoryMaintenanceSucceededTotal());
+
+      repository.release.countDown();
+      await("maintenance after the sync",
+            () -> metrics.getRepositoryMaintenanceSucceededTotal() > succeeded);
+    } finally {
+      repository.release.countDown();
+      server.stop();
+    }
+  }
+
+  private static final class FakeRepository implements GTRepositoryType
+  {
+    private final GTGitExecutableType git;
+    private final URI url;
+    private final CountDownLatch release;
+
+    FakeRepository(
+      final GTGitExecutableType in_git,
+      final URI in_url)
+    {
+      this.git = in_git;
+      this.url = in_url;
+      this.release = new CountDownLatch(1);
+    }
+
+    @Override
+    public void update(
+      final File directory)
+      throws IOException
+    {
+      if (directory.isDirectory()) {
+        try {
+          this.release.await();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+        this.git.fetch(directory);
+      } else {
+        this.git.clone(this.url, directory);
+      }
+    }
+  }
+}
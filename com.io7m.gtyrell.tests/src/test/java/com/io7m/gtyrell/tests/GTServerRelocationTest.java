@@ -0,0 +1,271 @@
+/*
+ * Copyright © 2024 Mark Raynsford <code@io7m.com> https://www.io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.gtyrell.tests;
+
+import com.io7m.gtyrell.core.GTGitExecutable;
+import com.io7m.gtyrell.core.GTGitExecutableType;
+import com.io7m.gtyrell.core.GTRepositoryGroup;
+import com.io7m.gtyrell.core.GTRepositoryGroupName;
+import com.io7m.gtyrell.core.GTRepositoryGroupType;
+import com.io7m.gtyrell.core.GTRepositoryName;
+import com.io7m.gtyrell.core.GTRepositorySourceType;
+import com.io7m.gtyrell.core.GTRepositoryType;
+import com.io7m.gtyrell.server.GTServer;
+import com.io7m.gtyrell.server.GTServerConfiguration;
+import io.vavr.collection.List;
+import io.vavr.collection.SortedMap;
+import io.vavr.collection.TreeMap;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+public final class GTServerRelocationTest
+{
+  private static String git(
+    final Path directory,
+    final String... args)
+    throws IOException, InterruptedException
+  {
+    final var command = new ArrayList<String>();
+    command.add("git");
+    command.add("-c");
+    command.add("user.name=gtyrell");
+    command.add("-c");
+    command.add("user.email=gtyrell@example.com");
+    command.addAll(java.util.List.of(args));
+
+    final var process =
+      new ProcessBuilder(command)
+        .directory(directory.toFile())
+        .redirectErrorStream(true)
+        .start();
+    final var output =
+      new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    Assertions.assertEquals(0, process.waitFor(), output);
+    return output.trim();
+  }
+
+  private static void await(
+    final String description,
+    final BooleanSupplier condition)
+    throws InterruptedException
+  {
+    final var deadline = Instant.now().plusSeconds(60L);
+    while (!condition.getAsBoolean()) {
+      Assertions.assertTrue(
+        Instant.now().isBefore(deadline),
+        "Timed out waiting for " + description);
+      Thread.sleep(100L);
+    }
+  }
+
+  /**
+   * A renamed repository has its mirror, and only its own sidecar files,
+   * moved to the new name, and the moved mirror fetches from the new URL.
+   */
+
+  @Test
+  public void testRenamedRepositoryRelocated(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var origin_a = directory.resolve("origin-a");
+    Files.createDirectories(origin_a);
+    git(origin_a, "init", "-q");
+    Files.writeString(origin_a.resolve("README"), "Hello.\n");
+    git(origin_a, "add", ".");
+    git(origin_a, "commit", "-q", "-m", "Initial");
+
+    final var origin_b = directory.resolve("origin-b");
+    git(directory, "clone", "-q", origin_a.toString(), origin_b.toString());
+
+    final var mirrors = directory.resolve("mirrors");
+    final var group = GTRepositoryGroupName.of("user");
+    final var git = GTGitExecutable.newExecutable(new File("git"));
+    final var listed = new AtomicReference<>(
+      new FakeRepository(git, "a", origin_a.toUri()));
+
+    final GTRepositorySourceType source = in_git -> {
+      final var repository = listed.get();
+      final SortedMap<GTRepositoryName, GTRepositoryType> repositories =
+        TreeMap.of(GTRepositoryName.of(repository.name), repository);
+      final SortedMap<GTRepositoryGroupName, GTRepositoryGroupType> groups =
+        TreeMap.of(group, GTRepositoryGroup.of(group, repositories));
+      return groups;
+    };
+
+    final var server = GTServer.newServer(
+      GTServerConfiguration.of(
+        mirrors.toFile(),
+        List.of(source),
+        git,
+        Duration.ofSeconds(1L),
+        false));
+
+    final var mirror_a = mirrors.resolve("user").resolve("a.git");
+    final var mirror_b = mirrors.resolve("user").resolve("b.git");
+
+    server.run();
+    try {
+      await("the first mirror", () -> Files.isDirectory(mirror_a));
+
+      final var archive_a =
+        Files.writeString(mirrors.resolve("user/a.git.issues.json.gz"), "a");
+      final var other =
+        Files.writeString(mirrors.resolve("user/a.git.x.git.issues.json.gz"), "x");
+
+      listed.set(new FakeRepository(git, "b", origin_b.toUri()));
+      await("the relocated mirror", () -> Files.isDirectory(mirror_b));
+      await("the relocated mirror to be fetched", () -> listed.get().fetches > 0);
+
+      Assertions.assertFalse(Files.exists(mirror_a));
+      Assertions.assertFalse(Files.exists(archive_a));
+      Assertions.assertEquals(
+        "a",
+        Files.readString(mirrors.resolve("user/b.git.issues.json.gz")));
+      Assertions.assertEquals("x", Files.readString(other));
+      Assertions.assertFalse(
+        Files.exists(mirrors.resolve("user/b.git.x.git.issues.json.gz")));
+      Assertions.assertEquals(
+        origin_b.toUri().toString(),
+        git(mirror_b, "config", "remote.origin.url"));
+    } finally {
+      server.stop();
+    }
+  }
+
+  /**
+   * A repository renamed onto a name that already has a mirror is synced
+   * into the existing mirror, and its old mirror is left in place and
+   * flagged as removed.
+   */
+
+  @Test
+  public void testRenamedOntoExistingMirror(
+    final @TempDir Path directory)
+    throws Exception
+  {
+    final var origin = directory.resolve("origin");
+    Files.createDirectories(origin);
+    git(origin, "init", "-q");
+    Files.writeString(origin.resolve("README"), "Hello.\n");
+    git(origin, "add", ".");
+    git(origin, "commit", "-q", "-m", "Initial");
+
+    final var mirrors = directory.resolve("mirrors");
+    final var group = GTRepositoryGroupName.of("user");
+    final var git = GTGitExecutable.newExecutable(new File("git"));
+    final var listed = new AtomicReference<>(
+      new FakeRepository(git, "a", origin.toUri()));
+
+    final GTRepositorySourceType source = in_git -> {
+      final var repository = listed.get();
+      final SortedMap<GTRepositoryName, GTRepositoryType> repositories =
+        TreeMap.of(GTRepositoryName.of(repository.name), repository);
+      final SortedMap<GTRepositoryGroupName, GTRepositoryGroupType> groups =
+        TreeMap.of(group, GTRepositoryGroup.of(group, repositories));
+      return groups;
+    };
+
+    final var server = GTServer.newServer(
+      GTServerConfiguration.of(
+        mirrors.toFile(),
+        List.of(source),
+        git,
+        Duration.ofSeconds(1L),
+        false));
+
+    final var mirror_a = mirrors.resolve("user").resolve("a.git");
+    final var mirror_b = mirrors.resolve("user").resolve("b.git");
+
+    server.run();
+    try {
+      await("the first mirror", () -> Files.isDirectory(mirror_a));
+      git(directory, "clone", "-q", "--mirror", origin.toString(), mirror_b.toString());
+
+      listed.set(new FakeRepository(git, "b", origin.toUri()));
+      await("the existing mirror to be fetched", () -> listed.get().fetches > 0);
+
+      Assertions.assertTrue(Files.isDirectory(mirror_a));
+      Assertions.assertTrue(
+        Files.isRegularFile(mirrors.resolve("user/a.git.removed")));
+      Assertions.assertFalse(
+        Files.exists(mirrors.resolve("user/b.git.removed")));
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static final class FakeRepository implements GTRepositoryType
+  {
+    private final GTGitExecutableType git;
+    private final String name;
+    private final URI url;
+    private volatile int fetches;
+
+    FakeRepository(
+      final GTGitExecutableType in_git,
+      final String in_name,
+      final URI in_url)
+    {
+      this.git = in_git;
+      this.name = in_name;
+      this.url = in_url;
+    }
+
+    @Override
+    public void update(
+      final File directory)
+      throws IOException
+    {
+      if (directory.isDirectory()) {
+        this.git.fetch(directory);
+        this.fetches = this.fetches + 1;
+      } else {
+        this.git.clone(this.url, directory);
+      }
+    }
+
+    @Override
+    public void relocated(
+      final File directory)
+      throws IOException
+    {
+      this.git.setRemoteURL(directory, this.url);
+    }
+
+    @Override
+    public Optional<String> stableIdentifier()
+    {
+      return Optional.of("test:1");
+    }
+  }
+}